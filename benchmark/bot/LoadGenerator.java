@@ -0,0 +1,471 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Overview</h1>
+ * <p>Puts a running chat server under load by connecting many simulated users to it, and
+ * measures how long it takes for their messages to be delivered.</p>
+ * <p>Each simulated user talks to the server through the same protocol stack as the
+ * {@link ChatBot}: requests are sent with an {@link XmlRequestSender} (or a
+ * {@link BinaryRequestSender}) and notifications are read with the
+ * {@link StandardChatNotificationParser}. Once every user has connected, each one sends messages
+ * at a fixed rate. Most are public, but a configurable share are private messages to one other
+ * user, in the same way as typing {@code @username} in the client. Every message carries the time
+ * at which it was sent, so whichever user receives it can work out how long the delivery took.</p>
+ * <p>Messages sent during the warm-up are delivered but not measured. When the run is over, the
+ * generator waits briefly for messages still in flight, and then reports:
+ * <ul>
+ *   <li>the number of users that failed to connect, or were disconnected during the run</li>
+ *   <li>the number of messages sent, and the number of deliveries, per second</li>
+ *   <li>the 50th, 99th and 99.9th percentile and maximum delivery latencies</li>
+ * </ul>
+ * </p>
+ *
+ * <h1>Running the Generator</h1>
+ * <p>The generator is compiled alongside the bot sources, and run against a server that has
+ * already been started:
+ * <pre><code>javac -d out bot/*.java benchmark/bot/*.java
+ * java -cp out LoadGenerator -users 500 -rate 2 -duration 60</code></pre>
+ * It takes the following arguments, all of which are optional:
+ * <ul>
+ *   <li>{@code cca} and {@code ccp} - the hostname (default localhost) and port (default 14001)
+ *   of the server</li>
+ *   <li>{@code users} - the number of simulated users (default 100)</li>
+ *   <li>{@code rate} - the number of messages that each user sends per second (default 1)</li>
+ *   <li>{@code private} - the share of messages, between 0 and 1, that are sent privately
+ *   (default 0.1)</li>
+ *   <li>{@code length} - the length of each message in characters (default 64)</li>
+ *   <li>{@code warmup} and {@code duration} - the number of seconds to send messages for before
+ *   and while measuring (defaults 5 and 30)</li>
+ *   <li>{@code wire} - the {@link WireFormat} to connect with (default xml)</li>
+ * </ul>
+ * Every simulated user has a thread of its own to read notifications with, so the generator is
+ * best run on a different machine to the server when the number of users is large.</p>
+ */
+public class LoadGenerator {
+
+  private static final Logger LOGGER = Logger.getLogger(LoadGenerator.class.getName());
+
+  // Marks the messages sent by the generator. The send time follows, in nanoseconds
+  private static final String MESSAGE_PREFIX = "load:";
+
+  private static final long CONNECT_TIMEOUT_MILLIS = 10_000;
+  private static final long DRAIN_MILLIS = 2_000;
+
+  private final String hostname;
+  private final int port;
+  private final int userCount;
+  private final double rate;
+  private final double privateShare;
+  private final int messageLength;
+  private final int warmupSeconds;
+  private final int durationSeconds;
+  private final WireFormat wireFormat;
+
+  private final LongAdder connectionFailures = new LongAdder();
+  private final LongAdder disconnections = new LongAdder();
+  private final LongAdder sendFailures = new LongAdder();
+  private final LongAdder parseFailures = new LongAdder();
+  private final LongAdder messagesSent = new LongAdder();
+  private final LongAdder deliveries = new LongAdder();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+
+  // Only messages sent between these times are measured
+  private volatile long measurementStartNanos = Long.MAX_VALUE;
+  private volatile long measurementEndNanos = Long.MAX_VALUE;
+  private volatile boolean finished;
+
+  /**
+   * Runs the load generator.
+   * @param args The command line arguments, as described in the class documentation.
+   * @throws Exception Thrown if the load generator could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    CommandLineArgumentParser argumentParser = new CommandLineArgumentParser(args);
+    String hostname = argumentParser.getParameter("cca").orElse("localhost");
+    int port = argumentParser.getParameter("ccp").map(Integer::parseInt).orElse(14_001);
+    int users = argumentParser.getParameter("users").map(Integer::parseInt).orElse(100);
+    double rate = argumentParser.getParameter("rate").map(Double::parseDouble).orElse(1.0);
+    double privateShare =
+        argumentParser.getParameter("private").map(Double::parseDouble).orElse(0.1);
+    int length = argumentParser.getParameter("length").map(Integer::parseInt).orElse(64);
+    int warmup = argumentParser.getParameter("warmup").map(Integer::parseInt).orElse(5);
+    int duration = argumentParser.getParameter("duration").map(Integer::parseInt).orElse(30);
+    WireFormat wireFormat = argumentParser
+        .getParameter("wire")
+        .map(WireFormat::fromArgumentName)
+        .orElse(WireFormat.XML);
+
+    if (users < 2 || rate <= 0 || privateShare < 0 || privateShare > 1 || duration <= 0) {
+      System.err.println(
+          "Expected at least 2 users, a positive rate and duration, and a private share between 0 "
+              + "and 1"
+      );
+      System.exit(1);
+    }
+
+    new LoadGenerator(
+        hostname, port, users, rate, privateShare, length, warmup, duration, wireFormat
+    ).run();
+  }
+
+  private LoadGenerator(
+      String hostname,
+      int port,
+      int userCount,
+      double rate,
+      double privateShare,
+      int messageLength,
+      int warmupSeconds,
+      int durationSeconds,
+      WireFormat wireFormat
+  ) {
+    this.hostname = Objects.requireNonNull(hostname, "Hostname is null");
+    this.port = port;
+    this.userCount = userCount;
+    this.rate = rate;
+    this.privateShare = privateShare;
+    this.messageLength = messageLength;
+    this.warmupSeconds = warmupSeconds;
+    this.durationSeconds = durationSeconds;
+    this.wireFormat = Objects.requireNonNull(wireFormat, "Wire format is null");
+  }
+
+  private void run() throws InterruptedException {
+    List<SimulatedUser> users = connectUsers();
+    System.out.printf(
+        "Connected %d of %d users to %s:%d%n", users.size(), userCount, hostname, port
+    );
+    if (users.size() < 2) {
+      System.err.println("Too few users connected to exchange messages");
+      closeAll(users);
+      printReport();
+      return;
+    }
+
+    ScheduledExecutorService scheduler =
+        Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+    long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    for (SimulatedUser user : users) {
+      // Spread the users out so that they don't all send at the same moment
+      long initialDelay = ThreadLocalRandom.current().nextLong(periodNanos);
+      scheduler.scheduleAtFixedRate(
+          () -> user.sendMessage(users), initialDelay, periodNanos, TimeUnit.NANOSECONDS
+      );
+    }
+
+    TimeUnit.SECONDS.sleep(warmupSeconds);
+    measurementStartNanos = System.nanoTime();
+    TimeUnit.SECONDS.sleep(durationSeconds);
+    measurementEndNanos = System.nanoTime();
+
+    scheduler.shutdownNow();
+    scheduler.awaitTermination(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    TimeUnit.MILLISECONDS.sleep(DRAIN_MILLIS);
+
+    finished = true;
+    closeAll(users);
+    printReport();
+  }
+
+  private List<SimulatedUser> connectUsers() throws InterruptedException {
+    List<SimulatedUser> users = new ArrayList<>(userCount);
+    for (int i = 0; i < userCount; i++) {
+      SimulatedUser user = new SimulatedUser("load" + i);
+      if (user.connect()) {
+        users.add(user);
+      } else {
+        connectionFailures.increment();
+        user.close();
+      }
+    }
+    return users;
+  }
+
+  private void closeAll(List<SimulatedUser> users) {
+    for (SimulatedUser user : users) {
+      user.close();
+    }
+  }
+
+  private void printReport() {
+    double seconds = durationSeconds;
+    System.out.printf("Connection failures: %d%n", connectionFailures.sum());
+    System.out.printf("Disconnections:      %d%n", disconnections.sum());
+    System.out.printf("Send failures:       %d%n", sendFailures.sum());
+    System.out.printf("Parse failures:      %d%n", parseFailures.sum());
+    System.out.printf(
+        "Messages sent:       %d (%.0f/s)%n", messagesSent.sum(), messagesSent.sum() / seconds
+    );
+    System.out.printf(
+        "Deliveries:          %d (%.0f/s)%n", deliveries.sum(), deliveries.sum() / seconds
+    );
+    if (latencies.getCount() == 0) {
+      System.out.println("No messages were delivered while measuring");
+      return;
+    }
+    System.out.printf(
+        "Latency (us):        p50 %d, p99 %d, p99.9 %d, max %d%n",
+        latencies.getPercentile(50),
+        latencies.getPercentile(99),
+        latencies.getPercentile(99.9),
+        latencies.getMax()
+    );
+  }
+
+  private boolean isMeasured(long sentNanos) {
+    return sentNanos >= measurementStartNanos && sentNanos < measurementEndNanos;
+  }
+
+  private String createMessage(long sentNanos) {
+    StringBuilder message = new StringBuilder(Math.max(messageLength, 32))
+        .append(MESSAGE_PREFIX)
+        .append(sentNanos)
+        .append(' ');
+    while (message.length() < messageLength) {
+      message.append('x');
+    }
+    return message.toString();
+  }
+
+  private void onNotification(SimulatedUser user, ChatNotification notification) {
+    long receivedNanos = System.nanoTime();
+    if (notification instanceof ChatEntryNotification) {
+      String message = ((ChatEntryNotification) notification).getMessage();
+      if (message == null || !message.startsWith(MESSAGE_PREFIX)) {
+        return;
+      }
+      int end = message.indexOf(' ', MESSAGE_PREFIX.length());
+      long sentNanos = Long.parseLong(
+          message.substring(MESSAGE_PREFIX.length(), end < 0 ? message.length() : end)
+      );
+      if (isMeasured(sentNanos)) {
+        deliveries.increment();
+        latencies.record(TimeUnit.NANOSECONDS.toMicros(receivedNanos - sentNanos));
+      }
+    } else if (notification instanceof ConnectionNotification) {
+      if (user.username.equals(((ConnectionNotification) notification).getUsername())) {
+        user.connected.countDown();
+      }
+    } else if (notification instanceof RequestFailedNotification) {
+      LOGGER.warning(
+          user.username + ": " + ((RequestFailedNotification) notification).getReason()
+      );
+    }
+  }
+
+  /**
+   * A user connected to the server by the generator, with a thread of its own to read
+   * notifications from the server with.
+   */
+  private class SimulatedUser {
+
+    private final String username;
+    private final CountDownLatch connected = new CountDownLatch(1);
+
+    private Socket socket;
+    private RequestSender requestSender;
+
+    private SimulatedUser(String username) {
+      this.username = username;
+    }
+
+    private boolean connect() throws InterruptedException {
+      try {
+        socket = new Socket(hostname, port);
+        socket.setTcpNoDelay(true);
+        InputStream input = socket.getInputStream();
+        if (wireFormat == WireFormat.BINARY) {
+          input = new BufferedInputStream(input);
+          OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+          BinaryWireCodec.performHandshake(input, output);
+          requestSender = new BinaryRequestSender(output);
+        } else {
+          requestSender = new XmlRequestSender(
+              new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8)
+          );
+        }
+
+        InputStream notificationInput = input;
+        Thread reader = new Thread(() -> readNotifications(notificationInput), username);
+        reader.setDaemon(true);
+        reader.start();
+
+        requestSender.send(new ConnectionRequest(username));
+      } catch (IOException | RequestSendingException e) {
+        LOGGER.log(Level.WARNING, "Failed to connect " + username, e);
+        return false;
+      }
+      return connected.await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendMessage(List<SimulatedUser> users) {
+      long sentNanos = System.nanoTime();
+      Set<String> recipients = null;
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      if (random.nextDouble() < privateShare) {
+        SimulatedUser recipient;
+        do {
+          recipient = users.get(random.nextInt(users.size()));
+        } while (recipient == this);
+        recipients = Set.of(recipient.username);
+      }
+
+      try {
+        requestSender.send(new ChatEntryRequest(createMessage(sentNanos), recipients));
+        if (isMeasured(sentNanos)) {
+          messagesSent.increment();
+        }
+      } catch (RequestSendingException e) {
+        sendFailures.increment();
+      }
+    }
+
+    private void readNotifications(InputStream input) {
+      try {
+        if (wireFormat == WireFormat.BINARY) {
+          readFrames(input);
+        } else {
+          readLines(input);
+        }
+      } catch (IOException e) {
+        // Handled below, as though the server had closed the connection
+      }
+      if (!finished) {
+        disconnections.increment();
+      }
+    }
+
+    private void readLines(InputStream input) throws IOException {
+      BufferedReader reader =
+          new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+      StandardChatNotificationParser parser = StandardChatNotificationParser.getInstance();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        try {
+          onNotification(this, parser.fromXml(line));
+        } catch (XmlParseException e) {
+          // The parser doesn't know about room notifications, which the generator doesn't need
+          if (!line.startsWith("<Room")) {
+            parseFailures.increment();
+          }
+        }
+      }
+    }
+
+    private void readFrames(InputStream input) throws IOException {
+      while (true) {
+        ChatNotification notification;
+        try {
+          notification = BinaryWireCodec.readNotification(input);
+        } catch (XmlParseException e) {
+          parseFailures.increment();
+          continue;
+        }
+        if (notification == null) {
+          return;
+        }
+        onNotification(this, notification);
+      }
+    }
+
+    private void close() {
+      if (socket == null) {
+        return;
+      }
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Failed to close connection for " + username, e);
+      }
+    }
+  }
+
+  /**
+   * A histogram of latencies in microseconds that can be recorded to from many threads at once.
+   * Values are counted in buckets whose width grows with the value, so that every value is
+   * recorded to within about 3% without needing a bucket for each microsecond.
+   */
+  private static class LatencyHistogram {
+
+    // Each power of two is split into this many buckets
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS * 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    private void record(long value) {
+      long clamped = Math.max(0, value);
+      counts.incrementAndGet(indexOf(clamped));
+      count.increment();
+      max.accumulate(clamped);
+    }
+
+    private long getCount() {
+      return count.sum();
+    }
+
+    private long getMax() {
+      return max.get();
+    }
+
+    private long getPercentile(double percentile) {
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        total += counts.get(i);
+      }
+      long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts.get(i);
+        if (seen >= target) {
+          return Math.min(highestValueIn(i), getMax());
+        }
+      }
+      return getMax();
+    }
+
+    private static int indexOf(long value) {
+      int magnitude = 63 - Long.numberOfLeadingZeros(value);
+      if (magnitude <= SUB_BUCKET_BITS) {
+        return (int) value;
+      }
+      int shift = magnitude - SUB_BUCKET_BITS;
+      return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueIn(int index) {
+      if (index < SUB_BUCKETS * 2) {
+        return index;
+      }
+      int shift = index / SUB_BUCKETS - 1;
+      long lowest = (long) (index - shift * SUB_BUCKETS) << shift;
+      return lowest + (1L << shift) - 1;
+    }
+  }
+}
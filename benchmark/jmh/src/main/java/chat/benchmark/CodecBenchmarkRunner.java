@@ -0,0 +1,38 @@
+package chat.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <h1>Overview</h1>
+ * <p>Runs the codec benchmarks, reporting both the throughput of each one and the rate at which
+ * it allocates (from the JMH GC profiler). Each benchmark is run once per {@link Payload}.</p>
+ * <p>As each benchmark operation encodes or decodes a single message, the profiler's
+ * {@code gc.alloc.rate.norm} figure is the number of bytes allocated per message. This is the
+ * figure to watch when changing the codecs, as it's far steadier than the throughput.</p>
+ *
+ * <h1>Running the Benchmarks</h1>
+ * <p>The benchmarks are built with Maven from {@code benchmark/jmh}:
+ * <pre><code>mvn -B package
+ * java -jar target/benchmarks.jar</code></pre>
+ * Any of the usual JMH options can be given, for example a pattern such as {@code XmlWriter} to
+ * run a subset of the benchmarks, or {@code -p payload=LARGE} to run a single payload.</p>
+ */
+public class CodecBenchmarkRunner {
+
+  /**
+   * Runs the benchmarks.
+   * @param args The JMH command line options.
+   * @throws Exception Thrown if the benchmarks could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,46 @@
+package chat.benchmark;
+
+import chat.bot.ChatNotification;
+import chat.bot.StandardChatNotificationParser;
+import chat.bot.XmlParseException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the bot decoding a broadcast with {@link StandardChatNotificationParser#fromXml(String)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationParserBenchmark {
+
+  @Param
+  private Payload payload;
+
+  private StandardChatNotificationParser parser;
+  private String xml;
+
+  @Setup
+  public void setUp() throws Exception {
+    parser = StandardChatNotificationParser.getInstance();
+    xml = payload.toNotificationXml();
+  }
+
+  @Benchmark
+  public ChatNotification fromXml() throws XmlParseException {
+    return parser.fromXml(xml);
+  }
+}
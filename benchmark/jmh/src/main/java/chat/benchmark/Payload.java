@@ -0,0 +1,98 @@
+package chat.benchmark;
+
+import chat.server.ChatEntryNotification;
+import chat.server.ChatEntryRequest;
+import chat.server.ReflectiveXmlWriter;
+import chat.server.XmlParseException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The chat entries that the codec benchmarks encode and decode. Each one stresses a different part
+ * of the codec, so that a change which helps one shape of message but hurts another shows up.
+ */
+public enum Payload {
+
+  /**
+   * A short public message, like most of the traffic on a busy server.
+   */
+  SMALL("Hello everyone, how is it going?", Collections.emptySet()),
+
+  /**
+   * A public message of around 4 KiB, such as a pasted stack trace or log excerpt.
+   */
+  LARGE(repeat("The quick brown fox jumps over the lazy dog while the server keeps up. ", 58),
+      Collections.emptySet()),
+
+  /**
+   * A public message made mostly of characters that must be escaped in XML.
+   */
+  ENTITIES(repeat("<b>\"R&D\"</b> & 'ops' -> <i>done</i> ", 32), Collections.emptySet()),
+
+  /**
+   * A short private message addressed to 256 recipients.
+   */
+  RECIPIENTS("Stand-up starts in five minutes", recipients(256));
+
+  private static final String SENDER = "alice";
+
+  private final String message;
+  private final Set<String> recipients;
+
+  Payload(String message, Set<String> recipients) {
+    this.message = message;
+    this.recipients = recipients;
+  }
+
+  /**
+   * Creates a request for the client to send this payload.
+   * @return A new request for this payload.
+   */
+  public ChatEntryRequest toRequest() {
+    ChatEntryRequest request = new ChatEntryRequest();
+    request.setMessage(message);
+    request.setRecipients(recipients);
+    return request;
+  }
+
+  /**
+   * Creates a notification for the server to broadcast this payload.
+   * @return A new notification for this payload.
+   */
+  public ChatEntryNotification toNotification() {
+    return new ChatEntryNotification(message, SENDER, recipients);
+  }
+
+  /**
+   * Gets this payload as a request encoded by the server's XML writer, as a client would send it.
+   * @return The encoded request.
+   * @throws XmlParseException Thrown if the request could not be encoded.
+   */
+  public byte[] toRequestXml() throws XmlParseException {
+    return ReflectiveXmlWriter.getInstance().toXml(toRequest()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Gets this payload as a notification encoded by the server's XML writer, as a client would
+   * receive it.
+   * @return The encoded notification.
+   * @throws XmlParseException Thrown if the notification could not be encoded.
+   */
+  public String toNotificationXml() throws XmlParseException {
+    return ReflectiveXmlWriter.getInstance().toXml(toNotification());
+  }
+
+  private static String repeat(String text, int count) {
+    return text.repeat(count).trim();
+  }
+
+  private static Set<String> recipients(int count) {
+    Set<String> recipients = new LinkedHashSet<>();
+    for (int i = 0; i < count; i++) {
+      recipients.add("user" + i);
+    }
+    return Collections.unmodifiableSet(recipients);
+  }
+}
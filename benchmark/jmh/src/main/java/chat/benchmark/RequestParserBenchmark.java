@@ -0,0 +1,54 @@
+package chat.benchmark;
+
+import chat.server.ChatRequest;
+import chat.server.RequestParserType;
+import chat.server.RequestProcessingException;
+import chat.server.ChatRequestParser;
+import chat.server.StandardChatRequestParser;
+import chat.server.XmlParseException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the server turning the bytes of a request into a {@link ChatRequest} with
+ * {@link StandardChatRequestParser#fromXml(byte[], int, int, chat.server.User)}, once with each
+ * {@link RequestParserType}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestParserBenchmark {
+
+  @Param
+  private Payload payload;
+
+  @Param
+  private RequestParserType parserType;
+
+  private ChatRequestParser parser;
+  private byte[] xml;
+
+  @Setup
+  public void setUp() throws Exception {
+    parser = parserType.getParser();
+    xml = payload.toRequestXml();
+  }
+
+  @Benchmark
+  public ChatRequest fromXml() throws XmlParseException, RequestProcessingException {
+    return parser.fromXml(xml, 0, xml.length, null);
+  }
+}
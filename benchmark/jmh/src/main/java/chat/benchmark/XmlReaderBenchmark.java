@@ -0,0 +1,58 @@
+package chat.benchmark;
+
+import chat.server.ChatEntryRequest;
+import chat.server.ReflectiveXmlReader;
+import chat.server.XmlCodecContext;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the server decoding a request with
+ * {@link ReflectiveXmlReader#readFromXml(XMLStreamReader, Class)}. Creating the stream reader is
+ * part of the measurement, as it is for every request that the server parses with StAX, and comes
+ * from the thread's {@link XmlCodecContext} in the same way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlReaderBenchmark {
+
+  @Param
+  private Payload payload;
+
+  private ReflectiveXmlReader reader;
+  private byte[] xml;
+
+  @Setup
+  public void setUp() throws Exception {
+    reader = new ReflectiveXmlReader();
+    xml = payload.toRequestXml();
+  }
+
+  @Benchmark
+  public ChatEntryRequest readFromXml() throws Exception {
+    XMLStreamReader xmlStreamReader =
+        XmlCodecContext.get().createReader(new ByteArrayInputStream(xml));
+    try {
+      xmlStreamReader.next(); // Move on to the element containing the name of the class
+      return reader.readFromXml(xmlStreamReader, ChatEntryRequest.class);
+    } finally {
+      xmlStreamReader.close();
+    }
+  }
+}
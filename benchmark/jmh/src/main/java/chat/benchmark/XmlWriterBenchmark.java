@@ -0,0 +1,56 @@
+package chat.benchmark;
+
+import chat.server.ChatEntryNotification;
+import chat.server.ReflectiveXmlWriter;
+import chat.server.XmlParseException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the server encoding a broadcast, both as a string with
+ * {@link ReflectiveXmlWriter#toXml(Object)} and as the bytes that are sent to each recipient with
+ * {@link ReflectiveXmlWriter#toXmlBytes(Object, byte[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlWriterBenchmark {
+
+  @Param
+  private Payload payload;
+
+  private ReflectiveXmlWriter writer;
+  private ChatEntryNotification notification;
+  private byte[] lineSeparator;
+
+  @Setup
+  public void setUp() {
+    writer = ReflectiveXmlWriter.getInstance();
+    notification = payload.toNotification();
+    lineSeparator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public String toXml() throws XmlParseException {
+    return writer.toXml(notification);
+  }
+
+  @Benchmark
+  public byte[] toXmlBytes() throws XmlParseException {
+    return writer.toXmlBytes(notification, lineSeparator);
+  }
+}
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Overview</h1>
+ * <p>Measures how many idle connections a {@link ChatServer} can hold, and what they cost, in each
+ * of its connection modes. For each combination of mode and connection count, the benchmark starts
+ * a fresh server in a child JVM, opens the given number of connections to it and leaves them idle,
+ * and then reports the server process' resident memory and live thread count as read from
+ * {@code /proc}, so this benchmark only runs on Linux.</p>
+ * <p>The connections are opened as plain channels from this process without any threads of their
+ * own, so the client side of the benchmark stays cheap regardless of the connection count.
+ * Connections are spread across several loopback source addresses so that the ephemeral port range
+ * doesn't cap the number of connections at around 28,000.</p>
+ *
+ * <h1>Running the Benchmark</h1>
+ * <p>The benchmark is compiled alongside the server sources:
+ * <pre><code>javac -d out server/*.java benchmark/server/*.java
+ * java -cp out IdleConnectionBenchmark -modes blocking,virtual,nio -users 10000,50000</code></pre>
+ * The {@code virtual} mode requires Java 21 or later. Each connection uses a file descriptor in
+ * both this process and the server, so {@code ulimit -n} must comfortably exceed the largest
+ * connection count. Failed connections are reported rather than aborting the run.</p>
+ */
+public class IdleConnectionBenchmark {
+
+  private static final int CONNECTIONS_PER_SOURCE_ADDRESS = 20_000;
+  private static final long SETTLE_TIME_MILLIS = 3_000;
+
+  private final List<String> modes;
+  private final int[] userCounts;
+  private final int port;
+
+  /**
+   * Runs the benchmark.
+   * @param args The command line arguments. {@code modes} is a comma-separated list of server
+   * modes (default {@code blocking,virtual}), {@code users} is a comma-separated list of
+   * connection counts (default {@code 10000,50000}) and {@code csp} is the port that the servers
+   * are started on (default 14001).
+   * @throws Exception Thrown if the benchmark could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    CommandLineArgumentParser argumentParser = new CommandLineArgumentParser(args);
+    List<String> modes =
+        Arrays.asList(argumentParser.getParameter("modes").orElse("blocking,virtual").split(","));
+    int[] userCounts = Arrays.stream(argumentParser.getParameter("users")
+                                                   .orElse("10000,50000")
+                                                   .split(","))
+                             .mapToInt(Integer::parseInt)
+                             .toArray();
+    int port = argumentParser.getParameter("csp").map(Integer::parseInt).orElse(14_001);
+
+    new IdleConnectionBenchmark(modes, userCounts, port).run();
+  }
+
+  private IdleConnectionBenchmark(List<String> modes, int[] userCounts, int port) {
+    this.modes = modes;
+    this.userCounts = userCounts;
+    this.port = port;
+  }
+
+  private void run() throws Exception {
+    System.out.printf(
+        "%-10s %10s %10s %12s %10s %14s%n",
+        "mode", "requested", "connected", "connect ms", "threads", "server RSS MiB"
+    );
+    for (String mode : modes) {
+      for (int userCount : userCounts) {
+        try {
+          runScenario(mode, userCount);
+        } catch (IOException e) {
+          System.out.printf("%-10s %10d  failed: %s%n", mode, userCount, e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void runScenario(String mode, int userCount) throws Exception {
+    Process server = startServer(mode);
+    List<SocketChannel> connections = new ArrayList<>(userCount);
+    try {
+      long start = System.nanoTime();
+      int failures = openConnections(userCount, connections);
+      long connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      // Give the server time to create its per-connection state before measuring it
+      Thread.sleep(SETTLE_TIME_MILLIS);
+
+      System.out.printf(
+          "%-10s %10d %10d %12d %10s %14s%n",
+          mode,
+          userCount,
+          userCount - failures,
+          connectMillis,
+          readProcStatus(server.pid(), "Threads"),
+          toMebibytes(readProcStatus(server.pid(), "VmRSS"))
+      );
+    } finally {
+      stopServer(server);
+      for (SocketChannel connection : connections) {
+        connection.close();
+      }
+    }
+  }
+
+  private Process startServer(String mode) throws IOException, InterruptedException {
+    Process server = new ProcessBuilder(
+        Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+        "-cp", System.getProperty("java.class.path"),
+        "ChatServer", "-csp", Integer.toString(port), "-mode", mode
+    ).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+     .redirectError(ProcessBuilder.Redirect.DISCARD)
+     .start();
+
+    // Wait for the server to start accepting connections
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (System.nanoTime() < deadline) {
+      if (!server.isAlive()) {
+        throw new IOException(
+            "Server exited with code " + server.exitValue() + " (is the mode supported?)"
+        );
+      }
+      try {
+        new Socket("localhost", port).close();
+        return server;
+      } catch (IOException e) {
+        Thread.sleep(100);
+      }
+    }
+    server.destroyForcibly();
+    throw new IOException("Server in mode " + mode + " did not start listening in time");
+  }
+
+  private int openConnections(int userCount, List<SocketChannel> connections) {
+    int failures = 0;
+    for (int i = 0; i < userCount; i++) {
+      try {
+        SocketChannel channel = SocketChannel.open();
+        try {
+          channel.bind(new InetSocketAddress(sourceAddressFor(i), 0));
+          channel.connect(new InetSocketAddress("127.0.0.1", port));
+          connections.add(channel);
+        } catch (IOException e) {
+          channel.close();
+          throw e;
+        }
+      } catch (IOException e) {
+        failures++;
+      }
+    }
+    return failures;
+  }
+
+  // Every loopback address in 127.0.0.0/8 routes to this host
+  private static String sourceAddressFor(int connectionIndex) {
+    return "127.0.0." + (1 + connectionIndex / CONNECTIONS_PER_SOURCE_ADDRESS);
+  }
+
+  private static void stopServer(Process server) throws InterruptedException {
+    try (OutputStream serverInput = server.getOutputStream()) {
+      serverInput.write(("EXIT" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      // The server has probably already gone
+    }
+    if (!server.waitFor(30, TimeUnit.SECONDS)) {
+      server.destroyForcibly().waitFor();
+    }
+  }
+
+  private static String readProcStatus(long pid, String field) throws IOException {
+    return Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))
+                .stream()
+                .filter(line -> line.startsWith(field + ":"))
+                .map(line -> line.substring(field.length() + 1).trim())
+                .findFirst()
+                .orElse("?");
+  }
+
+  private static String toMebibytes(String kibibytes) {
+    try {
+      long value = Long.parseLong(kibibytes.replace("kB", "").trim());
+      return Long.toString(value / 1024);
+    } catch (NumberFormatException e) {
+      return kibibytes;
+    }
+  }
+
+}
@@ -0,0 +1,192 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <h1>Overview</h1>
+ * <p>Checks that the {@link XmlRequestScanner} agrees with StAX, and then measures how quickly each
+ * {@link RequestParserType} parses typical requests.</p>
+ * <p>The conformance check runs every line of a shared corpus through both the scanner and the
+ * StAX parser. Each line states whether the scanner should handle it or leave it to StAX (see the
+ * corpus file for the format). Where the scanner handles a line, StAX must accept it too, and both
+ * must produce a request of the same type with the same field values. Any disagreement is reported
+ * and the benchmark exits with a non-zero status before measuring anything.</p>
+ * <p>The measurement then parses a mix of connection, public and private chat requests on a single
+ * thread, and reports the throughput and the number of bytes allocated per request.</p>
+ *
+ * <h1>Running the Benchmark</h1>
+ * <p>The benchmark is compiled alongside the server sources, and run from the root of the
+ * repository so that it can find the corpus:
+ * <pre><code>javac -d out server/*.java benchmark/server/*.java
+ * java -cp out RequestParserBenchmark -requests 1000000</code></pre>
+ * A different corpus can be given with {@code -corpus}. Each parser is run once to warm up before
+ * it is measured.</p>
+ */
+public class RequestParserBenchmark {
+
+  private static final String DEFAULT_CORPUS = "benchmark/server/request-corpus.txt";
+
+  private static final List<String> WORKLOAD = List.of(
+      "<ConnectionRequest><username>alice</username></ConnectionRequest>",
+      "<ChatEntryRequest><message>Hello everyone, how is it going?</message>"
+          + "<recipients></recipients></ChatEntryRequest>",
+      "<ChatEntryRequest><message>Did you see the &lt;b&gt;release notes&lt;/b&gt;?</message>"
+          + "<recipients>bob,carol</recipients></ChatEntryRequest>",
+      "<JoinRoomRequest><room>dev</room></JoinRoomRequest>"
+  );
+
+  private final Path corpus;
+  private final int requests;
+
+  /**
+   * Runs the benchmark.
+   * @param args The command line arguments. {@code corpus} is the path of the conformance corpus
+   * (default {@code benchmark/server/request-corpus.txt}) and {@code requests} is the number of
+   * requests that each parser parses (default 1000000).
+   * @throws Exception Thrown if the benchmark could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    CommandLineArgumentParser argumentParser = new CommandLineArgumentParser(args);
+    Path corpus = Path.of(argumentParser.getParameter("corpus").orElse(DEFAULT_CORPUS));
+    int requests =
+        argumentParser.getParameter("requests").map(Integer::parseInt).orElse(1_000_000);
+
+    RequestParserBenchmark benchmark = new RequestParserBenchmark(corpus, requests);
+    if (!benchmark.checkConformance()) {
+      System.exit(1);
+    }
+    benchmark.measure();
+  }
+
+  private RequestParserBenchmark(Path corpus, int requests) {
+    this.corpus = corpus;
+    this.requests = requests;
+  }
+
+  private boolean checkConformance() throws Exception {
+    StandardChatRequestParser staxParser = StandardChatRequestParser.getStaxInstance();
+    XmlRequestScanner scanner = new XmlRequestScanner(staxParser.getRegisteredTypes());
+
+    int cases = 0;
+    List<String> failures = new ArrayList<>();
+    for (String line : Files.readAllLines(corpus, StandardCharsets.UTF_8)) {
+      if (line.isBlank() || line.startsWith("#")) {
+        continue;
+      }
+      cases++;
+      int separator = line.indexOf(' ');
+      String expectedOutcome = line.substring(0, separator);
+      String xml = line.substring(separator + 1);
+      byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+
+      ChatRequest scanned = scanner.scan(bytes, 0, bytes.length);
+      ChatRequest parsed;
+      try {
+        parsed = staxParser.fromXml(xml, null);
+      } catch (XmlParseException e) {
+        parsed = null;
+      }
+
+      if (expectedOutcome.equals("defer")) {
+        if (scanned != null) {
+          failures.add("Scanner should have deferred to StAX: " + xml);
+        }
+      } else if (scanned == null) {
+        failures.add("Scanner deferred to StAX: " + xml);
+      } else if (parsed == null) {
+        failures.add("Scanner accepted a request that StAX rejects: " + xml);
+      } else if (!sameRequest(scanned, parsed)) {
+        failures.add(
+            "Scanner and StAX disagree: " + xml + "\n  scanner: " + describe(scanned)
+                + "\n  stax:    " + describe(parsed)
+        );
+      }
+    }
+
+    System.out.printf("Conformance: %d cases, %d failures%n", cases, failures.size());
+    failures.forEach(failure -> System.out.println("  " + failure));
+    return failures.isEmpty();
+  }
+
+  private static boolean sameRequest(ChatRequest first, ChatRequest second) throws Exception {
+    if (first.getClass() != second.getClass()) {
+      return false;
+    }
+    for (XmlClassCodec.FieldCodec field : XmlClassCodec.forClass(first.getClass())
+                                                       .getWrittenFields()) {
+      if (!Objects.equals(field.get(first), field.get(second))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String describe(ChatRequest request) throws Exception {
+    StringBuilder description = new StringBuilder(request.getClass().getSimpleName());
+    for (XmlClassCodec.FieldCodec field : XmlClassCodec.forClass(request.getClass())
+                                                       .getWrittenFields()) {
+      description.append(' ').append(field.getName()).append('=').append(field.get(request));
+    }
+    return description.toString();
+  }
+
+  private void measure() throws Exception {
+    byte[][] workload = WORKLOAD.stream()
+                                .map(xml -> xml.getBytes(StandardCharsets.UTF_8))
+                                .toArray(byte[][]::new);
+
+    System.out.printf("%-8s %12s %10s %14s %14s%n", "parser", "requests", "millis",
+        "requests/sec", "bytes/request");
+    for (RequestParserType type : RequestParserType.values()) {
+      // Warm up, then measure
+      run(type.getParser(), workload);
+      long allocatedBefore = allocatedBytes();
+      long start = System.nanoTime();
+      run(type.getParser(), workload);
+      long elapsedNanos = System.nanoTime() - start;
+      long allocated = allocatedBytes() - allocatedBefore;
+
+      System.out.printf(
+          "%-8s %12d %10d %14.0f %14s%n",
+          type.getArgumentName(),
+          requests,
+          elapsedNanos / 1_000_000,
+          requests * 1e9 / elapsedNanos,
+          allocated < 0 ? "n/a" : String.valueOf(allocated / requests)
+      );
+    }
+    System.out.printf(
+        "Requests that fell back to StAX: %d%n",
+        StandardChatRequestParser.getInstance().getFallbackCount()
+    );
+  }
+
+  private void run(ChatRequestParser parser, byte[][] workload) throws Exception {
+    int checksum = 0;
+    for (int i = 0; i < requests; i++) {
+      byte[] xml = workload[i % workload.length];
+      checksum += parser.fromXml(xml, 0, xml.length, null).hashCode() & 1;
+    }
+    if (checksum < 0) {
+      // Keeps the results alive so the parsing can't be optimised away
+      System.out.println(Arrays.toString(workload));
+    }
+  }
+
+  // Returns -1 if the JVM can't measure allocation per thread
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+}
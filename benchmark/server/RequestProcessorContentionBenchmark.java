@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Overview</h1>
+ * <p>Measures how well each {@link RequestProcessorType} copes when many threads submit requests
+ * at once, as happens when lots of connected users are chatting at the same time. For each
+ * combination of processor and thread count, the given number of threads each submit the same
+ * number of requests as fast as they can, and the benchmark reports how long it took for every
+ * request to be processed.</p>
+ * <p>The requests do a trivial amount of work - they increment a counter that is deliberately not
+ * thread safe - so that the cost of getting requests to the processor dominates. The final count is
+ * checked, so the benchmark also confirms that each processor really does process requests one at
+ * a time.</p>
+ *
+ * <h1>Running the Benchmark</h1>
+ * <p>The benchmark is compiled alongside the server sources:
+ * <pre><code>javac -d out server/*.java benchmark/server/*.java
+ * java -cp out RequestProcessorContentionBenchmark -threads 1,4,16,64 -requests 200000</code></pre>
+ * Each scenario is run once to warm up before it is measured. The ring processor's consumer
+ * thread needs a core of its own to perform well, so results on machines with few cores will
+ * understate it.</p>
+ */
+public class RequestProcessorContentionBenchmark {
+
+  private static final int RING_BUFFER_CAPACITY = 1024;
+
+  private final int[] threadCounts;
+  private final int requestsPerThread;
+
+  /**
+   * Runs the benchmark.
+   * @param args The command line arguments. {@code threads} is a comma-separated list of the
+   * numbers of submitting threads (default {@code 1,4,16,64}) and {@code requests} is the number of
+   * requests that each thread submits (default 200000).
+   * @throws Exception Thrown if the benchmark could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    CommandLineArgumentParser argumentParser = new CommandLineArgumentParser(args);
+    int[] threadCounts = Arrays.stream(argumentParser.getParameter("threads")
+                                                     .orElse("1,4,16,64")
+                                                     .split(","))
+                               .mapToInt(Integer::parseInt)
+                               .toArray();
+    int requestsPerThread =
+        argumentParser.getParameter("requests").map(Integer::parseInt).orElse(200_000);
+
+    new RequestProcessorContentionBenchmark(threadCounts, requestsPerThread).run();
+  }
+
+  private RequestProcessorContentionBenchmark(int[] threadCounts, int requestsPerThread) {
+    this.threadCounts = threadCounts;
+    this.requestsPerThread = requestsPerThread;
+  }
+
+  private void run() throws Exception {
+    System.out.printf(
+        "%-6s %8s %12s %10s %14s %8s%n",
+        "proc", "threads", "requests", "millis", "requests/sec", "correct"
+    );
+    for (int threadCount : threadCounts) {
+      for (RequestProcessorType type : RequestProcessorType.values()) {
+        // Warm up, then measure
+        runScenario(type, threadCount);
+        Result result = runScenario(type, threadCount);
+
+        long totalRequests = (long) threadCount * requestsPerThread;
+        System.out.printf(
+            "%-6s %8d %12d %10d %14.0f %8s%n",
+            type.getArgumentName(),
+            threadCount,
+            totalRequests,
+            TimeUnit.NANOSECONDS.toMillis(result.elapsedNanos),
+            totalRequests * 1e9 / result.elapsedNanos,
+            result.count == totalRequests ? "yes" : "NO (" + result.count + ")"
+        );
+      }
+    }
+  }
+
+  private Result runScenario(RequestProcessorType type, int threadCount) throws Exception {
+    ChatRequestProcessor processor = createProcessor(type);
+    ChatMediator chatMediator = new ChatGroup();
+    CountingRequest.Counter counter =
+        new CountingRequest.Counter((long) threadCount * requestsPerThread);
+    CountDownLatch startSignal = new CountDownLatch(1);
+
+    List<Thread> submitters = new ArrayList<>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      Thread submitter = new Thread(() -> {
+        CountingRequest request = new CountingRequest(counter);
+        try {
+          startSignal.await();
+          for (int j = 0; j < requestsPerThread; j++) {
+            processor.process(request, chatMediator);
+          }
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      submitter.start();
+      submitters.add(submitter);
+    }
+
+    long start = System.nanoTime();
+    startSignal.countDown();
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+    // The ring processor returns before requests are processed, so wait for the last one
+    counter.awaitCompletion();
+    long elapsedNanos = System.nanoTime() - start;
+
+    if (processor instanceof Closeable) {
+      ((Closeable) processor).close();
+    }
+    return new Result(elapsedNanos, counter.count);
+  }
+
+  private static ChatRequestProcessor createProcessor(RequestProcessorType type) {
+    switch (type) {
+      case LOCK:
+        return BlockingChatRequestProcessor.getInstance();
+      case RING:
+        return new RingBufferChatRequestProcessor(
+            RING_BUFFER_CAPACITY, UserThreadFactory.platform("benchmark-consumer-thread")
+        );
+      default:
+        throw new IllegalArgumentException("Unsupported processor type " + type);
+    }
+  }
+
+  private static class Result {
+
+    private final long elapsedNanos;
+    private final long count;
+
+    private Result(long elapsedNanos, long count) {
+      this.elapsedNanos = elapsedNanos;
+      this.count = count;
+    }
+  }
+
+  // A request that only counts how many times it has been processed. The same instance is
+  // submitted repeatedly, so the benchmark measures the processor rather than the allocator.
+  private static class CountingRequest implements ChatRequest {
+
+    private final Counter counter;
+
+    private CountingRequest(Counter counter) {
+      this.counter = counter;
+    }
+
+    @Override
+    public void setAuthor(User author) {}
+
+    @Override
+    public User getAuthor() {
+      return null;
+    }
+
+    @Override
+    public void process(ChatMediator chatMediator) {
+      counter.increment();
+    }
+
+    private static class Counter {
+
+      private final long expectedCount;
+      private final CountDownLatch completion = new CountDownLatch(1);
+
+      // Deliberately not volatile or atomic - the processor is meant to provide mutual exclusion
+      private long count;
+
+      private Counter(long expectedCount) {
+        this.expectedCount = expectedCount;
+      }
+
+      private void increment() {
+        if (++count == expectedCount) {
+          completion.countDown();
+        }
+      }
+
+      private void awaitCompletion() throws InterruptedException {
+        if (!completion.await(5, TimeUnit.MINUTES)) {
+          throw new IllegalStateException("Requests were not all processed in time");
+        }
+      }
+    }
+  }
+
+}
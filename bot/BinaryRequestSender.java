@@ -0,0 +1,36 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * Responsible for sending requests to the server as binary frames. The connection must already
+ * have been switched to the binary protocol with
+ * {@link BinaryWireCodec#performHandshake(java.io.InputStream, OutputStream)}.
+ */
+public class BinaryRequestSender implements RequestSender {
+
+  private final OutputStream output;
+
+  /**
+   * Creates a new instance, responsible for sending requests to the server as binary frames.
+   * @param output The stream used to deliver data to the server.
+   * @throws NullPointerException Thrown if {@code output == null}.
+   */
+  public BinaryRequestSender(OutputStream output) throws NullPointerException {
+    this.output = Objects.requireNonNull(output, "Output is null");
+  }
+
+  @Override
+  public void send(Object request) throws RequestSendingException {
+    try {
+      // Frames must not be interleaved, so send each one in full before starting the next
+      synchronized (output) {
+        BinaryWireCodec.writeFrame(request, output);
+      }
+    } catch (XmlParseException e) {
+      throw new RequestSendingException("Failed to encode object type " + request.getClass(), e);
+    } catch (IOException e) {
+      throw new RequestSendingException("Failed to send request to the server", e);
+    }
+  }
+}
@@ -1,3 +1,7 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.Objects;
@@ -41,6 +45,13 @@ import java.util.logging.Logger;
  *     to.</td>
  *     <td>No. If unspecified, this will be 14001.</td>
  *   </tr>
+ *   <tr>
+ *     <td>wire</td>
+ *     <td>The form that data is exchanged with the server in. {@code xml} sends a line of XML for
+ *     each message. {@code binary} switches the connection to compact binary frames when it's
+ *     opened, which the server must support. See {@link WireFormat}.</td>
+ *     <td>No. If unspecified, this will be xml.</td>
+ *   </tr>
  * </table>
  * For example, to connect the client to a server located at 192.168.1.14:8080, connecting with the
  * name "TestBot" and using a response file location at conf/scripts/twitch-style.csv, the bot
@@ -85,6 +96,7 @@ public class ChatBot {
   private final int serverPort;
   private final String botName;
   private final String responsesFilePath;
+  private final WireFormat wireFormat;
 
   /**
    * Creates a new chat bot.
@@ -98,11 +110,32 @@ public class ChatBot {
    */
   public ChatBot(
       String serverHostname, int serverPort, String botName, String responsesFilePath
+  ) throws NullPointerException {
+    this(serverHostname, serverPort, botName, responsesFilePath, WireFormat.XML);
+  }
+
+  /**
+   * Creates a new chat bot.
+   * @param serverHostname The hostname of the chat server that the bot will attempt to connect to.
+   * @param serverPort The port of the chat server that the bot will attempt to connect to.
+   * @param botName The username of the chat bot, as it should appear in the chat.
+   * @param responsesFilePath The file path to the file that contains the bot's response
+   * specification.
+   * @param wireFormat The form that data is exchanged with the server in.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public ChatBot(
+      String serverHostname,
+      int serverPort,
+      String botName,
+      String responsesFilePath,
+      WireFormat wireFormat
   ) throws NullPointerException {
     this.serverAddress = Objects.requireNonNull(serverHostname, "Hostname is null");
     this.serverPort = serverPort;
     this.botName = Objects.requireNonNull(botName, "Bot name is null");
     this.responsesFilePath = Objects.requireNonNull(responsesFilePath, "Responses file path is null");
+    this.wireFormat = Objects.requireNonNull(wireFormat, "Wire format is null");
   }
 
   /**
@@ -119,8 +152,17 @@ public class ChatBot {
    * Runs the bot.
    */
   private void runBot(Socket socket) throws Exception {
-    RequestSender requestSender =
-        new XmlRequestSender(new PrintWriter(socket.getOutputStream(), true));
+    InputStream socketInput = socket.getInputStream();
+    RequestSender requestSender;
+    if (wireFormat == WireFormat.BINARY) {
+      // Frames are read a few bytes at a time, so buffer the connection
+      socketInput = new BufferedInputStream(socketInput);
+      OutputStream socketOutput = new BufferedOutputStream(socket.getOutputStream());
+      BinaryWireCodec.performHandshake(socketInput, socketOutput);
+      requestSender = new BinaryRequestSender(socketOutput);
+    } else {
+      requestSender = new XmlRequestSender(new PrintWriter(socket.getOutputStream(), true));
+    }
 
     // Send the request to specify the username. If this fails, the program will terminate.
     ConnectionRequest connectionRequest = new ConnectionRequest(botName);
@@ -129,10 +171,11 @@ public class ChatBot {
     ChatResponseFactory responseFactory = new CsvBasedChatResponseFactory(responsesFilePath);
 
     NotificationHandler notificationHandler = new NotificationHandler(
-        socket.getInputStream(),
+        socketInput,
         requestSender,
         responseFactory,
-        StandardChatNotificationParser.getInstance()
+        StandardChatNotificationParser.getInstance(),
+        wireFormat
     );
 
     LOGGER.info("Bot running with username \"" + botName + "\". Press Ctrl + C to quit.");
@@ -167,8 +210,13 @@ public class ChatBot {
                 )
         );
 
+    WireFormat wireFormat = argumentParser
+        .getParameter("wire")
+        .map(WireFormat::fromArgumentName)
+        .orElse(WireFormat.XML);
+
     // Start the chat bot
-    new ChatBot(hostname, portNumber, botUsername, responsesFilePath).start();
+    new ChatBot(hostname, portNumber, botUsername, responsesFilePath, wireFormat).start();
   }
 
   private static int parsePortNumber(String portNumberText) throws IllegalArgumentException {
@@ -0,0 +1,44 @@
+import java.util.Objects;
+
+/**
+ * Represents a request to the server to move to another room. The server creates the room if it
+ * doesn't exist yet.
+ */
+public class JoinRoomRequest {
+
+  private final String room;
+
+  /**
+   * Creates a new request to the server to move to another room.
+   * @param room The name of the room to join.
+   * @throws NullPointerException Thrown if {@code room == null}.
+   */
+  public JoinRoomRequest(String room) throws NullPointerException {
+    this.room = Objects.requireNonNull(room, "Room is null");
+  }
+
+  /**
+   * Gets the name of the room to join.
+   * @return The name of the room to join.
+   */
+  public String getRoom() {
+    return room;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof JoinRoomRequest)) {
+      return false;
+    }
+    JoinRoomRequest that = (JoinRoomRequest) o;
+    return Objects.equals(room, that.room);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(room);
+  }
+}
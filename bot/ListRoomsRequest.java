@@ -0,0 +1,15 @@
+/**
+ * Represents a request to the server for the names of its rooms.
+ */
+public class ListRoomsRequest {
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof ListRoomsRequest;
+  }
+
+  @Override
+  public int hashCode() {
+    return ListRoomsRequest.class.hashCode();
+  }
+}
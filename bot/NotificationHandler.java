@@ -8,7 +8,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Handles notifications received from the server.
+ * Handles notifications received from the server, either as lines of XML or as binary frames.
  */
 public class NotificationHandler implements Runnable {
 
@@ -18,9 +18,10 @@ public class NotificationHandler implements Runnable {
   private final RequestSender requestSender;
   private final ChatResponseFactory responseFactory;
   private final ChatNotificationParser notificationParser;
+  private final WireFormat wireFormat;
 
   /**
-   * Creates a new handler to process notifications received from the server.
+   * Creates a new handler to process XML notifications received from the server.
    * @param socketInputStream The input from the socket connection to the server. This is where
    * new notifications will be read from.
    * @param requestSender The mechanism through which responses can be sent to the server.
@@ -34,6 +35,31 @@ public class NotificationHandler implements Runnable {
       ChatResponseFactory responseFactory,
       ChatNotificationParser notificationParser
   ) throws NullPointerException {
+    this(
+        socketInputStream, requestSender, responseFactory, notificationParser, WireFormat.XML
+    );
+  }
+
+  /**
+   * Creates a new handler to process notifications received from the server.
+   * @param socketInputStream The input from the socket connection to the server. This is where
+   * new notifications will be read from.
+   * @param requestSender The mechanism through which responses can be sent to the server.
+   * @param responseFactory Responsible for creating new responses based on notification input.
+   * @param notificationParser Responsible for parsing XML notifications received from the server.
+   * @param wireFormat The form that notifications are received in. If this is
+   * {@link WireFormat#BINARY}, the connection must already have been switched to the binary
+   * protocol.
+   * @throws NullPointerException Thrown if any of the arguments ar {@code null}.
+   */
+  public NotificationHandler(
+      InputStream socketInputStream,
+      RequestSender requestSender,
+      ChatResponseFactory responseFactory,
+      ChatNotificationParser notificationParser,
+      WireFormat wireFormat
+  ) throws NullPointerException {
+    this.wireFormat = Objects.requireNonNull(wireFormat, "Wire format is null");
     this.socketInputStream =
         Objects.requireNonNull(socketInputStream, "Socket input stream is null");
     this.requestSender =
@@ -63,6 +89,11 @@ public class NotificationHandler implements Runnable {
   }
 
   private void continuallyProcessInputFromSocket() throws IOException {
+    if (wireFormat == WireFormat.BINARY) {
+      continuallyProcessFramesFromSocket();
+      return;
+    }
+
     // Keep reading from the server line by line
     try (BufferedReader reader = new BufferedReader(new InputStreamReader(socketInputStream))) {
       String line;
@@ -76,4 +107,23 @@ public class NotificationHandler implements Runnable {
       }
     }
   }
-}
\ No newline at end of file
+
+  private void continuallyProcessFramesFromSocket() throws IOException {
+    // Keep reading from the server frame by frame
+    try (InputStream input = socketInputStream) {
+      while (true) {
+        ChatNotification notification;
+        try {
+          notification = BinaryWireCodec.readNotification(input);
+        } catch (XmlParseException e) {
+          LOGGER.log(Level.WARNING, "Received notification could not be parsed", e);
+          continue;
+        }
+        if (notification == null) {
+          return;
+        }
+        notification.process(requestSender, responseFactory);
+      }
+    }
+  }
+}
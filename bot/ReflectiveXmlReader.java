@@ -1,7 +1,5 @@
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.io.StringReader;
 import java.lang.reflect.Field;
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -10,7 +8,6 @@ import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -29,16 +26,22 @@ public class ReflectiveXmlReader implements XmlReader {
 
   @Override
   public <T> T fromXml(String xml, Class<T> targetType) throws XmlParseException {
-    try (
-        InputStream xmlInputStream =
-            new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))
-    ) {
-      XMLStreamReader xmlStreamReader =
-          XMLInputFactory.newInstance().createXMLStreamReader(xmlInputStream);
+    XMLStreamReader xmlStreamReader = null; // Not autocloseable
+    try {
+      // The stream reader is reused by each thread, once it has been closed
+      xmlStreamReader = XmlCodecContext.get().createReader(new StringReader(xml));
       xmlStreamReader.next(); // Skip the first element as this contains the name of the class
       return fromXmlThrowException(xmlStreamReader, targetType);
     } catch (Exception e) {
-      throw new XmlParseException("Failed to close XML input stream", e);
+      throw new XmlParseException("Failed to parse XML for type " + targetType, e);
+    } finally {
+      if (xmlStreamReader != null) {
+        try {
+          xmlStreamReader.close();
+        } catch (XMLStreamException e) {
+          LOGGER.log(Level.WARNING, "Failed to close XML stream reader", e);
+        }
+      }
     }
   }
 
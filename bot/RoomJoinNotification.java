@@ -0,0 +1,68 @@
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * A notification to indicate that a user has joined the room that the bot is in.
+ */
+public class RoomJoinNotification implements ChatNotification {
+
+  private static final Logger LOGGER = Logger.getLogger(RoomJoinNotification.class.getName());
+
+  private String username;
+  private String room;
+
+  @Override
+  public void process(RequestSender requestSender, ChatResponseFactory chatResponseFactory) {
+    // Just log this - there's no need for further action
+    LOGGER.info(username + " has joined room " + room);
+  }
+
+  /**
+   * Gets the username of the user that joined the room.
+   * @return The username of the user that joined the room.
+   */
+  public String getUsername() {
+    return username;
+  }
+
+  /**
+   * Sets the username of the user that joined the room.
+   * @param username The username of the user that joined the room.
+   */
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  /**
+   * Gets the name of the room.
+   * @return The name of the room.
+   */
+  public String getRoom() {
+    return room;
+  }
+
+  /**
+   * Sets the name of the room.
+   * @param room The name of the room.
+   */
+  public void setRoom(String room) {
+    this.room = room;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RoomJoinNotification)) {
+      return false;
+    }
+    RoomJoinNotification that = (RoomJoinNotification) o;
+    return Objects.equals(username, that.username) && Objects.equals(room, that.room);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(username, room);
+  }
+}
@@ -0,0 +1,69 @@
+import java.util.Collection;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * A notification listing the rooms on the server, sent in response to a {@link ListRoomsRequest}.
+ */
+public class RoomListNotification implements ChatNotification {
+
+  private static final Logger LOGGER = Logger.getLogger(RoomListNotification.class.getName());
+
+  private String currentRoom;
+  private Collection<String> rooms;
+
+  @Override
+  public void process(RequestSender requestSender, ChatResponseFactory chatResponseFactory) {
+    // Just log this - there's no need for further action
+    LOGGER.info("Rooms: " + String.join(", ", rooms) + " (in " + currentRoom + ")");
+  }
+
+  /**
+   * Gets the name of the room that the bot is in.
+   * @return The name of the room that the bot is in.
+   */
+  public String getCurrentRoom() {
+    return currentRoom;
+  }
+
+  /**
+   * Sets the name of the room that the bot is in.
+   * @param currentRoom The name of the room that the bot is in.
+   */
+  public void setCurrentRoom(String currentRoom) {
+    this.currentRoom = currentRoom;
+  }
+
+  /**
+   * Gets the names of all of the rooms.
+   * @return The names of all of the rooms.
+   */
+  public Collection<String> getRooms() {
+    return rooms;
+  }
+
+  /**
+   * Sets the names of all of the rooms.
+   * @param rooms The names of all of the rooms.
+   */
+  public void setRooms(Collection<String> rooms) {
+    this.rooms = rooms;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RoomListNotification)) {
+      return false;
+    }
+    RoomListNotification that = (RoomListNotification) o;
+    return Objects.equals(currentRoom, that.currentRoom) && Objects.equals(rooms, that.rooms);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(currentRoom, rooms);
+  }
+}
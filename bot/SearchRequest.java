@@ -0,0 +1,93 @@
+import java.util.Objects;
+
+/**
+ * Represents a request to the server to search the messages sent in the current room. Any of the
+ * criteria can be {@code null}, but the server needs at least some keywords or a sender.
+ */
+public class SearchRequest {
+
+  private final String keywords;
+  private final String sender;
+  private final String after;
+  private final String before;
+  private final String page;
+
+  /**
+   * Creates a new request to the server to search the messages sent in the current room.
+   * @param keywords The words that messages must contain, separated by spaces.
+   * @param sender The username of the sender of the messages.
+   * @param after The earliest time that messages can have been sent, as an ISO-8601 instant or
+   * date.
+   * @param before The time that messages must have been sent before, as an ISO-8601 instant or
+   * date.
+   * @param page The page of results to send, starting at 1.
+   */
+  public SearchRequest(String keywords, String sender, String after, String before, String page) {
+    this.keywords = keywords;
+    this.sender = sender;
+    this.after = after;
+    this.before = before;
+    this.page = page;
+  }
+
+  /**
+   * Gets the words that messages must contain.
+   * @return The words, separated by spaces.
+   */
+  public String getKeywords() {
+    return keywords;
+  }
+
+  /**
+   * Gets the username of the sender of the messages.
+   * @return The username of the sender.
+   */
+  public String getSender() {
+    return sender;
+  }
+
+  /**
+   * Gets the earliest time that messages can have been sent.
+   * @return The time, as an ISO-8601 instant or date.
+   */
+  public String getAfter() {
+    return after;
+  }
+
+  /**
+   * Gets the time that messages must have been sent before.
+   * @return The time, as an ISO-8601 instant or date.
+   */
+  public String getBefore() {
+    return before;
+  }
+
+  /**
+   * Gets the page of results to send.
+   * @return The page, starting at 1.
+   */
+  public String getPage() {
+    return page;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SearchRequest)) {
+      return false;
+    }
+    SearchRequest that = (SearchRequest) o;
+    return Objects.equals(keywords, that.keywords)
+        && Objects.equals(sender, that.sender)
+        && Objects.equals(after, that.after)
+        && Objects.equals(before, that.before)
+        && Objects.equals(page, that.page);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(keywords, sender, after, before, page);
+  }
+}
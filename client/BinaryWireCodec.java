@@ -0,0 +1,380 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>Encodes and decodes the compact binary form of the chat protocol. The client asks for the
+ * binary form by sending a handshake as the very first bytes of its connection. The server sends
+ * the same bytes back to confirm, after which everything sent in either direction is binary.</p>
+ * <p>Each message is sent as a frame: a varint holding the number of bytes that follow, a single
+ * byte that identifies the type of message, and then the message's fields. A string field is a
+ * varint holding one more than the number of bytes in its UTF-8 encoding, followed by those bytes.
+ * A collection is a varint holding one more than the number of strings in it, followed by the
+ * strings. In both cases, zero means {@code null}.</p>
+ * <p>The tag of each type of message, and the order of its fields, are fixed by the table in this
+ * class, which must be kept in step with the copy in the server. Any bytes left in a frame after
+ * the fields that the client knows about are ignored.</p>
+ */
+public final class BinaryWireCodec {
+
+  // A NUL byte, which XML can never start with, the letters "SCB" and the protocol version
+  private static final byte[] HANDSHAKE = {0, 'S', 'C', 'B', 1};
+
+  // The largest frame that the server will accept or send
+  private static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+  private static final MessageType[] MESSAGE_TYPES = {
+      new MessageType(1, ConnectionRequest.class, "username"),
+      new MessageType(2, ChatEntryRequest.class, "message", "*recipients"),
+      new MessageType(3, JoinRoomRequest.class, "room"),
+      new MessageType(4, LeaveRoomRequest.class),
+      new MessageType(5, ListRoomsRequest.class),
+      new MessageType(6, SearchRequest.class, "keywords", "sender", "after", "before", "page"),
+      new MessageType(16, ChatEntryNotification.class, "message", "sender", "*recipients"),
+      new MessageType(17, ConnectionNotification.class, "username"),
+      new MessageType(18, DisconnectNotification.class, "username"),
+      new MessageType(19, RequestFailedNotification.class, "failedRequestType", "reason"),
+      new MessageType(20, SystemNotification.class, "message"),
+      new MessageType(21, RoomJoinNotification.class, "username", "room"),
+      new MessageType(22, RoomLeaveNotification.class, "username", "room"),
+      new MessageType(23, RoomListNotification.class, "currentRoom", "*rooms"),
+      new MessageType(
+          24, SearchResultNotification.class,
+          "room", "sender", "sentAt", "message", "resultNumber", "totalResults"
+      )
+  };
+
+  private static final MessageType[] MESSAGE_TYPES_BY_TAG = new MessageType[256];
+  private static final Map<Class<?>, MessageType> MESSAGE_TYPES_BY_CLASS = new HashMap<>();
+
+  static {
+    for (MessageType messageType : MESSAGE_TYPES) {
+      MESSAGE_TYPES_BY_TAG[messageType.tag] = messageType;
+      MESSAGE_TYPES_BY_CLASS.put(messageType.type, messageType);
+    }
+  }
+
+  private BinaryWireCodec() {}
+
+  /**
+   * Asks the server to switch the connection to the binary protocol, and waits for it to confirm.
+   * This must be done before anything else is sent on the connection.
+   * @param inputStream The stream that the server's data is read from.
+   * @param outputStream The stream that data is sent to the server on.
+   * @throws IOException Thrown if the handshake could not be sent, or the server didn't confirm
+   * it.
+   */
+  public static void performHandshake(InputStream inputStream, OutputStream outputStream)
+      throws IOException {
+    outputStream.write(HANDSHAKE);
+    outputStream.flush();
+    byte[] reply = inputStream.readNBytes(HANDSHAKE.length);
+    if (!Arrays.equals(HANDSHAKE, reply)) {
+      throw new IOException("The server does not support the binary protocol");
+    }
+  }
+
+  /**
+   * Encodes a request and sends it to the server as a single frame.
+   * @param request The request to send.
+   * @param outputStream The stream that data is sent to the server on.
+   * @throws IOException Thrown if the frame could not be written.
+   * @throws XmlParseException Thrown if the request has no binary form.
+   */
+  public static void writeFrame(Object request, OutputStream outputStream)
+      throws IOException, XmlParseException {
+    outputStream.write(encode(request));
+    outputStream.flush();
+  }
+
+  /**
+   * Encodes a message as a complete frame, including its length prefix.
+   * @param message The message to encode.
+   * @return The frame.
+   * @throws NullPointerException Thrown if {@code message == null}.
+   * @throws XmlParseException Thrown if the type of message doesn't have a binary form, or one of
+   * its fields can't be read.
+   */
+  public static byte[] encode(Object message) throws NullPointerException, XmlParseException {
+    Objects.requireNonNull(message, "Message is null");
+    MessageType messageType = MESSAGE_TYPES_BY_CLASS.get(message.getClass());
+    if (messageType == null) {
+      throw new XmlParseException(
+          "Messages of type " + message.getClass() + " have no binary form"
+      );
+    }
+
+    FrameWriter writer = new FrameWriter();
+    writer.writeByte(messageType.tag);
+    try {
+      for (int i = 0; i < messageType.fields.length; i++) {
+        Object value = messageType.fields[i].get(message);
+        if (messageType.collections[i]) {
+          writer.writeStrings((Collection<?>) value);
+        } else {
+          writer.writeString(value == null ? null : value.toString());
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new XmlParseException("Failed to encode " + message.getClass(), e);
+    }
+    return writer.toFrame();
+  }
+
+  /**
+   * Reads the next notification from the server.
+   * @param inputStream The stream that the server's data is read from.
+   * @return The notification, or {@code null} if the server closed the connection.
+   * @throws IOException Thrown if the frame could not be read.
+   * @throws XmlParseException Thrown if the frame could be read, but isn't a notification that
+   * the client understands. The next frame can still be read.
+   */
+  public static ChatNotification readNotification(InputStream inputStream)
+      throws IOException, XmlParseException {
+    int length = readFrameLength(inputStream);
+    if (length < 0) {
+      return null;
+    }
+    byte[] frame = inputStream.readNBytes(length);
+    if (frame.length < length) {
+      throw new EOFException("Connection closed part of the way through a frame");
+    }
+
+    Object message = decode(frame);
+    if (!(message instanceof ChatNotification)) {
+      throw new XmlParseException(
+          "Received a binary message that is not a notification: "
+              + message.getClass().getSimpleName()
+      );
+    }
+    return (ChatNotification) message;
+  }
+
+  // Returns -1 if the stream ended cleanly before the frame started
+  private static int readFrameLength(InputStream inputStream) throws IOException {
+    int length = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int next = inputStream.read();
+      if (next < 0) {
+        if (shift == 0) {
+          return -1;
+        }
+        throw new EOFException("Connection closed part of the way through a frame");
+      }
+      length |= (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+          throw new IOException("Frame exceeds maximum length of " + MAX_FRAME_LENGTH + " bytes");
+        }
+        return length;
+      }
+    }
+    throw new IOException("Malformed frame length");
+  }
+
+  private static Object decode(byte[] frame) throws XmlParseException {
+    FrameReader reader = new FrameReader(frame);
+    int tag = reader.readByte();
+    MessageType messageType = MESSAGE_TYPES_BY_TAG[tag];
+    if (messageType == null) {
+      throw new XmlParseException("Received a binary message of unknown type " + tag);
+    }
+
+    try {
+      Object message = messageType.type.getDeclaredConstructor().newInstance();
+      for (int i = 0; i < messageType.fields.length; i++) {
+        Field field = messageType.fields[i];
+        if (messageType.collections[i]) {
+          String[] values = reader.readStrings();
+          if (values != null) {
+            field.set(message, createCollection(field.getType(), values));
+          }
+        } else {
+          field.set(message, reader.readString());
+        }
+      }
+      return message;
+    } catch (ReflectiveOperationException e) {
+      throw new XmlParseException("Failed to decode " + messageType.type, e);
+    }
+  }
+
+  private static Collection<String> createCollection(Class<?> type, String[] values) {
+    if (Set.class.isAssignableFrom(type)) {
+      return new HashSet<>(Arrays.asList(values));
+    }
+    List<String> list = new ArrayList<>(values.length);
+    list.addAll(Arrays.asList(values));
+    return list;
+  }
+
+  // A type of message, and the fields that are sent for it, in order. Field names starting with an
+  // asterisk are collections of strings.
+  private static final class MessageType {
+
+    private final int tag;
+    private final Class<?> type;
+    private final Field[] fields;
+    private final boolean[] collections;
+
+    private MessageType(int tag, Class<?> type, String... fieldNames) {
+      this.tag = tag;
+      this.type = type;
+      this.fields = new Field[fieldNames.length];
+      this.collections = new boolean[fieldNames.length];
+      for (int i = 0; i < fieldNames.length; i++) {
+        collections[i] = fieldNames[i].startsWith("*");
+        String name = collections[i] ? fieldNames[i].substring(1) : fieldNames[i];
+        try {
+          fields[i] = type.getDeclaredField(name);
+          // The fields are only ever used by this class, so they're left accessible
+          fields[i].setAccessible(true);
+        } catch (NoSuchFieldException e) {
+          throw new IllegalStateException(type.getName() + " has no field " + name, e);
+        }
+      }
+    }
+  }
+
+  // Builds the content of a frame, and then prefixes it with its length
+  private static final class FrameWriter {
+
+    private byte[] buffer = new byte[64];
+    private int length = 0;
+
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[length++] = (byte) value;
+    }
+
+    private void writeVarint(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[length++] = (byte) value;
+    }
+
+    private void writeString(String value) {
+      if (value == null) {
+        writeVarint(0);
+        return;
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length + 1);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, length, bytes.length);
+      length += bytes.length;
+    }
+
+    private void writeStrings(Collection<?> values) {
+      if (values == null) {
+        writeVarint(0);
+        return;
+      }
+      writeVarint(values.size() + 1);
+      for (Object value : values) {
+        writeString(value == null ? null : value.toString());
+      }
+    }
+
+    private void ensureCapacity(int extra) {
+      if (length + extra > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+      }
+    }
+
+    private byte[] toFrame() {
+      int prefixLength = 1;
+      for (int remaining = length >>> 7; remaining != 0; remaining >>>= 7) {
+        prefixLength++;
+      }
+      byte[] frame = new byte[prefixLength + length];
+      int position = 0;
+      int value = length;
+      while ((value & ~0x7F) != 0) {
+        frame[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      frame[position++] = (byte) value;
+      System.arraycopy(buffer, 0, frame, position, length);
+      return frame;
+    }
+  }
+
+  // Reads the content of a frame, failing if it ends early
+  private static final class FrameReader {
+
+    private final byte[] bytes;
+    private int position = 0;
+
+    private FrameReader(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    private int readByte() throws XmlParseException {
+      if (position >= bytes.length) {
+        throw new XmlParseException("Binary message ended unexpectedly");
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    private int readVarint() throws XmlParseException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int next = readByte();
+        value |= (next & 0x7F) << shift;
+        if ((next & 0x80) == 0) {
+          if (value < 0) {
+            break;
+          }
+          return value;
+        }
+      }
+      throw new XmlParseException("Malformed varint in binary message");
+    }
+
+    private String readString() throws XmlParseException {
+      int length = readVarint() - 1;
+      if (length < 0) {
+        return null;
+      }
+      if (length > bytes.length - position) {
+        throw new XmlParseException("Binary message ended unexpectedly");
+      }
+      String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    private String[] readStrings() throws XmlParseException {
+      int count = readVarint() - 1;
+      if (count < 0) {
+        return null;
+      }
+      // Each string takes at least one byte, which stops a bogus count from allocating too much
+      if (count > bytes.length - position) {
+        throw new XmlParseException("Binary message ended unexpectedly");
+      }
+      String[] values = new String[count];
+      for (int i = 0; i < count; i++) {
+        values[i] = readString();
+      }
+      return values;
+    }
+  }
+
+}
@@ -1,4 +1,7 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -31,6 +34,13 @@ import java.util.concurrent.atomic.AtomicReference;
  *     to.</td>
  *     <td>No. If unspecified, this will be 14001.</td>
  *   </tr>
+ *   <tr>
+ *     <td>wire</td>
+ *     <td>The form that data is exchanged with the server in. {@code xml} sends a line of XML for
+ *     each message. {@code binary} switches the connection to compact binary frames when it's
+ *     opened, which the server must support. See {@link WireFormat}.</td>
+ *     <td>No. If unspecified, this will be xml.</td>
+ *   </tr>
  * </table>
  * For example, to connect the client to a server located at 192.168.1.14:8080, the client would be
  * started as follows:
@@ -80,6 +90,7 @@ public class ChatClient extends SimpleHttpClient {
 
   private final InputStream cmdInput;
   private final PrintWriter cmdOutput;
+  private final WireFormat wireFormat;
   private final AtomicReference<ClientState> state =
       new AtomicReference<>(ClientState.DISCONNECTED);
   private final AtomicReference<String> username = new AtomicReference<>();
@@ -96,7 +107,11 @@ public class ChatClient extends SimpleHttpClient {
         .getParameter("ccp")
         .map(ChatClient::parsePortNumber)
         .orElse(14_001); // Default to 14,001 if not specified
-    new ChatClient(hostname, port).run();
+    WireFormat wireFormat = argumentParser
+        .getParameter("wire")
+        .map(WireFormat::fromArgumentName)
+        .orElse(WireFormat.XML);
+    new ChatClient(hostname, port, System.in, System.out, wireFormat).run();
   }
 
   private static int parsePortNumber(String portNumberText) throws IllegalArgumentException {
@@ -138,9 +153,30 @@ public class ChatClient extends SimpleHttpClient {
    */
   public ChatClient(String address, int port, InputStream inputStream, OutputStream outputStream)
       throws NullPointerException, IllegalArgumentException {
+    this(address, port, inputStream, outputStream, WireFormat.XML);
+  }
+
+  /**
+   * Creates a new client, looking for a server at the provided location.
+   * @param address The hostname of the server.
+   * @param port The port that the server will accept connections on.
+   * @param inputStream The input stream to listen for user input on.
+   * @param outputStream The output stream that output shout be printed to.
+   * @param wireFormat The form that data is exchanged with the server in.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   * @throws IllegalArgumentException Thrown if {@code port} is not a positive integer.
+   */
+  public ChatClient(
+      String address,
+      int port,
+      InputStream inputStream,
+      OutputStream outputStream,
+      WireFormat wireFormat
+  ) throws NullPointerException, IllegalArgumentException {
     super(address, port);
     this.cmdInput = Objects.requireNonNull(inputStream, "Input stream is null");
     this.cmdOutput = new PrintWriter(outputStream, true);
+    this.wireFormat = Objects.requireNonNull(wireFormat, "Wire format is null");
   }
 
   /**
@@ -176,12 +212,32 @@ public class ChatClient extends SimpleHttpClient {
   }
 
   @Override
-  protected void run(BufferedReader socketInput, PrintWriter socketOutput) {
-    InputHandler inputHandler = new ClientInputHandler(cmdInput, cmdOutput, this, socketOutput);
+  protected void run(InputStream socketInput, OutputStream socketOutput) throws IOException {
+    if (wireFormat == WireFormat.XML) {
+      super.run(socketInput, socketOutput);
+      return;
+    }
+
+    // Frames are read a few bytes at a time, so buffer the connection
+    InputStream binaryInput = new BufferedInputStream(socketInput);
+    OutputStream binaryOutput = new BufferedOutputStream(socketOutput);
+    BinaryWireCodec.performHandshake(binaryInput, binaryOutput);
+
+    run(
+        new ClientInputHandler(cmdInput, cmdOutput, this, new RequestSender(binaryOutput)),
+        new NotificationHandler(binaryInput, cmdOutput, this)
+    );
+  }
 
-    NotificationHandler notificationHandler =
-        new NotificationHandler(socketInput, cmdOutput, this);
+  @Override
+  protected void run(BufferedReader socketInput, PrintWriter socketOutput) {
+    run(
+        new ClientInputHandler(cmdInput, cmdOutput, this, socketOutput),
+        new NotificationHandler(socketInput, cmdOutput, this)
+    );
+  }
 
+  private void run(InputHandler inputHandler, NotificationHandler notificationHandler) {
     // Make sure that the input handler is closed if the connection to the server drops
     addOnCloseActionToNotificationHandler(notificationHandler, inputHandler);
 
@@ -25,7 +25,20 @@ public class ClientInputHandler implements InputHandler {
           + "type the @ symbol, followed by their usernames, all separated by single comma. Then "
           + "put some whitespace, then the message you want to send. For example, this would send "
           + "the message \"Hi guys!\" to the users Ben and Tom:" + System.lineSeparator()
-          + "@Ben,Tom Hi guys!";
+          + "@Ben,Tom Hi guys!" + System.lineSeparator().repeat(2) + "Everyone starts off in the "
+          + "lobby. To move to another room, type /join followed by the name of the room. If the "
+          + "room doesn't exist yet, it will be created. To go back to the lobby, type /leave. To "
+          + "see which rooms there are, type /rooms." + System.lineSeparator().repeat(2) + "To "
+          + "search the messages sent in your room, type /search followed by the words to look "
+          + "for. Add from:<username> to only find messages from that user, after:<date> or "
+          + "before:<date> to only find messages sent in that time, with dates like 2024-01-31 or "
+          + "2024-01-31T09:30:00Z, and page:<number> to see older results. For example:"
+          + System.lineSeparator() + "/search from:Lucy lunch page:2";
+
+  private static final String JOIN_COMMAND = "/join";
+  private static final String LEAVE_COMMAND = "/leave";
+  private static final String ROOMS_COMMAND = "/rooms";
+  private static final String SEARCH_COMMAND = "/search";
 
   private final InputStream cmdInputStream;
   private final PrintWriter cmdOutput;
@@ -46,11 +59,26 @@ public class ClientInputHandler implements InputHandler {
   public ClientInputHandler(
       InputStream cmdInputStream, PrintWriter cmdOutput, ChatClient chatClient,
       PrintWriter socketOutput
+  ) throws NullPointerException {
+    this(cmdInputStream, cmdOutput, chatClient, new RequestSender(socketOutput));
+  }
+
+  /**
+   * Crates a new input handler which will handle user input.
+   * @param cmdInputStream The method of user input.
+   * @param cmdOutput The method of displaying information to the user.
+   * @param chatClient The chat client instance.
+   * @param requestSender Sends data to the server, if the input instructs it to.
+   * @throws NullPointerException Thrown if any of the parameters are {@code null}.
+   */
+  public ClientInputHandler(
+      InputStream cmdInputStream, PrintWriter cmdOutput, ChatClient chatClient,
+      RequestSender requestSender
   ) throws NullPointerException {
     this.cmdInputStream = Objects.requireNonNull(cmdInputStream, "Input stream is null");
     this.cmdOutput = Objects.requireNonNull(cmdOutput);
     this.chatClient = Objects.requireNonNull(chatClient, "Chat client is null");
-    this.requestSender = new RequestSender(socketOutput);
+    this.requestSender = Objects.requireNonNull(requestSender, "Request sender is null");
   }
 
   /**
@@ -90,8 +118,10 @@ public class ClientInputHandler implements InputHandler {
     }
 
     if (ClientState.CONNECTED.equals(chatClient.getState())) {
-      // User is connected to a chat group so their input will be a message
-      buildAndSendChatEntryRequest(input);
+      // User is connected to a chat group so their input will be a room command or a message
+      if (!processRoomCommand(input)) {
+        buildAndSendChatEntryRequest(input);
+      }
     } else {
       // User is not connected to a chat group so their input will be a username for a connection
       // request
@@ -99,6 +129,63 @@ public class ClientInputHandler implements InputHandler {
     }
   }
 
+  /**
+   * Sends the appropriate request if the input is a room command.
+   * @return {@code true} if the input was a room command.
+   */
+  private boolean processRoomCommand(String input) {
+    String[] components = input.strip().split("\\s+", 2);
+    switch (components[0]) {
+      case JOIN_COMMAND:
+        if (components.length < 2) {
+          cmdOutput.println("Invalid input entered. Reason: No room specified");
+        } else {
+          sendRequest(new JoinRoomRequest(components[1].strip()));
+        }
+        return true;
+      case LEAVE_COMMAND:
+        sendRequest(new LeaveRoomRequest());
+        return true;
+      case ROOMS_COMMAND:
+        sendRequest(new ListRoomsRequest());
+        return true;
+      case SEARCH_COMMAND:
+        if (components.length < 2) {
+          cmdOutput.println("Invalid input entered. Reason: Nothing to search for");
+        } else {
+          sendRequest(buildSearchRequest(components[1]));
+        }
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // Picks out the from:, after:, before: and page: options. Everything else is a keyword.
+  private static SearchRequest buildSearchRequest(String arguments) {
+    StringBuilder keywords = new StringBuilder();
+    String sender = null;
+    String after = null;
+    String before = null;
+    String page = null;
+    for (String argument : arguments.strip().split("\\s+")) {
+      if (argument.startsWith("from:")) {
+        sender = argument.substring("from:".length());
+      } else if (argument.startsWith("after:")) {
+        after = argument.substring("after:".length());
+      } else if (argument.startsWith("before:")) {
+        before = argument.substring("before:".length());
+      } else if (argument.startsWith("page:")) {
+        page = argument.substring("page:".length());
+      } else {
+        keywords.append(keywords.length() == 0 ? "" : " ").append(argument);
+      }
+    }
+    return new SearchRequest(
+        keywords.length() == 0 ? null : keywords.toString(), sender, after, before, page
+    );
+  }
+
   private void buildAndSendChatEntryRequest(String input) {
     try {
       ChatEntryRequest request = new ChatEntryRequestFactory().build(input);
@@ -0,0 +1,15 @@
+/**
+ * Represents a request to the server to leave the current room and go back to the lobby.
+ */
+public class LeaveRoomRequest {
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof LeaveRoomRequest;
+  }
+
+  @Override
+  public int hashCode() {
+    return LeaveRoomRequest.class.hashCode();
+  }
+}
@@ -1,5 +1,6 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.SocketException;
 import java.util.ArrayList;
@@ -9,13 +10,15 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Handles notifications received from the server.
+ * Handles notifications received from the server, either as lines of XML or as binary frames.
  */
 public class NotificationHandler implements Runnable, ManagedLifeCycle {
 
   private static final Logger LOGGER = Logger.getLogger(NotificationHandler.class.getName());
 
+  // Exactly one of these is set, depending on the wire format
   private final BufferedReader socketInputReader;
+  private final InputStream binaryInput;
   private final PrintWriter cmdOutput;
   private final StandardChatNotificationParser notificationParser =
       StandardChatNotificationParser.getInstance();
@@ -37,6 +40,25 @@ public class NotificationHandler implements Runnable, ManagedLifeCycle {
   ) throws NullPointerException {
     this.socketInputReader =
         Objects.requireNonNull(socketInputReader, "Socket input reader is null");
+    this.binaryInput = null;
+    this.cmdOutput = Objects.requireNonNull(cmdOutput, "Cmd output is null");
+    this.chatClient = Objects.requireNonNull(chatClient, "Chat client is null");
+  }
+
+  /**
+   * Creates a new handler to process binary notifications received from the server. The
+   * connection must already have been switched to the binary protocol with
+   * {@link BinaryWireCodec#performHandshake(InputStream, java.io.OutputStream)}.
+   * @param binaryInput The input stream from the socket connection to the server. This is where
+   * new notifications will be read from.
+   * @param cmdOutput The output mechanism for displaying text to the user.
+   * @param chatClient The client instance.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public NotificationHandler(InputStream binaryInput, PrintWriter cmdOutput, ChatClient chatClient)
+      throws NullPointerException {
+    this.socketInputReader = null;
+    this.binaryInput = Objects.requireNonNull(binaryInput, "Socket input stream is null");
     this.cmdOutput = Objects.requireNonNull(cmdOutput, "Cmd output is null");
     this.chatClient = Objects.requireNonNull(chatClient, "Chat client is null");
   }
@@ -58,6 +80,11 @@ public class NotificationHandler implements Runnable, ManagedLifeCycle {
   }
 
   private void continuallyProcessInputFromSocket() throws IOException {
+    if (binaryInput != null) {
+      continuallyProcessFramesFromSocket();
+      return;
+    }
+
     String input;
     // Process the input line by line
     while ((input = socketInputReader.readLine()) != null) {
@@ -70,6 +97,23 @@ public class NotificationHandler implements Runnable, ManagedLifeCycle {
     }
   }
 
+  private void continuallyProcessFramesFromSocket() throws IOException {
+    // Process the input frame by frame
+    while (true) {
+      ChatNotification notification;
+      try {
+        notification = BinaryWireCodec.readNotification(binaryInput);
+      } catch (XmlParseException e) {
+        LOGGER.log(Level.WARNING, "Failed to parse notification", e);
+        continue;
+      }
+      if (notification == null) {
+        return;
+      }
+      notification.process(chatClient, cmdOutput);
+    }
+  }
+
   @Override
   public void close() {
     try {
@@ -80,7 +124,11 @@ public class NotificationHandler implements Runnable, ManagedLifeCycle {
   }
 
   private void attemptToClose() throws IOException {
-    socketInputReader.close();
+    if (binaryInput != null) {
+      binaryInput.close();
+    } else {
+      socketInputReader.close();
+    }
     closed = true;
     onCloseActions.forEach(Runnable::run);
   }
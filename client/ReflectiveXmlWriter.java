@@ -1,13 +1,7 @@
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.lang.reflect.Field;
-import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Objects;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
@@ -21,9 +15,6 @@ import javax.xml.stream.XMLStreamWriter;
  */
 public class ReflectiveXmlWriter implements XmlWriter {
 
-  private static final Logger LOGGER = Logger.getLogger(ReflectiveXmlWriter.class.getName());
-  private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
-
   private static final ReflectiveXmlWriter INSTANCE = new ReflectiveXmlWriter();
 
   private ReflectiveXmlWriter() {}
@@ -49,36 +40,16 @@ public class ReflectiveXmlWriter implements XmlWriter {
 
   @Override
   public <T> String toXml(T object) throws XmlParseException {
-    // Create an output stream to collect the data
-    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-      XMLStreamWriter streamWriter = null; // Not auto-closeable
-      try {
-        // Create a new XML stream writer
-        streamWriter = XML_OUTPUT_FACTORY.createXMLStreamWriter(outputStream);
-
-        // Write out the results via the stream writer
-        writeToXmlThrowExceptions(object, streamWriter);
-
-        // Convert the data in the output stream to a string and return this
-        return outputStream.toString(StandardCharsets.UTF_8);
-      } catch (Exception e) {
-        throw new XmlParseException(
-            "Failed to write element of type " + object.getClass().getName() + " to XML", e
-        );
-      } finally {
-        // Clean up the stream writer
-        if (streamWriter != null) {
-          try {
-            streamWriter.close();
-          } catch (XMLStreamException e) {
-            LOGGER.log(Level.WARNING, "Failed to close XML stream writer", e);
-          }
-        }
-      }
-
-    } catch (IOException e) {
-      LOGGER.log(Level.WARNING, "Could not close XML output stream");
-      throw new XmlParseException("Could not close XML output stream", e);
+    // The stream writer and its buffer are reused by each thread
+    XmlCodecContext context = XmlCodecContext.get();
+    try {
+      writeToXmlThrowExceptions(object, context.startDocument());
+      return context.finishDocumentAsString();
+    } catch (Exception e) {
+      context.abandonDocument();
+      throw new XmlParseException(
+          "Failed to write element of type " + object.getClass().getName() + " to XML", e
+      );
     }
   }
 
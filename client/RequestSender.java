@@ -1,30 +1,53 @@
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.Objects;
 
 /**
- * Responsible for sending requests to the server.
+ * Responsible for sending requests to the server, either as lines of XML or as binary frames.
  */
 public class RequestSender {
 
   private final ReflectiveXmlWriter xmlWriter = ReflectiveXmlWriter.getInstance();
 
+  // Exactly one of these is set, depending on the wire format
   private final PrintWriter output;
+  private final OutputStream binaryOutput;
 
   /**
-   * Creates a new sender, responsible for sending requests to the server.
+   * Creates a new sender, responsible for sending requests to the server as XML.
    * @param output The mechanism through which data should be sent to the server.
    * @throws NullPointerException Thrown if {@code output == null}.
    */
   public RequestSender(PrintWriter output) throws NullPointerException {
     this.output = Objects.requireNonNull(output, "Output is null");
+    this.binaryOutput = null;
   }
 
   /**
-   * Converts the given {@code request} to XML, and then sends it to the server.
+   * Creates a new sender, responsible for sending requests to the server as binary frames. The
+   * connection must already have been switched to the binary protocol with
+   * {@link BinaryWireCodec#performHandshake(java.io.InputStream, OutputStream)}.
+   * @param binaryOutput The stream through which data should be sent to the server.
+   * @throws NullPointerException Thrown if {@code binaryOutput == null}.
+   */
+  public RequestSender(OutputStream binaryOutput) throws NullPointerException {
+    this.output = null;
+    this.binaryOutput = Objects.requireNonNull(binaryOutput, "Output is null");
+  }
+
+  /**
+   * Converts the given {@code request} to the connection's wire format, and then sends it to the
+   * server.
    * @param request The data to send.
    * @throws RequestSendingException Thrown if there is a problem sending the request.
    */
   public void send(Object request) throws RequestSendingException {
+    if (binaryOutput != null) {
+      sendBinary(request);
+      return;
+    }
+
     try {
       // Convert the request to XML
       String xml = xmlWriter.toXml(request);
@@ -38,4 +61,19 @@ public class RequestSender {
     }
   }
 
+  private void sendBinary(Object request) throws RequestSendingException {
+    try {
+      // Frames must not be interleaved, so send each one in full before starting the next
+      synchronized (binaryOutput) {
+        BinaryWireCodec.writeFrame(request, binaryOutput);
+      }
+    } catch (XmlParseException e) {
+      throw new RequestSendingException(
+          "Failed to encode object type " + request.getClass(), e
+      );
+    } catch (IOException e) {
+      throw new RequestSendingException("Failed to send request to the server", e);
+    }
+  }
+
 }
@@ -0,0 +1,71 @@
+import java.io.PrintWriter;
+import java.util.Objects;
+
+/**
+ * A notification to indicate that a user has joined the room that this client is in.
+ */
+public class RoomJoinNotification implements ChatNotification {
+
+  private static final UserColourMapper COLOUR_MAPPER = SynchronizedUserColourMapper.getInstance();
+
+  private String username;
+  private String room;
+
+  @Override
+  public void process(ChatClient chatClient, PrintWriter cmdOutput) {
+    // Print the details out to the console, in the user's colour.
+    Colour colour = COLOUR_MAPPER.getColour(username);
+    String prefix = Objects.equals(username, chatClient.getUsername()) ? "You" : username + " has";
+    cmdOutput.println(colour.wrapText(prefix) + " joined room " + room);
+    cmdOutput.flush();
+  }
+
+  /**
+   * Gets the username of the user that joined the room.
+   * @return The username of the user that joined the room.
+   */
+  public String getUsername() {
+    return username;
+  }
+
+  /**
+   * Sets the username of the user that joined the room.
+   * @param username The username of the user that joined the room.
+   */
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  /**
+   * Gets the name of the room.
+   * @return The name of the room.
+   */
+  public String getRoom() {
+    return room;
+  }
+
+  /**
+   * Sets the name of the room.
+   * @param room The name of the room.
+   */
+  public void setRoom(String room) {
+    this.room = room;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RoomJoinNotification)) {
+      return false;
+    }
+    RoomJoinNotification that = (RoomJoinNotification) o;
+    return Objects.equals(username, that.username) && Objects.equals(room, that.room);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(username, room);
+  }
+}
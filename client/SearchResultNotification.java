@@ -0,0 +1,153 @@
+import java.io.PrintWriter;
+import java.util.Objects;
+
+/**
+ * A notification holding one message that was found by a {@link SearchRequest}. A page of results
+ * arrives as one of these for each message, newest first. If there are no messages on the page, a
+ * single notification arrives without a message.
+ */
+public class SearchResultNotification implements ChatNotification {
+
+  private static final SynchronizedUserColourMapper COLOUR_MAPPER =
+      SynchronizedUserColourMapper.getInstance();
+
+  private String room;
+  private String sender;
+  private String sentAt;
+  private String message;
+  private String resultNumber;
+  private String totalResults;
+
+  @Override
+  public void process(ChatClient chatClient, PrintWriter cmdOutput) {
+    if (message == null || message.isEmpty()) {
+      cmdOutput.println("0".equals(totalResults)
+          ? "No messages found"
+          : "No more messages found (" + totalResults + " in total)");
+    } else {
+      cmdOutput.println(
+          "[" + resultNumber + "/" + totalResults + "] " + sentAt + " #" + room + " "
+              + COLOUR_MAPPER.getColour(sender).wrapText(sender) + ": " + message
+      );
+    }
+    cmdOutput.flush();
+  }
+
+  /**
+   * Gets the name of the room that the message was sent in.
+   * @return The name of the room.
+   */
+  public String getRoom() {
+    return room;
+  }
+
+  /**
+   * Sets the name of the room that the message was sent in.
+   * @param room The name of the room.
+   */
+  public void setRoom(String room) {
+    this.room = room;
+  }
+
+  /**
+   * Gets the username of the sender.
+   * @return The username of the sender.
+   */
+  public String getSender() {
+    return sender;
+  }
+
+  /**
+   * Sets the username of the sender.
+   * @param sender The username of the sender.
+   */
+  public void setSender(String sender) {
+    this.sender = sender;
+  }
+
+  /**
+   * Gets the time that the message was sent.
+   * @return The time, in ISO-8601 format.
+   */
+  public String getSentAt() {
+    return sentAt;
+  }
+
+  /**
+   * Sets the time that the message was sent.
+   * @param sentAt The time, in ISO-8601 format.
+   */
+  public void setSentAt(String sentAt) {
+    this.sentAt = sentAt;
+  }
+
+  /**
+   * Gets the message that was found.
+   * @return The message.
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Sets the message that was found.
+   * @param message The message.
+   */
+  public void setMessage(String message) {
+    this.message = message;
+  }
+
+  /**
+   * Gets the position of the message in the results, starting at 1 for the newest.
+   * @return The position of the message.
+   */
+  public String getResultNumber() {
+    return resultNumber;
+  }
+
+  /**
+   * Sets the position of the message in the results, starting at 1 for the newest.
+   * @param resultNumber The position of the message.
+   */
+  public void setResultNumber(String resultNumber) {
+    this.resultNumber = resultNumber;
+  }
+
+  /**
+   * Gets the number of messages found in total, on every page.
+   * @return The number of messages found.
+   */
+  public String getTotalResults() {
+    return totalResults;
+  }
+
+  /**
+   * Sets the number of messages found in total, on every page.
+   * @param totalResults The number of messages found.
+   */
+  public void setTotalResults(String totalResults) {
+    this.totalResults = totalResults;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SearchResultNotification)) {
+      return false;
+    }
+    SearchResultNotification that = (SearchResultNotification) o;
+    return Objects.equals(room, that.room)
+        && Objects.equals(sender, that.sender)
+        && Objects.equals(sentAt, that.sentAt)
+        && Objects.equals(message, that.message)
+        && Objects.equals(resultNumber, that.resultNumber)
+        && Objects.equals(totalResults, that.totalResults);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(room, sender, sentAt, message, resultNumber, totalResults);
+  }
+}
@@ -1,6 +1,8 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.Objects;
@@ -42,14 +44,25 @@ public abstract class SimpleHttpClient implements Runnable {
   @Override
   public void run() {
     try (Socket socket = new Socket(address, port)) {
-      BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-      PrintWriter output = new PrintWriter(socket.getOutputStream(), true);
-      run(input, output);
+      run(socket.getInputStream(), socket.getOutputStream());
     } catch (IOException e) {
       LOGGER.log(Level.SEVERE, "Could not connect to server", e);
     }
   }
 
+  /**
+   * Runs the client over the raw streams of its connection. By default, the streams are wrapped so
+   * that text can be exchanged with the server one line at a time, and passed on to
+   * {@link #run(BufferedReader, PrintWriter)}. Implementations that exchange data in some other form
+   * can override this.
+   * @param input The stream that data from the server is read from.
+   * @param output The stream that data is sent to the server on.
+   * @throws IOException Thrown if there is a problem reading from/writing to the streams.
+   */
+  protected void run(InputStream input, OutputStream output) throws IOException {
+    run(new BufferedReader(new InputStreamReader(input)), new PrintWriter(output, true));
+  }
+
   /**
    * Runs the server. This implementation can vary depending on purpose.
    * @param input The mechanism for retrieving data from the server.
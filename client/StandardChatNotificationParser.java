@@ -1,12 +1,9 @@
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -29,13 +26,15 @@ public class StandardChatNotificationParser implements ChatNotificationParser {
       ConnectionNotification.class,
       DisconnectNotification.class,
       RequestFailedNotification.class,
-      SystemNotification.class
+      SystemNotification.class,
+      RoomJoinNotification.class,
+      RoomLeaveNotification.class,
+      RoomListNotification.class,
+      SearchResultNotification.class
   );
 
   private final XmlReader xmlReader = new ReflectiveXmlReader();
 
-  private final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
-
   /**
    * Gets the singleton instance.
    * @return The singleton instance.
@@ -48,33 +47,33 @@ public class StandardChatNotificationParser implements ChatNotificationParser {
 
   @Override
   public ChatNotification fromXml(String xmlString) throws XmlParseException {
-    // Create a new input stream for the given string
-    try (
-        InputStream xmlInputStream =
-            new ByteArrayInputStream(xmlString.getBytes(StandardCharsets.UTF_8))
-    ) {
-      // Parse the input stream
-      return fromXml(xmlInputStream);
-    } catch (IOException e) {
-      throw new XmlParseException("Failed to close XML input stream", e);
+    try {
+      // Read the characters as they are, rather than encoding them to bytes to be decoded again
+      return readAndClose(XmlCodecContext.get().createReader(new StringReader(xmlString)));
+    } catch (XMLStreamException e) {
+      throw new XmlParseException("Failed to parse message", e);
     }
   }
 
   @Override
   public ChatNotification fromXml(InputStream xmlInputStream) throws XmlParseException {
-    XMLStreamReader xmlStreamReader = null; // Not autocloseable
     try {
-      xmlStreamReader = xmlInputFactory.createXMLStreamReader(xmlInputStream);
-      return fromXmlThrowExceptions(xmlStreamReader);
+      return readAndClose(XmlCodecContext.get().createReader(xmlInputStream));
     } catch (XMLStreamException e) {
       throw new XmlParseException("Failed to parse message", e);
+    }
+  }
+
+  // The stream reader is reused by each thread, once it has been closed
+  private ChatNotification readAndClose(XMLStreamReader xmlStreamReader)
+      throws XmlParseException, XMLStreamException {
+    try {
+      return fromXmlThrowExceptions(xmlStreamReader);
     } finally {
-      if (xmlStreamReader != null) {
-        try {
-          xmlStreamReader.close();
-        } catch (XMLStreamException e) {
-          LOGGER.log(Level.WARNING, "Failed to close XML stream reader", e);
-        }
+      try {
+        xmlStreamReader.close();
+      } catch (XMLStreamException e) {
+        LOGGER.log(Level.WARNING, "Failed to close XML stream reader", e);
       }
     }
   }
@@ -0,0 +1,53 @@
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * The form that requests and notifications take on the connection to the server.
+ */
+public enum WireFormat {
+
+  /**
+   * Each message is a single line of XML. This is understood by every version of the server.
+   */
+  XML("xml"),
+
+  /**
+   * Each message is a length-prefixed binary frame, which is smaller and cheaper to produce. The
+   * connection is switched over with a handshake when it's opened. See {@link BinaryWireCodec}.
+   */
+  BINARY("binary");
+
+  private final String argumentName;
+
+  WireFormat(String argumentName) {
+    this.argumentName = argumentName;
+  }
+
+  /**
+   * Gets the name used to select this format from the command line.
+   * @return The name used to select this format from the command line.
+   */
+  public String getArgumentName() {
+    return argumentName;
+  }
+
+  /**
+   * Gets the format with the given command line name.
+   * @param argumentName The name of the format, as specified on the command line.
+   * @return The format with the given name.
+   * @throws IllegalArgumentException Thrown if no format has the given name.
+   */
+  public static WireFormat fromArgumentName(String argumentName) throws IllegalArgumentException {
+    for (WireFormat wireFormat : values()) {
+      if (wireFormat.argumentName.equalsIgnoreCase(argumentName)) {
+        return wireFormat;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Value for wire must be one of: " + Arrays.stream(values())
+                                                  .map(WireFormat::getArgumentName)
+                                                  .collect(Collectors.joining(", "))
+    );
+  }
+
+}
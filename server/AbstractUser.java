@@ -1,4 +1,6 @@
 import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * An abstract implementation of a {@link User} that contains details applicable to all users, such
@@ -6,8 +8,16 @@ import java.util.Objects;
  */
 public abstract class AbstractUser implements User {
 
+  private static final Logger LOGGER = Logger.getLogger(AbstractUser.class.getName());
+
   private String username;
-  private final ChatMediator chatMediator;
+
+  // Changes when the user moves between rooms, which happens on the processing thread of the room
+  // that they're leaving, so it must be visible to the threads that read the user's input
+  private volatile ChatMediator chatMediator;
+
+  // Set by the thread that reads the user's input, and read by whichever thread writes to them
+  private volatile WireFormat wireFormat = WireFormat.XML;
 
   /**
    * Creates a new user.
@@ -42,9 +52,44 @@ public abstract class AbstractUser implements User {
     this.username = username;
   }
 
+  /**
+   * Encodes the notification and then sends it to the user. When the same notification is sent
+   * to many users, it's more efficient to encode it once with
+   * {@link EncodedNotification#encode(Object)} and pass it to
+   * {@link #notifyOfEncodedEvent(EncodedNotification)} instead.
+   * @param notification The notification.
+   */
+  @Override
+  public void notifyOfEvent(Object notification) {
+    EncodedNotification encodedNotification;
+    try {
+      encodedNotification = EncodedNotification.encode(notification);
+    } catch (Exception e) {
+      // We should log this, but not necessarily disconnect the user
+      LOGGER.log(Level.SEVERE, "Could not notify user " + getUsername(), e);
+      return;
+    }
+    notifyOfEncodedEvent(encodedNotification);
+  }
+
   @Override
   public ChatMediator getChatMediator() {
     return chatMediator;
   }
 
+  @Override
+  public void setChatMediator(ChatMediator chatMediator) {
+    this.chatMediator = Objects.requireNonNull(chatMediator, "Chat mediator is null");
+  }
+
+  @Override
+  public WireFormat getWireFormat() {
+    return wireFormat;
+  }
+
+  @Override
+  public void setWireFormat(WireFormat wireFormat) {
+    this.wireFormat = Objects.requireNonNull(wireFormat, "Wire format is null");
+  }
+
 }
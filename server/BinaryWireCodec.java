@@ -0,0 +1,418 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>Encodes and decodes the compact binary form of the chat protocol. A client that would rather
+ * not pay for XML asks for the binary form by sending the {@link #HANDSHAKE} as the very first
+ * bytes of its connection. XML never starts with a NUL byte, so the server can tell the two apart
+ * from the first byte that it receives, and clients that send XML are unaffected. The server
+ * replies with the same bytes, after which everything sent in either direction is binary.</p>
+ * <p>Each message is sent as a frame: a varint holding the number of bytes that follow, a single
+ * byte that identifies the type of message, and then the message's fields. Every field in the
+ * protocol is either a string or a collection of strings. A string is a varint holding one more
+ * than the number of bytes in its UTF-8 encoding, followed by those bytes. A collection is a varint
+ * holding one more than the number of strings in it, followed by the strings. In both cases, zero
+ * means {@code null}. Varints hold seven bits per byte, least significant group first, with the
+ * top bit set on every byte but the last.</p>
+ * <p>The tag of each type of message, and the order of its fields, are fixed by the table in this
+ * class, which must be kept in step with the copies in the client and the bot. A reader ignores
+ * any bytes left in a frame after the fields that it knows about, so fields can be added to the end
+ * of a type without breaking older peers.</p>
+ */
+public final class BinaryWireCodec {
+
+  /**
+   * The bytes that a client sends to ask for the binary protocol, and that the server sends back to
+   * confirm it: a NUL byte, the letters "SCB" and the protocol version.
+   */
+  private static final byte[] HANDSHAKE = {0, 'S', 'C', 'B', 1};
+
+  /**
+   * The largest frame, excluding its length prefix, that will be accepted.
+   */
+  public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+  private static final MessageType[] MESSAGE_TYPES = {
+      new MessageType(1, ConnectionRequest.class, "username"),
+      new MessageType(2, ChatEntryRequest.class, "message", "*recipients"),
+      new MessageType(3, JoinRoomRequest.class, "room"),
+      new MessageType(4, LeaveRoomRequest.class),
+      new MessageType(5, ListRoomsRequest.class),
+      new MessageType(6, SearchRequest.class, "keywords", "sender", "after", "before", "page"),
+      new MessageType(16, ChatEntryNotification.class, "message", "sender", "*recipients"),
+      new MessageType(17, ConnectionNotification.class, "username"),
+      new MessageType(18, DisconnectNotification.class, "username"),
+      new MessageType(19, RequestFailedNotification.class, "failedRequestType", "reason"),
+      new MessageType(20, SystemNotification.class, "message"),
+      new MessageType(21, RoomJoinNotification.class, "username", "room"),
+      new MessageType(22, RoomLeaveNotification.class, "username", "room"),
+      new MessageType(23, RoomListNotification.class, "currentRoom", "*rooms"),
+      new MessageType(
+          24, SearchResultNotification.class,
+          "room", "sender", "sentAt", "message", "resultNumber", "totalResults"
+      )
+  };
+
+  private static final MessageType[] MESSAGE_TYPES_BY_TAG = new MessageType[256];
+  private static final Map<Class<?>, MessageType> MESSAGE_TYPES_BY_CLASS = new HashMap<>();
+
+  static {
+    for (MessageType messageType : MESSAGE_TYPES) {
+      MESSAGE_TYPES_BY_TAG[messageType.tag] = messageType;
+      MESSAGE_TYPES_BY_CLASS.put(messageType.type, messageType);
+    }
+  }
+
+  private BinaryWireCodec() {}
+
+  /**
+   * Gets a copy of the handshake that asks for, and confirms, the binary protocol.
+   * @return The handshake.
+   */
+  public static byte[] getHandshake() {
+    return HANDSHAKE.clone();
+  }
+
+  /**
+   * Determines whether the first byte received on a connection is the start of a handshake, rather
+   * than the start of an XML request.
+   * @param firstByte The first byte received.
+   * @return {@code true} if the client is asking for the binary protocol.
+   */
+  public static boolean isHandshakeStart(int firstByte) {
+    return firstByte == HANDSHAKE[0];
+  }
+
+  /**
+   * Gets the number of bytes in the handshake.
+   * @return The length of the handshake.
+   */
+  public static int getHandshakeLength() {
+    return HANDSHAKE.length;
+  }
+
+  /**
+   * Checks that the bytes received are a handshake for a version of the protocol that is
+   * supported.
+   * @param bytes The array containing the handshake.
+   * @param offset The index of the first byte of the handshake.
+   * @throws IOException Thrown if the bytes are not a supported handshake.
+   */
+  public static void verifyHandshake(byte[] bytes, int offset) throws IOException {
+    if (!Arrays.equals(HANDSHAKE, 0, HANDSHAKE.length, bytes, offset, offset + HANDSHAKE.length)) {
+      throw new IOException("Unsupported binary protocol handshake");
+    }
+  }
+
+  /**
+   * Reads a handshake from the stream and checks that it is supported.
+   * @param inputStream The stream to read from.
+   * @throws IOException Thrown if the handshake could not be read, or is not supported.
+   */
+  public static void readHandshake(InputStream inputStream) throws IOException {
+    byte[] handshake = inputStream.readNBytes(HANDSHAKE.length);
+    if (handshake.length < HANDSHAKE.length) {
+      throw new EOFException("Connection closed during binary protocol handshake");
+    }
+    verifyHandshake(handshake, 0);
+  }
+
+  /**
+   * Reads the length prefix of the next frame from the stream.
+   * @param inputStream The stream to read from.
+   * @return The number of bytes in the frame, or {@code -1} if the stream ended cleanly before the
+   * frame started.
+   * @throws IOException Thrown if the stream ends part of the way through the prefix, or the frame
+   * is too long.
+   */
+  public static int readFrameLength(InputStream inputStream) throws IOException {
+    int length = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int next = inputStream.read();
+      if (next < 0) {
+        if (shift == 0) {
+          return -1;
+        }
+        throw new EOFException("Connection closed part of the way through a frame");
+      }
+      length |= (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return checkFrameLength(length);
+      }
+    }
+    throw new IOException("Malformed frame length");
+  }
+
+  /**
+   * Checks that a frame length read from a client is acceptable.
+   * @param length The length of the frame.
+   * @return The length of the frame.
+   * @throws IOException Thrown if the frame is longer than {@link #MAX_FRAME_LENGTH}.
+   */
+  public static int checkFrameLength(int length) throws IOException {
+    if (length < 0 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("Frame exceeds maximum length of " + MAX_FRAME_LENGTH + " bytes");
+    }
+    return length;
+  }
+
+  /**
+   * Determines whether the given type of message has a binary form.
+   * @param type The type of message.
+   * @return {@code true} if messages of the type can be encoded.
+   */
+  public static boolean supports(Class<?> type) {
+    return MESSAGE_TYPES_BY_CLASS.containsKey(type);
+  }
+
+  /**
+   * Encodes a message as a complete frame, including its length prefix.
+   * @param message The message to encode.
+   * @return The frame.
+   * @throws NullPointerException Thrown if {@code message == null}.
+   * @throws XmlParseException Thrown if the type of message doesn't have a binary form, or one of
+   * its fields can't be read.
+   */
+  public static byte[] encode(Object message) throws NullPointerException, XmlParseException {
+    Objects.requireNonNull(message, "Message is null");
+    MessageType messageType = MESSAGE_TYPES_BY_CLASS.get(message.getClass());
+    if (messageType == null) {
+      throw new XmlParseException(
+          "Messages of type " + message.getClass() + " have no binary form"
+      );
+    }
+
+    FrameWriter writer = new FrameWriter();
+    writer.writeByte(messageType.tag);
+    try {
+      for (int i = 0; i < messageType.fields.length; i++) {
+        Object value = messageType.fields[i].get(message);
+        if (messageType.collections[i]) {
+          writer.writeStrings((Collection<?>) value);
+        } else {
+          writer.writeString(value == null ? null : value.toString());
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new XmlParseException("Failed to encode " + message.getClass(), e);
+    }
+    return writer.toFrame();
+  }
+
+  /**
+   * Decodes a request from the content of a frame, excluding its length prefix.
+   * @param bytes The array containing the frame.
+   * @param offset The index of the first byte of the frame.
+   * @param length The number of bytes in the frame.
+   * @param author The author of the request.
+   * @return The request.
+   * @throws XmlParseException Thrown if the frame is malformed, or isn't a request.
+   */
+  public static ChatRequest decodeRequest(byte[] bytes, int offset, int length, User author)
+      throws XmlParseException {
+    Object message = decode(bytes, offset, length);
+    if (!(message instanceof ChatRequest)) {
+      throw new XmlParseException(
+          "Received a binary message that is not a request: " + message.getClass().getSimpleName()
+      );
+    }
+    ChatRequest chatRequest = (ChatRequest) message;
+    chatRequest.setAuthor(author);
+    return chatRequest;
+  }
+
+  private static Object decode(byte[] bytes, int offset, int length) throws XmlParseException {
+    FrameReader reader = new FrameReader(bytes, offset, length);
+    int tag = reader.readByte();
+    MessageType messageType = MESSAGE_TYPES_BY_TAG[tag];
+    if (messageType == null) {
+      throw new XmlParseException("Received a binary message of unknown type " + tag);
+    }
+
+    try {
+      Object message = messageType.codec.newInstance();
+      for (int i = 0; i < messageType.fields.length; i++) {
+        XmlClassCodec.FieldCodec field = messageType.fields[i];
+        if (messageType.collections[i]) {
+          String[] values = reader.readStrings();
+          if (values != null) {
+            field.setValues(message, values);
+          }
+        } else {
+          field.set(message, reader.readString());
+        }
+      }
+      return message;
+    } catch (ReflectiveOperationException e) {
+      throw new XmlParseException("Failed to decode " + messageType.type, e);
+    }
+  }
+
+  // A type of message, and the fields that are sent for it, in order. Field names starting with an
+  // asterisk are collections of strings.
+  private static final class MessageType {
+
+    private final int tag;
+    private final Class<?> type;
+    private final XmlClassCodec codec;
+    private final XmlClassCodec.FieldCodec[] fields;
+    private final boolean[] collections;
+
+    private MessageType(int tag, Class<?> type, String... fieldNames) {
+      this.tag = tag;
+      this.type = type;
+      this.codec = XmlClassCodec.forClass(type);
+      this.fields = new XmlClassCodec.FieldCodec[fieldNames.length];
+      this.collections = new boolean[fieldNames.length];
+      for (int i = 0; i < fieldNames.length; i++) {
+        collections[i] = fieldNames[i].startsWith("*");
+        String name = collections[i] ? fieldNames[i].substring(1) : fieldNames[i];
+        try {
+          fields[i] = codec.getField(name);
+        } catch (NoSuchFieldException e) {
+          throw new IllegalStateException(type.getName() + " has no field " + name, e);
+        }
+      }
+    }
+  }
+
+  // Builds the content of a frame, and then prefixes it with its length
+  private static final class FrameWriter {
+
+    private byte[] buffer = new byte[64];
+    private int length = 0;
+
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[length++] = (byte) value;
+    }
+
+    private void writeVarint(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[length++] = (byte) value;
+    }
+
+    private void writeString(String value) {
+      if (value == null) {
+        writeVarint(0);
+        return;
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length + 1);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, length, bytes.length);
+      length += bytes.length;
+    }
+
+    private void writeStrings(Collection<?> values) {
+      if (values == null) {
+        writeVarint(0);
+        return;
+      }
+      writeVarint(values.size() + 1);
+      for (Object value : values) {
+        writeString(value == null ? null : value.toString());
+      }
+    }
+
+    private void ensureCapacity(int extra) {
+      if (length + extra > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+      }
+    }
+
+    private byte[] toFrame() {
+      int prefixLength = 1;
+      for (int remaining = length >>> 7; remaining != 0; remaining >>>= 7) {
+        prefixLength++;
+      }
+      byte[] frame = new byte[prefixLength + length];
+      int position = 0;
+      int value = length;
+      while ((value & ~0x7F) != 0) {
+        frame[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      frame[position++] = (byte) value;
+      System.arraycopy(buffer, 0, frame, position, length);
+      return frame;
+    }
+  }
+
+  // Reads the content of a frame, failing if it ends early
+  private static final class FrameReader {
+
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+
+    private FrameReader(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    private int readByte() throws XmlParseException {
+      if (position >= end) {
+        throw new XmlParseException("Binary message ended unexpectedly");
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    private int readVarint() throws XmlParseException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int next = readByte();
+        value |= (next & 0x7F) << shift;
+        if ((next & 0x80) == 0) {
+          if (value < 0) {
+            break;
+          }
+          return value;
+        }
+      }
+      throw new XmlParseException("Malformed varint in binary message");
+    }
+
+    private String readString() throws XmlParseException {
+      int length = readVarint() - 1;
+      if (length < 0) {
+        return null;
+      }
+      if (length > end - position) {
+        throw new XmlParseException("Binary message ended unexpectedly");
+      }
+      String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    private String[] readStrings() throws XmlParseException {
+      int count = readVarint() - 1;
+      if (count < 0) {
+        return null;
+      }
+      // Each string takes at least one byte, which stops a bogus count from allocating too much
+      if (count > end - position) {
+        throw new XmlParseException("Binary message ended unexpectedly");
+      }
+      String[] values = new String[count];
+      for (int i = 0; i < count; i++) {
+        values[i] = readString();
+      }
+      return values;
+    }
+  }
+
+}
@@ -1,9 +1,22 @@
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * A request processor that blocks to ensure that all inbound requests are processed one at a time.
  * This improves the transactional accuracy of requests made from clients, as requests cannot
  * interfere with one another during execution. It also alleviates the necessity for various data
  * structures and processes to cater for thread safety - as long as the {@link ChatRequest}
  * processes synchronously, concurrent modifications should never occur.
+ * <p>Mutual exclusion is provided by a {@link ReentrantLock} rather than a {@code synchronized}
+ * method. Requests regularly block on socket writes while the lock is held, and a virtual thread
+ * that blocks inside a monitor pins its carrier thread, whereas one waiting on (or blocking while
+ * holding) a {@link Lock} is unmounted. The lock is reentrant, so a request can safely submit
+ * further requests from the processing thread.</p>
+ * <p>The time that each request waits for the lock, and then takes to process, is recorded in
+ * the {@link ServerMetrics}. While Flight Recorder is running, the wait and the processing are
+ * also covered by a {@link RequestEnqueueEvent} and a {@link RequestProcessEvent}.</p>
+ * <p>Every thread that submits a request contends for the same lock. Where that contention matters,
+ * {@link RingBufferChatRequestProcessor} provides the same guarantees without it.</p>
  */
 public class BlockingChatRequestProcessor implements ChatRequestProcessor {
 
@@ -17,12 +30,37 @@ public class BlockingChatRequestProcessor implements ChatRequestProcessor {
     return INSTANCE;
   }
 
-  private BlockingChatRequestProcessor() {}
+  private final Lock lock = new ReentrantLock();
+  private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+  /**
+   * Creates a new processor with a lock of its own. Requests passed to different processors can
+   * be processed at the same time, so each processor should only ever be used with a single chat
+   * group. Most callers should use the shared {@link #getInstance()}.
+   */
+  public BlockingChatRequestProcessor() {}
 
   @Override
-  public synchronized void process(ChatRequest chatRequest, ChatMediator chatMediator)
+  public void process(ChatRequest chatRequest, ChatMediator chatMediator)
       throws RequestProcessingException {
-    chatRequest.process(chatMediator);
+    RequestEnqueueEvent enqueueEvent = new RequestEnqueueEvent();
+    enqueueEvent.begin();
+    long requestedAt = System.nanoTime();
+    lock.lock();
+    long acquiredAt = System.nanoTime();
+    enqueueEvent.commitFor(chatRequest);
+    RequestProcessEvent processEvent = new RequestProcessEvent();
+    processEvent.begin();
+    try {
+      chatRequest.process(chatMediator);
+    } finally {
+      lock.unlock();
+      // Recorded after unlocking, so that the next request isn't held up by it
+      metrics.recordRequest(
+          chatRequest.getClass(), acquiredAt - requestedAt, System.nanoTime() - acquiredAt
+      );
+      processEvent.commitFor(chatRequest, chatMediator);
+    }
   }
 
 }
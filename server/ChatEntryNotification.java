@@ -7,9 +7,12 @@ import java.util.Objects;
  */
 public class ChatEntryNotification {
 
-  private final String message;
-  private final String sender;
-  private final Collection<String> recipients;
+  private String message;
+  private String sender;
+  private Collection<String> recipients;
+
+  // Used when the notification is read back from XML, such as from a MessageJournal
+  private ChatEntryNotification() {}
 
   /**
    * Creates a new notification to indicate that a user has left a message in the chat.
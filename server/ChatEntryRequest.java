@@ -1,4 +1,6 @@
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
@@ -78,6 +80,39 @@ public class ChatEntryRequest implements ChatRequest {
     }
   }
 
+  /**
+   * Determines whether the message can be sent to the given group in the same fan out as the other
+   * public messages around it (see {@link #processAll(List, ChatMediator)}). That's the case if it
+   * is for everyone in the group, and its author is in the group to send it.
+   * @param chatMediator The chat group to send the message in.
+   * @return {@code true} if the message can share a fan out.
+   */
+  public boolean canShareFanOut(ChatMediator chatMediator) {
+    return (recipients == null || recipients.isEmpty())
+        && !chatMediator.isClosed()
+        && chatMediator.containsUser(author);
+  }
+
+  /**
+   * Sends several public messages to everyone in the group, in order, in a single fan out. This
+   * has the same effect as processing each request in turn, but each user is offered all of the
+   * messages at once.
+   * @param requests The requests to process. Each must be able to share a fan out (see
+   * {@link #canShareFanOut(ChatMediator)}).
+   * @param chatMediator The chat group to send the messages in.
+   */
+  public static void processAll(List<ChatEntryRequest> requests, ChatMediator chatMediator) {
+    List<ChatEntryNotification> notifications = new ArrayList<>(requests.size());
+    for (ChatEntryRequest request : requests) {
+      notifications.add(
+          new ChatEntryNotification(
+              request.message, request.author.getUsername(), request.recipients
+          )
+      );
+    }
+    chatMediator.notifyUsersOfAll(notifications);
+  }
+
   private Set<String> buildRecipientsForNotification() {
     if (recipients == null || recipients.isEmpty()) {
       return recipients;
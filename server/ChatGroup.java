@@ -1,21 +1,47 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class uses the mediator pattern to communicate with other users in the system. This
  * implementation is <i>not</i> thread-safe. (Thread safety is guaranteed by ensuring the all
- * interactions with this group go through a blocking processor - see
- * {@link BlockingChatRequestProcessor}.)
+ * interactions with this group go through a processor that handles one request at a time - see
+ * {@link RingBufferChatRequestProcessor} and {@link BlockingChatRequestProcessor}.)
+ * <p>Broadcasts don't copy the members. Instead, the group keeps a snapshot of its members as an
+ * array that is never modified once it has been published, which broadcasts hand to the
+ * {@link FanOutExecutor} as it is, so the fan out threads can read it without any locking. Users
+ * that join are appended to the snapshot's array in place, into spare capacity that no earlier
+ * snapshot can see, so a rush of users connecting at once costs amortised constant time each
+ * rather than a copy of the whole group each. Users that leave can't be removed in place, so they
+ * mark the snapshot as stale, and it's rebuilt the next time that it's needed, once for however
+ * many users have left in the meantime.</p>
  */
 public class ChatGroup implements ChatMediator {
 
   private static final Logger LOGGER = Logger.getLogger(ChatGroup.class.getName());
 
+  private final String name;
+  private final RoomRegistry roomRegistry;
+  private final FanOutExecutor fanOutExecutor;
+  private final MessageJournal messageJournal;
+  private final RecentHistory recentHistory;
+  private final OfflineMessageStore offlineMessageStore;
+  private final SearchIndex searchIndex;
   private final Collection<User> users = new HashSet<>();
+  // Indexes the members by username, so that finding a user by name doesn't mean scanning them all
+  private final Map<String, User> usersByUsername = new HashMap<>();
+  // Volatile so that the snapshot can be read from any thread. Only replaced while processing.
+  private volatile MemberSnapshot memberSnapshot = MemberSnapshot.EMPTY;
+  private boolean memberSnapshotStale = false;
   private boolean closed = false;
 
   /* We can pre-size this list as we know exactly how many action events will be received in this
@@ -24,7 +50,61 @@ public class ChatGroup implements ChatMediator {
   private final Collection<Runnable> onCloseActions = new ArrayList<>(1);
 
   /**
-   * Adds a user to the group.
+   * Creates a standalone group that doesn't belong to a {@link RoomRegistry}. Broadcasts are
+   * delivered on the thread that sends them.
+   */
+  public ChatGroup() {
+    this(
+        RoomRegistry.DEFAULT_ROOM_NAME,
+        null,
+        new FanOutExecutor(1, ServerConfiguration.DEFAULT_FAN_OUT_BATCH_SIZE),
+        null
+    );
+  }
+
+  /**
+   * Creates a new group.
+   * @param name The name of the group.
+   * @param roomRegistry The registry that the group belongs to. Usernames are reserved across all
+   * of the rooms in the registry, so that users can move between rooms without clashing. Messages
+   * are appended to the registry's {@link MessageJournal} and added to its {@link SearchIndex},
+   * and private messages for users that aren't in the group are kept in its
+   * {@link OfflineMessageStore}, if it has them. This may be {@code null} for a standalone group.
+   * @param fanOutExecutor Delivers broadcasts to the members of the group.
+   * @param recentHistory Remembers the most recent public messages, which are replayed to users
+   * when they join the group. This may be {@code null} if nothing should be replayed.
+   * @throws NullPointerException Thrown if {@code name == null} or {@code fanOutExecutor == null}.
+   */
+  public ChatGroup(
+      String name,
+      RoomRegistry roomRegistry,
+      FanOutExecutor fanOutExecutor,
+      RecentHistory recentHistory
+  ) throws NullPointerException {
+    this.name = Objects.requireNonNull(name, "Name is null");
+    this.roomRegistry = roomRegistry;
+    this.fanOutExecutor = Objects.requireNonNull(fanOutExecutor, "Fan out executor is null");
+    this.messageJournal = roomRegistry == null ? null : roomRegistry.getMessageJournal();
+    this.offlineMessageStore =
+        roomRegistry == null ? null : roomRegistry.getOfflineMessageStore();
+    this.searchIndex = roomRegistry == null ? null : roomRegistry.getSearchIndex();
+    this.recentHistory = recentHistory;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public RoomRegistry getRoomRegistry() {
+    return roomRegistry;
+  }
+
+  /**
+   * Adds a user to the group. The user is sent the group's recent public messages, if it keeps
+   * any, before anything else is sent to them from the group. Any private messages that were kept
+   * for them while they were away follow shortly afterwards.
    * @param user The user to be added to the group.
    * @return {@code true} if the user was added to the group. This could return {@code false} if
    * the user is already a member of the group.
@@ -35,27 +115,58 @@ public class ChatGroup implements ChatMediator {
 
     // Users within a group must have a unique name so deny entry to the user is the username is
     // already taken
-    boolean userAdded = !usernameIsAlreadyTaken(user.getUsername()) && users.add(user);
+    boolean userAdded = !users.contains(user)
+        && !usernameIsAlreadyTaken(user.getUsername())
+        && (roomRegistry == null || roomRegistry.reserveUsername(user))
+        && users.add(user);
 
     if (userAdded) {
-      user.onClose(removedUser -> {
-        if (!closed) {
-          // Ensure that the user is removed from the group on close so that we don't have a memory
-          // leak here. This shouldn't cause a concurrent modification of the underlying array, as
-          // disconnects of users that form part of a chat group are processed synchronously as a
-          // separate request.
-          users.remove(removedUser);
-          LOGGER.info(removedUser.getUsername() + " has left the chat");
-        }
-      });
-      LOGGER.info(user.getUsername() + " has joined the chat");
+      usersByUsername.put(user.getUsername(), user);
+      // A rebuild of a stale snapshot already includes the user, as they've been added to users
+      memberSnapshot = memberSnapshotStale ? getMemberSnapshot() : memberSnapshot.append(user);
+      if (roomRegistry == null) {
+        // Ensure that the user is removed from the group on close so that we don't have a memory
+        // leak here. In a registry, the registry removes them from whichever room they're in by
+        // then instead, so that moving between rooms doesn't add an action for every room.
+        user.onClose(removedUser -> {
+          if (!closed) {
+            removeUser(removedUser);
+          }
+        });
+      }
+      ServerMetrics.getInstance().recordJoin();
+      LOGGER.info(user.getUsername() + " has joined the chat (" + name + ")");
+      replayRecentHistory(user);
+      if (offlineMessageStore != null) {
+        offlineMessageStore.deliverTo(user);
+      }
     }
 
     return userAdded;
   }
 
+  private void replayRecentHistory(User user) {
+    EncodedNotification replay = recentHistory == null ? null : recentHistory.getReplay();
+    if (replay != null) {
+      user.notifyOfEncodedEvent(replay);
+    }
+  }
+
   private boolean usernameIsAlreadyTaken(String username) {
-    return users.stream().map(User::getUsername).anyMatch(username::equals);
+    return usersByUsername.containsKey(username);
+  }
+
+  @Override
+  public boolean removeUser(User user) throws IllegalStateException {
+    verifyNotClosed();
+    boolean userRemoved = users.remove(user);
+    if (userRemoved) {
+      usersByUsername.remove(user.getUsername(), user);
+      memberSnapshotStale = true;
+      ServerMetrics.getInstance().recordLeave();
+      LOGGER.info(user.getUsername() + " has left the chat (" + name + ")");
+    }
+    return userRemoved;
   }
 
   @Override
@@ -64,24 +175,81 @@ public class ChatGroup implements ChatMediator {
     return users.contains(user);
   }
 
+  @Override
+  public boolean containsUsername(String username) {
+    return username != null && usernameIsAlreadyTaken(username);
+  }
+
   @Override
   public boolean containsUserMatching(Predicate<User> userPredicate) {
-    return users.stream().anyMatch(userPredicate);
+    MemberSnapshot members = getMemberSnapshot();
+    for (int i = 0; i < members.count; i++) {
+      if (userPredicate.test(members.users[i])) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
-   * Notifies all users of the given event.
+   * Notifies all users of the given event. If the event is a {@link ChatEntryNotification}, it is
+   * also remembered so that it can be replayed to users that join later.
    * @param notification The notification to be sent.
    * @throws IllegalStateException Thrown if the chat group has been closed.
    */
   @Override
   public void notifyUsers(Object notification) throws IllegalStateException {
     verifyNotClosed();
-    notifyUsersByPredicate(notification, user -> true);
+    EncodedNotification encodedNotification = encode(notification);
+    if (encodedNotification == null) {
+      return;
+    }
+    record(notification, encodedNotification);
+    // Only messages sent to everyone are replayed, so private messages are never seen by others
+    if (recentHistory != null && notification instanceof ChatEntryNotification) {
+      recentHistory.add(encodedNotification);
+    }
+    broadcast(encodedNotification, user -> true);
   }
 
   /**
-   * Notifies only specific users of the given event.
+   * Notifies all users of several events, in order. Each event is recorded and, if it's a
+   * {@link ChatEntryNotification}, remembered, exactly as if it had been sent on its own with
+   * {@link #notifyUsers(Object)}, but the events are then fanned out together, so that every user
+   * is offered them all at once. A burst of messages therefore costs one pass over the users, and
+   * each user a single write, rather than one for every message.
+   * @param notifications The notifications to be sent.
+   * @throws IllegalStateException Thrown if the chat group has been closed.
+   */
+  @Override
+  public void notifyUsersOfAll(List<?> notifications) throws IllegalStateException {
+    verifyNotClosed();
+    if (notifications.size() == 1) {
+      notifyUsers(notifications.get(0));
+      return;
+    }
+
+    List<EncodedNotification> encodedNotifications = new ArrayList<>(notifications.size());
+    for (Object notification : notifications) {
+      EncodedNotification encodedNotification = encode(notification);
+      if (encodedNotification != null) {
+        record(notification, encodedNotification);
+        if (recentHistory != null && notification instanceof ChatEntryNotification) {
+          recentHistory.add(encodedNotification);
+        }
+        encodedNotifications.add(encodedNotification);
+      }
+    }
+    if (!encodedNotifications.isEmpty()) {
+      broadcast(EncodedNotification.concat(encodedNotifications), user -> true);
+    }
+  }
+
+  /**
+   * Notifies only specific users of the given event. The recipients are looked up by name, so the
+   * cost depends on the number of recipients rather than the size of the group. If the event is a
+   * {@link ChatEntryNotification}, it is kept for any recipients that aren't in the group, and
+   * given to them the next time that they join a room.
    * @param notification The notification to be sent.
    * @param usernames The usernames of all of the users that the notification should be sent to.
    * This can be set to {@code null} or an empty collection if the notification should be sent to
@@ -92,10 +260,27 @@ public class ChatGroup implements ChatMediator {
   public void notifyUsersByUsername(Object notification, Collection<String> usernames)
       throws IllegalStateException {
     verifyNotClosed();
-    notifyUsersByPredicate(
-        notification,
-        user -> usernames == null || usernames.isEmpty() || usernames.contains(user.getUsername())
-    );
+    if (usernames == null || usernames.isEmpty()) {
+      notifyUsers(notification);
+      return;
+    }
+
+    EncodedNotification encodedNotification = encode(notification);
+    if (encodedNotification == null) {
+      return;
+    }
+    record(notification, encodedNotification);
+    // Each recipient should only be notified once, even if they're named more than once
+    Collection<String> recipients =
+        usernames instanceof Set ? usernames : new HashSet<>(usernames);
+    for (String username : recipients) {
+      User user = usersByUsername.get(username);
+      if (user != null) {
+        user.notifyOfEncodedEvent(encodedNotification);
+      } else if (offlineMessageStore != null && notification instanceof ChatEntryNotification) {
+        offlineMessageStore.store(username, encodedNotification);
+      }
+    }
   }
 
   /**
@@ -108,9 +293,56 @@ public class ChatGroup implements ChatMediator {
   public void notifyUsersByPredicate(Object notification, Predicate<User> predicate)
       throws IllegalStateException {
     verifyNotClosed();
-    users.parallelStream()
-         .filter(predicate)
-         .forEach(user -> user.notifyOfEvent(notification));
+    EncodedNotification encodedNotification = encode(notification);
+    if (encodedNotification == null) {
+      return;
+    }
+    record(notification, encodedNotification);
+    broadcast(encodedNotification, predicate);
+  }
+
+  private void broadcast(EncodedNotification encodedNotification, Predicate<User> predicate) {
+    MemberSnapshot members = getMemberSnapshot();
+    fanOutExecutor.fanOut(
+        members.users,
+        members.count,
+        user -> {
+          if (predicate.test(user)) {
+            user.notifyOfEncodedEvent(encodedNotification);
+          }
+        }
+    );
+  }
+
+  // Rebuilds the snapshot first if users have left since it was taken
+  private MemberSnapshot getMemberSnapshot() {
+    if (memberSnapshotStale) {
+      memberSnapshot = MemberSnapshot.of(users);
+      memberSnapshotStale = false;
+    }
+    return memberSnapshot;
+  }
+
+  // Encodes the notification once up front, rather than once per recipient. Returns null if the
+  // notification can't be encoded.
+  private static EncodedNotification encode(Object notification) {
+    try {
+      return EncodedNotification.encode(notification);
+    } catch (XmlParseException e) {
+      LOGGER.log(Level.SEVERE, "Could not encode notification for broadcast", e);
+      return null;
+    }
+  }
+
+  // Only queues the notification, so that the journal and the search index are written outside of
+  // request processing
+  private void record(Object notification, EncodedNotification encodedNotification) {
+    if (messageJournal != null) {
+      messageJournal.append(name, encodedNotification);
+    }
+    if (searchIndex != null && notification instanceof ChatEntryNotification) {
+      searchIndex.add(name, (ChatEntryNotification) notification);
+    }
   }
 
   @Override
@@ -126,6 +358,9 @@ public class ChatGroup implements ChatMediator {
       users.forEach(this::disconnect);
       onCloseActions.forEach(Runnable::run);
       users.clear();
+      usersByUsername.clear();
+      memberSnapshot = MemberSnapshot.EMPTY;
+      memberSnapshotStale = false;
     }
   }
 
@@ -146,4 +381,35 @@ public class ChatGroup implements ChatMediator {
     onCloseActions.add(Objects.requireNonNull(action, "Action is null"));
   }
 
+  // The first count elements of the array are the members. Those elements are never modified, but
+  // a later snapshot may fill in the rest of the array, which this snapshot never reads.
+  private static final class MemberSnapshot {
+
+    private static final MemberSnapshot EMPTY = new MemberSnapshot(new User[0], 0);
+    private static final int MIN_CAPACITY = 16;
+
+    private final User[] users;
+    private final int count;
+
+    private MemberSnapshot(User[] users, int count) {
+      this.users = users;
+      this.count = count;
+    }
+
+    private static MemberSnapshot of(Collection<User> members) {
+      User[] users = members.toArray(new User[Math.max(MIN_CAPACITY, members.size() * 2)]);
+      return new MemberSnapshot(users, members.size());
+    }
+
+    // Only ever called on the latest snapshot, so nothing else has filled in the next element
+    private MemberSnapshot append(User user) {
+      User[] appended = count < users.length
+          ? users
+          : Arrays.copyOf(users, Math.max(MIN_CAPACITY, count * 2));
+      appended[count] = user;
+      return new MemberSnapshot(appended, count + 1);
+    }
+
+  }
+
 }
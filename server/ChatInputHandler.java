@@ -1,21 +1,22 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * Handles the receiving of data from a user. Note that the {@link #run()} implementation is
  * blocking, so this should be run on its own thread.
+ * <p>Requests are read as lines of XML, unless the first byte received is the start of a binary
+ * protocol handshake, in which case they're read as binary frames instead (see
+ * {@link BinaryWireCodec}).</p>
  */
 public class ChatInputHandler implements Runnable {
 
-  private static final Logger LOGGER = Logger.getLogger(ChatInputHandler.class.getName());
-
-  private final User user;
+  private final UserRequestHandler requestHandler;
   private final InputStream inputStream;
 
   /**
@@ -25,9 +26,16 @@ public class ChatInputHandler implements Runnable {
    * @param inputStream The input stream that sends data to the server. Requests are read one line
    * at a time, so it's expected that the input stream conforms with this convention - sending a
    * request without a terminating line break will not be processed as expected.
+   * @param requestProcessor Processes the user's requests, one at a time.
+   * @param requestParser Parses each line of input into a request.
    */
-  public ChatInputHandler(User user, InputStream inputStream) {
-    this.user = Objects.requireNonNull(user, "User is null");
+  public ChatInputHandler(
+      User user,
+      InputStream inputStream,
+      ChatRequestProcessor requestProcessor,
+      ChatRequestParser requestParser
+  ) {
+    this.requestHandler = new UserRequestHandler(user, requestProcessor, requestParser);
     this.inputStream = Objects.requireNonNull(inputStream, "Input stream is null");
   }
 
@@ -35,13 +43,48 @@ public class ChatInputHandler implements Runnable {
   public void run() {
     try {
       handleAndThrowErrors();
+      // The client closed the connection, which is handled in the same way as losing it
+      requestHandler.handleConnectionLost(new EOFException("End of stream"));
     } catch (IOException e) {
-      handleInputException(e);
+      // Most likely the connection dropped, or the server is shutting down
+      requestHandler.handleConnectionLost(e);
     }
   }
 
   private void handleAndThrowErrors() throws IOException {
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+    try (InputStream input = new BufferedInputStream(new MeteredInputStream(inputStream))) {
+      // Peek at the first byte to find out which protocol the client is speaking
+      input.mark(1);
+      int firstByte = input.read();
+      input.reset();
+
+      if (BinaryWireCodec.isHandshakeStart(firstByte)) {
+        handleFrames(input);
+      } else {
+        handleLines(input);
+      }
+    }
+  }
+
+  private void handleFrames(InputStream input) throws IOException {
+    BinaryWireCodec.readHandshake(input);
+    requestHandler.acceptBinaryHandshake();
+
+    byte[] frame = new byte[256];
+    int length;
+    while ((length = BinaryWireCodec.readFrameLength(input)) >= 0) {
+      if (length > frame.length) {
+        frame = new byte[Math.max(length, frame.length * 2)];
+      }
+      if (input.readNBytes(frame, 0, length) < length) {
+        throw new EOFException("Connection closed part of the way through a frame");
+      }
+      requestHandler.handleFrame(frame, 0, length);
+    }
+  }
+
+  private void handleLines(InputStream input) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
       String text;
 
       // Keep reading from the input stream
@@ -53,71 +96,39 @@ public class ChatInputHandler implements Runnable {
         }
 
         // When we hit some interesting data, parse it and try to process it
-        parseRequest(text).ifPresent(this::processRequest);
+        requestHandler.handleLine(text);
       }
     }
   }
 
-  private Optional<ChatRequest> parseRequest(String text) {
-    try {
-      return Optional.of(StandardChatRequestParser.getInstance().fromXml(text, user));
-    } catch (Exception e) {
-      LOGGER.log(Level.WARNING, "Failed to parse message", e);
-
-      // Notify the user that their message could not be parsed
-      RequestFailedNotification requestFailedNotification =
-          new RequestFailedNotification("Unknown", "Failed to parse request");
-      user.notifyOfEvent(requestFailedNotification);
-      return Optional.empty();
-    }
-  }
+  // Records the bytes read from the user. Reads go through a buffer, so this is only called once
+  // for each chunk read from the socket rather than for every line.
+  private static class MeteredInputStream extends FilterInputStream {
 
-  private void processRequest(ChatRequest chatRequest) {
-    try {
-      // Ensure that only one request is responded to at a time
-      BlockingChatRequestProcessor.getInstance().process(chatRequest, user.getChatMediator());
-    } catch (Exception e) {
-      String username = user.getUsername() == null ? "Unknown user" : user.getUsername();
-      LOGGER.log(Level.WARNING, "Failed to process message from " + username, e);
-      String message = e.getMessage() == null ? "Error" : e.getMessage();
-
-      // Let the user know that their request could not be processed
-      RequestFailedNotification requestFailedNotification =
-          new RequestFailedNotification(chatRequest.getClass(), message);
-      user.notifyOfEvent(requestFailedNotification);
-    }
-  }
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
 
-  private void handleInputException(IOException e) {
-    // IOException is most likely thrown when the chat mediator closes and terminates the socket. In
-    // this case, we don't need to take any action as this is the expected behaviour.
-
-    // Check if the mediator is closed
-    if (!user.getChatMediator().isClosed()) {
-      // Mediator is closed - log exception and gracefully disconnect the user from the group.
-      LOGGER.log(
-          Level.WARNING,
-          "There was a problem reading the input stream for user " + user.getUsername()
-              + ". User will be disconnected",
-          e
-      );
-
-      disconnectUser();
+    private MeteredInputStream(InputStream inputStream) {
+      super(inputStream);
     }
-  }
 
-  private void disconnectUser() {
-    DisconnectRequest disconnectRequest = new DisconnectRequest();
-    disconnectRequest.setAuthor(user);
+    @Override
+    public int read() throws IOException {
+      int value = super.read();
+      if (value >= 0) {
+        metrics.recordBytesRead(1);
+      }
+      return value;
+    }
 
-    try {
-      BlockingChatRequestProcessor
-          .getInstance().process(disconnectRequest, user.getChatMediator());
-    } catch (RequestProcessingException e) {
-      LOGGER.log(
-          Level.WARNING, "Failed to notify users that " + user.getUsername() + " disconnected", e
-      );
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int bytesRead = super.read(bytes, offset, length);
+      if (bytesRead > 0) {
+        metrics.recordBytesRead(bytesRead);
+      }
+      return bytesRead;
     }
+
   }
 
 }
@@ -1,13 +1,28 @@
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Predicate;
 
 /**
  * This class represents a chat group that a user can be a part of to send/receive messages.
  * Realistically, this should be considered a chat group or room, but this naming convention
  * indicates the use of the mediator pattern.
+ * <p>Notifications sent through the mediator are encoded exactly once, no matter how many users
+ * they are delivered to. Every recipient is sent the same {@link EncodedNotification}.</p>
  */
 public interface ChatMediator extends ManagedLifeCycle {
 
+  /**
+   * Gets the name of the group. Within a {@link RoomRegistry}, this is the name of the room.
+   * @return The name of the group.
+   */
+  String getName();
+
+  /**
+   * Gets the registry that the group belongs to, which knows about the other rooms on the server.
+   * @return The registry that the group belongs to, or {@code null} if the group is standalone.
+   */
+  RoomRegistry getRoomRegistry();
+
   /**
    * Adds a user to the group.
    * @param user The user to be added to the group.
@@ -16,6 +31,14 @@ public interface ChatMediator extends ManagedLifeCycle {
    */
   boolean addUser(User user);
 
+  /**
+   * Removes a user from the group without closing their connection, such as when they move to
+   * another room. This is distinct from {@link #disconnect(User)}.
+   * @param user The user to be removed from the group.
+   * @return {@code true} if the user was a member of the group.
+   */
+  boolean removeUser(User user);
+
   /**
    * Checks if the group contains the specified user.
    * @param user The user to search for.
@@ -23,6 +46,13 @@ public interface ChatMediator extends ManagedLifeCycle {
    */
   boolean containsUser(User user);
 
+  /**
+   * Checks if the group contains a user with the specified username.
+   * @param username The username to search for.
+   * @return {@code true} if a member of the group has the specified username.
+   */
+  boolean containsUsername(String username);
+
   /**
    * Checks if the group contains a user matching the specified predicate.
    * @param userPredicate The predicate to search for.
@@ -36,6 +66,13 @@ public interface ChatMediator extends ManagedLifeCycle {
    */
   void notifyUsers(Object notification);
 
+  /**
+   * Notifies all users of several events, in order, as if {@link #notifyUsers(Object)} had been
+   * called for each of them, but in a single pass over the users.
+   * @param notifications The notifications to be sent.
+   */
+  void notifyUsersOfAll(List<?> notifications);
+
   /**
    * Notifies only specific users of the given event.
    * @param notification The notification to be sent.
@@ -15,6 +15,19 @@ public interface ChatRequestParser {
    */
   ChatRequest fromXml(String xmlString, User author) throws RequestProcessingException;
 
+  /**
+   * Creates a chat request from the received UTF-8 encoded XML.
+   * @param xml The array containing the XML received from the client.
+   * @param offset The index of the first byte of the XML.
+   * @param length The number of bytes of XML.
+   * @param author The author of the request.
+   * @return A {@link ChatRequest} corresponding to the XML.
+   * @throws RequestProcessingException Thrown if there is a problem converting the XML into a
+   * {@link ChatRequest}.
+   */
+  ChatRequest fromXml(byte[] xml, int offset, int length, User author)
+      throws RequestProcessingException;
+
   /**
    * Creates a chat request from the received XML.
    * @param xmlInputStream The XML input stream to read from. Note that the input stream won't be
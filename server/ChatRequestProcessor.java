@@ -13,4 +13,24 @@ public interface ChatRequestProcessor {
   void process(ChatRequest chatRequest, ChatMediator chatMediator)
       throws RequestProcessingException;
 
+  /**
+   * Processes a chat request in the given chat mediator, without waiting for room if the processor
+   * is full. This is for threads that must never block, such as an {@link NioEventLoop}. If the
+   * request can't be accepted straight away, it isn't processed at all, and {@code onReady} is run
+   * once, from whichever thread makes room, when it's worth trying again. Processors that process
+   * each request on the calling thread are never full, so by default this simply calls
+   * {@link #process(ChatRequest, ChatMediator)}.
+   * @param chatRequest The request to process.
+   * @param chatMediator The chat group that the request should affect.
+   * @param onReady Run once the request can be tried again, if it isn't accepted. This must not
+   * block.
+   * @return {@code true} if the request was accepted, or {@code false} if the processor is full.
+   * @throws RequestProcessingException Thrown if there is a problem processing the request.
+   */
+  default boolean tryProcess(ChatRequest chatRequest, ChatMediator chatMediator, Runnable onReady)
+      throws RequestProcessingException {
+    process(chatRequest, chatMediator);
+    return true;
+  }
+
 }
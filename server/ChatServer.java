@@ -2,6 +2,9 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -26,9 +29,163 @@ import java.util.logging.Logger;
  *     <td>The port that the server should try to listen for connections on.</td>
  *     <td>No. If unspecified, this will be 14001.</td>
  *   </tr>
+ *   <tr>
+ *     <td>mode</td>
+ *     <td>How the server manages its connections. {@code blocking} dedicates a thread to each
+ *     connected user. {@code virtual} does the same with virtual threads (Java 21+). {@code nio}
+ *     services all users from a small pool of non-blocking event loop threads. See
+ *     {@link ServerMode}.</td>
+ *     <td>No. If unspecified, this will be blocking.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>elt</td>
+ *     <td>The number of event loop threads to use when running in nio mode.</td>
+ *     <td>No. If unspecified, this will be the number of available processors, up to a maximum of
+ *     4.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>oqc</td>
+ *     <td>The maximum number of notifications that can wait to be written to each user. See
+ *     {@link OutboundQueue}.</td>
+ *     <td>No. If unspecified, this will be 1024.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>oqp</td>
+ *     <td>What happens when a notification is sent to a user whose outbound queue is full.
+ *     {@code drop-oldest} discards the oldest waiting notification, {@code drop-newest} discards
+ *     the new one and {@code disconnect} disconnects the user. See {@link OverflowPolicy}.</td>
+ *     <td>No. If unspecified, this will be drop-oldest.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>wcw</td>
+ *     <td>Write coalescing window - the longest time, in microseconds, that notifications are held
+ *     back for, so that those sent to a user in quick succession are written to their connection
+ *     together. Zero writes every notification as soon as possible. See
+ *     {@link WriteCoalescer}.</td>
+ *     <td>No. If unspecified, this will be 0.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>wcb</td>
+ *     <td>The number of bytes waiting for a user at which they're written without waiting for the
+ *     rest of the write coalescing window.</td>
+ *     <td>No. If unspecified, this will be 16384.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>tnd</td>
+ *     <td>Whether to set {@code TCP_NODELAY} on users' connections, either {@code true} or
+ *     {@code false}. Setting it turns off Nagle's algorithm, so that notifications are written
+ *     when the server decides, rather than when the kernel does.</td>
+ *     <td>No. If unspecified, this will be true.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>rp</td>
+ *     <td>How each room processes its requests one at a time. {@code ring} publishes requests into
+ *     a ring buffer that is consumed by a thread dedicated to the room. {@code lock} makes the
+ *     threads that receive requests take turns to process them. See
+ *     {@link RequestProcessorType}.</td>
+ *     <td>No. If unspecified, this will be ring.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>xp</td>
+ *     <td>How requests are parsed. {@code scanner} reads the flat XML that clients send straight
+ *     from its bytes, falling back to a full XML parser for anything else. {@code stax} parses
+ *     every request with a full XML parser. See {@link RequestParserType}.</td>
+ *     <td>No. If unspecified, this will be scanner.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>rbc</td>
+ *     <td>The number of requests that can wait to be processed when using the ring processor. This
+ *     must be a power of two.</td>
+ *     <td>No. If unspecified, this will be 1024.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>mr</td>
+ *     <td>The maximum number of chat rooms, including the default room.</td>
+ *     <td>No. If unspecified, this will be 64.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>fop</td>
+ *     <td>The maximum number of threads that deliver each broadcast, including the thread that
+ *     sends it. See {@link FanOutExecutor}.</td>
+ *     <td>No. If unspecified, this will be the number of available processors.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>fob</td>
+ *     <td>The number of recipients in each batch of a broadcast.</td>
+ *     <td>No. If unspecified, this will be 256.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>msp</td>
+ *     <td>Metrics server port - the port to serve metrics on over HTTP, in the Prometheus text
+ *     format, at {@code /metrics}. See {@link MetricsHttpServer}.</td>
+ *     <td>No. If unspecified, metrics are not served over HTTP.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>hs</td>
+ *     <td>History size - the number of recent public messages that each room replays to users
+ *     when they join it. Zero turns replay off. See {@link RecentHistory}.</td>
+ *     <td>No. If unspecified, this will be 50.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>hrb</td>
+ *     <td>The maximum number of bytes of recent messages to replay to each user that joins a
+ *     room. Only the most recent messages that fit are replayed.</td>
+ *     <td>No. If unspecified, this will be 65536.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>jd</td>
+ *     <td>Journal directory - the directory to keep a durable journal of chat messages,
+ *     connections and disconnections in. See {@link MessageJournal}.</td>
+ *     <td>No. If unspecified, messages are not journaled.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>jss</td>
+ *     <td>The size of each journal segment file, in megabytes.</td>
+ *     <td>No. If unspecified, this will be 64.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>jfi</td>
+ *     <td>The longest time, in milliseconds, that a journaled message can wait to be forced to
+ *     disk. Zero forces every batch of messages to disk as soon as it has been written.</td>
+ *     <td>No. If unspecified, this will be 100.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>jrh</td>
+ *     <td>The number of hours to keep journal segments for once they are full.</td>
+ *     <td>No. If unspecified, this will be 168 (a week).</td>
+ *   </tr>
+ *   <tr>
+ *     <td>omd</td>
+ *     <td>Offline message directory - the directory to keep private messages in for recipients
+ *     that aren't in the room, until they next join a room. See {@link OfflineMessageStore}.</td>
+ *     <td>No. If unspecified, private messages for users that aren't there are discarded.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>omc</td>
+ *     <td>The maximum number of private messages to keep for each offline user. Once this is
+ *     reached, the oldest message is discarded for each new one.</td>
+ *     <td>No. If unspecified, this will be 100.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>omt</td>
+ *     <td>The number of hours to keep private messages for offline users.</td>
+ *     <td>No. If unspecified, this will be 72.</td>
+ *   </tr>
+ *   <tr>
+ *     <td>sid</td>
+ *     <td>Search index directory - the directory to index chat messages in, so that users can
+ *     search them with a {@code SearchRequest}. See {@link SearchIndex}.</td>
+ *     <td>No. If unspecified, messages can't be searched.</td>
+ *   </tr>
  * </table>
  * For example, to start the server on port 14002, the server would be started as follows:
- * <pre><code>java ChatServer -csp 14002</code></pre></p>
+ * <pre><code>java ChatServer -csp 14002</code></pre>
+ * To start the server on the same port using two non-blocking event loop threads, the server would
+ * be started as follows:
+ * <pre><code>java ChatServer -csp 14002 -mode nio -elt 2</code></pre>
+ * To trade up to half a millisecond of latency for fewer, larger writes during busy periods, the
+ * server would be started as follows:
+ * <pre><code>java ChatServer -csp 14002 -wcw 500</code></pre></p>
  *
  * <h1>Data Transfer Protocol</h1>
  * <p>All data sent to the server (referred to in future as "chat requests") from clients is
@@ -36,6 +193,10 @@ import java.util.logging.Logger;
  * <ul>
  *   <li>{@link ConnectionRequest}</li>
  *   <li>{@link ChatEntryRequest}</li>
+ *   <li>{@link JoinRoomRequest}</li>
+ *   <li>{@link LeaveRoomRequest}</li>
+ *   <li>{@link ListRoomsRequest}</li>
+ *   <li>{@link SearchRequest}</li>
  * </ul>
  * The server will also send data to the clients (herein referred to as notifications) in XML
  * format, matching in one of the following types:
@@ -45,21 +206,53 @@ import java.util.logging.Logger;
  *   <li>{@link DisconnectNotification}</li>
  *   <li>{@link RequestFailedNotification}</li>
  *   <li>{@link SystemNotification}</li>
+ *   <li>{@link RoomJoinNotification}</li>
+ *   <li>{@link RoomLeaveNotification}</li>
+ *   <li>{@link RoomListNotification}</li>
+ *   <li>{@link SearchResultNotification}</li>
  * </ul>
+ * <p>Clients can instead ask for a compact binary form of the same messages by sending a handshake
+ * as soon as they connect. XML and binary clients can use the same port at the same time. See
+ * {@link BinaryWireCodec}.</p>
  *
  * <h1>Interacting with the Server</h1>
- * This implementation of the chat server has only one group that users can connect to. After
- * establishing a successful connection, clients are expected to send a {@link ConnectionRequest},
- * stating the username that they would like to use. They will not receive notifications until this
- * process is completed. Usernames must be distinct, so username requests specifying username that
- * are already in use in the group will be rejected.</p>
+ * Users connect to the default room, named "lobby". After establishing a successful connection,
+ * clients are expected to send a {@link ConnectionRequest}, stating the username that they would
+ * like to use. They will not receive notifications until this process is completed. Usernames must
+ * be distinct across all rooms, so username requests specifying username that are already in use
+ * will be rejected.</p>
  * <p>Once a username has been specified, the user will begin to receive notifications. The client
- * can also send messages to other users in the group in the form of a {@link ChatEntryRequest}.
- * These requests can be sent publicly (to all recipients), or privately.</p>
- * <p>When a user disconnects, they will be removed from the group and all other users will be
- * notified that they have left.</p>
- * <p>This server is synchronous - all requests received (or produced by the server internally) are
- * processed sequentially.</p>
+ * can also send messages to other users in the room in the form of a {@link ChatEntryRequest}.
+ * These requests can be sent publicly (to all recipients), or privately. Users that join a room are
+ * first sent the most recent public messages from it. Private messages for users that aren't in
+ * the room can be kept until they next join a room (see {@code omd}).</p>
+ * <p>Users can move to another room with a {@link JoinRoomRequest}, which creates the room if it
+ * doesn't exist yet, and go back to the lobby with a {@link LeaveRoomRequest}. A
+ * {@link ListRoomsRequest} lists the rooms. See {@link RoomRegistry}.</p>
+ * <p>If the server is started with {@code sid}, users can search the messages sent in their room
+ * by keyword, sender and time with a {@link SearchRequest}, and are sent the results a page at a
+ * time. See {@link SearchIndex}.</p>
+ * <p>When a user disconnects, they will be removed from their room and all other users in the room
+ * will be notified that they have left.</p>
+ * <p>Each room is synchronous - all requests received for a room (or produced by the server
+ * internally) are processed sequentially, by default on a thread dedicated to the room. Different
+ * rooms process their requests independently of one another.</p>
+ * <h1>Monitoring the Server</h1>
+ * <p>Typing the command "STATS" prints the number of open connections, connected users and rooms,
+ * the bytes read and written, the notifications dropped for slow users, and latency percentiles
+ * for processing each type of request, waiting to be processed, fanning out broadcasts and
+ * delivering notifications. See {@link ServerMetrics}. If the server is started with
+ * {@code msp}, the same metrics can be scraped by Prometheus.</p>
+ * <p>For a breakdown of individual requests, the server emits JDK Flight Recorder events under the
+ * "Chat Server" category as each request is parsed ({@link RequestParseEvent}), handed over to be
+ * processed ({@link RequestEnqueueEvent}) and processed ({@link RequestProcessEvent}), and as each
+ * notification is encoded ({@link NotificationSerializeEvent}) and written to a user
+ * ({@link NotificationWriteEvent}). The events cost next to nothing unless a recording is running,
+ * which can be started with the server, for example:</p>
+ * <pre><code>java -XX:StartFlightRecording=filename=chat.jfr,settings=profile ChatServer</code></pre>
+ * <p>or attached to a running server with {@code jcmd <pid> JFR.start}. The recording can then be
+ * opened in JDK Mission Control, or summarised with
+ * {@code jfr print --events chat.RequestProcess chat.jfr}.</p>
  * <h1>Closing the Server</h1>
  * The server can be closed by typing the command "EXIT", or by pressing Ctrl + C.
  */
@@ -67,32 +260,155 @@ public class ChatServer {
 
   private static final Logger LOGGER = Logger.getLogger(ChatServer.class.getName());
 
-  private final int port;
-  private final ChatMediator chatMediator = new ChatGroup();
-  private final SynchronizedUserPool userPool = new SynchronizedUserPool(chatMediator);
+  private final ServerConfiguration configuration;
+  private final RoomRegistry roomRegistry;
+  private final ChatMediator chatMediator;
+  private final SynchronizedUserPool userPool;
   private final AtomicBoolean shutdown = new AtomicBoolean(false);
 
   /**
    * Starts the server
-   * @param args The arguments to start the server with. The server only expects one (named)
-   * parameter - {@code csp}. This specifies the port number. If unspecified, the port will be set
-   * to 14,001. To specify the server port, {@code args} must contain the value {@code -csp},
-   * followed by the desired port number. For example, this would be a valid configuration to start
-   * the server on port 8080:
+   * @param args The arguments to start the server with. The server accepts the (named) parameters
+   * described in {@link ChatServer}. For example, {@code csp} specifies the port number. If
+   * unspecified, the port will be set to 14,001. To specify the server port, {@code args} must
+   * contain the value {@code -csp}, followed by the desired port number. For example, this would
+   * be a valid configuration to start the server on port 8080:
    * <pre><code>new String[]{"-csp", "8080"}</code></pre>
    * @throws IOException Thrown if there is a problem with the server socket.
    */
   public static void main(String[] args) throws IOException {
+    CommandLineArgumentParser argumentParser = new CommandLineArgumentParser(args);
+    ServerConfiguration configuration = new ServerConfiguration();
 
     // Parse the args and get the port number to start on
-    CommandLineArgumentParser argumentParser = new CommandLineArgumentParser(args);
-    int serverPort = argumentParser
+    argumentParser
         .getParameter("csp")
         .map(ChatServer::parsePortNumber)
-        .orElse(14_001); // Default to 14,001 if not specified
+        .ifPresent(configuration::setPort); // Default to 14,001 if not specified
+
+    argumentParser
+        .getParameter("mode")
+        .map(ServerMode::fromArgumentName)
+        .ifPresent(configuration::setMode);
+
+    argumentParser
+        .getParameter("elt")
+        .map(value -> parsePositiveInteger("elt", value))
+        .ifPresent(configuration::setEventLoopThreads);
+
+    argumentParser
+        .getParameter("oqc")
+        .map(value -> parsePositiveInteger("oqc", value))
+        .ifPresent(configuration::setOutboundQueueCapacity);
+
+    argumentParser
+        .getParameter("oqp")
+        .map(OverflowPolicy::fromArgumentName)
+        .ifPresent(configuration::setOverflowPolicy);
+
+    argumentParser
+        .getParameter("wcw")
+        .map(value -> parseNonNegativeInteger("wcw", value))
+        .ifPresent(configuration::setWriteCoalescingWindowMicros);
+
+    argumentParser
+        .getParameter("wcb")
+        .map(value -> parsePositiveInteger("wcb", value))
+        .ifPresent(configuration::setWriteCoalescingMaxBytes);
+
+    argumentParser
+        .getParameter("tnd")
+        .map(value -> parseBoolean("tnd", value))
+        .ifPresent(configuration::setTcpNoDelay);
 
-    // Start the server on the given port
-    new ChatServer(serverPort).run();
+    argumentParser
+        .getParameter("rp")
+        .map(RequestProcessorType::fromArgumentName)
+        .ifPresent(configuration::setRequestProcessorType);
+
+    argumentParser
+        .getParameter("xp")
+        .map(RequestParserType::fromArgumentName)
+        .ifPresent(configuration::setRequestParserType);
+
+    argumentParser
+        .getParameter("rbc")
+        .map(value -> parsePositiveInteger("rbc", value))
+        .ifPresent(configuration::setRingBufferCapacity);
+
+    argumentParser
+        .getParameter("mr")
+        .map(value -> parsePositiveInteger("mr", value))
+        .ifPresent(configuration::setMaxRooms);
+
+    argumentParser
+        .getParameter("fop")
+        .map(value -> parsePositiveInteger("fop", value))
+        .ifPresent(configuration::setFanOutParallelism);
+
+    argumentParser
+        .getParameter("fob")
+        .map(value -> parsePositiveInteger("fob", value))
+        .ifPresent(configuration::setFanOutBatchSize);
+
+    argumentParser
+        .getParameter("msp")
+        .map(value -> parsePositiveInteger("msp", value))
+        .ifPresent(configuration::setMetricsPort);
+
+    argumentParser
+        .getParameter("hs")
+        .map(value -> parseNonNegativeInteger("hs", value))
+        .ifPresent(configuration::setHistorySize);
+
+    argumentParser
+        .getParameter("hrb")
+        .map(value -> parsePositiveInteger("hrb", value))
+        .ifPresent(configuration::setMaxReplayBytes);
+
+    argumentParser
+        .getParameter("jd")
+        .map(Path::of)
+        .ifPresent(configuration::setJournalDirectory);
+
+    argumentParser
+        .getParameter("jss")
+        .map(value -> parsePositiveInteger("jss", value))
+        .map(megabytes -> Math.multiplyExact(megabytes, 1024 * 1024))
+        .ifPresent(configuration::setJournalSegmentSize);
+
+    argumentParser
+        .getParameter("jfi")
+        .map(value -> parseNonNegativeInteger("jfi", value))
+        .ifPresent(configuration::setJournalFlushIntervalMillis);
+
+    argumentParser
+        .getParameter("jrh")
+        .map(value -> parsePositiveInteger("jrh", value))
+        .ifPresent(configuration::setJournalRetentionHours);
+
+    argumentParser
+        .getParameter("omd")
+        .map(Path::of)
+        .ifPresent(configuration::setOfflineMessageDirectory);
+
+    argumentParser
+        .getParameter("omc")
+        .map(value -> parsePositiveInteger("omc", value))
+        .ifPresent(configuration::setMaxOfflineMessagesPerUser);
+
+    argumentParser
+        .getParameter("omt")
+        .map(value -> parsePositiveInteger("omt", value))
+        .ifPresent(configuration::setOfflineMessageTimeToLiveHours);
+
+    argumentParser
+        .getParameter("sid")
+        .map(Path::of)
+        .ifPresent(configuration::setSearchIndexDirectory);
+
+    // Start the server with the given configuration
+    new ChatServer(configuration).run();
   }
 
   private static int parsePortNumber(String portNumberText) throws IllegalArgumentException {
@@ -109,13 +425,73 @@ public class ChatServer {
     }
   }
 
+  private static int parsePositiveInteger(String parameterName, String valueText)
+      throws IllegalArgumentException {
+    try {
+      int value = Integer.parseInt(valueText);
+      if (value < 1) {
+        throw new IllegalArgumentException(
+            "Value for " + parameterName + " must be greater than 0"
+        );
+      }
+      return value;
+    } catch (NumberFormatException e) {
+      throw new NumberFormatException("Value for " + parameterName + " must be an integer");
+    }
+  }
+
+  private static int parseNonNegativeInteger(String parameterName, String valueText)
+      throws IllegalArgumentException {
+    try {
+      int value = Integer.parseInt(valueText);
+      if (value < 0) {
+        throw new IllegalArgumentException("Value for " + parameterName + " must not be negative");
+      }
+      return value;
+    } catch (NumberFormatException e) {
+      throw new NumberFormatException("Value for " + parameterName + " must be an integer");
+    }
+  }
+
+  private static boolean parseBoolean(String parameterName, String valueText)
+      throws IllegalArgumentException {
+    if (valueText.equalsIgnoreCase("true")) {
+      return true;
+    }
+    if (valueText.equalsIgnoreCase("false")) {
+      return false;
+    }
+    throw new IllegalArgumentException("Value for " + parameterName + " must be true or false");
+  }
+
   /**
    * Creates a new chat server. When the {@link #run()} method is called, it will start on the given
    * port.
    * @param port The port to listen on.
    */
   public ChatServer(int port) {
-    this.port = port;
+    this(createConfigurationForPort(port));
+  }
+
+  private static ServerConfiguration createConfigurationForPort(int port) {
+    ServerConfiguration configuration = new ServerConfiguration();
+    configuration.setPort(port);
+    return configuration;
+  }
+
+  /**
+   * Creates a new chat server. When the {@link #run()} method is called, it will start with the
+   * given configuration.
+   * @param configuration The settings to start the server with.
+   * @throws NullPointerException Thrown if {@code configuration == null}.
+   */
+  public ChatServer(ServerConfiguration configuration) throws NullPointerException {
+    this.configuration = Objects.requireNonNull(configuration, "Configuration is null");
+    this.roomRegistry = new RoomRegistry(configuration);
+
+    // Users join the default room when they connect. Closing it shuts down the whole server.
+    this.chatMediator = roomRegistry.getDefaultRoom();
+    this.userPool = new SynchronizedUserPool(chatMediator);
   }
 
   /**
@@ -123,9 +499,52 @@ public class ChatServer {
    * @throws IOException Thrown if there is a problem with the server socket.
    */
   public void run() throws IOException {
+    ServerMode mode = configuration.getMode();
+    // Each request is passed on to the processing lane of the room that it's for
+    ChatRequestProcessor requestProcessor = roomRegistry;
+
     // Start the thread to listen to cmd input
-    new Thread(new TerminalInputHandler(System.in, chatMediator)).start();
+    TerminalInputHandler terminalInputHandler =
+        new TerminalInputHandler(System.in, chatMediator, requestProcessor);
+    UserThreadFactory.forMode(mode, "terminal-input-thread")
+                     .newThread(terminalInputHandler)
+                     .start();
+
+    if (configuration.getMetricsPort() > 0) {
+      startMetricsHttpServer();
+    }
+
+    if (mode == ServerMode.NIO) {
+      runNonBlocking(requestProcessor);
+    } else {
+      runBlocking(UserThreadFactory.forMode(mode, "remote-user-thread"), requestProcessor);
+    }
+  }
+
+  private void startMetricsHttpServer() throws IOException {
+    MetricsHttpServer metricsHttpServer =
+        new MetricsHttpServer(configuration.getMetricsPort(), ServerMetrics.getInstance());
+    chatMediator.addOnCloseAction(metricsHttpServer::close);
+    metricsHttpServer.start();
+  }
+
+  private void runNonBlocking(ChatRequestProcessor requestProcessor) throws IOException {
+    new NioConnectionEngine(chatMediator, userPool, configuration, requestProcessor).run();
+  }
+
+  private void runBlocking(
+      ThreadFactory userThreadFactory, ChatRequestProcessor requestProcessor
+  ) throws IOException {
+    // Notifications are written to blocking sockets by the writer stage, so that a slow user can't
+    // hold up the thread that is processing requests
+    WriterStage writerStage = WriterStage.forMode(configuration.getMode());
+    chatMediator.addOnCloseAction(writerStage::shutdown);
+    WriteCoalescer writeCoalescer = configuration.createWriteCoalescer();
+    if (writeCoalescer != null) {
+      chatMediator.addOnCloseAction(writeCoalescer::close);
+    }
 
+    int port = configuration.getPort();
     try (ServerSocket serverSocket = new ServerSocket(port)) {
       addCloseAction(serverSocket);
       LOGGER.info("Server started on port " + port);
@@ -135,7 +554,9 @@ public class ChatServer {
       while (listening) {
         try {
           // This blocks
-          listenAndProcessConnections(serverSocket);
+          listenAndProcessConnections(
+              serverSocket, userThreadFactory, writerStage, writeCoalescer, requestProcessor
+          );
         } catch (SocketException e) {
           // A socket is exception is expected if a server shutdown has been initiated
           if (!shutdown.get()) {
@@ -164,11 +585,26 @@ public class ChatServer {
     });
   }
 
-  private void listenAndProcessConnections(ServerSocket serverSocket) throws IOException {
+  private void listenAndProcessConnections(
+      ServerSocket serverSocket,
+      ThreadFactory userThreadFactory,
+      WriterStage writerStage,
+      WriteCoalescer writeCoalescer,
+      ChatRequestProcessor requestProcessor
+  ) throws IOException {
     // This blocks, so adding a condition to the while loop for a shutdown request would mean
     // that the the server only shuts down after a new socket is created.
     Socket socket = serverSocket.accept();
-    RemoteUser newlyConnectedUser = new RemoteUser(chatMediator, socket);
+    socket.setTcpNoDelay(configuration.isTcpNoDelay());
+    RemoteUser newlyConnectedUser = new RemoteUser(
+        chatMediator,
+        socket,
+        userThreadFactory,
+        configuration.createOutboundQueue(writeCoalescer),
+        writerStage,
+        requestProcessor,
+        configuration.getRequestParserType().getParser()
+    );
     newlyConnectedUser.startListening();
     userPool.addUser(newlyConnectedUser);
   }
@@ -5,7 +5,10 @@ import java.util.Objects;
  */
 public class ConnectionNotification {
 
-  private final String username;
+  private String username;
+
+  // Used when the notification is read back from XML, such as from a MessageJournal
+  private ConnectionNotification() {}
 
   /**
    * Creates a new notification to indicate that a user has joined the chat.
@@ -38,6 +38,13 @@ public class ConnectionRequest implements ChatRequest {
 
   @Override
   public void process(ChatMediator chatMediator) {
+    if (chatMediator.containsUser(author)) {
+      author.notifyOfEvent(
+          new RequestFailedNotification(ConnectionRequest.class, "You are already connected")
+      );
+      return;
+    }
+
     // Validate the username
     try {
       UsernameValidator.getInstance().validate(username);
@@ -46,26 +53,32 @@ public class ConnectionRequest implements ChatRequest {
       return;
     }
 
-    if (chatMediator.containsUserMatching(user -> Objects.equals(user.getUsername(), username))) {
-      author.notifyOfEvent(
-          new RequestFailedNotification(
-              ConnectionRequest.class,
-              "A user with that name already exists. Please choose a different name"
-          )
-      );
+    if (chatMediator.containsUsername(username)) {
+      notifyUsernameTaken();
       return;
     }
 
     // Username is valid, so set it
     author.setUsername(username);
 
+    // The name may still be taken by a user in another room
+    if (!chatMediator.addUser(author)) {
+      author.setUsername(null);
+      notifyUsernameTaken();
+      return;
+    }
+
     // Notify the other users in the group
-    notifyUsersOfJoinIfAppropriate(chatMediator);
+    chatMediator.notifyUsers(new ConnectionNotification(author.getUsername()));
   }
 
-  private void notifyUsersOfJoinIfAppropriate(ChatMediator chatMediator) {
-    chatMediator.addUser(author);
-    chatMediator.notifyUsers(new ConnectionNotification(author.getUsername()));
+  private void notifyUsernameTaken() {
+    author.notifyOfEvent(
+        new RequestFailedNotification(
+            ConnectionRequest.class,
+            "A user with that name already exists. Please choose a different name"
+        )
+    );
   }
 
   @Override
@@ -5,7 +5,10 @@ import java.util.Objects;
  */
 public class DisconnectNotification {
 
-  private final String username;
+  private String username;
+
+  // Used when the notification is read back from XML, such as from a MessageJournal
+  private DisconnectNotification() {}
 
   /**
    * Creates a new notification to indicate that a user has disconnected from the chat group.
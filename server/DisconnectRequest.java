@@ -7,7 +7,7 @@ import java.util.Objects;
  * disconnect, and to remove the user from the chart group. Consistent with other updates of this
  * nature, this needs to be processed asynchronously for a given chat group which can be achieved
  * by implementing it as a {@link ChatRequest} and processing it through a
- * {@link BlockingChatRequestProcessor}.
+ * {@link ChatRequestProcessor}.
  */
 public class DisconnectRequest implements ChatRequest {
 
@@ -26,11 +26,14 @@ public class DisconnectRequest implements ChatRequest {
 
   @Override
   public void process(ChatMediator chatMediator) throws RequestProcessingException {
+    // If the user has already been closed, the others have already been told that they've left
+    boolean alreadyDisconnected = disconnectedUser.isClosed();
+
     // Disconnect the user from the chat group
     chatMediator.disconnect(disconnectedUser);
 
     // Inform the users in the group that the user has left
-    if (disconnectedUser.getUsername() != null) {
+    if (!alreadyDisconnected && disconnectedUser.getUsername() != null) {
       DisconnectNotification disconnectNotification =
           new DisconnectNotification(disconnectedUser.getUsername());
       if (chatMediator.isOpen()) {
@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>A notification that has already been encoded into the form that is sent down the wire - a
+ * single line of XML, including its terminating line separator, or a binary frame for users that
+ * have switched to the {@link WireFormat#BINARY binary protocol}.</p>
+ * <p>Encoding a notification involves reflection and XML escaping, so it is by far the most
+ * expensive part of notifying a user. Broadcasts therefore encode their notification exactly once
+ * and hand the same instance to every recipient. Instances are immutable, so they can safely be
+ * shared between any number of users and threads.</p>
+ * <p>The XML is encoded straight away. The binary frame is only encoded the first time that a
+ * recipient needs it, so broadcasts don't pay for it unless someone is using the binary
+ * protocol.</p>
+ * <p>The time at which each notification was encoded is kept, so that the time taken to deliver it
+ * to each recipient can be recorded in the {@link ServerMetrics}. While Flight Recorder is
+ * running, each encoding is also covered by a {@link NotificationSerializeEvent}.</p>
+ */
+public final class EncodedNotification {
+
+  private static final byte[] LINE_SEPARATOR =
+      System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+  private final Object notification;
+  // The notifications that make up a batch, whose binary form is put together from theirs
+  private final EncodedNotification[] parts;
+  private final byte[] bytes;
+  private final long encodedAtNanos = System.nanoTime();
+
+  // Encoded on first use. Racing threads may each encode it, but they all produce the same bytes.
+  private volatile byte[] binaryBytes;
+
+  private EncodedNotification(Object notification, byte[] bytes, byte[] binaryBytes) {
+    this(notification, null, bytes, binaryBytes);
+  }
+
+  private EncodedNotification(
+      Object notification, EncodedNotification[] parts, byte[] bytes, byte[] binaryBytes
+  ) {
+    this.notification = notification;
+    this.parts = parts;
+    this.bytes = bytes;
+    this.binaryBytes = binaryBytes;
+  }
+
+  /**
+   * Encodes the given notification.
+   * @param notification The notification to encode.
+   * @return The encoded notification.
+   * @throws NullPointerException Thrown if {@code notification == null}.
+   * @throws XmlParseException Thrown if the notification could not be written to XML.
+   */
+  public static EncodedNotification encode(Object notification)
+      throws NullPointerException, XmlParseException {
+    Objects.requireNonNull(notification, "Notification is null");
+    NotificationSerializeEvent serializeEvent = new NotificationSerializeEvent();
+    serializeEvent.begin();
+    // Responses are always handled one line at a time to improve the stability of the XML parsing
+    byte[] line = ReflectiveXmlWriter.getInstance().toXmlBytes(notification, LINE_SEPARATOR);
+    serializeEvent.commitFor(notification, WireFormat.XML, line.length);
+    return new EncodedNotification(notification, line, null);
+  }
+
+  /**
+   * Wraps bytes that are sent exactly as they are, whichever wire format the recipient uses, such
+   * as the reply to a handshake.
+   * @param bytes The bytes to send. The array must not be modified afterwards.
+   * @return The encoded notification.
+   * @throws NullPointerException Thrown if {@code bytes == null}.
+   */
+  public static EncodedNotification raw(byte[] bytes) throws NullPointerException {
+    Objects.requireNonNull(bytes, "Bytes are null");
+    return new EncodedNotification(null, bytes, bytes);
+  }
+
+  /**
+   * Joins notifications that have already been encoded into one, so that they can be sent to a
+   * user in a single write. Notifications are delimited in both wire formats, so the recipient
+   * reads them back one at a time, in the given order. Nothing is re-encoded - the bytes of each
+   * notification are simply copied.
+   * @param notifications The notifications to join.
+   * @return The joined notifications.
+   * @throws NullPointerException Thrown if {@code notifications == null}, or contains
+   * {@code null}.
+   */
+  public static EncodedNotification concat(List<EncodedNotification> notifications)
+      throws NullPointerException {
+    EncodedNotification[] parts = Objects.requireNonNull(notifications, "Notifications are null")
+                                         .toArray(new EncodedNotification[0]);
+    int length = 0;
+    for (EncodedNotification part : parts) {
+      length += Objects.requireNonNull(part, "Notification is null").bytes.length;
+    }
+    byte[] bytes = new byte[length];
+    int offset = 0;
+    for (EncodedNotification part : parts) {
+      System.arraycopy(part.bytes, 0, bytes, offset, part.bytes.length);
+      offset += part.bytes.length;
+    }
+    return new EncodedNotification(null, parts, bytes, null);
+  }
+
+  /**
+   * Gets the time at which the notification was encoded, as given by {@link System#nanoTime()}.
+   * @return The time at which the notification was encoded.
+   */
+  public long getEncodedAtNanos() {
+    return encodedAtNanos;
+  }
+
+  /**
+   * Gets the type of the notification that was encoded.
+   * @return The type of the notification, or {@code null} if this wraps {@link #raw(byte[]) raw}
+   * bytes or {@link #concat(List) several notifications}.
+   */
+  public Class<?> getNotificationType() {
+    return notification == null ? null : notification.getClass();
+  }
+
+  /**
+   * Determines whether the notification can be sent to a user with the given wire format. Every
+   * notification has an XML form, but only the types in the {@link BinaryWireCodec}'s table have a
+   * binary form.
+   * @param wireFormat The recipient's wire format.
+   * @return {@code true} if the notification can be sent in the wire format.
+   */
+  public boolean hasForm(WireFormat wireFormat) {
+    if (wireFormat == WireFormat.XML || binaryBytes != null) {
+      return true;
+    }
+    if (parts != null) {
+      for (EncodedNotification part : parts) {
+        if (!part.hasForm(wireFormat)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return BinaryWireCodec.supports(notification.getClass());
+  }
+
+  /**
+   * Gets the number of bytes in the XML form of the notification.
+   * @return The number of bytes in the encoded notification.
+   */
+  public int size() {
+    return bytes.length;
+  }
+
+  /**
+   * Gets the number of bytes that are sent to a user with the given wire format.
+   * @param wireFormat The recipient's wire format.
+   * @return The number of bytes in the encoded notification.
+   * @throws XmlParseException Thrown if the notification doesn't have the wire format (see
+   * {@link #hasForm(WireFormat)}).
+   */
+  public int size(WireFormat wireFormat) throws XmlParseException {
+    return bytesFor(wireFormat).length;
+  }
+
+  // Gets the bytes that are sent to a user with the given wire format. These must not be modified.
+  private byte[] bytesFor(WireFormat wireFormat) throws XmlParseException {
+    if (wireFormat == WireFormat.XML) {
+      return bytes;
+    }
+    byte[] binary = binaryBytes;
+    if (binary == null && parts != null) {
+      binary = concatBinary(parts);
+      binaryBytes = binary;
+    } else if (binary == null) {
+      // Throws if the type has no binary form, which users check before queueing it (see hasForm)
+      NotificationSerializeEvent serializeEvent = new NotificationSerializeEvent();
+      serializeEvent.begin();
+      binary = BinaryWireCodec.encode(notification);
+      serializeEvent.commitFor(notification, WireFormat.BINARY, binary.length);
+      binaryBytes = binary;
+    }
+    return binary;
+  }
+
+  private static byte[] concatBinary(EncodedNotification[] parts) {
+    byte[][] partBytes = new byte[parts.length][];
+    int length = 0;
+    for (int i = 0; i < parts.length; i++) {
+      partBytes[i] = parts[i].bytesFor(WireFormat.BINARY);
+      length += partBytes[i].length;
+    }
+    byte[] binary = new byte[length];
+    int offset = 0;
+    for (byte[] part : partBytes) {
+      System.arraycopy(part, 0, binary, offset, part.length);
+      offset += part.length;
+    }
+    return binary;
+  }
+
+  /**
+   * Creates a new read-only view of the encoded notification. The view shares its content with
+   * this instance, so no bytes are copied, but each view has its own position and limit so views
+   * can be consumed independently.
+   * @return A read-only view of the encoded notification.
+   */
+  public ByteBuffer toByteBuffer() {
+    return toByteBuffer(WireFormat.XML);
+  }
+
+  /**
+   * Creates a new read-only view of the notification in the given wire format. As with
+   * {@link #toByteBuffer()}, no bytes are copied.
+   * @param wireFormat The recipient's wire format.
+   * @return A read-only view of the encoded notification.
+   * @throws XmlParseException Thrown if the notification doesn't have the wire format.
+   */
+  public ByteBuffer toByteBuffer(WireFormat wireFormat) throws XmlParseException {
+    return ByteBuffer.wrap(bytesFor(wireFormat)).asReadOnlyBuffer();
+  }
+
+  /**
+   * Copies the notification, in the given wire format, into the given buffer, so that it can be
+   * written along with others.
+   * @param buffer The buffer to copy into. The notification is put at the buffer's position.
+   * @param wireFormat The recipient's wire format.
+   * @throws java.nio.BufferOverflowException Thrown if the notification doesn't fit in the space
+   * remaining in the buffer (see {@link #size(WireFormat)}).
+   * @throws XmlParseException Thrown if the notification doesn't have the wire format.
+   */
+  public void copyTo(ByteBuffer buffer, WireFormat wireFormat) throws XmlParseException {
+    buffer.put(bytesFor(wireFormat));
+  }
+
+  /**
+   * Writes the encoded notification to the given output stream.
+   * @param outputStream The output stream to write to.
+   * @throws IOException Thrown if the notification could not be written.
+   */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    writeTo(outputStream, WireFormat.XML);
+  }
+
+  /**
+   * Writes the notification to the given output stream in the given wire format.
+   * @param outputStream The output stream to write to.
+   * @param wireFormat The recipient's wire format.
+   * @throws IOException Thrown if the notification could not be written.
+   * @throws XmlParseException Thrown if the notification doesn't have the wire format.
+   */
+  public void writeTo(OutputStream outputStream, WireFormat wireFormat)
+      throws IOException, XmlParseException {
+    outputStream.write(bytesFor(wireFormat));
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes, StandardCharsets.UTF_8).strip();
+  }
+
+}
@@ -0,0 +1,222 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Delivers broadcasts to the members of a chat group in parallel. This replaces the use of
+ * parallel streams, which share the common fork join pool with everything else in the JVM and split
+ * hash sets unevenly.</p>
+ * <p>The recipients of each broadcast are split into fixed-size batches. The thread that sends the
+ * broadcast works through the batches itself, with the help of up to {@code parallelism - 1}
+ * threads that are dedicated to fanning out. Batches are claimed one at a time, so a helper that is
+ * slow to start simply ends up with less of the work. Small broadcasts, which fit into a single
+ * batch, are delivered entirely on the sending thread without handing anything off.</p>
+ * <p>The helpers are shared by every group, so a helper may not start until long after it was asked
+ * to, behind the fan outs of other groups. The sending thread therefore only waits for the batches
+ * to be delivered, not for the helpers to run. A helper that starts after every batch has been
+ * claimed has nothing left to do, and finishes straight away.</p>
+ * <p>A fan out only returns once every recipient has been notified, so broadcasts from the same
+ * group are always queued for each user in the order that they were sent. The time that each fan
+ * out takes is recorded in the {@link ServerMetrics}, and can be read through
+ * {@link #getFanOutTimes()}.</p>
+ */
+public class FanOutExecutor implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(FanOutExecutor.class.getName());
+
+  private final int parallelism;
+  private final int batchSize;
+  private final ExecutorService helpers;
+
+  private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a new executor. If {@code parallelism} is greater than one, the helper threads are
+   * started on demand.
+   * @param parallelism The maximum number of threads, including the sending thread, that deliver
+   * each broadcast. A value of one delivers every broadcast on the sending thread.
+   * @param batchSize The number of recipients in each batch.
+   * @throws IllegalArgumentException Thrown if {@code parallelism < 1} or {@code batchSize < 1}.
+   */
+  public FanOutExecutor(int parallelism, int batchSize) throws IllegalArgumentException {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1");
+    }
+    this.parallelism = parallelism;
+    this.batchSize = batchSize;
+    this.helpers = parallelism == 1
+        ? null
+        : Executors.newFixedThreadPool(parallelism - 1, daemon("fan-out-thread"));
+  }
+
+  private static ThreadFactory daemon(String name) {
+    ThreadFactory threadFactory = UserThreadFactory.platform(name);
+    return task -> {
+      Thread thread = threadFactory.newThread(task);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Gets the maximum number of threads that deliver each broadcast.
+   * @return The parallelism of the executor.
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Gets the number of recipients in each batch.
+   * @return The batch size.
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Performs the action for every recipient, returning once it has been performed for all of them.
+   * @param recipients The recipients. The array must not be modified until this returns.
+   * @param action The action to perform for each recipient, such as queueing a notification.
+   * @param <T> The type of the recipients.
+   */
+  public <T> void fanOut(T[] recipients, Consumer<? super T> action) {
+    fanOut(recipients, recipients.length, action);
+  }
+
+  /**
+   * Performs the action for the first {@code count} recipients in the array, returning once it has
+   * been performed for all of them. The rest of the array is never read, so it can be filled in
+   * while this is running.
+   * @param recipients The recipients. The first {@code count} elements must not be modified until
+   * this returns.
+   * @param count The number of recipients.
+   * @param action The action to perform for each recipient, such as queueing a notification.
+   * @param <T> The type of the recipients.
+   */
+  public <T> void fanOut(T[] recipients, int count, Consumer<? super T> action) {
+    long start = System.nanoTime();
+
+    int batchCount = (count + batchSize - 1) / batchSize;
+    int helperCount = Math.min(parallelism, batchCount) - 1;
+    if (helperCount <= 0 || closed) {
+      deliver(recipients, 0, count, action);
+    } else {
+      AtomicInteger nextBatch = new AtomicInteger();
+      CountDownLatch batchesDelivered = new CountDownLatch(batchCount);
+      Runnable worker = () ->
+          deliverBatches(recipients, count, action, nextBatch, batchCount, batchesDelivered);
+      for (int i = 0; i < helperCount; i++) {
+        submitHelper(worker);
+      }
+      worker.run();
+      // Every batch has been claimed, but helpers may still be delivering the last of them
+      awaitBatches(batchesDelivered);
+    }
+
+    metrics.recordFanOut(System.nanoTime() - start);
+  }
+
+  private void submitHelper(Runnable worker) {
+    try {
+      helpers.execute(worker);
+    } catch (RejectedExecutionException e) {
+      // The executor is shutting down, so the sending thread will deliver this helper's share
+    }
+  }
+
+  private static void awaitBatches(CountDownLatch batchesDelivered) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        batchesDelivered.await();
+        break;
+      } catch (InterruptedException e) {
+        // Returning early would let the next broadcast overtake this one, so keep waiting
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private <T> void deliverBatches(
+      T[] recipients, int count, Consumer<? super T> action, AtomicInteger nextBatch,
+      int batchCount, CountDownLatch batchesDelivered
+  ) {
+    int batch;
+    while ((batch = nextBatch.getAndIncrement()) < batchCount) {
+      int from = batch * batchSize;
+      try {
+        deliver(recipients, from, Math.min(from + batchSize, count), action);
+      } finally {
+        batchesDelivered.countDown();
+      }
+    }
+  }
+
+  private static <T> void deliver(T[] recipients, int from, int to, Consumer<? super T> action) {
+    for (int i = from; i < to; i++) {
+      try {
+        action.accept(recipients[i]);
+      } catch (RuntimeException e) {
+        // One failed recipient shouldn't stop everyone else from being notified
+        LOGGER.log(Level.WARNING, "Failed to deliver broadcast to a recipient", e);
+      }
+    }
+  }
+
+  /**
+   * Gets the time taken by each fan out, measured from when it started to when its last recipient
+   * was notified. This is the histogram kept by the {@link ServerMetrics}, so it's shared by every
+   * executor.
+   * @return The fan out times.
+   */
+  public LatencyHistogram getFanOutTimes() {
+    return metrics.getFanOutTimes();
+  }
+
+  /**
+   * Stops the helper threads. Fan outs that are in progress still complete, and any later fan outs
+   * are delivered entirely on the sending thread.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (helpers != null) {
+      helpers.shutdown();
+    }
+
+    LatencyHistogram.Snapshot snapshot = getFanOutTimes().snapshot();
+    if (snapshot.getCount() > 0) {
+      LOGGER.info(String.format(
+          "Fanned out %d broadcasts. Mean %.1f us, p99 %.1f us, max %.1f us",
+          snapshot.getCount(),
+          snapshot.getMean() / 1_000.0,
+          snapshot.getValueAtPercentile(99) / 1_000.0,
+          snapshot.getMax() / 1_000.0
+      ));
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+}
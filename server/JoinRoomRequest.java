@@ -0,0 +1,47 @@
+import java.util.Objects;
+
+/**
+ * A request to move to another room. If the room doesn't exist yet, it is created.
+ */
+public class JoinRoomRequest extends RoomChangeRequest {
+
+  private String room;
+
+  /**
+   * Gets the name of the room to join.
+   * @return The name of the room to join.
+   */
+  public String getRoom() {
+    return room;
+  }
+
+  /**
+   * Sets the name of the room to join.
+   * @param room The name of the room to join.
+   */
+  public void setRoom(String room) {
+    this.room = room;
+  }
+
+  @Override
+  protected String getDestinationRoom() {
+    return room;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof JoinRoomRequest)) {
+      return false;
+    }
+    JoinRoomRequest that = (JoinRoomRequest) o;
+    return Objects.equals(room, that.room) && Objects.equals(getAuthor(), that.getAuthor());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(room, getAuthor());
+  }
+}
@@ -0,0 +1,172 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A histogram of durations, in nanoseconds, that many threads can record to at once without
+ * locking or allocating.</p>
+ * <p>As with an HDR histogram, values are counted in buckets whose width grows with the value.
+ * Each power of two is split into {@value #SUB_BUCKETS} equally sized buckets, so every value is
+ * recorded to within about 1.6% of its true size, while the whole range from a nanosecond to
+ * several minutes only needs a couple of thousand buckets. Larger values are counted in the last
+ * bucket. Recording a value is an increment of one bucket, plus updates to the running count, sum
+ * and maximum.</p>
+ * <p>Values are read through a {@link Snapshot}, which copies the buckets so that percentiles can
+ * be worked out without holding up threads that are still recording.</p>
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Values of 2^40 ns (about 18 minutes) or more are counted in the last bucket
+  private static final int MAX_MAGNITUDE = 40;
+  private static final long MAX_TRACKABLE_VALUE = (1L << MAX_MAGNITUDE) - 1;
+  private static final int BUCKET_COUNT = indexOf(MAX_TRACKABLE_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Records a duration. Negative durations, which can only come from a clock going backwards, are
+   * recorded as zero.
+   * @param nanos The duration, in nanoseconds.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(indexOf(Math.min(value, MAX_TRACKABLE_VALUE)));
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * Takes a copy of the values recorded so far. Values recorded while the copy is being taken may
+   * or may not be included.
+   * @return A snapshot of the histogram.
+   */
+  public Snapshot snapshot() {
+    long[] snapshotCounts = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshotCounts[i] = counts.get(i);
+      count += snapshotCounts[i];
+    }
+    return new Snapshot(snapshotCounts, count, sum.sum(), max.get());
+  }
+
+  private static int indexOf(long value) {
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    if (magnitude <= SUB_BUCKET_BITS) {
+      // Small values get a bucket each
+      return (int) value;
+    }
+    int shift = magnitude - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  // Gets the largest value that is counted in the bucket with the given index
+  private static long highestValueAt(int index) {
+    if (index < SUB_BUCKETS * 2) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long lowestValue = (long) (index - shift * SUB_BUCKETS) << shift;
+    return lowestValue + (1L << shift) - 1;
+  }
+
+  /**
+   * The values recorded by a histogram up to a point in time.
+   */
+  public static class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    private Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    /**
+     * Gets the number of values that were recorded.
+     * @return The number of values.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Gets the total of all of the values that were recorded.
+     * @return The total, in nanoseconds.
+     */
+    public long getSum() {
+      return sum;
+    }
+
+    /**
+     * Gets the largest value that was recorded.
+     * @return The largest value, in nanoseconds, or zero if nothing was recorded.
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * Gets the mean of the values that were recorded.
+     * @return The mean, in nanoseconds, or zero if nothing was recorded.
+     */
+    public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Gets the number of recorded values that are less than or equal to the given value. Values
+     * are counted by bucket, so values slightly greater than the given value (by up to the
+     * precision of the histogram) may be included.
+     * @param nanos The value, in nanoseconds.
+     * @return The number of values less than or equal to {@code nanos}.
+     */
+    public long getCountAtOrBelow(long nanos) {
+      if (nanos < 0) {
+        return 0;
+      }
+      int lastIndex = indexOf(Math.min(nanos, MAX_TRACKABLE_VALUE));
+      long total = 0;
+      for (int i = 0; i <= lastIndex; i++) {
+        total += counts[i];
+      }
+      return total;
+    }
+
+    /**
+     * Gets the value that the given percentage of recorded values are less than or equal to.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The value at the percentile, in nanoseconds, or zero if nothing was recorded.
+     * @throws IllegalArgumentException Thrown if {@code percentile} is not between 0 and 100.
+     */
+    public long getValueAtPercentile(double percentile) throws IllegalArgumentException {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("Percentile must be between 0 and 100");
+      }
+      if (count == 0) {
+        return 0;
+      }
+      long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= target) {
+          return Math.min(highestValueAt(i), max);
+        }
+      }
+      return max;
+    }
+
+  }
+
+}
@@ -0,0 +1,30 @@
+import java.util.Objects;
+
+/**
+ * A request to leave the current room and go back to the default room (see
+ * {@link RoomRegistry#DEFAULT_ROOM_NAME}).
+ */
+public class LeaveRoomRequest extends RoomChangeRequest {
+
+  @Override
+  protected String getDestinationRoom() {
+    return RoomRegistry.DEFAULT_ROOM_NAME;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof LeaveRoomRequest)) {
+      return false;
+    }
+    LeaveRoomRequest that = (LeaveRoomRequest) o;
+    return Objects.equals(getAuthor(), that.getAuthor());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(getAuthor());
+  }
+}
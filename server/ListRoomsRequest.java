@@ -0,0 +1,49 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A request for the names of the rooms on the server. The author is sent a
+ * {@link RoomListNotification} in response.
+ */
+public class ListRoomsRequest implements ChatRequest {
+
+  @XmlIgnore
+  private User author;
+
+  @Override
+  public void setAuthor(User author) {
+    this.author = author;
+  }
+
+  @Override
+  public User getAuthor() {
+    return author;
+  }
+
+  @Override
+  public void process(ChatMediator chatMediator) {
+    RoomRegistry roomRegistry = chatMediator.getRoomRegistry();
+    List<String> rooms = roomRegistry == null
+        ? Collections.singletonList(chatMediator.getName())
+        : roomRegistry.getRoomNames();
+    author.notifyOfEvent(new RoomListNotification(chatMediator.getName(), rooms));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ListRoomsRequest)) {
+      return false;
+    }
+    ListRoomsRequest that = (ListRoomsRequest) o;
+    return Objects.equals(author, that.author);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(author);
+  }
+}
@@ -0,0 +1,497 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * <p>An append-only record of the messages that pass through the server's rooms. Every
+ * {@link ChatEntryNotification}, {@link ConnectionNotification} and
+ * {@link DisconnectNotification} that a room broadcasts is appended to the journal, along with the
+ * name of the room and the time at which it was sent, so that the history of the server can be
+ * audited or replayed (see {@link #read(Path, Consumer)}).</p>
+ * <p>The journal is kept in a directory of segment files. Each segment is preallocated and memory
+ * mapped, and records are appended to it until it is full, at which point a new segment is
+ * started. Every record is laid out as follows, with all numbers big-endian:
+ * <ul>
+ *   <li>the number of bytes in the rest of the record, after its checksum, as an {@code int}</li>
+ *   <li>the CRC-32 of the rest of the record, as an {@code int}</li>
+ *   <li>the time at which the notification was sent, in milliseconds since the epoch, as a
+ *   {@code long}</li>
+ *   <li>a byte identifying the type of the notification</li>
+ *   <li>the number of bytes in the room name, as a {@code short}, followed by the room name in
+ *   UTF-8</li>
+ *   <li>the notification, as the line of XML that was sent to users, including its line
+ *   separator</li>
+ * </ul>
+ * A length of zero marks the end of a segment. The checksum lets a reader tell where a segment
+ * that was being written when the server stopped was cut short.</p>
+ * <p>Rooms hand records to the journal rather than writing them, so nothing is written while a
+ * request is being processed. The notification has already been encoded to be sent, so appending
+ * it only costs a queue insertion. A single thread copies the queued records into the mapped
+ * segment in batches, and forces them to disk at most once per flush interval, so the cost of
+ * syncing is shared between every record written in that time. If the writer falls far enough
+ * behind to fill its queue, rooms wait for it to catch up rather than losing records.</p>
+ * <p>Segments that were finished longer ago than the retention period are deleted. The segment
+ * being written to is never deleted. The journal never appends to a segment that it didn't create,
+ * so each run of the server starts a new segment.</p>
+ */
+public class MessageJournal implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(MessageJournal.class.getName());
+
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  // The length and checksum of each record, followed by the fixed size fields of its body
+  private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+  private static final int FIXED_BODY_SIZE = Long.BYTES + Byte.BYTES + Short.BYTES;
+
+  // The tag that identifies each type of notification that is journaled. These must never change,
+  // or existing journals will be misread.
+  private static final Map<Class<?>, Byte> TYPE_TAGS = Map.of(
+      ChatEntryNotification.class, (byte) 1,
+      ConnectionNotification.class, (byte) 2,
+      DisconnectNotification.class, (byte) 3
+  );
+
+  private static final int QUEUE_CAPACITY = 64 * 1024;
+  private static final int MAX_BATCH_SIZE = 1024;
+  private static final long RETENTION_CHECK_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 5_000;
+  // How often a room that is waiting for space in the queue checks whether the journal was closed
+  private static final long APPEND_RETRY_MILLIS = 100;
+
+  /**
+   * The smallest size that a segment can be.
+   */
+  public static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+  // Queued by close() to tell the writer that there is nothing more to come
+  private static final Entry END = new Entry(0, (byte) 0, "", null);
+
+  private final Path directory;
+  private final int segmentSize;
+  private final long flushIntervalMillis;
+  private final long retentionMillis;
+  private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final Thread writerThread;
+  private volatile boolean closed = false;
+
+  // Only accessed by the writer thread
+  private final CRC32 checksum = new CRC32();
+  private final List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+  private long segmentNumber;
+  private Path segmentPath;
+  private MappedByteBuffer segment;
+  private boolean unflushedRecords = false;
+  private long nextFlushAtMillis;
+  private long nextRetentionCheckAtMillis;
+
+  /**
+   * Opens a journal in the given directory, creating the directory if it doesn't exist, and starts
+   * its writer thread. A new segment is started after any that are already in the directory.
+   * @param directory The directory to keep the segments in.
+   * @param segmentSize The size of each segment, in bytes.
+   * @param flushIntervalMillis The longest time that a record can be written to a segment before
+   * it is forced to disk, in milliseconds. Zero forces every batch of records as soon as it has
+   * been written.
+   * @param retentionMillis How long segments are kept after they are finished, in milliseconds.
+   * @throws IOException Thrown if the directory or the first segment could not be created.
+   * @throws IllegalArgumentException Thrown if {@code segmentSize < MIN_SEGMENT_SIZE}, or if
+   * {@code flushIntervalMillis} or {@code retentionMillis} are negative.
+   * @throws NullPointerException Thrown if {@code directory == null}.
+   */
+  public MessageJournal(
+      Path directory, int segmentSize, long flushIntervalMillis, long retentionMillis
+  ) throws IOException, IllegalArgumentException, NullPointerException {
+    if (segmentSize < MIN_SEGMENT_SIZE) {
+      throw new IllegalArgumentException(
+          "Segment size must be at least " + MIN_SEGMENT_SIZE + " bytes"
+      );
+    }
+    if (flushIntervalMillis < 0) {
+      throw new IllegalArgumentException("Flush interval must not be negative");
+    }
+    if (retentionMillis < 0) {
+      throw new IllegalArgumentException("Retention must not be negative");
+    }
+    this.directory = Objects.requireNonNull(directory, "Directory is null");
+    this.segmentSize = segmentSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.retentionMillis = retentionMillis;
+
+    Files.createDirectories(directory);
+    List<Path> existingSegments = listSegments(directory);
+    this.segmentNumber = existingSegments.isEmpty()
+        ? 0
+        : segmentNumberOf(existingSegments.get(existingSegments.size() - 1)) + 1;
+    openSegment();
+    deleteExpiredSegments();
+
+    ServerMetrics.getInstance().registerGauge("journal_backlog", queue::size);
+    this.writerThread = UserThreadFactory.platform("message-journal-thread").newThread(this::write);
+    writerThread.start();
+    LOGGER.info("Journaling messages to " + directory);
+  }
+
+  /**
+   * Gets the directory that the segments are kept in.
+   * @return The journal directory.
+   */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Determines whether notifications of the given type are recorded in the journal.
+   * @param type The type of notification.
+   * @return {@code true} if notifications of the given type are journaled.
+   */
+  public static boolean isJournaled(Class<?> type) {
+    return TYPE_TAGS.containsKey(type);
+  }
+
+  /**
+   * Queues a notification that has been sent in a room to be appended to the journal. Types of
+   * notification that aren't journaled (see {@link #isJournaled(Class)}) are ignored, as is
+   * anything appended after the journal has been closed. This returns straight away unless the
+   * writer has fallen so far behind that its queue is full. If the journal is closed while waiting
+   * for space, the notification is dropped, as the writer may already have stopped.
+   * @param roomName The name of the room that the notification was sent in.
+   * @param notification The notification, as it was encoded to be sent.
+   * @throws NullPointerException Thrown if either of the arguments are {@code null}.
+   */
+  public void append(String roomName, EncodedNotification notification)
+      throws NullPointerException {
+    Objects.requireNonNull(roomName, "Room name is null");
+    Byte typeTag = TYPE_TAGS.get(
+        Objects.requireNonNull(notification, "Notification is null").getNotificationType()
+    );
+    if (typeTag == null || closed) {
+      return;
+    }
+
+    Entry entry = new Entry(System.currentTimeMillis(), typeTag, roomName, notification);
+    if (!queue.offer(entry)) {
+      try {
+        while (!queue.offer(entry, APPEND_RETRY_MILLIS, TimeUnit.MILLISECONDS)) {
+          if (closed) {
+            LOGGER.warning(
+                "Dropped a message from " + roomName + ", as the journal was closed while it waited"
+            );
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOGGER.warning("Interrupted while waiting to journal a message from " + roomName);
+      }
+    }
+  }
+
+  private void write() {
+    nextFlushAtMillis = System.currentTimeMillis() + flushIntervalMillis;
+    nextRetentionCheckAtMillis = System.currentTimeMillis() + RETENTION_CHECK_INTERVAL_MILLIS;
+    boolean ended = false;
+    while (!ended) {
+      try {
+        // Wake up in time to force any unflushed records to disk, even if nothing else arrives
+        long waitMillis = unflushedRecords
+            ? Math.max(0, nextFlushAtMillis - System.currentTimeMillis())
+            : RETENTION_CHECK_INTERVAL_MILLIS;
+        Entry first = queue.poll(waitMillis, TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+          for (Entry entry : batch) {
+            if (entry == END) {
+              ended = true;
+            } else {
+              writeRecord(entry);
+            }
+          }
+          batch.clear();
+        }
+
+        long now = System.currentTimeMillis();
+        if (unflushedRecords && now >= nextFlushAtMillis) {
+          flush();
+        }
+        if (now >= nextRetentionCheckAtMillis) {
+          nextRetentionCheckAtMillis = now + RETENTION_CHECK_INTERVAL_MILLIS;
+          deleteExpiredSegments();
+        }
+      } catch (InterruptedException e) {
+        // Nothing interrupts the writer, so just carry on
+      } catch (IOException e) {
+        LOGGER.log(Level.SEVERE, "Failed to write to the message journal", e);
+        ended = batch.contains(END);
+        batch.clear();
+      }
+    }
+
+    try {
+      finishSegment();
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Failed to finish the message journal segment " + segmentPath, e);
+    }
+  }
+
+  private void writeRecord(Entry entry) throws IOException {
+    byte[] room = entry.roomName.getBytes(StandardCharsets.UTF_8);
+    int bodySize = FIXED_BODY_SIZE + room.length + entry.notification.size();
+    int recordSize = RECORD_HEADER_SIZE + bodySize;
+    // A zero length must always fit after the last record, to mark the end of the segment
+    if (recordSize + Integer.BYTES > segmentSize || room.length > Short.MAX_VALUE) {
+      LOGGER.warning("Skipped journaling a message from " + entry.roomName + " that was too big");
+      return;
+    }
+    if (recordSize + Integer.BYTES > segment.remaining()) {
+      finishSegment();
+      segmentNumber++;
+      openSegment();
+      deleteExpiredSegments();
+    }
+
+    int start = segment.position();
+    segment.position(start + RECORD_HEADER_SIZE);
+    segment.putLong(entry.sentAtMillis);
+    segment.put(entry.typeTag);
+    segment.putShort((short) room.length);
+    segment.put(room);
+    segment.put(entry.notification.toByteBuffer());
+
+    checksum.reset();
+    checksum.update(segment.slice(start + RECORD_HEADER_SIZE, bodySize));
+    // The length is written last, so a reader never sees a record that is only partly written
+    segment.putInt(start + Integer.BYTES, (int) checksum.getValue());
+    segment.putInt(start, bodySize);
+    unflushedRecords = true;
+  }
+
+  private void flush() {
+    segment.force();
+    unflushedRecords = false;
+    nextFlushAtMillis = System.currentTimeMillis() + flushIntervalMillis;
+  }
+
+  private void openSegment() throws IOException {
+    segmentPath = directory.resolve(String.format("%020d%s", segmentNumber, SEGMENT_SUFFIX));
+    try (FileChannel channel = FileChannel.open(
+        segmentPath,
+        StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE
+    )) {
+      // The mapping stays valid after the channel is closed
+      segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+  }
+
+  private void finishSegment() throws IOException {
+    flush();
+    // Retention is measured from when each segment was finished
+    Files.setLastModifiedTime(segmentPath, FileTime.fromMillis(System.currentTimeMillis()));
+  }
+
+  private void deleteExpiredSegments() {
+    long expiredBefore = System.currentTimeMillis() - retentionMillis;
+    try {
+      for (Path path : listSegments(directory)) {
+        if (!path.equals(segmentPath)
+            && Files.getLastModifiedTime(path).toMillis() < expiredBefore) {
+          Files.delete(path);
+          LOGGER.info("Deleted expired message journal segment " + path.getFileName());
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to delete expired message journal segments", e);
+    }
+  }
+
+  // Lists the segments in the order that they were written
+  private static List<Path> listSegments(Path directory) throws IOException {
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      for (Path path : paths) {
+        segments.add(path);
+      }
+    }
+    segments.sort(null);
+    return segments;
+  }
+
+  private static long segmentNumberOf(Path segment) {
+    String fileName = segment.getFileName().toString();
+    try {
+      return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Reads every record in a journal, oldest first. This can be used while the journal is being
+   * written to, in which case records that are written during the read may or may not be
+   * included. If a segment was cut short, the records before the damage are read and the rest of
+   * the segment is skipped.
+   * @param directory The directory that the journal's segments are kept in.
+   * @param consumer Receives each record.
+   * @throws IOException Thrown if a segment could not be read.
+   * @throws NullPointerException Thrown if either of the arguments are {@code null}.
+   */
+  public static void read(Path directory, Consumer<Record> consumer)
+      throws IOException, NullPointerException {
+    Objects.requireNonNull(directory, "Directory is null");
+    Objects.requireNonNull(consumer, "Consumer is null");
+    Map<Byte, Class<?>> typesByTag = new HashMap<>();
+    TYPE_TAGS.forEach((type, tag) -> typesByTag.put(tag, type));
+    ReflectiveXmlReader xmlReader = new ReflectiveXmlReader();
+
+    for (Path path : listSegments(directory)) {
+      MappedByteBuffer segment;
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      CRC32 checksum = new CRC32();
+      while (segment.remaining() >= RECORD_HEADER_SIZE) {
+        int bodySize = segment.getInt();
+        int expectedChecksum = segment.getInt();
+        if (bodySize < FIXED_BODY_SIZE || bodySize > segment.remaining()) {
+          break;
+        }
+        checksum.reset();
+        checksum.update(segment.slice(segment.position(), bodySize));
+        if ((int) checksum.getValue() != expectedChecksum) {
+          LOGGER.warning("Message journal segment " + path.getFileName() + " was cut short");
+          break;
+        }
+
+        int end = segment.position() + bodySize;
+        long sentAtMillis = segment.getLong();
+        Class<?> type = typesByTag.get(segment.get());
+        byte[] room = new byte[segment.getShort()];
+        segment.get(room);
+        byte[] xml = new byte[end - segment.position()];
+        segment.get(xml);
+        if (type == null) {
+          // Written by a newer version of the server
+          continue;
+        }
+        try {
+          Object notification =
+              xmlReader.fromXml(new String(xml, StandardCharsets.UTF_8).strip(), type);
+          consumer.accept(
+              new Record(sentAtMillis, new String(room, StandardCharsets.UTF_8), notification)
+          );
+        } catch (XmlParseException e) {
+          LOGGER.log(Level.WARNING, "Skipped a message journal record that couldn't be read", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops accepting records, writes any that are still queued and forces them to disk. This waits
+   * a few seconds at most for the writer to finish.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      queue.put(END);
+      writerThread.join(SHUTDOWN_TIMEOUT_MILLIS);
+      if (writerThread.isAlive()) {
+        LOGGER.warning("Timed out waiting for the message journal to be written");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  // A notification waiting to be written
+  private static final class Entry {
+
+    private final long sentAtMillis;
+    private final byte typeTag;
+    private final String roomName;
+    private final EncodedNotification notification;
+
+    private Entry(
+        long sentAtMillis, byte typeTag, String roomName, EncodedNotification notification
+    ) {
+      this.sentAtMillis = sentAtMillis;
+      this.typeTag = typeTag;
+      this.roomName = roomName;
+      this.notification = notification;
+    }
+
+  }
+
+  /**
+   * A notification that was read back from a journal.
+   */
+  public static final class Record {
+
+    private final long sentAtMillis;
+    private final String roomName;
+    private final Object notification;
+
+    private Record(long sentAtMillis, String roomName, Object notification) {
+      this.sentAtMillis = sentAtMillis;
+      this.roomName = roomName;
+      this.notification = notification;
+    }
+
+    /**
+     * Gets the time at which the notification was sent.
+     * @return The time at which the notification was sent, in milliseconds since the epoch.
+     */
+    public long getSentAtMillis() {
+      return sentAtMillis;
+    }
+
+    /**
+     * Gets the name of the room that the notification was sent in.
+     * @return The name of the room.
+     */
+    public String getRoomName() {
+      return roomName;
+    }
+
+    /**
+     * Gets the notification, which is a {@link ChatEntryNotification},
+     * {@link ConnectionNotification} or {@link DisconnectNotification}.
+     * @return The notification.
+     */
+    public Object getNotification() {
+      return notification;
+    }
+
+  }
+
+}
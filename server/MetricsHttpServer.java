@@ -0,0 +1,208 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Serves the {@link ServerMetrics} over HTTP, in the Prometheus text exposition format, so that
+ * they can be scraped from {@code http://<host>:<port>/metrics}. This listens on a port of its own,
+ * separate from the one that users connect to.</p>
+ * <p>Every metric is read from lock free counters and histogram snapshots, so a scrape never waits
+ * for, or holds up, the processing of requests. Scrapes are served one at a time on a dedicated
+ * thread. Rates, such as the number of messages per second, are left to Prometheus to work out
+ * from the counters, for example with
+ * {@code rate(chat_requests_total{type="ChatEntryRequest"}[1m])}. Durations are exported as
+ * histograms, in seconds.</p>
+ */
+public class MetricsHttpServer implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(MetricsHttpServer.class.getName());
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  // The upper bounds of the histogram buckets, in nanoseconds
+  private static final long[] BUCKET_BOUNDS = {
+      10_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+      1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+      100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L, 10_000_000_000L
+  };
+
+  private final ServerMetrics metrics;
+  private final HttpServer httpServer;
+  private final ExecutorService executor;
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a new server that listens on the given port. It doesn't accept scrapes until it has
+   * been {@link #start() started}.
+   * @param port The port to listen on.
+   * @param metrics The metrics to serve.
+   * @throws IOException Thrown if the port could not be bound.
+   * @throws NullPointerException Thrown if {@code metrics == null}.
+   */
+  public MetricsHttpServer(int port, ServerMetrics metrics)
+      throws IOException, NullPointerException {
+    this.metrics = Objects.requireNonNull(metrics, "Metrics is null");
+    this.httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "metrics-http-thread");
+      thread.setDaemon(true);
+      return thread;
+    });
+    httpServer.setExecutor(executor);
+    httpServer.createContext("/metrics", this::handleScrape);
+  }
+
+  /**
+   * Starts accepting scrapes.
+   */
+  public void start() {
+    httpServer.start();
+    LOGGER.info("Serving metrics on port " + httpServer.getAddress().getPort());
+  }
+
+  private void handleScrape(HttpExchange exchange) {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = render().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(body);
+      }
+    } catch (IOException e) {
+      // Most likely the scraper went away. It will try again at its next interval.
+      LOGGER.log(Level.FINE, "Failed to serve metrics", e);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Renders the current metrics in the Prometheus text exposition format.
+   * @return The metrics.
+   */
+  public String render() {
+    StringBuilder output = new StringBuilder(4096);
+
+    appendSingleValue(output, "chat_connections", "gauge", "Open connections.",
+        metrics.getOpenConnections());
+    for (Map.Entry<String, Long> gauge : metrics.getGaugeValues().entrySet()) {
+      String help = "Current number of " + gauge.getKey().replace('_', ' ') + ".";
+      appendSingleValue(output, "chat_" + gauge.getKey(), "gauge", help, gauge.getValue());
+    }
+    appendSingleValue(output, "chat_joins_total", "counter", "Users joining a room.",
+        metrics.getJoins());
+    appendSingleValue(output, "chat_leaves_total", "counter", "Users leaving a room.",
+        metrics.getLeaves());
+    appendSingleValue(output, "chat_parse_failures_total", "counter",
+        "Requests that could not be parsed.", metrics.getParseFailures());
+    appendSingleValue(output, "chat_bytes_read_total", "counter", "Bytes read from users.",
+        metrics.getBytesRead());
+    appendSingleValue(output, "chat_bytes_written_total", "counter", "Bytes written to users.",
+        metrics.getBytesWritten());
+    appendSingleValue(output, "chat_writes_total", "counter", "Writes to users' connections.",
+        metrics.getWrites());
+    appendSingleValue(output, "chat_dropped_notifications_total", "counter",
+        "Notifications dropped because a user's outbound queue was full.",
+        metrics.getDroppedNotifications());
+
+    // The number of requests of each type is the count of its processing time histogram
+    Map<String, LatencyHistogram.Snapshot> processingSnapshots = new TreeMap<>();
+    metrics.getProcessingTimes().forEach(
+        (type, times) -> processingSnapshots.put(type.getSimpleName(), times.snapshot())
+    );
+    appendHeader(output, "chat_requests_total", "counter", "Requests processed, by type.");
+    processingSnapshots.forEach((type, snapshot) -> output
+        .append("chat_requests_total{type=\"").append(type).append("\"} ")
+        .append(snapshot.getCount()).append('\n'));
+
+    appendHeader(output, "chat_request_processing_seconds", "histogram",
+        "Time taken to process each request, by type.");
+    processingSnapshots.forEach((type, snapshot) -> appendHistogramSamples(
+        output, "chat_request_processing_seconds", "type=\"" + type + "\"", snapshot
+    ));
+    appendHistogram(output, "chat_request_wait_seconds",
+        "Time that requests waited to be processed.", metrics.getRequestWaitTimes());
+    appendHistogram(output, "chat_fan_out_seconds",
+        "Time taken to fan each broadcast out to its recipients.", metrics.getFanOutTimes());
+    appendHistogram(output, "chat_delivery_seconds",
+        "Time from encoding each notification to writing it to a recipient.",
+        metrics.getDeliveryTimes());
+    return output.toString();
+  }
+
+  private static void appendHeader(StringBuilder output, String name, String type, String help) {
+    output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    output.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void appendSingleValue(
+      StringBuilder output, String name, String type, String help, long value
+  ) {
+    appendHeader(output, name, type, help);
+    output.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void appendHistogram(
+      StringBuilder output, String name, String help, LatencyHistogram histogram
+  ) {
+    appendHeader(output, name, "histogram", help);
+    appendHistogramSamples(output, name, null, histogram.snapshot());
+  }
+
+  private static void appendHistogramSamples(
+      StringBuilder output, String name, String labels, LatencyHistogram.Snapshot snapshot
+  ) {
+    String labelPrefix = labels == null ? "" : labels + ",";
+    for (long bound : BUCKET_BOUNDS) {
+      output.append(name).append("_bucket{").append(labelPrefix)
+            .append("le=\"").append(toSeconds(bound)).append("\"} ")
+            .append(snapshot.getCountAtOrBelow(bound)).append('\n');
+    }
+    output.append(name).append("_bucket{").append(labelPrefix).append("le=\"+Inf\"} ")
+          .append(snapshot.getCount()).append('\n');
+
+    String labelSuffix = labels == null ? "" : "{" + labels + "}";
+    output.append(name).append("_sum").append(labelSuffix).append(' ')
+          .append(toSeconds(snapshot.getSum())).append('\n');
+    output.append(name).append("_count").append(labelSuffix).append(' ')
+          .append(snapshot.getCount()).append('\n');
+  }
+
+  private static double toSeconds(long nanos) {
+    return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+  }
+
+  /**
+   * Stops accepting scrapes and releases the port.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    httpServer.stop(0);
+    executor.shutdown();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Accepts connections from clients and hands them over to a small, fixed pool of
+ * {@link NioEventLoop}s. Rather than dedicating a thread to each user, each event loop thread
+ * multiplexes the non-blocking channels of many users, so the number of threads used by the server
+ * no longer grows with the number of connections.</p>
+ * <p>Connections are distributed between the event loops on a round-robin basis. Note that the
+ * {@link #run()} implementation blocks until the chat group is closed.</p>
+ */
+public class NioConnectionEngine {
+
+  private static final Logger LOGGER = Logger.getLogger(NioConnectionEngine.class.getName());
+
+  private final ChatMediator chatMediator;
+  private final UserPool userPool;
+  private final int port;
+  private final ServerConfiguration configuration;
+  private final ChatRequestProcessor requestProcessor;
+  private final NioEventLoop[] eventLoops;
+  private final WriteCoalescer writeCoalescer;
+
+  private volatile boolean shutdown = false;
+
+  /**
+   * Creates a new engine. When the {@link #run()} method is called, it will start accepting
+   * connections on the configured port.
+   * @param chatMediator The chat group that connecting users will belong to.
+   * @param userPool The pool that connecting users should be added to.
+   * @param configuration The settings for the server, such as the port to listen on and the
+   * number of event loop threads to service connections with.
+   * @param requestProcessor Processes the requests of connecting users.
+   * @throws IOException Thrown if the event loops could not be created.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public NioConnectionEngine(
+      ChatMediator chatMediator,
+      UserPool userPool,
+      ServerConfiguration configuration,
+      ChatRequestProcessor requestProcessor
+  ) throws IOException, NullPointerException {
+    this.chatMediator = Objects.requireNonNull(chatMediator, "Chat mediator is null");
+    this.userPool = Objects.requireNonNull(userPool, "User pool is null");
+    this.configuration = Objects.requireNonNull(configuration, "Configuration is null");
+    this.requestProcessor =
+        Objects.requireNonNull(requestProcessor, "Request processor is null");
+    this.port = configuration.getPort();
+    int eventLoopThreads = configuration.getEventLoopThreads();
+    this.eventLoops = new NioEventLoop[eventLoopThreads];
+    for (int i = 0; i < eventLoopThreads; i++) {
+      eventLoops[i] = new NioEventLoop();
+    }
+    this.writeCoalescer = configuration.createWriteCoalescer();
+  }
+
+  /**
+   * Starts the event loops and accepts connections until the chat group is closed.
+   * @throws IOException Thrown if there is a problem with the server socket channel.
+   */
+  public void run() throws IOException {
+    for (int i = 0; i < eventLoops.length; i++) {
+      new Thread(eventLoops[i], "nio-event-loop-" + i).start();
+    }
+
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+      serverChannel.bind(new InetSocketAddress(port));
+      addCloseAction(serverChannel);
+      LOGGER.info(
+          "Server started on port " + port + " with " + eventLoops.length + " event loop threads"
+      );
+
+      acceptConnections(serverChannel);
+    } finally {
+      closeEventLoops();
+    }
+  }
+
+  private void addCloseAction(ServerSocketChannel serverChannel) {
+    // When the chat group closes, block new connections from being received by closing the server
+    // channel
+    chatMediator.addOnCloseAction(() -> {
+      try {
+        shutdown = true;
+        serverChannel.close();
+      } catch (IOException e) {
+        LOGGER.log(
+            Level.WARNING, "Failed to close server channel cleanly. Initiating forced shut down", e
+        );
+        System.exit(1);
+      }
+    });
+  }
+
+  private void acceptConnections(ServerSocketChannel serverChannel) throws IOException {
+    int nextEventLoop = 0;
+    while (!shutdown) {
+      SocketChannel channel;
+      try {
+        // The server channel is left in blocking mode, so this blocks until a client connects
+        channel = serverChannel.accept();
+      } catch (AsynchronousCloseException e) {
+        // Expected if a server shutdown has been initiated
+        if (!shutdown) {
+          LOGGER.log(Level.SEVERE, "Failed to accept incoming connections", e);
+        }
+        return;
+      }
+
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, configuration.isTcpNoDelay());
+      NioRemoteUser newlyConnectedUser =
+          new NioRemoteUser(
+              chatMediator,
+              channel,
+              eventLoops[nextEventLoop],
+              configuration.createOutboundQueue(writeCoalescer),
+              requestProcessor,
+              configuration.getRequestParserType().getParser()
+          );
+      nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+
+      newlyConnectedUser.startListening();
+      userPool.addUser(newlyConnectedUser);
+    }
+  }
+
+  private void closeEventLoops() {
+    for (NioEventLoop eventLoop : eventLoops) {
+      eventLoop.close();
+    }
+    if (writeCoalescer != null) {
+      writeCoalescer.close();
+    }
+  }
+
+}
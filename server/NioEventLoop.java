@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An event loop that services many non-blocking user connections from a single thread. The loop
+ * waits on a {@link Selector} until one or more of its users' channels are ready, and then reads
+ * from or writes to those channels without blocking. Note that the {@link #run()} implementation
+ * only returns once the loop is closed, so this should be run on its own thread. Other threads can
+ * hand work to the loop thread with {@link #execute(Runnable)}.
+ */
+public class NioEventLoop implements Runnable, Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(NioEventLoop.class.getName());
+
+  private final Selector selector;
+
+  // Channels can only be registered with a selector safely from the thread that is selecting, so
+  // users are handed over to the loop thread through this queue
+  private final Queue<NioRemoteUser> pendingRegistrations = new ConcurrentLinkedQueue<>();
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a new event loop.
+   * @throws IOException Thrown if the loop's selector could not be opened.
+   */
+  public NioEventLoop() throws IOException {
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Hands a newly connected user over to this loop. The loop will start reading from the user's
+   * channel shortly afterwards.
+   * @param user The user to register.
+   */
+  public void register(NioRemoteUser user) {
+    pendingRegistrations.add(user);
+    selector.wakeup();
+  }
+
+  /**
+   * Runs the task on the loop thread, shortly afterwards. The task must not block.
+   * @param task The task to run.
+   */
+  public void execute(Runnable task) {
+    pendingTasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Wakes the loop up so that it picks up a change to the interest set of one of its keys.
+   */
+  public void wakeup() {
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!closed) {
+        selector.select();
+        registerPendingUsers();
+        processSelectedKeys();
+        runPendingTasks();
+      }
+    } catch (IOException e) {
+      if (!closed) {
+        LOGGER.log(Level.SEVERE, "Event loop failed unexpectedly", e);
+      }
+    } finally {
+      closeSelector();
+    }
+  }
+
+  private void registerPendingUsers() {
+    NioRemoteUser user;
+    while ((user = pendingRegistrations.poll()) != null) {
+      try {
+        user.registerWith(selector);
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed to register new connection with event loop", e);
+        user.close();
+      }
+    }
+  }
+
+  private void runPendingTasks() {
+    Runnable task;
+    while ((task = pendingTasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Event loop task failed", e);
+      }
+    }
+  }
+
+  private void processSelectedKeys() {
+    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+
+      NioRemoteUser user = (NioRemoteUser) key.attachment();
+      try {
+        if (key.isReadable()) {
+          user.onReadable();
+        }
+        if (key.isValid() && key.isWritable()) {
+          user.onWritable();
+        }
+      } catch (CancelledKeyException e) {
+        // The user was closed by another thread while we were servicing it, so there's nothing
+        // more to do for this key
+      }
+    }
+  }
+
+  private void closeSelector() {
+    try {
+      selector.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to close event loop selector", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    selector.wakeup();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+}
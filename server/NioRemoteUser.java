@@ -0,0 +1,593 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a user that connects remotely to the server through a non-blocking
+ * {@link SocketChannel}. Unlike a {@link RemoteUser}, this user does not own a thread. Instead, its
+ * channel is serviced by an {@link NioEventLoop} which reads and frames the user's input, either as
+ * lines of XML or, if the client asks for it, as binary frames (see {@link BinaryWireCodec}).
+ * Notifications are added to the user's bounded {@link OutboundQueue}. Whichever thread finds the
+ * queue idle writes as much of it as the channel will accept without blocking, and the event loop
+ * finishes off the rest once the channel is ready for more. A user that reads slowly therefore only
+ * ever costs a bounded amount of memory, and never holds up the thread that notified them.
+ * <p>The writer takes everything that is waiting in the queue at once, and hands the channel a
+ * view of each notification's shared encoded bytes in a single gathering write, so a burst of
+ * notifications costs one system call rather than one for each notification, and nothing is
+ * copied on the way. If writes are being coalesced, nothing is written until the
+ * {@link WriteCoalescer} window has passed, or enough is waiting to fill a write.</p>
+ * <p>The event loop never waits for a request to be processed. If the user's request can't be
+ * passed on straight away, because their room's lane is full or because they're moving to another
+ * room, the user stops reading from their channel. Whatever they've already sent is kept in the
+ * read buffer, and reading carries on from there, on the event loop, once the request has been
+ * passed on or processed. One slow room therefore only holds up its own users, rather than every
+ * user on the same loop.</p>
+ * <p>While Flight Recorder is running, each write to the channel is covered by a
+ * {@link NotificationWriteEvent}, so a notification that took several writes to send shows up as
+ * several events.</p>
+ */
+public class NioRemoteUser extends AbstractUser {
+
+  private static final Logger LOGGER = Logger.getLogger(NioRemoteUser.class.getName());
+
+  private static final byte LINE_FEED = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+
+  // Protects the server from clients that send a never-ending line
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+  // Well within the limit that operating systems put on the buffers given to a single write
+  private static final int MAX_WRITE_BATCH = 64;
+
+  private final SocketChannel channel;
+  private final NioEventLoop eventLoop;
+  private final UserRequestHandler requestHandler;
+  private final Collection<Consumer<User>> onCloseActions = new ArrayList<>();
+
+  // Only accessed by the event loop thread
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(8 * 1024);
+  // The line (or binary frame) is parsed straight from this array, so it's never copied
+  private byte[] lineBuffer = new byte[256];
+  private int lineLength = 0;
+  private InputMode inputMode = InputMode.UNDECIDED;
+  // The length of the binary frame being read, and how much of its prefix has been read so far
+  private int frameLength = 0;
+  private int frameLengthShift = 0;
+  // Set by the event loop while the request handler can't take any more input. Read by any thread
+  // that updates the key's interest set.
+  private volatile boolean inputPaused = false;
+
+  // Notifications can be queued from any thread. The queue ensures that only one thread drains it
+  // at a time, but the lock makes sure that a stale write readiness event on the event loop can't
+  // interleave its writes with those of a sending thread.
+  private final OutboundQueue outboundQueue;
+  private final Lock writeLock = new ReentrantLock();
+  // The notifications taken from the queue that haven't been sent in full yet, from writeOffset to
+  // writeCount, and a view of each one's bytes. Guarded by writeLock.
+  private final EncodedNotification[] writeBatch = new EncodedNotification[MAX_WRITE_BATCH];
+  private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_WRITE_BATCH];
+  private int writeOffset = 0;
+  private int writeCount = 0;
+
+  private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+  private volatile SelectionKey selectionKey;
+  // Makes each update of the key's interest set atomic, so that one made from the state of the
+  // user can't overwrite another made from a later state
+  private final Object interestLock = new Object();
+  private volatile boolean closed = false;
+  // Set by the event loop when the client goes away. The disconnect may not be processed until
+  // later, so this stops the next select from reporting it again in the meantime.
+  private volatile boolean connectionLost = false;
+
+  /**
+   * Creates a new user that has connected remotely to the server.
+   * @param chatMediator The chat group that the user will belong to.
+   * @param channel The channel that will handle inbound and outbound data transfer between the user
+   * and the server. The channel must be in non-blocking mode.
+   * @param eventLoop The event loop that will service the channel.
+   * @param outboundQueue The queue that holds notifications until they are written to the user.
+   * @param requestProcessor Processes the user's requests, one at a time.
+   * @param requestParser Parses each line of the user's input into a request.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   * @throws IllegalArgumentException Thrown if {@code channel} is in blocking mode.
+   */
+  public NioRemoteUser(
+      ChatMediator chatMediator,
+      SocketChannel channel,
+      NioEventLoop eventLoop,
+      OutboundQueue outboundQueue,
+      ChatRequestProcessor requestProcessor,
+      ChatRequestParser requestParser
+  ) throws NullPointerException, IllegalArgumentException {
+    super(chatMediator);
+    this.channel = Objects.requireNonNull(channel, "Channel is null");
+    if (channel.isBlocking()) {
+      throw new IllegalArgumentException("Channel must be in non-blocking mode");
+    }
+    this.eventLoop = Objects.requireNonNull(eventLoop, "Event loop is null");
+    this.outboundQueue = Objects.requireNonNull(outboundQueue, "Outbound queue is null");
+    this.requestHandler = UserRequestHandler.nonBlocking(
+        this, requestProcessor, requestParser, () -> eventLoop.execute(this::resumeInput)
+    );
+    metrics.connectionOpened();
+  }
+
+  /**
+   * Starts listening to client input on the provided channel.
+   */
+  public void startListening() {
+    eventLoop.register(this);
+  }
+
+  /**
+   * Registers the user's channel with the given selector. This should only be called by the
+   * event loop thread that owns the selector.
+   * @param selector The selector to register with.
+   * @throws IOException Thrown if the channel could not be registered.
+   */
+  void registerWith(Selector selector) throws IOException {
+    selectionKey = channel.register(selector, SelectionKey.OP_READ, this);
+    // Notifications may have been queued, or part written, before the key existed
+    if (hasUnsentNotifications()) {
+      selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+  }
+
+  /**
+   * Reads whatever is available from the channel, and handles each complete line of input. This
+   * should only be called by the event loop thread.
+   */
+  void onReadable() {
+    if (inputPaused) {
+      // The read interest was set again by a thread that hadn't seen the pause yet
+      updateReadInterest();
+      return;
+    }
+    try {
+      int bytesRead;
+      while ((bytesRead = channel.read(readBuffer)) > 0) {
+        metrics.recordBytesRead(bytesRead);
+        if (!handleBufferedInput()) {
+          return;
+        }
+      }
+      if (bytesRead < 0) {
+        // The client closed the connection
+        onConnectionLost(new IOException("End of stream"));
+      }
+    } catch (IOException e) {
+      onConnectionLost(e);
+    }
+  }
+
+  // Handles everything in the read buffer, unless the input is paused part way through, in which
+  // case the rest is kept in the buffer and reading stops. Returns false if the input was paused.
+  private boolean handleBufferedInput() throws IOException {
+    readBuffer.flip();
+    frameInput();
+    readBuffer.compact();
+    if (inputPaused) {
+      updateReadInterest();
+      return false;
+    }
+    return true;
+  }
+
+  // Runs on the event loop once the request handler can carry on after pausing the input
+  private void resumeInput() {
+    if (closed || !requestHandler.resume()) {
+      return;
+    }
+    if (inputPaused) {
+      inputPaused = false;
+      try {
+        // Handle what was read before the pause. The channel is read again once it's ready.
+        if (handleBufferedInput()) {
+          updateReadInterest();
+        }
+      } catch (IOException e) {
+        onConnectionLost(e);
+      }
+    }
+  }
+
+  // Stops reading and disconnects the user, once only. If the user has already been closed, the
+  // disconnect has already been dealt with.
+  private void onConnectionLost(IOException e) {
+    if (connectionLost) {
+      return;
+    }
+    connectionLost = true;
+    updateReadInterest();
+    if (!closed) {
+      requestHandler.handleConnectionLost(e);
+    }
+  }
+
+  // Splits the bytes in the read buffer into requests, according to the protocol that the client
+  // is speaking
+  private void frameInput() throws IOException {
+    while (readBuffer.hasRemaining() && !inputPaused) {
+      switch (inputMode) {
+        case UNDECIDED:
+          // The first byte tells us whether the client is asking for the binary protocol
+          inputMode = BinaryWireCodec.isHandshakeStart(readBuffer.get(readBuffer.position()))
+              ? InputMode.HANDSHAKE
+              : InputMode.LINES;
+          break;
+        case LINES:
+          frameLines();
+          break;
+        case HANDSHAKE:
+          readHandshake();
+          break;
+        case FRAME_LENGTH:
+          readFrameLength();
+          break;
+        default:
+          readFramePayload();
+          break;
+      }
+    }
+  }
+
+  private void readHandshake() throws IOException {
+    int handshakeLength = BinaryWireCodec.getHandshakeLength();
+    int count = Math.min(readBuffer.remaining(), handshakeLength - lineLength);
+    readBuffer.get(lineBuffer, lineLength, count);
+    lineLength += count;
+    if (lineLength == handshakeLength) {
+      BinaryWireCodec.verifyHandshake(lineBuffer, 0);
+      lineLength = 0;
+      inputMode = InputMode.FRAME_LENGTH;
+      requestHandler.acceptBinaryHandshake();
+    }
+  }
+
+  private void readFrameLength() throws IOException {
+    byte next = readBuffer.get();
+    frameLength |= (next & 0x7F) << frameLengthShift;
+    frameLengthShift += 7;
+    if ((next & 0x80) != 0) {
+      if (frameLengthShift >= 35) {
+        throw new IOException("Malformed frame length");
+      }
+      return;
+    }
+
+    BinaryWireCodec.checkFrameLength(frameLength);
+    if (frameLength > lineBuffer.length) {
+      int capacity = Math.max(frameLength, lineBuffer.length * 2);
+      lineBuffer = new byte[Math.min(capacity, BinaryWireCodec.MAX_FRAME_LENGTH)];
+    }
+    inputMode = InputMode.FRAME_PAYLOAD;
+    if (frameLength == 0) {
+      handleFrame();
+    }
+  }
+
+  private void readFramePayload() {
+    int count = Math.min(readBuffer.remaining(), frameLength - lineLength);
+    readBuffer.get(lineBuffer, lineLength, count);
+    lineLength += count;
+    if (lineLength == frameLength) {
+      handleFrame();
+    }
+  }
+
+  private void handleFrame() {
+    int length = frameLength;
+    lineLength = 0;
+    frameLength = 0;
+    frameLengthShift = 0;
+    inputMode = InputMode.FRAME_LENGTH;
+    inputPaused = !requestHandler.handleFrame(lineBuffer, 0, length);
+  }
+
+  // Splits the bytes in the read buffer into lines, handling each one that is complete
+  private void frameLines() throws IOException {
+    while (readBuffer.hasRemaining() && !inputPaused) {
+      byte next = readBuffer.get();
+      if (next == LINE_FEED) {
+        handleLine();
+      } else if (lineLength < MAX_LINE_LENGTH) {
+        if (lineLength == lineBuffer.length) {
+          lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineLength * 2, MAX_LINE_LENGTH));
+        }
+        lineBuffer[lineLength++] = next;
+      } else {
+        throw new IOException("Line exceeds maximum length of " + MAX_LINE_LENGTH + " bytes");
+      }
+    }
+  }
+
+  private void handleLine() {
+    int length = lineLength;
+    lineLength = 0;
+
+    // Tolerate clients that terminate their lines with CRLF
+    if (length > 0 && lineBuffer[length - 1] == CARRIAGE_RETURN) {
+      length--;
+    }
+
+    if (!isBlank(lineBuffer, length)) {
+      inputPaused = !requestHandler.handleLine(lineBuffer, 0, length);
+    }
+  }
+
+  private static boolean isBlank(byte[] bytes, int length) {
+    for (int i = 0; i < length; i++) {
+      if (!Character.isWhitespace(bytes[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void notifyOfEncodedEvent(EncodedNotification notification) {
+    if (!notification.hasForm(getWireFormat())) {
+      LOGGER.warning(
+          "Not sending " + notification.getNotificationType() + " to user " + getUsername()
+              + ", because it has no " + getWireFormat() + " form"
+      );
+      return;
+    }
+    switch (outboundQueue.offer(notification)) {
+      case DRAIN_REQUIRED:
+        // Writing to a non-blocking channel never stalls, so write as much as the channel will
+        // take straight away, and leave anything left over to the event loop
+        drainOutboundQueue();
+        break;
+      case RELEASE_REQUIRED:
+        outboundQueue.getWriteCoalescer().scheduleRelease(this::releaseOutboundQueue);
+        break;
+      case DROPPED:
+        metrics.recordDroppedNotification();
+        logDroppedNotification();
+        break;
+      case OVERFLOWED:
+        handleSlowConsumer();
+        break;
+      default:
+        // Queued behind a drain that's already in progress, or the user has been closed
+        break;
+    }
+  }
+
+  /**
+   * Writes as much of the queued data as the channel will accept. This should only be called by
+   * the event loop thread.
+   */
+  void onWritable() {
+    // Clear the write interest before draining. If the channel fills up again, the interest is
+    // set again.
+    synchronized (interestLock) {
+      selectionKey.interestOps(readInterest());
+    }
+    drainOutboundQueue();
+  }
+
+  // A closed user is only waiting for its last notifications to be written, so stops reading, as
+  // does a user whose client has gone away, or whose input is paused
+  private int readInterest() {
+    return closed || connectionLost || inputPaused ? 0 : SelectionKey.OP_READ;
+  }
+
+  // Sets or clears the read interest to match the state of the user, leaving the write interest
+  private void updateReadInterest() {
+    SelectionKey key = selectionKey;
+    try {
+      synchronized (interestLock) {
+        if (key.isValid()) {
+          key.interestOps((key.interestOps() & ~SelectionKey.OP_READ) | readInterest());
+        }
+      }
+    } catch (CancelledKeyException e) {
+      // The user was closed in the meantime
+    }
+  }
+
+  // Runs on the write coalescing thread, which writes what it can straight away like any sender
+  private void releaseOutboundQueue() {
+    if (outboundQueue.release()) {
+      drainOutboundQueue();
+    }
+  }
+
+  private void drainOutboundQueue() {
+    writeLock.lock();
+    try {
+      if (!flushOutboundQueue()) {
+        // The socket's send buffer is full, so let the event loop carry on once the channel is
+        // ready for more
+        requestWriteInterest();
+        return;
+      }
+    } catch (IOException e) {
+      outboundQueue.abandon();
+      clearWriteBatch();
+      handleWriteException(e);
+    } finally {
+      writeLock.unlock();
+    }
+
+    // If the user was closed while there were notifications waiting to be written, it was left to
+    // the writer to close the channel once they had been sent
+    if (closed && outboundQueue.isEmpty()) {
+      closeChannel();
+    }
+  }
+
+  // Returns true if the queue has been drained. Must hold the write lock.
+  private boolean flushOutboundQueue() throws IOException {
+    while (true) {
+      if (writeOffset == writeCount) {
+        clearWriteBatch();
+        writeCount = outboundQueue.drainTo(writeBatch);
+        if (writeCount == 0) {
+          return true;
+        }
+        // Each recipient gets its own view of the shared bytes, so no copy is made
+        WireFormat wireFormat = getWireFormat();
+        for (int i = 0; i < writeCount; i++) {
+          writeBuffers[i] = writeBatch[i].toByteBuffer(wireFormat);
+        }
+      }
+      NotificationWriteEvent writeEvent = new NotificationWriteEvent();
+      writeEvent.begin();
+      long bytesWritten = channel.write(writeBuffers, writeOffset, writeCount - writeOffset);
+      writeEvent.commitFor(this, writeBatch[writeOffset], writeCount - writeOffset, bytesWritten);
+      metrics.recordBytesWritten(bytesWritten);
+      long now = System.nanoTime();
+      while (writeOffset < writeCount && !writeBuffers[writeOffset].hasRemaining()) {
+        metrics.recordDelivery(now - writeBatch[writeOffset].getEncodedAtNanos());
+        writeOffset++;
+      }
+      if (writeOffset < writeCount) {
+        return false;
+      }
+    }
+  }
+
+  private boolean hasUnsentNotifications() {
+    writeLock.lock();
+    try {
+      return writeOffset < writeCount || !outboundQueue.isEmpty();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  // Must hold the write lock
+  private void clearWriteBatch() {
+    // Don't hold on to notifications that have been sent, or never will be
+    Arrays.fill(writeBatch, 0, writeCount, null);
+    Arrays.fill(writeBuffers, 0, writeCount, null);
+    writeOffset = 0;
+    writeCount = 0;
+  }
+
+  private void requestWriteInterest() {
+    SelectionKey key = selectionKey;
+    // If the key doesn't exist yet, the interest will be set when the channel is registered
+    if (key != null && key.isValid()) {
+      try {
+        synchronized (interestLock) {
+          key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+        }
+        eventLoop.wakeup();
+      } catch (CancelledKeyException e) {
+        // The user was closed in the meantime, so there's nothing left to write
+      }
+    }
+  }
+
+  private void logDroppedNotification() {
+    // Avoid flooding the logs - a slow consumer can drop a lot of notifications
+    if (outboundQueue.getDroppedCount() == 1) {
+      LOGGER.warning(
+          "Outbound queue for user " + getUsername() + " is full. Notifications are being dropped"
+      );
+    }
+  }
+
+  private void handleSlowConsumer() {
+    LOGGER.warning(
+        "Outbound queue for user " + getUsername() + " is full. User will be disconnected"
+    );
+    outboundQueue.abandon();
+    shutdownInput();
+  }
+
+  // Logs the error and attempts to disconnect the user if the chat group isn't closed
+  private void handleWriteException(IOException e) {
+    // Exception expected if mediator is closed
+    if (getChatMediator().isClosed() || closed) {
+      return;
+    }
+
+    LOGGER.log(
+        Level.WARNING,
+        "Could not notify user " + getUsername()
+            + " due to a socket connection problem. User will be disconnected",
+        e
+    );
+    shutdownInput();
+  }
+
+  // Rather than disconnecting the user from whichever thread noticed the problem, which may well be
+  // in the middle of processing a request for the user's chat group, shut down the channel's input.
+  // The event loop then reads the end of the stream and disconnects the user gracefully.
+  private void shutdownInput() {
+    try {
+      channel.shutdownInput();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to shut down channel for user " + getUsername(), e);
+    }
+  }
+
+  private void closeChannel() {
+    SelectionKey key = selectionKey;
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to close channel for user " + getUsername(), e);
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    metrics.connectionClosed();
+
+    // Let any notifications that are already queued (such as the notice of a server shut down)
+    // be written before the channel is closed. If a drain is in progress, the thread draining the
+    // queue closes the channel once it has written them.
+    if (outboundQueue.close()) {
+      closeChannel();
+    }
+
+    // The user was closed for the first time so run the on close actions
+    onCloseActions.forEach(action -> action.accept(this));
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public synchronized void onClose(Consumer<User> onCloseFunction) {
+    onCloseActions.add(onCloseFunction);
+  }
+
+  // How the bytes read from the channel are currently being split into requests
+  private enum InputMode {
+    UNDECIDED,
+    LINES,
+    HANDSHAKE,
+    FRAME_LENGTH,
+    FRAME_PAYLOAD
+  }
+}
@@ -0,0 +1,47 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event covering the encoding of a notification into one of the wire formats.
+ * A broadcast is encoded once however many recipients it has (see {@link EncodedNotification}), so
+ * there is one of these for each broadcast rather than for each recipient.
+ */
+@Name("chat.NotificationSerialize")
+@Label("Notification Serialize")
+@Category({"Chat Server", "Notifications"})
+@Description("Encoding a notification so that it can be sent to its recipients")
+@StackTrace(false)
+public class NotificationSerializeEvent extends Event {
+
+  @Label("Notification Type")
+  String notificationType;
+
+  @Label("Wire Format")
+  String wireFormat;
+
+  @Label("Size")
+  @Description("The size of the encoded notification")
+  @DataAmount
+  long size;
+
+  /**
+   * Ends the event and, if it is being recorded, fills it in and commits it.
+   * @param notification The notification that was encoded.
+   * @param format The wire format that it was encoded into.
+   * @param encodedSize The size of the encoded notification.
+   */
+  void commitFor(Object notification, WireFormat format, int encodedSize) {
+    end();
+    if (shouldCommit()) {
+      notificationType = notification.getClass().getSimpleName();
+      wireFormat = format.name();
+      size = encodedSize;
+      commit();
+    }
+  }
+}
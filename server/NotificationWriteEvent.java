@@ -0,0 +1,59 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event covering a single write to one user's connection. Notifications that
+ * are waiting for the same user are written together, so a write may carry several of them, in
+ * which case the notification type is that of the first. For non-blocking connections, each
+ * attempt to write whatever is left is a separate write, so notifications that don't fit in the
+ * socket's send buffer are covered by several events.
+ */
+@Name("chat.NotificationWrite")
+@Label("Notification Write")
+@Category({"Chat Server", "Notifications"})
+@Description("Writing a notification to a user's connection")
+@StackTrace(false)
+public class NotificationWriteEvent extends Event {
+
+  @Label("User")
+  String user;
+
+  @Label("Notification Type")
+  String notificationType;
+
+  @Label("Notifications")
+  @Description("The number of notifications that the write carried, in part or in full")
+  int notificationCount;
+
+  @Label("Size")
+  @Description("The number of bytes written")
+  @DataAmount
+  long size;
+
+  /**
+   * Ends the event and, if it is being recorded, fills it in and commits it.
+   * @param recipient The user that the notifications were written to.
+   * @param firstNotification The first notification that was written.
+   * @param notificationCount The number of notifications that were written.
+   * @param bytesWritten The number of bytes written.
+   */
+  void commitFor(
+      User recipient, EncodedNotification firstNotification, int notificationCount,
+      long bytesWritten
+  ) {
+    end();
+    if (shouldCommit()) {
+      user = recipient.getUsername();
+      Class<?> type = firstNotification.getNotificationType();
+      notificationType = type == null ? null : type.getSimpleName();
+      this.notificationCount = notificationCount;
+      size = bytesWritten;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,345 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Keeps private messages for users that aren't in the room that they were sent in, and
+ * forwards them to each user the next time that they join a room. Without this, a message sent to
+ * someone who is offline is lost.</p>
+ * <p>Messages are kept on disk, in a mailbox file per user, so they survive the server being
+ * restarted. Each mailbox is a sequence of records, each holding the time at which the message was
+ * stored, the number of bytes in the message, and then the message as the line of XML that was
+ * sent to the users who were there. Finding a user's messages when they join only means reading
+ * their own mailbox, so the cost depends on the number of messages waiting for them rather than
+ * the size of the store.</p>
+ * <p>Each mailbox holds a limited number of messages. Once it is full, the oldest message is
+ * discarded to make room for each new one. Messages that have waited longer than the time to live
+ * are discarded rather than delivered, and mailboxes that have only held expired messages are
+ * deleted by a periodic sweep.</p>
+ * <p>Every read and write of a mailbox happens on a single thread dedicated to the store, so rooms
+ * never wait for the disk, and the mailboxes need no locking. Forwarded messages are sent to the
+ * user together, in a single write (see {@link EncodedNotification#concat(List)}).</p>
+ */
+public class OfflineMessageStore implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(OfflineMessageStore.class.getName());
+
+  private static final String MAILBOX_SUFFIX = ".mailbox";
+  private static final int RECORD_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+  private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 5_000;
+
+  private final Path directory;
+  private final int maxMessagesPerUser;
+  private final long timeToLiveMillis;
+  private final ExecutorService executor;
+  private final ReflectiveXmlReader xmlReader = new ReflectiveXmlReader();
+  private volatile boolean closed = false;
+
+  // Only accessed on the store's thread. The number of messages in each mailbox that has been
+  // written to since the server started.
+  private final Map<String, Integer> mailboxSizes = new HashMap<>();
+  private long nextSweepAtMillis;
+
+  /**
+   * Opens a store in the given directory, creating the directory if it doesn't exist. Messages
+   * that were stored before the server was restarted are kept.
+   * @param directory The directory to keep the mailboxes in.
+   * @param maxMessagesPerUser The maximum number of messages to keep for each user.
+   * @param timeToLiveMillis How long messages are kept for, in milliseconds.
+   * @throws IOException Thrown if the directory could not be created.
+   * @throws IllegalArgumentException Thrown if {@code maxMessagesPerUser < 1} or
+   * {@code timeToLiveMillis < 1}.
+   * @throws NullPointerException Thrown if {@code directory == null}.
+   */
+  public OfflineMessageStore(Path directory, int maxMessagesPerUser, long timeToLiveMillis)
+      throws IOException, IllegalArgumentException, NullPointerException {
+    if (maxMessagesPerUser < 1) {
+      throw new IllegalArgumentException("Maximum messages per user must be at least 1");
+    }
+    if (timeToLiveMillis < 1) {
+      throw new IllegalArgumentException("Time to live must be positive");
+    }
+    this.directory = Objects.requireNonNull(directory, "Directory is null");
+    this.maxMessagesPerUser = maxMessagesPerUser;
+    this.timeToLiveMillis = timeToLiveMillis;
+    Files.createDirectories(directory);
+
+    this.executor =
+        Executors.newSingleThreadExecutor(UserThreadFactory.platform("offline-message-thread"));
+    this.nextSweepAtMillis = System.currentTimeMillis();
+    LOGGER.info("Storing offline messages in " + directory);
+  }
+
+  /**
+   * Stores a private message for a user that wasn't there to receive it. This returns straight
+   * away, and the message is written to the user's mailbox in the background. Messages for
+   * usernames that nobody could ever connect with are ignored.
+   * @param username The username of the recipient.
+   * @param message The message, as it was encoded to be sent. This must be a
+   * {@link ChatEntryNotification}.
+   * @throws NullPointerException Thrown if either of the arguments are {@code null}.
+   */
+  public void store(String username, EncodedNotification message) throws NullPointerException {
+    Objects.requireNonNull(username, "Username is null");
+    Objects.requireNonNull(message, "Message is null");
+    if (closed) {
+      return;
+    }
+    long storedAtMillis = System.currentTimeMillis();
+    submit(() -> append(username, storedAtMillis, message));
+  }
+
+  /**
+   * Sends a user every message that has been stored for them and not yet expired, and then empties
+   * their mailbox. This returns straight away. The messages are read and sent in the background,
+   * so they may arrive after other notifications that are sent to the user in the meantime.
+   * @param user The user to deliver to. They must have a username.
+   * @throws NullPointerException Thrown if {@code user == null}.
+   */
+  public void deliverTo(User user) throws NullPointerException {
+    Objects.requireNonNull(user, "User is null");
+    if (!closed) {
+      submit(() -> deliver(user));
+    }
+  }
+
+  private void submit(Runnable task) {
+    try {
+      executor.execute(() -> {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.SEVERE, "Offline message store task failed", e);
+        }
+        sweepIfDue();
+      });
+    } catch (RejectedExecutionException e) {
+      // The store was closed in the meantime
+      LOGGER.fine("Offline message store is closed");
+    }
+  }
+
+  private static boolean isValidUsername(String username) {
+    try {
+      UsernameValidator.getInstance().validate(username);
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private void append(String username, long storedAtMillis, EncodedNotification message) {
+    if (!isValidUsername(username)) {
+      return;
+    }
+    Path mailbox = mailboxOf(username);
+    try {
+      int size = mailboxSizes.computeIfAbsent(username, this::countMessages);
+      if (size >= maxMessagesPerUser) {
+        // Make room by rewriting the mailbox without its oldest messages
+        List<StoredMessage> messages = readMessages(mailbox);
+        List<StoredMessage> kept = messages.subList(
+            Math.max(0, messages.size() - (maxMessagesPerUser - 1)), messages.size()
+        );
+        writeMessages(mailbox, kept);
+        size = kept.size();
+      }
+
+      ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + message.size());
+      record.putLong(storedAtMillis).putInt(message.size()).put(message.toByteBuffer()).flip();
+      try (FileChannel channel = FileChannel.open(
+          mailbox, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+      )) {
+        while (record.hasRemaining()) {
+          channel.write(record);
+        }
+        channel.force(false);
+      }
+      mailboxSizes.put(username, size + 1);
+    } catch (IOException e) {
+      mailboxSizes.remove(username);
+      LOGGER.log(Level.SEVERE, "Failed to store an offline message for " + username, e);
+    }
+  }
+
+  private void deliver(User user) {
+    String username = user.getUsername();
+    Path mailbox = mailboxOf(username);
+    if (user.isClosed() || !Files.exists(mailbox)) {
+      return;
+    }
+    try {
+      List<StoredMessage> messages = readMessages(mailbox);
+      long expiredBefore = System.currentTimeMillis() - timeToLiveMillis;
+      List<EncodedNotification> unexpired = new ArrayList<>(messages.size());
+      for (StoredMessage message : messages) {
+        if (message.storedAtMillis >= expiredBefore) {
+          unexpired.add(decode(message));
+        }
+      }
+      if (!unexpired.isEmpty()) {
+        user.notifyOfEncodedEvent(EncodedNotification.concat(unexpired));
+        LOGGER.info("Delivered " + unexpired.size() + " offline messages to " + username);
+      }
+      Files.deleteIfExists(mailbox);
+      mailboxSizes.remove(username);
+    } catch (IOException | XmlParseException e) {
+      LOGGER.log(Level.SEVERE, "Failed to deliver offline messages to " + username, e);
+    }
+  }
+
+  // The message is encoded again, as the user may want it in a different wire format
+  private EncodedNotification decode(StoredMessage message) throws XmlParseException {
+    String xml = new String(message.bytes, StandardCharsets.UTF_8).strip();
+    return EncodedNotification.encode(xmlReader.fromXml(xml, ChatEntryNotification.class));
+  }
+
+  private Integer countMessages(String username) {
+    try {
+      return readMessages(mailboxOf(username)).size();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to read the offline messages for " + username, e);
+      return 0;
+    }
+  }
+
+  // Reads every complete record in the mailbox. A record that was cut short is ignored.
+  private static List<StoredMessage> readMessages(Path mailbox) throws IOException {
+    List<StoredMessage> messages = new ArrayList<>();
+    InputStream inputStream;
+    try {
+      inputStream = Files.newInputStream(mailbox);
+    } catch (NoSuchFileException e) {
+      return messages;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream))) {
+      while (true) {
+        long storedAtMillis = input.readLong();
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        messages.add(new StoredMessage(storedAtMillis, bytes));
+      }
+    } catch (EOFException e) {
+      return messages;
+    }
+  }
+
+  private static void writeMessages(Path mailbox, List<StoredMessage> messages)
+      throws IOException {
+    int length = 0;
+    for (StoredMessage message : messages) {
+      length += RECORD_HEADER_SIZE + message.bytes.length;
+    }
+    ByteBuffer records = ByteBuffer.allocate(length);
+    for (StoredMessage message : messages) {
+      records.putLong(message.storedAtMillis).putInt(message.bytes.length).put(message.bytes);
+    }
+    records.flip();
+
+    // Written to the side and then moved into place, so the mailbox is never left half written
+    Path replacement = mailbox.resolveSibling(mailbox.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(
+        replacement,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING
+    )) {
+      while (records.hasRemaining()) {
+        channel.write(records);
+      }
+      channel.force(false);
+    }
+    Files.move(replacement, mailbox, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Deletes the mailboxes whose newest message has expired
+  private void sweepIfDue() {
+    long now = System.currentTimeMillis();
+    if (now < nextSweepAtMillis) {
+      return;
+    }
+    nextSweepAtMillis = now + SWEEP_INTERVAL_MILLIS;
+    long expiredBefore = now - timeToLiveMillis;
+    try (DirectoryStream<Path> mailboxes =
+             Files.newDirectoryStream(directory, "*" + MAILBOX_SUFFIX)) {
+      for (Path mailbox : mailboxes) {
+        if (Files.getLastModifiedTime(mailbox).toMillis() < expiredBefore) {
+          Files.delete(mailbox);
+        }
+      }
+      mailboxSizes.clear();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to delete expired offline messages", e);
+    }
+  }
+
+  // Usernames are hex encoded, so that names differing only in case don't share a mailbox on file
+  // systems that ignore case
+  private Path mailboxOf(String username) {
+    return directory.resolve(
+        HexFormat.of().formatHex(username.getBytes(StandardCharsets.UTF_8)) + MAILBOX_SUFFIX
+    );
+  }
+
+  /**
+   * Stops accepting messages, and waits a few seconds at most for those that have already been
+   * accepted to be written.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        LOGGER.warning("Timed out waiting for offline messages to be stored");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  private static final class StoredMessage {
+
+    private final long storedAtMillis;
+    private final byte[] bytes;
+
+    private StoredMessage(long storedAtMillis, byte[] bytes) {
+      this.storedAtMillis = storedAtMillis;
+      this.bytes = bytes;
+    }
+
+  }
+
+}
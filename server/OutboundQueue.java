@@ -0,0 +1,313 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A bounded queue of the notifications waiting to be written to a single user. Notifications
+ * can be offered from any thread, and are drained by a single writer at a time, which means that a
+ * user that is slow to read from their connection only ever holds up their own notifications.</p>
+ * <p>The queue keeps track of whether a writer is currently draining it. When a notification is
+ * offered to an idle queue, the caller is told to schedule a writer. The writer then drains the
+ * queue until it is empty, at which point the queue becomes idle again. This guarantees that there
+ * is never more than one writer per user, so notifications are always written in the order that
+ * they were queued. Each drain takes everything that is waiting at once (see
+ * {@link #drainTo(EncodedNotification[])}), so that it can all be sent in a single write.</p>
+ * <p>If the queue has a {@link WriteCoalescer}, a notification offered to an idle queue doesn't
+ * call for a writer straight away. Instead, the queue is held, and the caller is told to schedule
+ * its release. Notifications offered in the meantime queue up behind it, until either the
+ * coalescer's window has passed and the queue is {@link #release() released}, or enough bytes are
+ * waiting that the caller is told to schedule a writer straight away. Either way, there is still
+ * only ever one writer.</p>
+ * <p>When the queue is full, the configured {@link OverflowPolicy} decides which notification is
+ * discarded. Every discarded notification is counted.</p>
+ */
+public class OutboundQueue {
+
+  /**
+   * The outcome of offering a notification to the queue.
+   */
+  public enum OfferResult {
+
+    /**
+     * The notification was queued, and the queue was idle, so the caller must schedule a writer to
+     * drain it.
+     */
+    DRAIN_REQUIRED,
+
+    /**
+     * The notification was queued, and the queue was idle, but writes are being coalesced, so the
+     * queue is now held. The caller must schedule its release with the queue's
+     * {@link WriteCoalescer}, and schedule a writer if the release succeeds.
+     */
+    RELEASE_REQUIRED,
+
+    /**
+     * The notification was queued behind others. A writer is already draining the queue, or will
+     * be once the queue is released.
+     */
+    QUEUED,
+
+    /**
+     * The queue was full, so a notification was discarded.
+     */
+    DROPPED,
+
+    /**
+     * The queue was full and the policy is {@link OverflowPolicy#DISCONNECT}, so the notification
+     * was discarded and the user should be disconnected.
+     */
+    OVERFLOWED,
+
+    /**
+     * The queue has been closed, so the notification was discarded.
+     */
+    CLOSED
+  }
+
+  // Whether the queue is waiting for notifications, being held back to coalesce them, or drained
+  private enum State {
+    IDLE,
+    HELD,
+    DRAINING
+  }
+
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final WriteCoalescer writeCoalescer;
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  // A lock is used rather than a monitor so that virtual threads don't pin their carrier thread
+  private final Lock lock = new ReentrantLock();
+  private final Deque<EncodedNotification> notifications = new ArrayDeque<>();
+  private State state = State.IDLE;
+  // The number of bytes queued since the queue was last held
+  private long heldBytes = 0;
+  private boolean closed = false;
+
+  /**
+   * Creates a new queue.
+   * @param capacity The maximum number of notifications that can wait in the queue.
+   * @param overflowPolicy What to do when a notification is offered to a full queue.
+   * @throws IllegalArgumentException Thrown if {@code capacity < 1}.
+   * @throws NullPointerException Thrown if {@code overflowPolicy == null}.
+   */
+  public OutboundQueue(int capacity, OverflowPolicy overflowPolicy)
+      throws IllegalArgumentException, NullPointerException {
+    this(capacity, overflowPolicy, null);
+  }
+
+  /**
+   * Creates a new queue.
+   * @param capacity The maximum number of notifications that can wait in the queue.
+   * @param overflowPolicy What to do when a notification is offered to a full queue.
+   * @param writeCoalescer Decides how long notifications are held back for, so that they can be
+   * written together, or {@code null} to have them written as soon as possible.
+   * @throws IllegalArgumentException Thrown if {@code capacity < 1}.
+   * @throws NullPointerException Thrown if {@code overflowPolicy == null}.
+   */
+  public OutboundQueue(int capacity, OverflowPolicy overflowPolicy, WriteCoalescer writeCoalescer)
+      throws IllegalArgumentException, NullPointerException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    this.capacity = capacity;
+    this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "Overflow policy is null");
+    this.writeCoalescer = writeCoalescer;
+  }
+
+  /**
+   * Gets the coalescer that decides how long notifications are held back for.
+   * @return The coalescer, or {@code null} if notifications are written as soon as possible.
+   */
+  public WriteCoalescer getWriteCoalescer() {
+    return writeCoalescer;
+  }
+
+  /**
+   * Offers a notification to the queue.
+   * @param notification The notification to queue.
+   * @return The outcome. If this is {@link OfferResult#DRAIN_REQUIRED}, the caller must make sure
+   * that a writer drains the queue. If it's {@link OfferResult#RELEASE_REQUIRED}, the caller must
+   * schedule the queue's release.
+   */
+  public OfferResult offer(EncodedNotification notification) {
+    lock.lock();
+    try {
+      if (closed) {
+        return OfferResult.CLOSED;
+      }
+
+      if (notifications.size() >= capacity) {
+        return handleOverflow(notification);
+      }
+
+      notifications.addLast(notification);
+      return markQueued(notification);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Must hold the lock
+  private OfferResult handleOverflow(EncodedNotification notification) {
+    droppedCount.incrementAndGet();
+    switch (overflowPolicy) {
+      case DROP_OLDEST:
+        notifications.pollFirst();
+        notifications.addLast(notification);
+        // A full queue is never idle, so a writer is already draining it, or will be once it's
+        // released
+        return OfferResult.DROPPED;
+      case DROP_NEWEST:
+        return OfferResult.DROPPED;
+      default:
+        return OfferResult.OVERFLOWED;
+    }
+  }
+
+  // Must hold the lock
+  private OfferResult markQueued(EncodedNotification notification) {
+    switch (state) {
+      case IDLE:
+        if (writeCoalescer == null) {
+          state = State.DRAINING;
+          return OfferResult.DRAIN_REQUIRED;
+        }
+        state = State.HELD;
+        heldBytes = 0;
+        return hold(notification, OfferResult.RELEASE_REQUIRED);
+      case HELD:
+        return hold(notification, OfferResult.QUEUED);
+      default:
+        return OfferResult.QUEUED;
+    }
+  }
+
+  // Must hold the lock. The size of the XML form is counted for every user, as it's already known.
+  private OfferResult hold(EncodedNotification notification, OfferResult result) {
+    heldBytes += notification.size();
+    if (heldBytes >= writeCoalescer.getMaxBytes()) {
+      // Enough is waiting to fill a write, so there's nothing to gain from waiting any longer. If
+      // a release has been scheduled, it will find that the queue isn't held any more.
+      state = State.DRAINING;
+      return OfferResult.DRAIN_REQUIRED;
+    }
+    return result;
+  }
+
+  /**
+   * Releases a held queue, so that it can be drained. This should be called once the queue's
+   * {@link WriteCoalescer} window has passed, after an offer returned
+   * {@link OfferResult#RELEASE_REQUIRED}.
+   * @return {@code true} if the queue was held, in which case the caller must make sure that a
+   * writer drains the queue. {@code false} if the queue has already been released because enough
+   * bytes were waiting.
+   */
+  public boolean release() {
+    lock.lock();
+    try {
+      // A release that was scheduled for an earlier hold may find the queue held again. Releasing
+      // it early does no harm.
+      if (state != State.HELD) {
+        return false;
+      }
+      state = State.DRAINING;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes as many of the waiting notifications as fit in the given array, in order, so that the
+   * writer can send them together. This should only be called by the writer that is draining the
+   * queue. If the queue is empty, the queue becomes idle and the writer must stop.
+   * @param batch The array to fill, from its start.
+   * @return The number of notifications taken, or {@code 0} if the queue is empty.
+   */
+  public int drainTo(EncodedNotification[] batch) {
+    lock.lock();
+    try {
+      int count = 0;
+      EncodedNotification notification;
+      while (count < batch.length && (notification = notifications.pollFirst()) != null) {
+        batch[count++] = notification;
+      }
+      if (count == 0) {
+        state = State.IDLE;
+      }
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Determines whether there are any notifications waiting in the queue.
+   * @return {@code true} if there are no notifications waiting.
+   */
+  public boolean isEmpty() {
+    lock.lock();
+    try {
+      return notifications.isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the queue so that it accepts no further notifications. Notifications that are already
+   * waiting can still be drained, including those in a held queue once it's released.
+   * @return {@code true} if no writer is draining the queue, and none will once it's released. If
+   * this is {@code false}, the writer is responsible for finishing off once the queue is empty
+   * (see {@link #isClosed()}).
+   */
+  public boolean close() {
+    lock.lock();
+    try {
+      closed = true;
+      return state == State.IDLE;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the queue and discards any notifications that are waiting in it. This is appropriate
+   * when the connection has failed and the notifications can never be delivered.
+   */
+  public void abandon() {
+    lock.lock();
+    try {
+      closed = true;
+      notifications.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Determines whether the queue has been closed.
+   * @return {@code true} if the queue has been closed.
+   */
+  public boolean isClosed() {
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets the number of notifications that have been discarded because the queue was full.
+   * @return The number of discarded notifications.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+}
@@ -0,0 +1,60 @@
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Determines what happens when a notification is sent to a user whose {@link OutboundQueue} is
+ * already full, which typically means that the user is reading from their connection more slowly
+ * than notifications are being produced.
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Discard the oldest notification waiting in the queue to make room for the new one.
+   */
+  DROP_OLDEST("drop-oldest"),
+
+  /**
+   * Discard the new notification, keeping those already waiting in the queue.
+   */
+  DROP_NEWEST("drop-newest"),
+
+  /**
+   * Discard the new notification and disconnect the user, as they can't keep up with the chat.
+   */
+  DISCONNECT("disconnect");
+
+  private final String argumentName;
+
+  OverflowPolicy(String argumentName) {
+    this.argumentName = argumentName;
+  }
+
+  /**
+   * Gets the name used to select this policy from the command line.
+   * @return The name used to select this policy from the command line.
+   */
+  public String getArgumentName() {
+    return argumentName;
+  }
+
+  /**
+   * Gets the policy with the given command line name.
+   * @param argumentName The name of the policy, as specified on the command line.
+   * @return The policy with the given name.
+   * @throws IllegalArgumentException Thrown if no policy has the given name.
+   */
+  public static OverflowPolicy fromArgumentName(String argumentName)
+      throws IllegalArgumentException {
+    for (OverflowPolicy policy : values()) {
+      if (policy.argumentName.equalsIgnoreCase(argumentName)) {
+        return policy;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Value for oqp must be one of: " + Arrays.stream(values())
+                                                 .map(OverflowPolicy::getArgumentName)
+                                                 .collect(Collectors.joining(", "))
+    );
+  }
+
+}
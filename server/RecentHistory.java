@@ -0,0 +1,100 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * <p>Remembers the most recent public messages sent in a room, so that they can be replayed to
+ * users when they join. Without this, a user sees nothing of what was said before they arrived.</p>
+ * <p>The messages are kept in a fixed-size ring, already encoded, exactly as they were sent, so
+ * the oldest message is forgotten as each new one arrives. When a user joins, the messages are
+ * joined into a single {@link EncodedNotification} (see
+ * {@link EncodedNotification#concat(List)}), which is queued and written to the user in
+ * one go rather than one message at a time. Only as many of the most recent messages as fit within
+ * the maximum replay size are included, so that a room full of long messages can't flood every
+ * user that joins it. The replay is kept until the next message arrives, so users that join a
+ * quiet room one after another share it.</p>
+ * <p>This class is <i>not</i> thread-safe. Like the {@link ChatGroup} that owns it, it must only
+ * be used from the room's lane.</p>
+ */
+public class RecentHistory {
+
+  private final EncodedNotification[] messages;
+  private final int maxReplayBytes;
+  private int next = 0;
+  private int size = 0;
+
+  // Built on demand, and thrown away when a message is added
+  private EncodedNotification replay;
+
+  /**
+   * Creates an empty history.
+   * @param capacity The number of messages to remember.
+   * @param maxReplayBytes The maximum number of bytes, in XML, to replay to a joining user. This is
+   * an upper bound for binary users too, as the binary form of a message is always smaller.
+   * @throws IllegalArgumentException Thrown if {@code capacity < 1} or {@code maxReplayBytes < 1}.
+   */
+  public RecentHistory(int capacity, int maxReplayBytes) throws IllegalArgumentException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    if (maxReplayBytes < 1) {
+      throw new IllegalArgumentException("Maximum replay size must be at least 1 byte");
+    }
+    this.messages = new EncodedNotification[capacity];
+    this.maxReplayBytes = maxReplayBytes;
+  }
+
+  /**
+   * Remembers a message that has been sent to everyone in the room, forgetting the oldest message
+   * if the history is full.
+   * @param message The message, as it was encoded to be sent.
+   */
+  public void add(EncodedNotification message) {
+    messages[next] = message;
+    next = (next + 1) % messages.length;
+    size = Math.min(size + 1, messages.length);
+    replay = null;
+  }
+
+  /**
+   * Gets the number of messages that are remembered.
+   * @return The number of messages.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the most recent messages, oldest first, joined together to be sent to a user that has
+   * just joined the room.
+   * @return The messages to replay, or {@code null} if there are none, or if even the most recent
+   * message is bigger than the maximum replay size.
+   */
+  public EncodedNotification getReplay() {
+    if (replay == null && size > 0) {
+      replay = buildReplay();
+    }
+    return replay;
+  }
+
+  private EncodedNotification buildReplay() {
+    // Work backwards from the newest message until the replay is full
+    Deque<EncodedNotification> included = new ArrayDeque<>(size);
+    int bytes = 0;
+    for (int i = 1; i <= size; i++) {
+      EncodedNotification message = messages[Math.floorMod(next - i, messages.length)];
+      if (bytes + message.size() > maxReplayBytes) {
+        break;
+      }
+      bytes += message.size();
+      included.addFirst(message);
+    }
+    if (included.isEmpty()) {
+      return null;
+    }
+    return included.size() == 1
+        ? included.getFirst()
+        : EncodedNotification.concat(List.copyOf(included));
+  }
+
+}
@@ -1,13 +1,6 @@
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.lang.reflect.Field;
-import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Objects;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
@@ -21,9 +14,6 @@ import javax.xml.stream.XMLStreamWriter;
  */
 public class ReflectiveXmlWriter implements XmlWriter {
 
-  private static final Logger LOGGER = Logger.getLogger(ReflectiveXmlWriter.class.getName());
-  private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
-
   private static final ReflectiveXmlWriter INSTANCE = new ReflectiveXmlWriter();
 
   private ReflectiveXmlWriter() {}
@@ -49,46 +39,49 @@ public class ReflectiveXmlWriter implements XmlWriter {
 
   @Override
   public <T> String toXml(T object) throws XmlParseException {
-    // Create an output stream to collect the data
-    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-      XMLStreamWriter streamWriter = null; // Not auto-closeable
-      try {
-        // Create a new XML stream writer
-        streamWriter = XML_OUTPUT_FACTORY.createXMLStreamWriter(outputStream);
-
-        // Write out the results via the stream writer
-        writeToXmlThrowExceptions(object, streamWriter);
-
-        // Convert the data in the output stream to a string and return this
-        return outputStream.toString(StandardCharsets.UTF_8);
-      } catch (Exception e) {
-        throw new XmlParseException(
-            "Failed to write element of type " + object.getClass().getName() + " to XML", e
-        );
-      } finally {
-        // Clean up the stream writer
-        if (streamWriter != null) {
-          try {
-            streamWriter.close();
-          } catch (XMLStreamException e) {
-            LOGGER.log(Level.WARNING, "Failed to close XML stream writer", e);
-          }
-        }
-      }
+    // The stream writer and its buffer are reused by each thread
+    XmlCodecContext context = XmlCodecContext.get();
+    try {
+      writeToXmlThrowExceptions(object, context.startDocument());
+      return context.finishDocumentAsString();
+    } catch (Exception e) {
+      context.abandonDocument();
+      throw new XmlParseException(
+          "Failed to write element of type " + object.getClass().getName() + " to XML", e
+      );
+    }
+  }
 
-    } catch (IOException e) {
-      LOGGER.log(Level.WARNING, "Could not close XML output stream");
-      throw new XmlParseException("Could not close XML output stream", e);
+  /**
+   * Writes an object as XML, straight to UTF-8 bytes, without creating a string on the way.
+   * @param object The object to write.
+   * @param suffix Bytes to add after the XML, such as a line separator.
+   * @param <T> The type of the object.
+   * @return The XML, as UTF-8, followed by the suffix.
+   * @throws XmlParseException Thrown if the object could not be written.
+   */
+  public <T> byte[] toXmlBytes(T object, byte[] suffix) throws XmlParseException {
+    XmlCodecContext context = XmlCodecContext.get();
+    try {
+      writeToXmlThrowExceptions(object, context.startDocument());
+      return context.finishDocument(suffix);
+    } catch (Exception e) {
+      context.abandonDocument();
+      throw new XmlParseException(
+          "Failed to write element of type " + object.getClass().getName() + " to XML", e
+      );
     }
   }
 
   private <T> void writeToXmlThrowExceptions(T object, XMLStreamWriter streamWriter)
       throws XMLStreamException, IllegalAccessException {
+    XmlClassCodec codec = XmlClassCodec.forClass(object.getClass());
+
     // Write out the name of the class
-    streamWriter.writeStartElement(object.getClass().getSimpleName());
+    streamWriter.writeStartElement(codec.getElementName());
     try {
       // Write out the fields contained within the element
-      writeFields(object, streamWriter);
+      writeFields(object, codec, streamWriter);
     } finally {
       // Close the element
       streamWriter.writeEndElement();
@@ -96,20 +89,19 @@ public class ReflectiveXmlWriter implements XmlWriter {
     }
   }
 
-  private <T> void writeFields(T object, XMLStreamWriter streamWriter)
+  private <T> void writeFields(T object, XmlClassCodec codec, XMLStreamWriter streamWriter)
       throws XMLStreamException, IllegalAccessException {
-    // Iterate through each field in the class
-    for (Field field : object.getClass().getDeclaredFields()) {
-      // If the field is marked with XmlIgnore, don't bother processing it
-      if (field.getAnnotation(XmlIgnore.class) == null) {
-        // Write out the value of the field for this instance
-        writeField(object, field, streamWriter);
-      }
+    // Iterate through each field in the class. Fields marked with XmlIgnore have already been
+    // filtered out by the codec.
+    for (XmlClassCodec.FieldCodec field : codec.getWrittenFields()) {
+      // Write out the value of the field for this instance
+      writeField(object, field, streamWriter);
     }
   }
 
-  private <T> void writeField(T object, Field field, XMLStreamWriter streamWriter)
-      throws XMLStreamException, IllegalAccessException {
+  private <T> void writeField(
+      T object, XmlClassCodec.FieldCodec field, XMLStreamWriter streamWriter
+  ) throws XMLStreamException, IllegalAccessException {
     // Write out the name of the field
     streamWriter.writeStartElement(field.getName());
     try {
@@ -121,45 +113,32 @@ public class ReflectiveXmlWriter implements XmlWriter {
     }
   }
 
-  private <T> void writeElementCharacters(T object, Field field, XMLStreamWriter streamWriter)
-      throws IllegalAccessException, XMLStreamException {
+  private <T> void writeElementCharacters(
+      T object, XmlClassCodec.FieldCodec field, XMLStreamWriter streamWriter
+  ) throws IllegalAccessException, XMLStreamException {
     // This is a rudimentary implementation that only supports a limited number of types
-    Class<?> fieldType = field.getType();
-    if (fieldType == String.class) {
-      writeStringField(object, field, streamWriter);
-    } else if (fieldType == Boolean.TYPE || fieldType == Boolean.class) {
-      writeBooleanField(object, field, streamWriter);
-    } else if (fieldType == Integer.TYPE || fieldType == Integer.class) {
-      writeIntField(object, field, streamWriter);
-    } else if (Collection.class.isAssignableFrom(fieldType)) {
-      writeCollectionField(object, field, streamWriter);
-    } else {
-      // Type not supported
-      throw new IllegalArgumentException(
-          "This stream writer does not support elements of type " + fieldType
-      );
-    }
-  }
-
-  private <T> void writeStringField(T object, Field field, XMLStreamWriter streamWriter)
-      throws IllegalAccessException, XMLStreamException {
-    String value = (String) getFieldValue(object, field);
-    if (value != null) {
-      streamWriter.writeCharacters(value);
-    }
-  }
-
-  private <T> void writeBooleanField(T object, Field field, XMLStreamWriter streamWriter)
-      throws IllegalAccessException, XMLStreamException {
-    Boolean value = (Boolean) getFieldValue(object, field);
-    if (value != null) {
-      streamWriter.writeCharacters(value.toString());
+    switch (field.getValueType()) {
+      case STRING:
+      case BOOLEAN:
+      case INTEGER:
+        writeSimpleField(object, field, streamWriter);
+        break;
+      case LIST:
+      case SET:
+        writeCollectionField(object, field, streamWriter);
+        break;
+      default:
+        // Type not supported
+        throw new IllegalArgumentException(
+            "This stream writer does not support elements of type " + field.getFieldType()
+        );
     }
   }
 
-  private <T> void writeIntField(T object, Field field, XMLStreamWriter streamWriter)
-      throws IllegalAccessException, XMLStreamException {
-    Integer value = (Integer) getFieldValue(object, field);
+  private <T> void writeSimpleField(
+      T object, XmlClassCodec.FieldCodec field, XMLStreamWriter streamWriter
+  ) throws IllegalAccessException, XMLStreamException {
+    Object value = field.get(object);
     if (value != null) {
       streamWriter.writeCharacters(value.toString());
     }
@@ -171,9 +150,10 @@ public class ReflectiveXmlWriter implements XmlWriter {
    * comma-separated list of values. This is a brittle solution, but it should be fine for this
    * implementation provided that we are careful about what goes into the values.
    */
-  private <T> void writeCollectionField(T object, Field field, XMLStreamWriter streamWriter)
-      throws IllegalAccessException, XMLStreamException {
-    Collection<?> collection = (Collection<?>) getFieldValue(object, field);
+  private <T> void writeCollectionField(
+      T object, XmlClassCodec.FieldCodec field, XMLStreamWriter streamWriter
+  ) throws IllegalAccessException, XMLStreamException {
+    Collection<?> collection = (Collection<?>) field.get(object);
     if (collection != null) {
       streamWriter.writeCharacters(
           collection.stream()
@@ -184,21 +164,4 @@ public class ReflectiveXmlWriter implements XmlWriter {
     }
   }
 
-  private <T> Object getFieldValue(T object, Field field) throws IllegalAccessException {
-    boolean fieldIsAccessible = field.canAccess(object);
-    if (!fieldIsAccessible) {
-      // Make the field accessible so we can get its value
-      field.setAccessible(true);
-    }
-
-    Object value = field.get(object);
-
-    // Clean up any changes we made
-    if (!fieldIsAccessible) {
-      field.setAccessible(false);
-    }
-
-    return value;
-  }
-
 }
@@ -1,46 +1,109 @@
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Represents a user that connects remotely to the server.
+ * <p>Represents a user that connects remotely to the server.</p>
+ * <p>The user's input is read on a dedicated thread. Notifications sent to the user are not
+ * written to the socket by the thread sending them. Instead, they're added to the user's bounded
+ * {@link OutboundQueue}, which is drained by a task running in a {@link WriterStage}.</p>
+ * <p>The drain takes everything that is waiting in the queue at once, copies it into a write
+ * buffer that the user keeps for the life of their connection, and sends it in a single write, so
+ * a user who is sent a burst of notifications costs one system call rather than one for each
+ * notification. A notification that is larger than the buffer is written on its own, straight from
+ * its encoded bytes. If writes are being coalesced, the drain isn't started until the
+ * {@link WriteCoalescer} window has passed, or enough is waiting to fill a write. While Flight
+ * Recorder is running, each write is covered by a {@link NotificationWriteEvent}.</p>
  */
 public class RemoteUser extends AbstractUser {
 
   private static final Logger LOGGER = Logger.getLogger(RemoteUser.class.getName());
 
-  // The number that is appended to the thread name. This doesn't need to be unique, so it can
-  // overflow, but it helps to keep keep the thread names distinct for tracking purposes.
-  private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+  private static final ThreadFactory DEFAULT_THREAD_FACTORY =
+      UserThreadFactory.platform("remote-user-thread");
+  private static final WriterStage DEFAULT_WRITER_STAGE = WriterStage.forMode(ServerMode.BLOCKING);
+
+  private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+  private static final int MAX_WRITE_BATCH = 64;
 
   private final Collection<Consumer<User>> onCloseActions = new ArrayList<>();
   private final Thread inputThread;
   private final Socket socket;
+  private final OutboundQueue outboundQueue;
+  private final Executor writerStage;
+  private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+  // Only used by the drain, of which there is only ever one at a time. Created on first use, as
+  // plenty of users are never sent anything more than a few notifications.
+  private ByteBuffer writeBuffer;
+  private final EncodedNotification[] writeBatch = new EncodedNotification[MAX_WRITE_BATCH];
 
-  private boolean closed = false;
+  private volatile boolean closed = false;
 
   /**
-   * Creates a new user that has connected remotely to the server.
+   * Creates a new user that has connected remotely to the server, with a default outbound queue
+   * the {@link BlockingChatRequestProcessor} and the default {@link StandardChatRequestParser}.
    * @param chatMediator The chat group that the user will belong to.
    * @param socket The IO socket that will handle inbound and outbound data transfer between the
    * user and the server.
    * @throws IOException Thrown if there is a initialising a reader for the provided socket.
    */
   public RemoteUser(ChatMediator chatMediator, Socket socket) throws IOException {
+    this(
+        chatMediator,
+        socket,
+        DEFAULT_THREAD_FACTORY,
+        new OutboundQueue(
+            ServerConfiguration.DEFAULT_OUTBOUND_QUEUE_CAPACITY,
+            ServerConfiguration.DEFAULT_OVERFLOW_POLICY
+        ),
+        DEFAULT_WRITER_STAGE,
+        BlockingChatRequestProcessor.getInstance(),
+        StandardChatRequestParser.getInstance()
+    );
+  }
+
+  /**
+   * Creates a new user that has connected remotely to the server.
+   * @param chatMediator The chat group that the user will belong to.
+   * @param socket The IO socket that will handle inbound and outbound data transfer between the
+   * user and the server.
+   * @param threadFactory Creates the thread that listens to the user's input.
+   * @param outboundQueue The queue that holds notifications until they are written to the user.
+   * @param writerStage Runs the tasks that drain the outbound queue to the socket.
+   * @param requestProcessor Processes the user's requests, one at a time.
+   * @param requestParser Parses each line of the user's input into a request.
+   * @throws IOException Thrown if there is a initialising a reader for the provided socket.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public RemoteUser(
+      ChatMediator chatMediator,
+      Socket socket,
+      ThreadFactory threadFactory,
+      OutboundQueue outboundQueue,
+      Executor writerStage,
+      ChatRequestProcessor requestProcessor,
+      ChatRequestParser requestParser
+  ) throws IOException, NullPointerException {
     super(chatMediator);
     this.socket = Objects.requireNonNull(socket, "Socket is null");
-    this.inputThread = new Thread(
-        new ChatInputHandler(this, socket.getInputStream()),
-        "remote-user-thread" + THREAD_INDEX.getAndIncrement()
-    );
+    this.outboundQueue = Objects.requireNonNull(outboundQueue, "Outbound queue is null");
+    this.writerStage = Objects.requireNonNull(writerStage, "Writer stage is null");
+    ChatInputHandler inputHandler =
+        new ChatInputHandler(this, socket.getInputStream(), requestProcessor, requestParser);
+    this.inputThread = Objects.requireNonNull(threadFactory, "Thread factory is null")
+                              .newThread(inputHandler);
+    metrics.connectionOpened();
   }
 
   /**
@@ -51,69 +114,180 @@ public class RemoteUser extends AbstractUser {
   }
 
   @Override
-  public void notifyOfEvent(Object chatRequest) {
+  public void notifyOfEncodedEvent(EncodedNotification notification) {
+    if (!notification.hasForm(getWireFormat())) {
+      LOGGER.warning(
+          "Not sending " + notification.getNotificationType() + " to user " + getUsername()
+              + ", because it has no " + getWireFormat() + " form"
+      );
+      return;
+    }
+    switch (outboundQueue.offer(notification)) {
+      case DRAIN_REQUIRED:
+        writerStage.execute(this::drainOutboundQueue);
+        break;
+      case RELEASE_REQUIRED:
+        outboundQueue.getWriteCoalescer().scheduleRelease(this::releaseOutboundQueue);
+        break;
+      case DROPPED:
+        metrics.recordDroppedNotification();
+        logDroppedNotification();
+        break;
+      case OVERFLOWED:
+        handleSlowConsumer();
+        break;
+      default:
+        // Queued behind a drain that's already running, or the user has been closed
+        break;
+    }
+  }
+
+  // Runs on the write coalescing thread, so the drain itself is left to the writer stage
+  private void releaseOutboundQueue() {
+    if (outboundQueue.release()) {
+      writerStage.execute(this::drainOutboundQueue);
+    }
+  }
+
+  // Runs in the writer stage. The queue guarantees that only one drain runs at a time.
+  private void drainOutboundQueue() {
     try {
-      // Write out the request to XML
-      String xml = ReflectiveXmlWriter.getInstance().toXml(chatRequest);
-      PrintWriter printStream = new PrintWriter(socket.getOutputStream(), true);
-
-      // Send the XML to the client
-      // Responses are always handled one line at a time to improve the stability of the XML parsing
-      printStream.println(xml);
-    } catch (SocketException e) {
+      OutputStream outputStream = socket.getOutputStream();
+      WireFormat wireFormat = getWireFormat();
+      if (writeBuffer == null) {
+        writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+      }
+      int count;
+      while ((count = outboundQueue.drainTo(writeBatch)) > 0) {
+        writeBatch(outputStream, wireFormat, count);
+      }
+    } catch (IOException e) {
+      outboundQueue.abandon();
       handleSocketException(e);
-    } catch (Exception e) {
-      // Any other exception we should log, but not necessarily disconnect the user
-      LOGGER.log(Level.SEVERE, "Could not notify user " + getUsername(), e);
+    } finally {
+      // Don't hold on to notifications that have been sent, or never will be
+      Arrays.fill(writeBatch, null);
+    }
+
+    // If the user was closed while we were draining, it was left to us to close the socket once
+    // the remaining notifications had been sent
+    if (outboundQueue.isClosed() && outboundQueue.isEmpty()) {
+      closeSocket();
+    }
+  }
+
+  // Writes the first count notifications of the batch, gathering as many as fit into each write
+  private void writeBatch(OutputStream outputStream, WireFormat wireFormat, int count)
+      throws IOException {
+    int first = 0;
+    for (int i = 0; i < count; i++) {
+      EncodedNotification notification = writeBatch[i];
+      int size = notification.size(wireFormat);
+      if (size > writeBuffer.remaining()) {
+        flushWriteBuffer(outputStream, first, i);
+        first = i;
+      }
+      if (size > writeBuffer.remaining()) {
+        // Too large for the buffer, so send it straight from its encoded bytes
+        NotificationWriteEvent writeEvent = new NotificationWriteEvent();
+        writeEvent.begin();
+        notification.writeTo(outputStream, wireFormat);
+        writeEvent.commitFor(this, notification, 1, size);
+        recordWrite(size, i, i + 1);
+        first = i + 1;
+      } else {
+        notification.copyTo(writeBuffer, wireFormat);
+      }
+    }
+    flushWriteBuffer(outputStream, first, count);
+  }
+
+  // Writes the buffer, which holds the notifications from first (inclusive) to end (exclusive)
+  private void flushWriteBuffer(OutputStream outputStream, int first, int end)
+      throws IOException {
+    int bytesToWrite = writeBuffer.position();
+    if (bytesToWrite == 0) {
+      return;
+    }
+    NotificationWriteEvent writeEvent = new NotificationWriteEvent();
+    writeEvent.begin();
+    outputStream.write(writeBuffer.array(), 0, bytesToWrite);
+    writeEvent.commitFor(this, writeBatch[first], end - first, bytesToWrite);
+    writeBuffer.clear();
+    recordWrite(bytesToWrite, first, end);
+  }
+
+  private void recordWrite(int bytesWritten, int first, int end) {
+    metrics.recordBytesWritten(bytesWritten);
+    long now = System.nanoTime();
+    for (int i = first; i < end; i++) {
+      metrics.recordDelivery(now - writeBatch[i].getEncodedAtNanos());
     }
   }
 
+  private void logDroppedNotification() {
+    // Avoid flooding the logs - a slow consumer can drop a lot of notifications
+    if (outboundQueue.getDroppedCount() == 1) {
+      LOGGER.warning(
+          "Outbound queue for user " + getUsername() + " is full. Notifications are being dropped"
+      );
+    }
+  }
+
+  private void handleSlowConsumer() {
+    LOGGER.warning(
+        "Outbound queue for user " + getUsername() + " is full. User will be disconnected"
+    );
+    outboundQueue.abandon();
+
+    // Closing the socket fails the blocked read on the user's input thread, which then disconnects
+    // the user gracefully
+    closeSocket();
+  }
+
   // Logs the error and attempts to disconnect the user if the chat group isn't closed
-  private void handleSocketException(SocketException e) {
+  private void handleSocketException(IOException e) {
+    // Exception expected if mediator is closed
+    if (getChatMediator().isClosed() || isClosed()) {
+      return;
+    }
+
     LOGGER.log(
         Level.WARNING,
         "Could not notify user " + getUsername()
             + " due to a socket connection problem. User will be disconnected",
         e
     );
-    // Exception expected if mediator is closed
-    if (!getChatMediator().isClosed()) {
-      // Couldn't send data down the user's socket, implying the socket may have dropped. Attempt to
-      // disconnect the user.
-      initiateGracefulDisconnect();
-    }
+
+    // Couldn't send data down the user's socket, implying the socket may have dropped. Rather than
+    // disconnecting the user from the writer stage, close the socket. This fails the blocked read
+    // on the user's input thread, which then disconnects the user gracefully.
+    closeSocket();
   }
 
-  /**
-   * Attempts to gracefully disconnect the user.
-   */
-  private void initiateGracefulDisconnect() {
-    DisconnectRequest disconnectRequest = new DisconnectRequest();
-    disconnectRequest.setAuthor(this);
+  private void closeSocket() {
     try {
-      BlockingChatRequestProcessor.getInstance().process(disconnectRequest, getChatMediator());
-    } catch (RequestProcessingException e) {
-      LOGGER.log(
-          Level.SEVERE,
-          "User " + getUsername()
-              + " appears to be disconnected but could not be removed from the chat group",
-          e
-      );
+      socket.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to close socket for user " + getUsername(), e);
     }
   }
 
   @Override
   public void close() {
     if (!isClosed()) {
-      try {
-        // Attempt to close the socket
-        socket.close();
-      } catch (IOException e) {
-        LOGGER.log(Level.WARNING, "Failed to close socket for user " + getUsername(), e);
+      closed = true;
+      metrics.connectionClosed();
+
+      // Let any notifications that are already queued (such as the notice of a server shut down)
+      // be written before the socket is closed. If a drain is in progress, it closes the socket
+      // when it's finished.
+      if (outboundQueue.close()) {
+        closeSocket();
       }
+
       // The user was closed for the first time so run the on close actions
       onCloseActions.forEach(action -> action.accept(this));
-      closed = true;
     }
   }
 
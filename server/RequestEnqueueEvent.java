@@ -0,0 +1,41 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event covering the hand over of a request to the room that processes it. With
+ * the ring processor, this is the time taken to publish the request into the ring, including any
+ * time spent waiting for the ring to have room. With the lock processor, it's the time spent
+ * waiting for the room's lock.
+ */
+@Name("chat.RequestEnqueue")
+@Label("Request Enqueue")
+@Category({"Chat Server", "Requests"})
+@Description("Handing a request over to the room that processes it")
+@StackTrace(false)
+public class RequestEnqueueEvent extends Event {
+
+  @Label("User")
+  @Description("The username of the user that sent the request, if they have one yet")
+  String user;
+
+  @Label("Request Type")
+  String requestType;
+
+  /**
+   * Ends the event and, if it is being recorded, fills it in and commits it.
+   * @param chatRequest The request that was handed over.
+   */
+  void commitFor(ChatRequest chatRequest) {
+    end();
+    if (shouldCommit()) {
+      User author = chatRequest.getAuthor();
+      user = author == null ? null : author.getUsername();
+      requestType = chatRequest.getClass().getSimpleName();
+      commit();
+    }
+  }
+}
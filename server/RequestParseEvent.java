@@ -0,0 +1,51 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event covering the parsing of a single request from a user's input, whether
+ * it arrived as a line of XML or as a binary frame. Events are only created for real while a
+ * recording is running, so the cost is negligible otherwise. See {@link ChatServer} for how to
+ * start a recording.
+ */
+@Name("chat.RequestParse")
+@Label("Request Parse")
+@Category({"Chat Server", "Requests"})
+@Description("Parsing a request from a user's input")
+@StackTrace(false)
+public class RequestParseEvent extends Event {
+
+  @Label("User")
+  @Description("The username of the user that sent the request, if they have one yet")
+  String user;
+
+  @Label("Request Type")
+  @Description("The type of request that was parsed, or empty if the input could not be parsed")
+  String requestType;
+
+  @Label("Size")
+  @Description("The size of the input that was parsed")
+  @DataAmount
+  long size;
+
+  /**
+   * Ends the event and, if it is being recorded, fills it in and commits it.
+   * @param author The user that sent the input.
+   * @param chatRequest The request that was parsed, or {@code null} if the input couldn't be
+   * parsed.
+   * @param inputSize The size of the input.
+   */
+  void commitFor(User author, ChatRequest chatRequest, int inputSize) {
+    end();
+    if (shouldCommit()) {
+      user = author.getUsername();
+      requestType = chatRequest == null ? null : chatRequest.getClass().getSimpleName();
+      size = inputSize;
+      commit();
+    }
+  }
+}
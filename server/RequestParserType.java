@@ -0,0 +1,64 @@
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * How the server parses the XML requests that it receives from clients.
+ */
+public enum RequestParserType {
+
+  /**
+   * Requests are read straight from their bytes by an {@link XmlRequestScanner}, falling back to
+   * StAX for anything that the scanner can't handle.
+   */
+  SCANNER("scanner", StandardChatRequestParser.getInstance()),
+
+  /**
+   * Every request is parsed with StAX.
+   */
+  STAX("stax", StandardChatRequestParser.getStaxInstance());
+
+  private final String argumentName;
+  private final ChatRequestParser parser;
+
+  RequestParserType(String argumentName, ChatRequestParser parser) {
+    this.argumentName = argumentName;
+    this.parser = parser;
+  }
+
+  /**
+   * Gets the name used to select this parser from the command line.
+   * @return The name used to select this parser from the command line.
+   */
+  public String getArgumentName() {
+    return argumentName;
+  }
+
+  /**
+   * Gets the parser of this type.
+   * @return The parser.
+   */
+  public ChatRequestParser getParser() {
+    return parser;
+  }
+
+  /**
+   * Gets the parser type with the given command line name.
+   * @param argumentName The name of the parser type, as specified on the command line.
+   * @return The parser type with the given name.
+   * @throws IllegalArgumentException Thrown if no parser type has the given name.
+   */
+  public static RequestParserType fromArgumentName(String argumentName)
+      throws IllegalArgumentException {
+    for (RequestParserType type : values()) {
+      if (type.argumentName.equalsIgnoreCase(argumentName)) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Value for xp must be one of: " + Arrays.stream(values())
+                                                .map(RequestParserType::getArgumentName)
+                                                .collect(Collectors.joining(", "))
+    );
+  }
+
+}
@@ -0,0 +1,62 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event covering the processing of a single request by its room. For a chat
+ * entry, this includes fanning the message out to its recipients, but not writing it to their
+ * connections, which is recorded by {@link NotificationWriteEvent}. Public chat entries that were
+ * waiting together are fanned out together (see {@link RingBufferChatRequestProcessor}), in which
+ * case a single event covers them all, and names the first of them.
+ */
+@Name("chat.RequestProcess")
+@Label("Request Process")
+@Category({"Chat Server", "Requests"})
+@Description("Processing a request, including fanning out any notifications that it produces")
+@StackTrace(false)
+public class RequestProcessEvent extends Event {
+
+  @Label("User")
+  @Description("The username of the user that sent the request, if they have one")
+  String user;
+
+  @Label("Request Type")
+  String requestType;
+
+  @Label("Room")
+  String room;
+
+  @Label("Batch Size")
+  @Description("The number of requests that were processed together")
+  int batchSize;
+
+  /**
+   * Ends the event and, if it is being recorded, fills it in and commits it.
+   * @param chatRequest The request that was processed.
+   * @param chatMediator The room that processed the request.
+   */
+  void commitFor(ChatRequest chatRequest, ChatMediator chatMediator) {
+    commitFor(chatRequest, chatMediator, 1);
+  }
+
+  /**
+   * Ends the event and, if it is being recorded, fills it in and commits it.
+   * @param firstRequest The first of the requests that were processed together.
+   * @param chatMediator The room that processed the requests.
+   * @param batchSize The number of requests that were processed together.
+   */
+  void commitFor(ChatRequest firstRequest, ChatMediator chatMediator, int batchSize) {
+    end();
+    if (shouldCommit()) {
+      User author = firstRequest.getAuthor();
+      user = author == null ? null : author.getUsername();
+      requestType = firstRequest.getClass().getSimpleName();
+      room = chatMediator == null ? null : chatMediator.getName();
+      this.batchSize = batchSize;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,55 @@
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * The strategy that the server uses to make sure that requests are processed one at a time.
+ */
+public enum RequestProcessorType {
+
+  /**
+   * The threads that receive requests take turns to process them, holding a lock while they do.
+   * See {@link BlockingChatRequestProcessor}.
+   */
+  LOCK("lock"),
+
+  /**
+   * The threads that receive requests publish them into a ring buffer, and a single consumer
+   * thread processes them. See {@link RingBufferChatRequestProcessor}.
+   */
+  RING("ring");
+
+  private final String argumentName;
+
+  RequestProcessorType(String argumentName) {
+    this.argumentName = argumentName;
+  }
+
+  /**
+   * Gets the name used to select this processor from the command line.
+   * @return The name used to select this processor from the command line.
+   */
+  public String getArgumentName() {
+    return argumentName;
+  }
+
+  /**
+   * Gets the processor type with the given command line name.
+   * @param argumentName The name of the processor type, as specified on the command line.
+   * @return The processor type with the given name.
+   * @throws IllegalArgumentException Thrown if no processor type has the given name.
+   */
+  public static RequestProcessorType fromArgumentName(String argumentName)
+      throws IllegalArgumentException {
+    for (RequestProcessorType type : values()) {
+      if (type.argumentName.equalsIgnoreCase(argumentName)) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Value for rp must be one of: " + Arrays.stream(values())
+                                                .map(RequestProcessorType::getArgumentName)
+                                                .collect(Collectors.joining(", "))
+    );
+  }
+
+}
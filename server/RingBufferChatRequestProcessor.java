@@ -0,0 +1,455 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>A request processor that applies every request on a single consumer thread. Rather than
+ * making the threads that read user input take turns to process their requests (see
+ * {@link BlockingChatRequestProcessor}), they publish their requests into a preallocated ring
+ * buffer and return straight away. The consumer thread then takes the requests from the ring and
+ * processes them one at a time, in the order that they were published.</p>
+ * <p>As the chat group is only ever touched by the consumer thread, this gives the same guarantee
+ * as the blocking processor - requests can never interfere with one another, so the group does not
+ * need to be thread safe - but publishing a request only costs an atomic increment rather than a
+ * contended lock. Requests from any one thread are always processed in the order that that thread
+ * published them.</p>
+ * <p>The consumer takes every request that has been published since it last looked, up to a batch
+ * at a time, in a single pass over the ring, and frees their slots before it starts processing
+ * them. Consecutive public {@link ChatEntryRequest}s for the same room in a batch are then sent in
+ * a single fan out (see {@link ChatEntryRequest#processAll(List, ChatMediator)}), so a burst of
+ * messages costs each user one offer and one write, rather than one for every message. Requests
+ * are still processed strictly in order - anything else in the batch, such as a user joining or
+ * leaving, ends the run of messages that share a fan out.</p>
+ * <p>Processing is asynchronous, so failures can't be reported to the publisher by throwing.
+ * Instead, if a request fails, its author is sent a {@link RequestFailedNotification}. If the ring
+ * is full, publishers wait for the consumer to make room, which applies back pressure to the
+ * connections that are producing requests fastest. Publishers that must not wait, such as an
+ * {@link NioEventLoop}, use {@link #tryProcess(ChatRequest, ChatMediator, Runnable)} instead,
+ * which turns the request away and calls them back once the consumer has made room.</p>
+ * <p>The time that each request spends in the ring, and then takes to process, is recorded in the
+ * {@link ServerMetrics}, and publishing and processing each request are covered by
+ * {@link RequestEnqueueEvent}s and {@link RequestProcessEvent}s while Flight Recorder is
+ * running. Requests that share a fan out are each recorded as taking an equal share of it.</p>
+ * <p>The design follows the LMAX Disruptor: publishers claim a sequence number, fill the slot that
+ * it maps to, and then mark the slot as published by storing the sequence number against it. The
+ * consumer waits for the next sequence number to be published, so a slow publisher can never
+ * cause a later request to be processed ahead of its own.</p>
+ * <p>Closing the processor can race with publishers that are claiming a slot. Rather than taking a
+ * lock on every publish, the consumer only stops once it has sealed the claimed sequence number,
+ * by swapping it for a large negative number that no real claim can reach, and it can only seal
+ * it once every claimed request has been processed. A publisher whose claim lands before the seal
+ * is therefore always processed, and one whose claim lands after it gets a negative sequence
+ * number and is turned away, so no request is ever lost, and no publisher ever waits for room that
+ * will never come.</p>
+ */
+public class RingBufferChatRequestProcessor implements ChatRequestProcessor, Closeable {
+
+  private static final Logger LOGGER =
+      Logger.getLogger(RingBufferChatRequestProcessor.class.getName());
+
+  // How often the consumer busy-waits, and then yields, while waiting for a request before going
+  // to sleep
+  private static final int CONSUMER_SPIN_LIMIT = 100;
+  private static final int CONSUMER_YIELD_LIMIT = 200;
+
+  // How often a publisher yields when the ring is full before sleeping between checks
+  private static final int PUBLISHER_YIELD_LIMIT = 100;
+  private static final long FULL_RING_PARK_NANOS = 1_000;
+
+  // The most requests that the consumer takes from the ring at a time
+  private static final int MAX_BATCH_SIZE = 64;
+
+  // The slots are preallocated, so publishing a request doesn't allocate anything
+  private final ChatRequest[] requests;
+  private final ChatMediator[] mediators;
+  // When each slot's request was published, so that the time it spent in the ring can be recorded
+  private final long[] publishedAt;
+  private final AtomicLongArray publishedSequences;
+  private final int mask;
+
+  // What the claimed sequence number is set to once the consumer has stopped
+  private static final long SEALED = Long.MIN_VALUE;
+
+  // The last sequence number claimed by a publisher, or SEALED (plus any later claims) once the
+  // consumer has stopped
+  private final AtomicLong claimedSequence = new AtomicLong(-1);
+
+  // The last sequence number processed by the consumer. Publishers read this to avoid overwriting
+  // slots that are yet to be processed.
+  private volatile long consumedSequence = -1;
+
+  private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+  // Only used by the consumer thread. The batch that it has taken from the ring, and how long each
+  // request in it waited to be taken.
+  private final ChatRequest[] batchRequests = new ChatRequest[MAX_BATCH_SIZE];
+  private final ChatMediator[] batchMediators = new ChatMediator[MAX_BATCH_SIZE];
+  private final long[] batchWaitNanos = new long[MAX_BATCH_SIZE];
+  private final List<ChatEntryRequest> sharedFanOut = new ArrayList<>(MAX_BATCH_SIZE);
+
+  // Run by the consumer once it has made room, for publishers that were turned away by tryProcess
+  private final Queue<Runnable> roomWaiters = new ConcurrentLinkedQueue<>();
+
+  private final Thread consumerThread;
+  private volatile boolean consumerWaiting = false;
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a new processor and starts its consumer thread.
+   * @param capacity The number of requests that the ring can hold. This must be a power of two.
+   * @param threadFactory Creates the consumer thread.
+   * @throws IllegalArgumentException Thrown if {@code capacity} is not a power of two.
+   * @throws NullPointerException Thrown if {@code threadFactory == null}.
+   */
+  public RingBufferChatRequestProcessor(int capacity, ThreadFactory threadFactory)
+      throws IllegalArgumentException, NullPointerException {
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two");
+    }
+    this.requests = new ChatRequest[capacity];
+    this.mediators = new ChatMediator[capacity];
+    this.publishedAt = new long[capacity];
+    this.publishedSequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      publishedSequences.set(i, -1);
+    }
+    this.mask = capacity - 1;
+
+    this.consumerThread = Objects.requireNonNull(threadFactory, "Thread factory is null")
+                                 .newThread(this::consume);
+    consumerThread.start();
+  }
+
+  /**
+   * Publishes the request to be processed on the consumer thread. This returns as soon as the
+   * request has been published, unless the ring is full, in which case it waits until there is
+   * room. If this is called by the consumer thread (that is, while processing another request),
+   * the request is processed immediately instead, as waiting on the ring would deadlock.
+   * @param chatRequest The request to process.
+   * @param chatMediator The chat group that the request should affect.
+   * @throws RequestProcessingException Thrown if the processor has been closed, or if the request
+   * is processed immediately and fails.
+   */
+  @Override
+  public void process(ChatRequest chatRequest, ChatMediator chatMediator)
+      throws RequestProcessingException {
+    Objects.requireNonNull(chatRequest, "Chat request is null");
+    if (Thread.currentThread() == consumerThread) {
+      RequestProcessEvent processEvent = new RequestProcessEvent();
+      processEvent.begin();
+      long startedAt = System.nanoTime();
+      try {
+        chatRequest.process(chatMediator);
+      } finally {
+        metrics.recordRequest(chatRequest.getClass(), 0, System.nanoTime() - startedAt);
+        processEvent.commitFor(chatRequest, chatMediator);
+      }
+      return;
+    }
+    if (closed) {
+      throw new RequestProcessingException("Request processor has been closed");
+    }
+
+    RequestEnqueueEvent enqueueEvent = new RequestEnqueueEvent();
+    enqueueEvent.begin();
+    long sequence = claimedSequence.incrementAndGet();
+    if (isSealed(sequence)) {
+      // The consumer stopped after we checked, so nothing would ever process the request
+      throw new RequestProcessingException("Request processor has been closed");
+    }
+    waitForRoom(sequence);
+    publish(sequence, chatRequest, chatMediator);
+    enqueueEvent.commitFor(chatRequest);
+  }
+
+  /**
+   * Publishes the request to be processed on the consumer thread, if the ring has room for it. If
+   * it doesn't, the request isn't published, and {@code onReady} is run on the consumer thread once
+   * the consumer has made room. Another publisher may take that room first, in which case the
+   * request is turned away again. As with {@link #process(ChatRequest, ChatMediator)}, a request
+   * from the consumer thread is processed immediately.
+   * @param chatRequest The request to process.
+   * @param chatMediator The chat group that the request should affect.
+   * @param onReady Run once the request can be tried again, if the ring is full. This must not
+   * block, as it holds up the consumer.
+   * @return {@code true} if the request was published, or {@code false} if the ring is full.
+   * @throws RequestProcessingException Thrown if the processor has been closed, or if the request
+   * is processed immediately and fails.
+   */
+  @Override
+  public boolean tryProcess(ChatRequest chatRequest, ChatMediator chatMediator, Runnable onReady)
+      throws RequestProcessingException {
+    Objects.requireNonNull(chatRequest, "Chat request is null");
+    Objects.requireNonNull(onReady, "On ready action is null");
+    if (Thread.currentThread() == consumerThread) {
+      process(chatRequest, chatMediator);
+      return true;
+    }
+
+    RequestEnqueueEvent enqueueEvent = new RequestEnqueueEvent();
+    enqueueEvent.begin();
+    while (true) {
+      if (closed) {
+        throw new RequestProcessingException("Request processor has been closed");
+      }
+      long claimed = claimedSequence.get();
+      if (isSealed(claimed)) {
+        throw new RequestProcessingException("Request processor has been closed");
+      }
+      long sequence = claimed + 1;
+      if (sequence - requests.length > consumedSequence) {
+        // The consumer may have made room, or stopped, before it could see the waiter, so check
+        // again. If it did, and the waiter is still there to take back, try again now rather than
+        // waiting.
+        roomWaiters.add(onReady);
+        long latestClaimed = claimedSequence.get();
+        boolean stillFull = !isSealed(latestClaimed)
+            && latestClaimed + 1 - requests.length > consumedSequence;
+        if (stillFull || !roomWaiters.remove(onReady)) {
+          return false;
+        }
+      } else if (claimedSequence.compareAndSet(claimed, sequence)) {
+        publish(sequence, chatRequest, chatMediator);
+        enqueueEvent.commitFor(chatRequest);
+        return true;
+      }
+    }
+  }
+
+  // Fills the slot for the claimed sequence number, and then publishes it to the consumer
+  private void publish(long sequence, ChatRequest chatRequest, ChatMediator chatMediator) {
+    int index = (int) sequence & mask;
+    requests[index] = chatRequest;
+    mediators[index] = chatMediator;
+    publishedAt[index] = System.nanoTime();
+    // This volatile write publishes the slot's contents to the consumer
+    publishedSequences.set(index, sequence);
+
+    if (consumerWaiting) {
+      LockSupport.unpark(consumerThread);
+    }
+  }
+
+  // Waits until the consumer has processed the request that previously occupied the slot
+  private void waitForRoom(long sequence) {
+    long wrapPoint = sequence - requests.length;
+    int yields = 0;
+    while (wrapPoint > consumedSequence) {
+      // Yielding first gives the consumer (and any publisher that is yet to fill its slot) a
+      // chance to run, which matters when there are more threads than cores
+      if (yields < PUBLISHER_YIELD_LIMIT) {
+        yields++;
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+      }
+    }
+  }
+
+  private void consume() {
+    long nextSequence = 0;
+    while (true) {
+      if (!awaitPublication((int) nextSequence & mask, nextSequence)) {
+        // Publishers that are still waiting for room find out that the processor has been closed
+        notifyRoomWaiters();
+        return;
+      }
+
+      // Take everything else that has already been published along with it, without waiting
+      int batchSize = 0;
+      long takenAt = System.nanoTime();
+      do {
+        int index = (int) nextSequence & mask;
+        batchRequests[batchSize] = requests[index];
+        batchMediators[batchSize] = mediators[index];
+        batchWaitNanos[batchSize] = takenAt - publishedAt[index];
+        // Don't hold on to requests once they've been taken, as they refer to their authors
+        requests[index] = null;
+        mediators[index] = null;
+        batchSize++;
+        nextSequence++;
+      } while (
+          batchSize < MAX_BATCH_SIZE
+              && publishedSequences.get((int) nextSequence & mask) == nextSequence
+      );
+      // The batch has been copied out of the ring, so publishers can reuse the slots straight away
+      consumedSequence = nextSequence - 1;
+      notifyRoomWaiters();
+
+      processBatch(batchSize);
+    }
+  }
+
+  private void notifyRoomWaiters() {
+    Runnable waiter;
+    while ((waiter = roomWaiters.poll()) != null) {
+      try {
+        waiter.run();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Failed to tell a publisher that the ring has room", e);
+      }
+    }
+  }
+
+  private void processBatch(int batchSize) {
+    int start = 0;
+    while (start < batchSize) {
+      int end = findSharedFanOutEnd(start, batchSize);
+      if (end - start > 1) {
+        processSharedFanOut(start, end);
+      } else {
+        processSingle(start);
+      }
+      start = Math.max(end, start + 1);
+    }
+    Arrays.fill(batchRequests, 0, batchSize, null);
+    Arrays.fill(batchMediators, 0, batchSize, null);
+  }
+
+  // Finds the end of the run of public messages, starting at the given position in the batch, that
+  // can share a fan out. This is checked just before the run is processed, so that it reflects
+  // everything that was processed ahead of it.
+  private int findSharedFanOutEnd(int start, int batchSize) {
+    ChatMediator chatMediator = batchMediators[start];
+    int end = start;
+    while (end < batchSize
+        && batchMediators[end] == chatMediator
+        && batchRequests[end] instanceof ChatEntryRequest
+        && ((ChatEntryRequest) batchRequests[end]).canShareFanOut(chatMediator)) {
+      end++;
+    }
+    return end;
+  }
+
+  private void processSingle(int position) {
+    ChatRequest chatRequest = batchRequests[position];
+    ChatMediator chatMediator = batchMediators[position];
+    RequestProcessEvent processEvent = new RequestProcessEvent();
+    processEvent.begin();
+    long startedAt = System.nanoTime();
+    processSafely(chatRequest, chatMediator);
+    metrics.recordRequest(
+        chatRequest.getClass(), batchWaitNanos[position], System.nanoTime() - startedAt
+    );
+    processEvent.commitFor(chatRequest, chatMediator);
+  }
+
+  private void processSharedFanOut(int start, int end) {
+    for (int i = start; i < end; i++) {
+      sharedFanOut.add((ChatEntryRequest) batchRequests[i]);
+    }
+    ChatMediator chatMediator = batchMediators[start];
+    RequestProcessEvent processEvent = new RequestProcessEvent();
+    processEvent.begin();
+    long startedAt = System.nanoTime();
+    try {
+      ChatEntryRequest.processAll(sharedFanOut, chatMediator);
+    } catch (Exception e) {
+      sharedFanOut.forEach(chatRequest -> reportFailure(chatRequest, e));
+    }
+    long processingNanos = (System.nanoTime() - startedAt) / (end - start);
+    for (int i = start; i < end; i++) {
+      metrics.recordRequest(ChatEntryRequest.class, batchWaitNanos[i], processingNanos);
+    }
+    processEvent.commitFor(batchRequests[start], chatMediator, end - start);
+    sharedFanOut.clear();
+  }
+
+  // Returns false if the processor was closed while waiting and there is nothing left to process
+  private boolean awaitPublication(int index, long sequence) {
+    int spins = 0;
+    while (publishedSequences.get(index) != sequence) {
+      if (closed && seal(sequence)) {
+        return false;
+      }
+      if (spins < CONSUMER_SPIN_LIMIT) {
+        spins++;
+        Thread.onSpinWait();
+      } else if (spins < CONSUMER_SPIN_LIMIT + CONSUMER_YIELD_LIMIT) {
+        // The request may have been claimed by a publisher that hasn't been scheduled yet
+        spins++;
+        Thread.yield();
+      } else {
+        // Let publishers know that they need to wake us up, then check again before sleeping in
+        // case a request was published in the meantime
+        consumerWaiting = true;
+        if (publishedSequences.get(index) != sequence && !closed) {
+          LockSupport.park(this);
+        }
+        consumerWaiting = false;
+      }
+    }
+    return true;
+  }
+
+  // Stops any more requests being claimed, if everything claimed so far has been processed.
+  // Returns false if a request has been claimed that is yet to be published, which must be waited
+  // for.
+  private boolean seal(long nextSequence) {
+    long claimed = claimedSequence.get();
+    return claimed < nextSequence && claimedSequence.compareAndSet(claimed, SEALED);
+  }
+
+  // Real sequence numbers start at zero, and nothing has been claimed at minus one
+  private static boolean isSealed(long sequence) {
+    return sequence < -1;
+  }
+
+  private void processSafely(ChatRequest chatRequest, ChatMediator chatMediator) {
+    try {
+      chatRequest.process(chatMediator);
+    } catch (Exception e) {
+      reportFailure(chatRequest, e);
+    }
+  }
+
+  private void reportFailure(ChatRequest chatRequest, Exception e) {
+    User author = chatRequest.getAuthor();
+    String username =
+        author == null || author.getUsername() == null ? "Unknown user" : author.getUsername();
+    LOGGER.log(Level.WARNING, "Failed to process message from " + username, e);
+
+    // The publisher has long since moved on, so let the author know that their request could not
+    // be processed
+    if (author != null) {
+      String message = e.getMessage() == null ? "Error" : e.getMessage();
+      author.notifyOfEvent(new RequestFailedNotification(chatRequest.getClass(), message));
+    }
+  }
+
+  /**
+   * Stops accepting requests. Requests that have already been published are still processed, after
+   * which the consumer thread stops.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(consumerThread);
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Waits for the consumer thread to stop after the processor has been closed.
+   * @param timeoutMillis The maximum time to wait, in milliseconds.
+   * @return {@code true} if the consumer thread has stopped.
+   * @throws InterruptedException Thrown if the current thread is interrupted while waiting.
+   */
+  public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+    consumerThread.join(timeoutMillis);
+    return !consumerThread.isAlive();
+  }
+
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>A request that moves its author from the room that they're in to another room.</p>
+ * <p>Each room processes its requests on its own lane, and requests are sent to the lane of the
+ * room that the author is in at the time. Moving to another room changes that, so the thread that
+ * received this request must wait for it to be processed (see {@link #awaitProcessing()}) before
+ * passing on any more requests from the same user. Otherwise, those requests could end up being
+ * processed by the room that the user is leaving, after they have left. Threads that must not block
+ * can be called back instead (see {@link #whenProcessed(Runnable)}).</p>
+ */
+public abstract class RoomChangeRequest implements ChatRequest {
+
+  @XmlIgnore
+  private User author;
+
+  @XmlIgnore
+  private final CountDownLatch processed = new CountDownLatch(1);
+
+  // Guarded by this
+  @XmlIgnore
+  private final List<Runnable> onProcessedActions = new ArrayList<>(1);
+
+  @Override
+  public void setAuthor(User author) {
+    this.author = author;
+  }
+
+  @Override
+  public User getAuthor() {
+    return author;
+  }
+
+  /**
+   * Gets the name of the room that the author should be moved to.
+   * @return The name of the room that the author should be moved to.
+   */
+  protected abstract String getDestinationRoom();
+
+  /**
+   * Moves the author to the destination room.
+   * @param chatMediator The room that the author is currently in.
+   * @throws RequestProcessingException Thrown if the author could not be moved.
+   */
+  @Override
+  public final void process(ChatMediator chatMediator) throws RequestProcessingException {
+    try {
+      RoomRegistry roomRegistry = chatMediator.getRoomRegistry();
+      if (roomRegistry == null) {
+        throw new RequestProcessingException("This chat does not support rooms");
+      }
+      roomRegistry.moveUser(author, chatMediator, getDestinationRoom());
+    } finally {
+      markProcessed();
+    }
+  }
+
+  private void markProcessed() {
+    List<Runnable> actions;
+    synchronized (this) {
+      processed.countDown();
+      actions = new ArrayList<>(onProcessedActions);
+      onProcessedActions.clear();
+    }
+    actions.forEach(Runnable::run);
+  }
+
+  /**
+   * Waits until the request has been processed, whether or not it succeeded.
+   * @throws InterruptedException Thrown if the current thread is interrupted while waiting.
+   */
+  public void awaitProcessing() throws InterruptedException {
+    processed.await();
+  }
+
+  /**
+   * Runs the action once the request has been processed, whether or not it succeeded. If it has
+   * already been processed, the action is run straight away on the calling thread. Otherwise, it's
+   * run by the thread that processes the request.
+   * @param action The action to run. This must not block.
+   * @throws NullPointerException Thrown if {@code action == null}.
+   */
+  public void whenProcessed(Runnable action) throws NullPointerException {
+    Objects.requireNonNull(action, "Action is null");
+    synchronized (this) {
+      if (processed.getCount() > 0) {
+        onProcessedActions.add(action);
+        return;
+      }
+    }
+    action.run();
+  }
+
+}
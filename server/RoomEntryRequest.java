@@ -0,0 +1,49 @@
+import java.util.Objects;
+
+/**
+ * Adds a user to the room that they are moving to. This is not sent by clients. Instead, it is
+ * created by the {@link RoomRegistry} once the user has left their previous room, so that the user
+ * is added to the new room by that room's own lane.
+ */
+public class RoomEntryRequest implements ChatRequest {
+
+  @XmlIgnore
+  private User author;
+
+  @Override
+  public void setAuthor(User author) {
+    this.author = author;
+  }
+
+  @Override
+  public User getAuthor() {
+    return author;
+  }
+
+  @Override
+  public void process(ChatMediator chatMediator) throws RequestProcessingException {
+    if (!chatMediator.addUser(author)) {
+      throw new RequestProcessingException("Failed to join " + chatMediator.getName());
+    }
+    chatMediator.notifyUsers(
+        new RoomJoinNotification(author.getUsername(), chatMediator.getName())
+    );
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RoomEntryRequest)) {
+      return false;
+    }
+    RoomEntryRequest that = (RoomEntryRequest) o;
+    return Objects.equals(author, that.author);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(author);
+  }
+}
@@ -0,0 +1,55 @@
+import java.util.Objects;
+
+/**
+ * A notification to indicate that a user has left a room to move to another. It is sent to
+ * everyone in the room, including the user that left.
+ */
+public class RoomLeaveNotification {
+
+  private final String username;
+  private final String room;
+
+  /**
+   * Creates a new notification to indicate that a user has left a room.
+   * @param username The username of the user that left the room.
+   * @param room The name of the room.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public RoomLeaveNotification(String username, String room) throws NullPointerException {
+    this.username = Objects.requireNonNull(username, "Username is null");
+    this.room = Objects.requireNonNull(room, "Room is null");
+  }
+
+  /**
+   * Gets the username of the user that left the room.
+   * @return The username of the user that left the room.
+   */
+  public String getUsername() {
+    return username;
+  }
+
+  /**
+   * Gets the name of the room that the user left.
+   * @return The name of the room.
+   */
+  public String getRoom() {
+    return room;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RoomLeaveNotification)) {
+      return false;
+    }
+    RoomLeaveNotification that = (RoomLeaveNotification) o;
+    return Objects.equals(username, that.username) && Objects.equals(room, that.room);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(username, room);
+  }
+}
@@ -0,0 +1,58 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * A notification that lists the rooms on the server, sent in response to a
+ * {@link ListRoomsRequest}.
+ */
+public class RoomListNotification {
+
+  private final String currentRoom;
+  private final Collection<String> rooms;
+
+  /**
+   * Creates a new notification listing the rooms on the server.
+   * @param currentRoom The name of the room that the recipient is in.
+   * @param rooms The names of all of the rooms.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public RoomListNotification(String currentRoom, Collection<String> rooms)
+      throws NullPointerException {
+    this.currentRoom = Objects.requireNonNull(currentRoom, "Current room is null");
+    this.rooms = new ArrayList<>(Objects.requireNonNull(rooms, "Rooms is null"));
+  }
+
+  /**
+   * Gets the name of the room that the recipient is in.
+   * @return The name of the room that the recipient is in.
+   */
+  public String getCurrentRoom() {
+    return currentRoom;
+  }
+
+  /**
+   * Gets the names of all of the rooms.
+   * @return The names of all of the rooms.
+   */
+  public Collection<String> getRooms() {
+    return rooms;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RoomListNotification)) {
+      return false;
+    }
+    RoomListNotification that = (RoomListNotification) o;
+    return Objects.equals(currentRoom, that.currentRoom) && Objects.equals(rooms, that.rooms);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(currentRoom, rooms);
+  }
+}
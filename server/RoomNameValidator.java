@@ -0,0 +1,33 @@
+/**
+ * Ensures that room names provided are sensible. In this implementation, a valid room name must:
+ * <ul>
+ *   <li>consist of alphanumeric characters (upper and lowercase accepted), numbers or underscores.
+ *   </li>
+ *   <li>start with a letter.</li>
+ *   <li>have a length between 2 and 32 characters.</li>
+ * </ul>
+ */
+public class RoomNameValidator implements StringContentValidator {
+
+  private static final RoomNameValidator INSTANCE = new RoomNameValidator();
+
+  /**
+   * Gets the singleton instance.
+   * @return The singleton instance.
+   */
+  public static RoomNameValidator getInstance() {
+    return INSTANCE;
+  }
+
+  private RoomNameValidator() {}
+
+  @Override
+  public void validate(String value) throws IllegalArgumentException {
+    if (value == null || !value.matches("^[a-zA-Z][a-zA-Z0-9_]{1,31}$")) {
+      throw new IllegalArgumentException(
+          "A room name must consist of alphanumeric characters and underscores, and be "
+              + "between 2 and 32 characters in length. A room name must start with a letter."
+      );
+    }
+  }
+}
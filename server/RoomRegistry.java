@@ -0,0 +1,343 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Keeps track of the chat rooms on the server. Each room is its own {@link ChatGroup}, with its
+ * own processing lane - a {@link ChatRequestProcessor} that only ever processes requests for that
+ * room. Requests for different rooms are therefore processed independently, so busy rooms can be
+ * spread across cores rather than queueing behind one another.</p>
+ * <p>The registry is itself a {@link ChatRequestProcessor}, which passes each request on to the
+ * lane of the room that it is for. Users start off in the {@link #DEFAULT_ROOM_NAME default room}
+ * and can then move between rooms. Other rooms are created when a user first joins them, up to a
+ * configured maximum. Usernames are reserved across every room, so that a user can always move to
+ * another room without clashing with someone who is already there.</p>
+ * <p>Each room remembers its most recent public messages, so that they can be replayed to users
+ * when they join it (see {@link RecentHistory}).</p>
+ * <p>Broadcasts in every room are delivered by a single shared {@link FanOutExecutor}. When the
+ * default room is closed, which is what happens when the server shuts down, every other room is
+ * closed too, followed by the fan out executor.</p>
+ * <p>If the server is configured to journal messages, to keep private messages for users that
+ * are offline, or to index messages for searching, the registry also owns the
+ * {@link MessageJournal}, {@link OfflineMessageStore} and {@link SearchIndex} that every room
+ * shares. They're closed last, once every room has finished processing its
+ * requests.</p>
+ */
+public class RoomRegistry implements ChatRequestProcessor {
+
+  private static final Logger LOGGER = Logger.getLogger(RoomRegistry.class.getName());
+
+  /**
+   * The name of the room that users join when they first connect.
+   */
+  public static final String DEFAULT_ROOM_NAME = "lobby";
+
+  // How long to wait for each room's lane to finish off when shutting down
+  private static final long ROOM_SHUTDOWN_TIMEOUT_MILLIS = 5_000;
+
+  private final RequestProcessorType processorType;
+  private final int ringBufferCapacity;
+  private final int maxRooms;
+  private final int historySize;
+  private final int maxReplayBytes;
+  private final FanOutExecutor fanOutExecutor;
+  private final MessageJournal messageJournal;
+  private final OfflineMessageStore offlineMessageStore;
+  private final SearchIndex searchIndex;
+  private final Map<String, ChatMediator> rooms = new ConcurrentHashMap<>();
+  private final Map<ChatMediator, ChatRequestProcessor> lanes = new ConcurrentHashMap<>();
+  private final Map<String, User> reservedUsernames = new ConcurrentHashMap<>();
+  private final ChatMediator defaultRoom;
+
+  /**
+   * Creates a new registry, containing just the default room.
+   * @param configuration The settings that determine how each room's lane processes requests, and
+   * how many rooms there can be.
+   * @throws NullPointerException Thrown if {@code configuration == null}.
+   * @throws UncheckedIOException Thrown if the message journal, the offline message store or the
+   * search index could not be opened.
+   */
+  public RoomRegistry(ServerConfiguration configuration)
+      throws NullPointerException, UncheckedIOException {
+    Objects.requireNonNull(configuration, "Configuration is null");
+    this.processorType = configuration.getRequestProcessorType();
+    this.ringBufferCapacity = configuration.getRingBufferCapacity();
+    this.maxRooms = configuration.getMaxRooms();
+    this.historySize = configuration.getHistorySize();
+    this.maxReplayBytes = configuration.getMaxReplayBytes();
+    // Shared by every room, so the number of fan out threads doesn't grow with the number of rooms
+    this.fanOutExecutor = new FanOutExecutor(
+        configuration.getFanOutParallelism(), configuration.getFanOutBatchSize()
+    );
+    try {
+      this.messageJournal = configuration.createMessageJournal();
+      this.offlineMessageStore = configuration.createOfflineMessageStore();
+      this.searchIndex = configuration.createSearchIndex();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to open the message store", e);
+    }
+    this.defaultRoom = createRoom(DEFAULT_ROOM_NAME);
+    defaultRoom.addOnCloseAction(this::closeOtherRooms);
+
+    // Both maps are concurrent, so reading their sizes doesn't hold up request processing
+    ServerMetrics metrics = ServerMetrics.getInstance();
+    metrics.registerGauge("connected_users", reservedUsernames::size);
+    metrics.registerGauge("rooms", rooms::size);
+  }
+
+  /**
+   * Gets the room that users join when they first connect.
+   * @return The default room.
+   */
+  public ChatMediator getDefaultRoom() {
+    return defaultRoom;
+  }
+
+  /**
+   * Gets the executor that delivers broadcasts in every room.
+   * @return The fan out executor.
+   */
+  public FanOutExecutor getFanOutExecutor() {
+    return fanOutExecutor;
+  }
+
+  /**
+   * Gets the journal that every room appends its messages to.
+   * @return The message journal, or {@code null} if messages are not journaled.
+   */
+  public MessageJournal getMessageJournal() {
+    return messageJournal;
+  }
+
+  /**
+   * Gets the store that every room keeps private messages in for users that aren't there.
+   * @return The offline message store, or {@code null} if messages aren't kept for offline users.
+   */
+  public OfflineMessageStore getOfflineMessageStore() {
+    return offlineMessageStore;
+  }
+
+  /**
+   * Gets the index that every room's messages are added to, so that they can be searched.
+   * @return The search index, or {@code null} if messages can't be searched.
+   */
+  public SearchIndex getSearchIndex() {
+    return searchIndex;
+  }
+
+  /**
+   * Gets the room with the given name, creating it if it doesn't exist yet.
+   * @param name The name of the room.
+   * @return The room.
+   * @throws RequestProcessingException Thrown if the room doesn't exist and no more rooms can be
+   * created, or if the server is shutting down.
+   */
+  public synchronized ChatMediator getOrCreateRoom(String name)
+      throws RequestProcessingException {
+    if (defaultRoom.isClosed()) {
+      throw new RequestProcessingException("The server is shutting down");
+    }
+    ChatMediator room = rooms.get(name);
+    if (room != null) {
+      return room;
+    }
+    if (rooms.size() >= maxRooms) {
+      throw new RequestProcessingException(
+          "No more rooms can be created. Please join an existing room"
+      );
+    }
+    return createRoom(name);
+  }
+
+  // Must hold the lock, unless called from the constructor
+  private ChatMediator createRoom(String name) {
+    RecentHistory recentHistory =
+        historySize == 0 ? null : new RecentHistory(historySize, maxReplayBytes);
+    ChatGroup room = new ChatGroup(name, this, fanOutExecutor, recentHistory);
+    lanes.put(room, createLane(room));
+    rooms.put(name, room);
+    LOGGER.info("Created room " + name);
+    return room;
+  }
+
+  private ChatRequestProcessor createLane(ChatGroup room) {
+    if (processorType == RequestProcessorType.LOCK) {
+      return new BlockingChatRequestProcessor();
+    }
+
+    // The consumer spins while it waits for requests, so always give it a platform thread
+    RingBufferChatRequestProcessor lane = new RingBufferChatRequestProcessor(
+        ringBufferCapacity, UserThreadFactory.platform("room-" + room.getName() + "-processor")
+    );
+    // Requests that have already been published are processed before the lane stops
+    room.addOnCloseAction(lane::close);
+    return lane;
+  }
+
+  /**
+   * Gets the names of all of the rooms, in alphabetical order.
+   * @return The names of the rooms.
+   */
+  public List<String> getRoomNames() {
+    return rooms.keySet().stream().sorted().collect(Collectors.toList());
+  }
+
+  /**
+   * Passes the request on to the processing lane of the given room.
+   * @param chatRequest The request to process.
+   * @param chatMediator The room that the request should affect.
+   * @throws RequestProcessingException Thrown if the room doesn't belong to this registry, or if
+   * the room's lane fails to process the request.
+   */
+  @Override
+  public void process(ChatRequest chatRequest, ChatMediator chatMediator)
+      throws RequestProcessingException {
+    getLane(chatMediator).process(chatRequest, chatMediator);
+  }
+
+  /**
+   * Passes the request on to the processing lane of the given room, if the lane has room for it.
+   * @param chatRequest The request to process.
+   * @param chatMediator The room that the request should affect.
+   * @param onReady Run once the request can be tried again, if the lane is full.
+   * @return {@code true} if the request was accepted, or {@code false} if the lane is full.
+   * @throws RequestProcessingException Thrown if the room doesn't belong to this registry, or if
+   * the room's lane fails to process the request.
+   */
+  @Override
+  public boolean tryProcess(ChatRequest chatRequest, ChatMediator chatMediator, Runnable onReady)
+      throws RequestProcessingException {
+    return getLane(chatMediator).tryProcess(chatRequest, chatMediator, onReady);
+  }
+
+  private ChatRequestProcessor getLane(ChatMediator chatMediator)
+      throws RequestProcessingException {
+    ChatRequestProcessor lane = lanes.get(chatMediator);
+    if (lane == null) {
+      throw new RequestProcessingException("Unknown room");
+    }
+    return lane;
+  }
+
+  /**
+   * Moves a user from the room that they're in to another room. The user is removed from their
+   * current room straight away, and then added to the new room by that room's lane. This must be
+   * called from the lane of the user's current room.
+   * @param user The user to move.
+   * @param currentRoom The room that the user is currently in.
+   * @param newRoomName The name of the room to move the user to. The room is created if it doesn't
+   * exist yet.
+   * @throws RequestProcessingException Thrown if the user is not connected to the current room,
+   * is already in the new room, or the new room can't be created.
+   */
+  public void moveUser(User user, ChatMediator currentRoom, String newRoomName)
+      throws RequestProcessingException {
+    if (!currentRoom.containsUser(user)) {
+      throw new RequestProcessingException(
+          "You are not connected. Please connect to the chat by setting your username through a "
+              + ConnectionRequest.class.getSimpleName()
+      );
+    }
+    try {
+      RoomNameValidator.getInstance().validate(newRoomName);
+    } catch (IllegalArgumentException e) {
+      throw new RequestProcessingException(e.getMessage());
+    }
+    if (newRoomName.equals(currentRoom.getName())) {
+      throw new RequestProcessingException("You are already in " + newRoomName);
+    }
+    ChatMediator newRoom = getOrCreateRoom(newRoomName);
+
+    // Let everyone in the current room, including the user, know that they're leaving
+    currentRoom.notifyUsers(new RoomLeaveNotification(user.getUsername(), currentRoom.getName()));
+    currentRoom.removeUser(user);
+
+    // From now on, the user's requests go to the new room's lane, behind their entry to the room
+    user.setChatMediator(newRoom);
+    RoomEntryRequest roomEntryRequest = new RoomEntryRequest();
+    roomEntryRequest.setAuthor(user);
+    process(roomEntryRequest, newRoom);
+  }
+
+  /**
+   * Reserves the user's username across all of the rooms in the registry. The reservation is
+   * released when the user is closed, and the user is removed from whichever room they're in.
+   * @param user The user whose username should be reserved.
+   * @return {@code true} if the username was reserved, or was already reserved by this user.
+   * {@code false} if the username has been reserved by a different user.
+   */
+  public boolean reserveUsername(User user) {
+    User holder = reservedUsernames.putIfAbsent(user.getUsername(), user);
+    if (holder == null) {
+      // Registered once per user, however many rooms they go on to move between
+      user.onClose(this::releaseClosedUser);
+      return true;
+    }
+    return holder == user;
+  }
+
+  private void releaseClosedUser(User user) {
+    reservedUsernames.remove(user.getUsername(), user);
+    // This shouldn't cause a concurrent modification of the room's members, as disconnects of
+    // users that are in a room are processed synchronously as a separate request
+    ChatMediator room = user.getChatMediator();
+    if (room != null && !room.isClosed()) {
+      room.removeUser(user);
+    }
+  }
+
+  // Runs on the default room's lane when the server is shutting down
+  private void closeOtherRooms() {
+    List<ChatMediator> otherRooms;
+    synchronized (this) {
+      otherRooms = rooms.values()
+                        .stream()
+                        .filter(room -> room != defaultRoom)
+                        .collect(Collectors.toList());
+    }
+
+    // Each room is closed by its own lane, so that nothing else is touching it at the time
+    for (ChatMediator room : otherRooms) {
+      try {
+        process(new TerminateRequest(), room);
+      } catch (RequestProcessingException e) {
+        LOGGER.log(Level.WARNING, "Failed to close room " + room.getName(), e);
+      }
+    }
+    for (ChatMediator room : otherRooms) {
+      awaitLaneTermination(room);
+    }
+    fanOutExecutor.close();
+    if (messageJournal != null) {
+      messageJournal.close();
+    }
+    if (offlineMessageStore != null) {
+      offlineMessageStore.close();
+    }
+    if (searchIndex != null) {
+      searchIndex.close();
+    }
+  }
+
+  private void awaitLaneTermination(ChatMediator room) {
+    ChatRequestProcessor lane = lanes.get(room);
+    if (!(lane instanceof RingBufferChatRequestProcessor)) {
+      // Other lanes process requests synchronously, so the room has already been closed
+      return;
+    }
+    try {
+      if (!((RingBufferChatRequestProcessor) lane).awaitTermination(ROOM_SHUTDOWN_TIMEOUT_MILLIS)) {
+        LOGGER.warning("Timed out waiting for room " + room.getName() + " to close");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
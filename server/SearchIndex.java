@@ -0,0 +1,664 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>An index of the chat messages sent on the server, so that users can search past messages by
+ * keyword, sender and time (see {@link SearchRequest}). Messages are indexed as they're sent, from
+ * the {@link ChatEntryNotification}s that each room produces.</p>
+ * <p>Each message is indexed under the words in its text, ignoring case, as well as its room, its
+ * sender and, for private messages, its recipients. The index keeps a sorted list of the messages
+ * for each of these terms, so a search is the intersection of the lists for its terms, and only
+ * the messages on the page of results that was asked for are ever read. Private messages are only
+ * found by their sender and recipients.</p>
+ * <p>New messages are indexed in memory. Once enough of them have built up, or a minute has
+ * passed, they're written to disk as an immutable {@link SearchIndexSegment}, which is memory
+ * mapped to be searched. Every search reads every segment, so whenever there are more than a
+ * handful, the smallest run of neighbouring segments is merged into one in the background.
+ * Segments survive the server being restarted, but messages that were still only in memory when
+ * the server stopped abruptly are lost.</p>
+ * <p>Indexing and searching happen on a single thread dedicated to the index, so rooms never wait
+ * for a search, and the messages in memory need no locking. Merges happen on a thread of their
+ * own.</p>
+ */
+public class SearchIndex implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(SearchIndex.class.getName());
+
+  /**
+   * The number of results in each page of search results.
+   */
+  public static final int PAGE_SIZE = 20;
+
+  private static final int MAX_MESSAGES_IN_MEMORY = 4096;
+  private static final long FLUSH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final int MAX_SEGMENTS = 8;
+  private static final int SEGMENTS_PER_MERGE = 4;
+  private static final long MAX_MERGED_SEGMENT_SIZE = 1L << 30;
+  private static final int MAX_WORD_LENGTH = 64;
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 5_000;
+
+  // Words never contain a colon, so these terms can't be confused with them
+  private static final String PUBLIC_TERM = ":public";
+  private static final String ROOM_PREFIX = "room:";
+  private static final String SENDER_PREFIX = "from:";
+  private static final String RECIPIENT_PREFIX = "to:";
+
+  private static final int[] NO_MESSAGES = new int[0];
+
+  private final Path directory;
+  private final ScheduledExecutorService indexExecutor;
+  private final ExecutorService mergeExecutor;
+  private volatile boolean closed = false;
+  private volatile long messageCount = 0;
+
+  // Only accessed on the index thread. The segments on disk are kept oldest first.
+  private final List<SearchIndexSegment> segments = new ArrayList<>();
+  private MemorySegment memorySegment;
+  private boolean merging = false;
+
+  /**
+   * Opens the index in the given directory, creating the directory if it doesn't exist. Messages
+   * that were indexed before the server was restarted are kept.
+   * @param directory The directory to keep the index in.
+   * @throws IOException Thrown if the directory could not be created or read.
+   * @throws NullPointerException Thrown if {@code directory == null}.
+   */
+  public SearchIndex(Path directory) throws IOException, NullPointerException {
+    this.directory = Objects.requireNonNull(directory, "Directory is null");
+    Files.createDirectories(directory);
+    load();
+
+    this.indexExecutor = Executors.newSingleThreadScheduledExecutor(
+        UserThreadFactory.platform("search-index-thread")
+    );
+    this.mergeExecutor =
+        Executors.newSingleThreadExecutor(UserThreadFactory.platform("search-merge-thread"));
+    indexExecutor.scheduleWithFixedDelay(
+        () -> submit(this::flush),
+        FLUSH_INTERVAL_MILLIS,
+        FLUSH_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS
+    );
+    ServerMetrics.getInstance().registerGauge("search_index_messages", () -> messageCount);
+    LOGGER.info("Indexing messages for search in " + directory);
+  }
+
+  private void load() throws IOException {
+    List<SearchIndexSegment> found = new ArrayList<>();
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+      for (Path path : paths) {
+        if (SearchIndexSegment.isTemporary(path)) {
+          // Left behind by a segment that was never finished
+          Files.delete(path);
+        } else if (SearchIndexSegment.isSegment(path)) {
+          try {
+            found.add(SearchIndexSegment.open(path));
+          } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unreadable search index segment " + path, e);
+          }
+        }
+      }
+    }
+
+    // Where segments overlap, the larger one is the result of merging the others
+    found.sort(Comparator.comparingLong(SearchIndexSegment::getFirstMessageId)
+        .thenComparing(Comparator.comparingInt(SearchIndexSegment::size).reversed()));
+    long nextMessageId = 0;
+    for (SearchIndexSegment segment : found) {
+      if (segment.getFirstMessageId() + segment.size() <= nextMessageId) {
+        // Merged, but the server stopped before the segment could be deleted
+        segment.delete();
+      } else {
+        segments.add(segment);
+        nextMessageId = segment.getFirstMessageId() + segment.size();
+        messageCount += segment.size();
+      }
+    }
+    memorySegment = new MemorySegment(nextMessageId);
+  }
+
+  /**
+   * Indexes a message that has been sent in a room. This returns straight away, and the message is
+   * indexed in the background.
+   * @param room The name of the room that the message was sent in.
+   * @param message The message.
+   * @throws NullPointerException Thrown if either of the arguments are {@code null}.
+   */
+  public void add(String room, ChatEntryNotification message) throws NullPointerException {
+    Objects.requireNonNull(room, "Room is null");
+    Objects.requireNonNull(message, "Message is null");
+    if (closed) {
+      return;
+    }
+    long sentAtMillis = System.currentTimeMillis();
+    submit(() -> index(new Message(
+        sentAtMillis,
+        room,
+        message.getSender(),
+        List.copyOf(message.getRecipients()),
+        message.getMessage()
+    )));
+  }
+
+  /**
+   * Searches for messages, and sends a page of the results to the user that asked for them. This
+   * returns straight away. The search happens in the background, and the results are sent to the
+   * user together, as one {@link SearchResultNotification} for each message found, newest first.
+   * If no messages are found on the page, the user is sent a single notification without a
+   * message, which still gives the total number of results.
+   * @param query What to search for.
+   * @param searcher The user searching. They must have a username, and only find the private
+   * messages that they sent or received.
+   * @throws NullPointerException Thrown if either of the arguments are {@code null}.
+   */
+  public void search(Query query, User searcher) throws NullPointerException {
+    Objects.requireNonNull(query, "Query is null");
+    Objects.requireNonNull(searcher, "Searcher is null");
+    String username = searcher.getUsername();
+    if (closed) {
+      searcher.notifyOfEvent(
+          new RequestFailedNotification(SearchRequest.class, "The server is shutting down")
+      );
+      return;
+    }
+    submit(() -> {
+      if (searcher.isClosed()) {
+        return;
+      }
+      try {
+        searcher.notifyOfEncodedEvent(findPage(query, username));
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Search failed", e);
+        searcher.notifyOfEvent(new RequestFailedNotification(SearchRequest.class, "Search failed"));
+      }
+    });
+  }
+
+  private void submit(Runnable task) {
+    try {
+      indexExecutor.execute(() -> {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.SEVERE, "Search index task failed", e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The index was closed in the meantime
+      LOGGER.fine("Search index is closed");
+    }
+  }
+
+  private void index(Message message) {
+    memorySegment.add(message);
+    messageCount++;
+    // If writing the segment fails, this tries again each time as many messages again are added
+    if (memorySegment.size() % MAX_MESSAGES_IN_MEMORY == 0) {
+      flush();
+    }
+  }
+
+  private EncodedNotification findPage(Query query, String username) throws XmlParseException {
+    long firstResult = (long) (query.page - 1) * PAGE_SIZE;
+    List<Message> found = new ArrayList<>(PAGE_SIZE);
+    int totalResults = 0;
+
+    // The newest segment first, and the newest message first within each segment
+    List<Segment> searched = new ArrayList<>(segments.size() + 1);
+    searched.addAll(segments);
+    searched.add(memorySegment);
+    for (int s = searched.size() - 1; s >= 0; s--) {
+      Segment segment = searched.get(s);
+      int[] matches = match(segment, query, username);
+      for (int i = matches.length - 1; i >= 0; i--) {
+        long sentAtMillis = segment.sentAtMillis(matches[i]);
+        if (sentAtMillis < query.fromMillis || sentAtMillis >= query.untilMillis) {
+          continue;
+        }
+        if (totalResults >= firstResult && found.size() < PAGE_SIZE) {
+          found.add(segment.message(matches[i]));
+        }
+        totalResults++;
+      }
+    }
+
+    if (found.isEmpty()) {
+      return EncodedNotification.encode(new SearchResultNotification(totalResults));
+    }
+    List<EncodedNotification> results = new ArrayList<>(found.size());
+    for (int i = 0; i < found.size(); i++) {
+      Message message = found.get(i);
+      results.add(EncodedNotification.encode(new SearchResultNotification(
+          message.room,
+          message.sender,
+          Instant.ofEpochMilli(message.sentAtMillis),
+          message.text,
+          (int) firstResult + i + 1,
+          totalResults
+      )));
+    }
+    return results.size() == 1 ? results.get(0) : EncodedNotification.concat(results);
+  }
+
+  // Finds the messages in the segment that the user can see and that have every term of the query
+  private static int[] match(Segment segment, Query query, String username) {
+    int[] matches = union(
+        union(segment.postings(PUBLIC_TERM), segment.postings(SENDER_PREFIX + username)),
+        segment.postings(RECIPIENT_PREFIX + username)
+    );
+    matches = intersect(matches, segment.postings(ROOM_PREFIX + query.room));
+    if (query.sender != null) {
+      matches = intersect(matches, segment.postings(SENDER_PREFIX + query.sender));
+    }
+    for (String word : query.words) {
+      if (matches.length == 0) {
+        break;
+      }
+      matches = intersect(matches, segment.postings(word));
+    }
+    return matches;
+  }
+
+  private static int[] intersect(int[] a, int[] b) {
+    int[] both = new int[Math.min(a.length, b.length)];
+    int count = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        both[count++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(both, count);
+  }
+
+  private static int[] union(int[] a, int[] b) {
+    if (a.length == 0) {
+      return b;
+    } else if (b.length == 0) {
+      return a;
+    }
+    int[] either = new int[a.length + b.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        either[count++] = a[i++];
+      } else if (a[i] > b[j]) {
+        either[count++] = b[j++];
+      } else {
+        either[count++] = a[i++];
+        j++;
+      }
+    }
+    while (i < a.length) {
+      either[count++] = a[i++];
+    }
+    while (j < b.length) {
+      either[count++] = b[j++];
+    }
+    return Arrays.copyOf(either, count);
+  }
+
+  // Writes the messages in memory to a new segment on disk
+  private void flush() {
+    if (memorySegment.size() == 0) {
+      return;
+    }
+    try {
+      segments.add(SearchIndexSegment.write(
+          directory,
+          memorySegment.firstMessageId,
+          memorySegment.messages,
+          memorySegment.sortedPostings()
+      ));
+      memorySegment = new MemorySegment(memorySegment.firstMessageId + memorySegment.size());
+    } catch (IOException e) {
+      // The messages stay in memory until the segment can be written
+      LOGGER.log(Level.SEVERE, "Failed to write a search index segment", e);
+      return;
+    }
+    mergeIfNeeded();
+  }
+
+  private void mergeIfNeeded() {
+    if (merging || segments.size() <= MAX_SEGMENTS) {
+      return;
+    }
+
+    // Merge the neighbouring segments that are smallest together, so that each message is
+    // rewritten a few times at most
+    int start = -1;
+    long smallestSize = MAX_MERGED_SEGMENT_SIZE;
+    for (int i = 0; i + SEGMENTS_PER_MERGE <= segments.size(); i++) {
+      long size = 0;
+      for (int j = i; j < i + SEGMENTS_PER_MERGE; j++) {
+        size += segments.get(j).getSizeInBytes();
+      }
+      if (size <= smallestSize) {
+        start = i;
+        smallestSize = size;
+      }
+    }
+    if (start < 0) {
+      LOGGER.fine("Search index segments are too large to merge");
+      return;
+    }
+
+    List<SearchIndexSegment> merged =
+        List.copyOf(segments.subList(start, start + SEGMENTS_PER_MERGE));
+    merging = true;
+    try {
+      mergeExecutor.execute(() -> {
+        SearchIndexSegment segment = null;
+        try {
+          segment = SearchIndexSegment.merge(directory, merged);
+        } catch (IOException | RuntimeException e) {
+          LOGGER.log(Level.SEVERE, "Failed to merge search index segments", e);
+        }
+        SearchIndexSegment replacement = segment;
+        submit(() -> replace(merged, replacement));
+      });
+    } catch (RejectedExecutionException e) {
+      merging = false;
+    }
+  }
+
+  private void replace(List<SearchIndexSegment> merged, SearchIndexSegment replacement) {
+    merging = false;
+    if (replacement == null) {
+      return;
+    }
+    int start = segments.indexOf(merged.get(0));
+    segments.subList(start, start + merged.size()).clear();
+    segments.add(start, replacement);
+    merged.forEach(SearchIndexSegment::delete);
+    mergeIfNeeded();
+  }
+
+  /**
+   * Splits text into the words that it is indexed and searched by. A word is a run of letters and
+   * digits, in lower case. Very long words are left out.
+   * @param text The text to split.
+   * @return The words in the text, in order, including any duplicates.
+   */
+  public static List<String> toWords(String text) {
+    List<String> words = new ArrayList<>();
+    int length = text.length();
+    int i = 0;
+    while (i < length) {
+      while (i < length && !Character.isLetterOrDigit(text.codePointAt(i))) {
+        i += Character.charCount(text.codePointAt(i));
+      }
+      int start = i;
+      while (i < length && Character.isLetterOrDigit(text.codePointAt(i))) {
+        i += Character.charCount(text.codePointAt(i));
+      }
+      if (i > start && i - start <= MAX_WORD_LENGTH) {
+        words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Stops accepting messages and searches, writes the messages in memory to disk, and waits a few
+   * seconds at most for any merge in progress to finish.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    submit(this::flush);
+    indexExecutor.shutdown();
+    try {
+      if (!indexExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        LOGGER.warning("Timed out waiting for the search index to be written");
+      }
+      mergeExecutor.shutdown();
+      if (!mergeExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        LOGGER.warning("Timed out waiting for search index segments to be merged");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * What to search for. A message is found if it was sent in the given room, within the given
+   * time, and contains every given word, if any, and was sent by the given sender, if any.
+   */
+  public static final class Query {
+
+    private final String room;
+    private final Set<String> words;
+    private final String sender;
+    private final long fromMillis;
+    private final long untilMillis;
+    private final int page;
+
+    /**
+     * Creates a new query.
+     * @param room The name of the room to search.
+     * @param keywords The text to search for. Messages are found if they contain every word in
+     * it, in any order. This can be {@code null} to find messages whatever they contain.
+     * @param sender The username of the sender to search for, or {@code null} to find messages
+     * from anyone.
+     * @param fromMillis The earliest time that messages can have been sent, in milliseconds since
+     * the epoch.
+     * @param untilMillis The time that messages must have been sent before, in milliseconds since
+     * the epoch.
+     * @param page The page of results to find, starting at 1.
+     * @throws IllegalArgumentException Thrown if {@code page < 1}.
+     * @throws NullPointerException Thrown if {@code room == null}.
+     */
+    public Query(
+        String room, String keywords, String sender, long fromMillis, long untilMillis, int page
+    ) throws IllegalArgumentException, NullPointerException {
+      if (page < 1) {
+        throw new IllegalArgumentException("Page must be at least 1");
+      }
+      this.room = Objects.requireNonNull(room, "Room is null");
+      this.words = keywords == null
+          ? Collections.emptySet()
+          : Collections.unmodifiableSet(new LinkedHashSet<>(toWords(keywords)));
+      this.sender = sender;
+      this.fromMillis = fromMillis;
+      this.untilMillis = untilMillis;
+      this.page = page;
+    }
+
+    /**
+     * Gets the words to search for.
+     * @return The words to search for, which may be empty.
+     */
+    public Set<String> getWords() {
+      return words;
+    }
+
+    /**
+     * Gets the username of the sender to search for.
+     * @return The username of the sender, or {@code null} to find messages from anyone.
+     */
+    public String getSender() {
+      return sender;
+    }
+
+  }
+
+  /**
+   * The messages in part of the index, each identified by its position in the part, counting from
+   * the oldest.
+   */
+  interface Segment {
+
+    /**
+     * Gets the number of messages.
+     * @return The number of messages.
+     */
+    int size();
+
+    /**
+     * Finds the messages indexed under a term.
+     * @param term The term.
+     * @return The positions of the messages, in ascending order. This is empty if there are none.
+     */
+    int[] postings(String term);
+
+    /**
+     * Gets the time that a message was sent.
+     * @param position The position of the message.
+     * @return The time that the message was sent, in milliseconds since the epoch.
+     */
+    long sentAtMillis(int position);
+
+    /**
+     * Reads a message.
+     * @param position The position of the message.
+     * @return The message.
+     */
+    Message message(int position);
+
+  }
+
+  /**
+   * A message that has been indexed.
+   */
+  static final class Message {
+
+    final long sentAtMillis;
+    final String room;
+    final String sender;
+    final List<String> recipients;
+    final String text;
+
+    Message(long sentAtMillis, String room, String sender, List<String> recipients, String text) {
+      this.sentAtMillis = sentAtMillis;
+      this.room = room;
+      this.sender = sender;
+      this.recipients = recipients;
+      this.text = text;
+    }
+
+    // Every term that the message is indexed under, once each
+    Set<String> terms() {
+      Set<String> terms = new LinkedHashSet<>();
+      if (recipients.isEmpty()) {
+        terms.add(PUBLIC_TERM);
+      }
+      terms.add(ROOM_PREFIX + room);
+      terms.add(SENDER_PREFIX + sender);
+      for (String recipient : recipients) {
+        terms.add(RECIPIENT_PREFIX + recipient);
+      }
+      terms.addAll(toWords(text));
+      return terms;
+    }
+
+  }
+
+  /**
+   * A growable list of ints, which avoids boxing each one.
+   */
+  static final class IntList {
+
+    private int[] values = new int[4];
+    private int size = 0;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+
+  }
+
+  // The messages that haven't been written to disk yet
+  private static final class MemorySegment implements Segment {
+
+    private final long firstMessageId;
+    private final List<Message> messages = new ArrayList<>();
+    private final Map<String, IntList> postings = new HashMap<>();
+
+    private MemorySegment(long firstMessageId) {
+      this.firstMessageId = firstMessageId;
+    }
+
+    private void add(Message message) {
+      int position = messages.size();
+      messages.add(message);
+      for (String term : message.terms()) {
+        postings.computeIfAbsent(term, key -> new IntList()).add(position);
+      }
+    }
+
+    private SortedMap<String, int[]> sortedPostings() {
+      SortedMap<String, int[]> sorted = new TreeMap<>();
+      postings.forEach((term, positions) -> sorted.put(term, positions.toArray()));
+      return sorted;
+    }
+
+    @Override
+    public int size() {
+      return messages.size();
+    }
+
+    @Override
+    public int[] postings(String term) {
+      IntList positions = postings.get(term);
+      return positions == null ? NO_MESSAGES : positions.toArray();
+    }
+
+    @Override
+    public long sentAtMillis(int position) {
+      return messages.get(position).sentAtMillis;
+    }
+
+    @Override
+    public Message message(int position) {
+      return messages.get(position);
+    }
+
+  }
+
+}
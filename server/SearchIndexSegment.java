@@ -0,0 +1,438 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>An immutable part of a {@link SearchIndex}, holding a run of consecutive messages in a file
+ * that is memory mapped to be searched. The file holds, in order:
+ * <ol>
+ *   <li>a header, giving the id of the first message, the number of messages and terms, and where
+ *   each of the sections that follow starts</li>
+ *   <li>the messages, one after another, each with the time that it was sent, its room, sender,
+ *   recipients and text</li>
+ *   <li>where each message starts, so that any message can be read without the others</li>
+ *   <li>the postings: for each term, the number of messages indexed under it, and then the
+ *   position of each of those messages, as a variable length difference from the one before, so
+ *   that a common term takes about a byte per message</li>
+ *   <li>the terms, in order, each with where its postings start</li>
+ * </ol>
+ * The terms are read into memory when the segment is opened, so a term is found with a binary
+ * search, and then only its postings are read from the file.</p>
+ * <p>Neighbouring segments are merged without decoding their messages. The messages are copied
+ * across as they are, and the postings of each term are joined, offset by the number of messages
+ * in the segments before. Every segment is written to a temporary file and then moved into place,
+ * so a segment file is never left half written.</p>
+ * <p>Segments may be read from any number of threads at once.</p>
+ */
+public final class SearchIndexSegment implements SearchIndex.Segment {
+
+  private static final Logger LOGGER = Logger.getLogger(SearchIndexSegment.class.getName());
+
+  private static final String SUFFIX = ".segment";
+  private static final String TEMPORARY_SUFFIX = SUFFIX + ".tmp";
+  private static final int MAGIC = 0x43485358;
+  private static final int VERSION = 1;
+  // The magic number, version, first message id, message and term counts, and where the message
+  // positions, postings and terms start
+  private static final int HEADER_SIZE = Long.BYTES + 7 * Integer.BYTES;
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private static final int[] NO_MESSAGES = new int[0];
+
+  private final Path path;
+  private final ByteBuffer buffer;
+  private final long firstMessageId;
+  private final int size;
+  private final int messagePositionsStart;
+  private final String[] terms;
+  private final int[] postingsStarts;
+
+  private SearchIndexSegment(Path path, ByteBuffer buffer) throws IOException {
+    if (buffer.capacity() < HEADER_SIZE
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(Integer.BYTES) != VERSION) {
+      throw new IOException("Not a search index segment: " + path);
+    }
+    this.path = path;
+    this.buffer = buffer;
+    this.firstMessageId = buffer.getLong(8);
+    this.size = buffer.getInt(16);
+    int termCount = buffer.getInt(20);
+    this.messagePositionsStart = buffer.getInt(24);
+    int termsStart = buffer.getInt(32);
+
+    this.terms = new String[termCount];
+    this.postingsStarts = new int[termCount];
+    ByteBuffer input = buffer.duplicate().position(termsStart);
+    for (int i = 0; i < termCount; i++) {
+      terms[i] = readString(input);
+      postingsStarts[i] = input.getInt();
+    }
+  }
+
+  /**
+   * Opens an existing segment.
+   * @param path The segment file.
+   * @return The segment.
+   * @throws IOException Thrown if the file could not be read, or isn't a segment.
+   */
+  public static SearchIndexSegment open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Search index segment is too large: " + path);
+      }
+      return new SearchIndexSegment(
+          path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+      );
+    }
+  }
+
+  /**
+   * Checks whether a file is a segment.
+   * @param path The file.
+   * @return {@code true} if the file is a segment.
+   */
+  public static boolean isSegment(Path path) {
+    return path.getFileName().toString().endsWith(SUFFIX);
+  }
+
+  /**
+   * Checks whether a file is a segment that was never finished being written.
+   * @param path The file.
+   * @return {@code true} if the file is an unfinished segment.
+   */
+  public static boolean isTemporary(Path path) {
+    return path.getFileName().toString().endsWith(TEMPORARY_SUFFIX);
+  }
+
+  /**
+   * Writes messages to a new segment.
+   * @param directory The directory to write the segment in.
+   * @param firstMessageId The id of the first message.
+   * @param messages The messages, oldest first.
+   * @param postings The positions of the messages indexed under each term, in order of term.
+   * @return The new segment.
+   * @throws IOException Thrown if the segment could not be written.
+   */
+  static SearchIndexSegment write(
+      Path directory,
+      long firstMessageId,
+      List<SearchIndex.Message> messages,
+      SortedMap<String, int[]> postings
+  ) throws IOException {
+    try (Writer writer = new Writer(directory, firstMessageId, messages.size())) {
+      for (SearchIndex.Message message : messages) {
+        writer.writeMessage(message);
+      }
+      writer.startPostings();
+      for (Map.Entry<String, int[]> term : postings.entrySet()) {
+        writer.writePostings(term.getKey(), term.getValue());
+      }
+      return open(writer.finish(postings.size()));
+    }
+  }
+
+  /**
+   * Merges neighbouring segments into a new one. The segments themselves are left as they are.
+   * @param directory The directory to write the new segment in.
+   * @param segments The segments to merge, oldest first.
+   * @return The new segment.
+   * @throws IOException Thrown if the segment could not be written.
+   */
+  static SearchIndexSegment merge(Path directory, List<SearchIndexSegment> segments)
+      throws IOException {
+    int size = 0;
+    int[] offsets = new int[segments.size()];
+    for (int s = 0; s < segments.size(); s++) {
+      offsets[s] = size;
+      size += segments.get(s).size;
+    }
+
+    try (Writer writer = new Writer(directory, segments.get(0).firstMessageId, size)) {
+      for (SearchIndexSegment segment : segments) {
+        writer.copyMessages(segment);
+      }
+      writer.startPostings();
+
+      // Walk through the terms of every segment together, in order
+      int[] nextTerms = new int[segments.size()];
+      int termCount = 0;
+      while (true) {
+        String term = null;
+        for (int s = 0; s < segments.size(); s++) {
+          String[] terms = segments.get(s).terms;
+          if (nextTerms[s] < terms.length
+              && (term == null || terms[nextTerms[s]].compareTo(term) < 0)) {
+            term = terms[nextTerms[s]];
+          }
+        }
+        if (term == null) {
+          break;
+        }
+
+        SearchIndex.IntList joined = new SearchIndex.IntList();
+        for (int s = 0; s < segments.size(); s++) {
+          SearchIndexSegment segment = segments.get(s);
+          if (nextTerms[s] < segment.terms.length && segment.terms[nextTerms[s]].equals(term)) {
+            for (int position : segment.readPostings(nextTerms[s])) {
+              joined.add(offsets[s] + position);
+            }
+            nextTerms[s]++;
+          }
+        }
+        writer.writePostings(term, joined.toArray());
+        termCount++;
+      }
+      return open(writer.finish(termCount));
+    }
+  }
+
+  /**
+   * Gets the id of the first message in the segment. The messages in a segment have consecutive
+   * ids.
+   * @return The id of the first message.
+   */
+  public long getFirstMessageId() {
+    return firstMessageId;
+  }
+
+  /**
+   * Gets the size of the segment file.
+   * @return The size, in bytes.
+   */
+  public long getSizeInBytes() {
+    return buffer.capacity();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int[] postings(String term) {
+    int index = Arrays.binarySearch(terms, term);
+    return index < 0 ? NO_MESSAGES : readPostings(index);
+  }
+
+  private int[] readPostings(int termIndex) {
+    ByteBuffer input = buffer.duplicate().position(postingsStarts[termIndex]);
+    int[] positions = new int[readVarInt(input)];
+    int position = 0;
+    for (int i = 0; i < positions.length; i++) {
+      position += readVarInt(input);
+      positions[i] = position;
+    }
+    return positions;
+  }
+
+  private int messageStart(int position) {
+    return buffer.getInt(messagePositionsStart + position * Integer.BYTES);
+  }
+
+  @Override
+  public long sentAtMillis(int position) {
+    return buffer.getLong(messageStart(position));
+  }
+
+  @Override
+  public SearchIndex.Message message(int position) {
+    ByteBuffer input = buffer.duplicate().position(messageStart(position));
+    long sentAtMillis = input.getLong();
+    String room = readString(input);
+    String sender = readString(input);
+    int recipientCount = input.getInt();
+    List<String> recipients = new ArrayList<>(recipientCount);
+    for (int i = 0; i < recipientCount; i++) {
+      recipients.add(readString(input));
+    }
+    return new SearchIndex.Message(sentAtMillis, room, sender, recipients, readString(input));
+  }
+
+  /**
+   * Deletes the segment file. The segment can still be read by anything that has it already.
+   */
+  public void delete() {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to delete search index segment " + path, e);
+    }
+  }
+
+  private static String readString(ByteBuffer input) {
+    byte[] bytes = new byte[input.getInt()];
+    input.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int readVarInt(ByteBuffer input) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = input.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  // Writes the sections of a segment in order, and then fills in the header
+  private static final class Writer implements AutoCloseable {
+
+    private final Path temporaryPath;
+    private final Path path;
+    private final long firstMessageId;
+    private final DataOutputStream output;
+    private final int[] messageStarts;
+    private int messageCount = 0;
+    private int messagePositionsStart;
+    private int postingsStart;
+    private final List<String> terms = new ArrayList<>();
+    private final SearchIndex.IntList postingsStarts = new SearchIndex.IntList();
+    private boolean finished = false;
+
+    private Writer(Path directory, long firstMessageId, int size) throws IOException {
+      String name = String.format("%020d-%010d", firstMessageId, size);
+      this.path = directory.resolve(name + SUFFIX);
+      this.temporaryPath = directory.resolve(name + TEMPORARY_SUFFIX);
+      this.firstMessageId = firstMessageId;
+      this.messageStarts = new int[size];
+      this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+          temporaryPath,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING
+      )));
+      output.write(new byte[HEADER_SIZE]);
+    }
+
+    private void writeMessage(SearchIndex.Message message) throws IOException {
+      messageStarts[messageCount++] = position();
+      output.writeLong(message.sentAtMillis);
+      writeString(message.room);
+      writeString(message.sender);
+      output.writeInt(message.recipients.size());
+      for (String recipient : message.recipients) {
+        writeString(recipient);
+      }
+      writeString(message.text);
+    }
+
+    private void copyMessages(SearchIndexSegment segment) throws IOException {
+      int offset = position() - HEADER_SIZE;
+      for (int i = 0; i < segment.size; i++) {
+        messageStarts[messageCount++] = segment.messageStart(i) + offset;
+      }
+      ByteBuffer messages = segment.buffer.duplicate()
+          .limit(segment.messagePositionsStart)
+          .position(HEADER_SIZE);
+      byte[] chunk = new byte[COPY_BUFFER_SIZE];
+      while (messages.hasRemaining()) {
+        int length = Math.min(chunk.length, messages.remaining());
+        messages.get(chunk, 0, length);
+        output.write(chunk, 0, length);
+      }
+    }
+
+    private void startPostings() throws IOException {
+      messagePositionsStart = position();
+      for (int start : messageStarts) {
+        output.writeInt(start);
+      }
+      postingsStart = position();
+    }
+
+    private void writePostings(String term, int[] positions) throws IOException {
+      terms.add(term);
+      postingsStarts.add(position());
+      writeVarInt(positions.length);
+      int previous = 0;
+      for (int position : positions) {
+        writeVarInt(position - previous);
+        previous = position;
+      }
+    }
+
+    // Returns the path of the finished segment
+    private Path finish(int termCount) throws IOException {
+      int termsStart = position();
+      int[] starts = postingsStarts.toArray();
+      for (int i = 0; i < terms.size(); i++) {
+        writeString(terms.get(i));
+        output.writeInt(starts[i]);
+      }
+      // Fails if the terms made the segment too large
+      position();
+      output.close();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+          .putInt(MAGIC)
+          .putInt(VERSION)
+          .putLong(firstMessageId)
+          .putInt(messageCount)
+          .putInt(termCount)
+          .putInt(messagePositionsStart)
+          .putInt(postingsStart)
+          .putInt(termsStart)
+          .flip();
+      try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+        while (header.hasRemaining()) {
+          channel.write(header, header.position());
+        }
+        channel.force(false);
+      }
+      Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+      finished = true;
+      return path;
+    }
+
+    // The number of bytes written so far, which must fit in an int for the segment to be mapped
+    private int position() throws IOException {
+      int position = output.size();
+      if (position == Integer.MAX_VALUE) {
+        throw new IOException("Search index segment is too large");
+      }
+      return position;
+    }
+
+    private void writeString(String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+        output.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      output.writeByte(value);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!finished) {
+        output.close();
+        Files.deleteIfExists(temporaryPath);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,199 @@
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Objects;
+
+/**
+ * A request to search the messages sent in the author's room, by keyword, sender and time. The
+ * search happens in the background, off the room's lane, and the author is sent a page of
+ * {@link SearchResultNotification}s in response (see {@link SearchIndex}).
+ */
+public class SearchRequest implements ChatRequest {
+
+  private String keywords;
+  private String sender;
+  private String after;
+  private String before;
+  private String page;
+
+  @XmlIgnore
+  private User author;
+
+  @Override
+  public void setAuthor(User author) {
+    this.author = author;
+  }
+
+  @Override
+  public User getAuthor() {
+    return author;
+  }
+
+  /**
+   * Gets the words to search for. Messages are found if they contain all of them, in any order,
+   * ignoring case.
+   * @return The words to search for, separated by spaces.
+   */
+  public String getKeywords() {
+    return keywords;
+  }
+
+  /**
+   * Sets the words to search for. Messages are found if they contain all of them, in any order,
+   * ignoring case.
+   * @param keywords The words to search for, separated by spaces.
+   */
+  public void setKeywords(String keywords) {
+    this.keywords = keywords;
+  }
+
+  /**
+   * Gets the username of the sender to search for.
+   * @return The username of the sender, or {@code null} to find messages from anyone.
+   */
+  public String getSender() {
+    return sender;
+  }
+
+  /**
+   * Sets the username of the sender to search for.
+   * @param sender The username of the sender, or {@code null} to find messages from anyone.
+   */
+  public void setSender(String sender) {
+    this.sender = sender;
+  }
+
+  /**
+   * Gets the earliest time that messages can have been sent.
+   * @return The time, as an ISO-8601 instant or date, or {@code null} for no limit.
+   */
+  public String getAfter() {
+    return after;
+  }
+
+  /**
+   * Sets the earliest time that messages can have been sent.
+   * @param after The time, as an ISO-8601 instant or date, or {@code null} for no limit.
+   */
+  public void setAfter(String after) {
+    this.after = after;
+  }
+
+  /**
+   * Gets the time that messages must have been sent before.
+   * @return The time, as an ISO-8601 instant or date, or {@code null} for no limit.
+   */
+  public String getBefore() {
+    return before;
+  }
+
+  /**
+   * Sets the time that messages must have been sent before.
+   * @param before The time, as an ISO-8601 instant or date, or {@code null} for no limit.
+   */
+  public void setBefore(String before) {
+    this.before = before;
+  }
+
+  /**
+   * Gets the page of results to send.
+   * @return The page, starting at 1, or {@code null} for the first page.
+   */
+  public String getPage() {
+    return page;
+  }
+
+  /**
+   * Sets the page of results to send. Each page holds up to {@link SearchIndex#PAGE_SIZE} results.
+   * @param page The page, starting at 1, or {@code null} for the first page.
+   */
+  public void setPage(String page) {
+    this.page = page;
+  }
+
+  /**
+   * Starts searching for messages. This doesn't wait for the search to finish.
+   * @param chatMediator The chat group that the author is in, which is the room searched.
+   * @throws RequestProcessingException Thrown if the server doesn't support searching, the user
+   * is not connected to a chat group, or the request is invalid.
+   */
+  @Override
+  public void process(ChatMediator chatMediator) throws RequestProcessingException {
+    RoomRegistry roomRegistry = chatMediator.getRoomRegistry();
+    SearchIndex searchIndex = roomRegistry == null ? null : roomRegistry.getSearchIndex();
+    if (searchIndex == null) {
+      throw new RequestProcessingException("This chat does not support searching");
+    }
+    if (!chatMediator.containsUser(author)) {
+      throw new RequestProcessingException(
+          "You are not connected. Please connect to the chat by setting your username through a "
+              + ConnectionRequest.class.getSimpleName()
+      );
+    }
+
+    SearchIndex.Query query = new SearchIndex.Query(
+        chatMediator.getName(),
+        keywords,
+        sender == null || sender.isBlank() ? null : sender,
+        after == null ? Long.MIN_VALUE : parseTime(after),
+        before == null ? Long.MAX_VALUE : parseTime(before),
+        parsePage()
+    );
+    if (query.getWords().isEmpty() && query.getSender() == null) {
+      throw new RequestProcessingException("Please give some keywords or a sender to search for");
+    }
+    searchIndex.search(query, author);
+  }
+
+  // Dates are taken as the start of the day, in UTC
+  private static long parseTime(String time) throws RequestProcessingException {
+    try {
+      return time.contains("T")
+          ? Instant.parse(time).toEpochMilli()
+          : LocalDate.parse(time).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    } catch (DateTimeException e) {
+      throw new RequestProcessingException(
+          "Invalid time: " + time + ". Use an ISO-8601 date or instant, like 2024-01-31 or "
+              + "2024-01-31T09:30:00Z"
+      );
+    }
+  }
+
+  private int parsePage() throws RequestProcessingException {
+    if (page == null) {
+      return 1;
+    }
+    try {
+      int parsedPage = Integer.parseInt(page);
+      if (parsedPage >= 1) {
+        return parsedPage;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below
+    }
+    throw new RequestProcessingException("Invalid page: " + page + ". Pages start at 1");
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SearchRequest)) {
+      return false;
+    }
+    SearchRequest that = (SearchRequest) o;
+    return Objects.equals(keywords, that.keywords)
+        && Objects.equals(sender, that.sender)
+        && Objects.equals(after, that.after)
+        && Objects.equals(before, that.before)
+        && Objects.equals(page, that.page)
+        && Objects.equals(author, that.author);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(keywords, sender, after, before, page, author);
+  }
+}
@@ -0,0 +1,122 @@
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A notification holding one message that was found by a {@link SearchRequest}. A page of results
+ * is sent as one of these for each message, newest first. If there are no messages on the page,
+ * a single notification is sent without a message, which still gives the total number of results.
+ */
+public class SearchResultNotification {
+
+  private final String room;
+  private final String sender;
+  private final String sentAt;
+  private final String message;
+  private final int resultNumber;
+  private final int totalResults;
+
+  /**
+   * Creates a new notification holding a message that was found.
+   * @param room The name of the room that the message was sent in.
+   * @param sender The username of the sender.
+   * @param sentAt The time that the message was sent.
+   * @param message The content of the message.
+   * @param resultNumber The position of the message in the results, starting at 1 for the newest.
+   * @param totalResults The number of messages found in total, on every page.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public SearchResultNotification(
+      String room, String sender, Instant sentAt, String message, int resultNumber, int totalResults
+  ) throws NullPointerException {
+    this.room = Objects.requireNonNull(room, "Room is null");
+    this.sender = Objects.requireNonNull(sender, "Sender is null");
+    this.sentAt = Objects.requireNonNull(sentAt, "Sent at is null").toString();
+    this.message = Objects.requireNonNull(message, "Message is null");
+    this.resultNumber = resultNumber;
+    this.totalResults = totalResults;
+  }
+
+  /**
+   * Creates a new notification for a page that holds no messages.
+   * @param totalResults The number of messages found in total, on every page.
+   */
+  public SearchResultNotification(int totalResults) {
+    this.room = null;
+    this.sender = null;
+    this.sentAt = null;
+    this.message = null;
+    this.resultNumber = 0;
+    this.totalResults = totalResults;
+  }
+
+  /**
+   * Gets the name of the room that the message was sent in.
+   * @return The name of the room, or {@code null} if there are no messages on the page.
+   */
+  public String getRoom() {
+    return room;
+  }
+
+  /**
+   * Gets the username of the sender.
+   * @return The username of the sender, or {@code null} if there are no messages on the page.
+   */
+  public String getSender() {
+    return sender;
+  }
+
+  /**
+   * Gets the time that the message was sent, in ISO-8601 format.
+   * @return The time that the message was sent, or {@code null} if there are no messages on the
+   * page.
+   */
+  public String getSentAt() {
+    return sentAt;
+  }
+
+  /**
+   * Gets the message that was found.
+   * @return The message, or {@code null} if there are no messages on the page.
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Gets the position of the message in the results, starting at 1 for the newest.
+   * @return The position of the message, or 0 if there are no messages on the page.
+   */
+  public int getResultNumber() {
+    return resultNumber;
+  }
+
+  /**
+   * Gets the number of messages found in total, on every page.
+   * @return The number of messages found.
+   */
+  public int getTotalResults() {
+    return totalResults;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SearchResultNotification)) {
+      return false;
+    }
+    SearchResultNotification that = (SearchResultNotification) o;
+    return resultNumber == that.resultNumber
+        && totalResults == that.totalResults
+        && Objects.equals(room, that.room)
+        && Objects.equals(sender, that.sender)
+        && Objects.equals(sentAt, that.sentAt)
+        && Objects.equals(message, that.message);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(room, sender, sentAt, message, resultNumber, totalResults);
+  }
+}
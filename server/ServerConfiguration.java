@@ -0,0 +1,629 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The settings that a {@link ChatServer} is started with. All settings have sensible defaults, so
+ * only those that need to differ from the defaults need to be set.
+ */
+public class ServerConfiguration {
+
+  /**
+   * The number of notifications that can wait to be written to a user unless configured otherwise.
+   */
+  public static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 1024;
+
+  /**
+   * What happens when a user's outbound queue is full unless configured otherwise.
+   */
+  public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+
+  /**
+   * The number of recipients in each batch of a broadcast unless configured otherwise.
+   */
+  public static final int DEFAULT_FAN_OUT_BATCH_SIZE = 256;
+
+  private int port = 14_001;
+  private ServerMode mode = ServerMode.BLOCKING;
+  private int eventLoopThreads =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private int outboundQueueCapacity = DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+  private OverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+  private int writeCoalescingWindowMicros = 0;
+  private int writeCoalescingMaxBytes = 16 * 1024;
+  private boolean tcpNoDelay = true;
+  private RequestProcessorType requestProcessorType = RequestProcessorType.RING;
+  private RequestParserType requestParserType = RequestParserType.SCANNER;
+  private int ringBufferCapacity = 1024;
+  private int maxRooms = 64;
+  private int fanOutParallelism = Runtime.getRuntime().availableProcessors();
+  private int fanOutBatchSize = DEFAULT_FAN_OUT_BATCH_SIZE;
+  private int metricsPort = 0;
+  private int historySize = 50;
+  private int maxReplayBytes = 64 * 1024;
+  private Path journalDirectory = null;
+  private int journalSegmentSize = 64 * 1024 * 1024;
+  private int journalFlushIntervalMillis = 100;
+  private int journalRetentionHours = 7 * 24;
+  private Path offlineMessageDirectory = null;
+  private int maxOfflineMessagesPerUser = 100;
+  private int offlineMessageTimeToLiveHours = 3 * 24;
+  private Path searchIndexDirectory = null;
+
+  /**
+   * Gets the port that the server should listen for connections on.
+   * @return The port that the server should listen for connections on.
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Sets the port that the server should listen for connections on.
+   * @param port The port that the server should listen for connections on.
+   */
+  public void setPort(int port) {
+    this.port = port;
+  }
+
+  /**
+   * Gets the strategy that the server uses to manage its connections.
+   * @return The strategy that the server uses to manage its connections.
+   */
+  public ServerMode getMode() {
+    return mode;
+  }
+
+  /**
+   * Sets the strategy that the server uses to manage its connections.
+   * @param mode The strategy that the server uses to manage its connections.
+   * @throws NullPointerException Thrown if {@code mode == null}.
+   */
+  public void setMode(ServerMode mode) throws NullPointerException {
+    this.mode = Objects.requireNonNull(mode, "Mode is null");
+  }
+
+  /**
+   * Gets the number of event loop threads that service connections when running in
+   * {@link ServerMode#NIO} mode.
+   * @return The number of event loop threads.
+   */
+  public int getEventLoopThreads() {
+    return eventLoopThreads;
+  }
+
+  /**
+   * Sets the number of event loop threads that service connections when running in
+   * {@link ServerMode#NIO} mode.
+   * @param eventLoopThreads The number of event loop threads.
+   * @throws IllegalArgumentException Thrown if {@code eventLoopThreads < 1}.
+   */
+  public void setEventLoopThreads(int eventLoopThreads) throws IllegalArgumentException {
+    if (eventLoopThreads < 1) {
+      throw new IllegalArgumentException("There must be at least one event loop thread");
+    }
+    this.eventLoopThreads = eventLoopThreads;
+  }
+
+  /**
+   * Gets the maximum number of notifications that can wait to be written to each user.
+   * @return The capacity of each user's outbound queue.
+   */
+  public int getOutboundQueueCapacity() {
+    return outboundQueueCapacity;
+  }
+
+  /**
+   * Sets the maximum number of notifications that can wait to be written to each user.
+   * @param outboundQueueCapacity The capacity of each user's outbound queue.
+   * @throws IllegalArgumentException Thrown if {@code outboundQueueCapacity < 1}.
+   */
+  public void setOutboundQueueCapacity(int outboundQueueCapacity)
+      throws IllegalArgumentException {
+    if (outboundQueueCapacity < 1) {
+      throw new IllegalArgumentException("Outbound queue capacity must be at least 1");
+    }
+    this.outboundQueueCapacity = outboundQueueCapacity;
+  }
+
+  /**
+   * Gets what happens when a notification is sent to a user whose outbound queue is full.
+   * @return The overflow policy.
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Sets what happens when a notification is sent to a user whose outbound queue is full.
+   * @param overflowPolicy The overflow policy.
+   * @throws NullPointerException Thrown if {@code overflowPolicy == null}.
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) throws NullPointerException {
+    this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "Overflow policy is null");
+  }
+
+  /**
+   * Gets the longest time that notifications are held back for, so that those sent to a user in
+   * quick succession can be written together. See {@link WriteCoalescer}.
+   * @return The write coalescing window, in microseconds, or {@code 0} if notifications are
+   * written as soon as possible.
+   */
+  public int getWriteCoalescingWindowMicros() {
+    return writeCoalescingWindowMicros;
+  }
+
+  /**
+   * Sets the longest time that notifications are held back for, so that those sent to a user in
+   * quick succession can be written together. See {@link WriteCoalescer}.
+   * @param writeCoalescingWindowMicros The write coalescing window, in microseconds, or {@code 0}
+   * to write notifications as soon as possible.
+   * @throws IllegalArgumentException Thrown if {@code writeCoalescingWindowMicros < 0}.
+   */
+  public void setWriteCoalescingWindowMicros(int writeCoalescingWindowMicros)
+      throws IllegalArgumentException {
+    if (writeCoalescingWindowMicros < 0) {
+      throw new IllegalArgumentException("Write coalescing window must not be negative");
+    }
+    this.writeCoalescingWindowMicros = writeCoalescingWindowMicros;
+  }
+
+  /**
+   * Gets the number of bytes waiting for a user at which they're written without waiting for the
+   * rest of the write coalescing window.
+   * @return The write coalescing byte limit.
+   */
+  public int getWriteCoalescingMaxBytes() {
+    return writeCoalescingMaxBytes;
+  }
+
+  /**
+   * Sets the number of bytes waiting for a user at which they're written without waiting for the
+   * rest of the write coalescing window.
+   * @param writeCoalescingMaxBytes The write coalescing byte limit.
+   * @throws IllegalArgumentException Thrown if {@code writeCoalescingMaxBytes < 1}.
+   */
+  public void setWriteCoalescingMaxBytes(int writeCoalescingMaxBytes)
+      throws IllegalArgumentException {
+    if (writeCoalescingMaxBytes < 1) {
+      throw new IllegalArgumentException("Write coalescing byte limit must be at least 1");
+    }
+    this.writeCoalescingMaxBytes = writeCoalescingMaxBytes;
+  }
+
+  /**
+   * Determines whether {@code TCP_NODELAY} is set on users' connections, turning off Nagle's
+   * algorithm.
+   * @return {@code true} if {@code TCP_NODELAY} is set.
+   */
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  /**
+   * Sets whether {@code TCP_NODELAY} is set on users' connections. Leaving it set lets the server
+   * decide when notifications are written (see {@link WriteCoalescer}), rather than the kernel.
+   * @param tcpNoDelay {@code true} to set {@code TCP_NODELAY}, or {@code false} to leave Nagle's
+   * algorithm on.
+   */
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  /**
+   * Gets the strategy that the server uses to process requests one at a time.
+   * @return The request processor type.
+   */
+  public RequestProcessorType getRequestProcessorType() {
+    return requestProcessorType;
+  }
+
+  /**
+   * Sets the strategy that the server uses to process requests one at a time.
+   * @param requestProcessorType The request processor type.
+   * @throws NullPointerException Thrown if {@code requestProcessorType == null}.
+   */
+  public void setRequestProcessorType(RequestProcessorType requestProcessorType)
+      throws NullPointerException {
+    this.requestProcessorType =
+        Objects.requireNonNull(requestProcessorType, "Request processor type is null");
+  }
+
+  /**
+   * Gets how the server parses the requests that it receives.
+   * @return The request parser type.
+   */
+  public RequestParserType getRequestParserType() {
+    return requestParserType;
+  }
+
+  /**
+   * Sets how the server parses the requests that it receives.
+   * @param requestParserType The request parser type.
+   * @throws NullPointerException Thrown if {@code requestParserType == null}.
+   */
+  public void setRequestParserType(RequestParserType requestParserType)
+      throws NullPointerException {
+    this.requestParserType =
+        Objects.requireNonNull(requestParserType, "Request parser type is null");
+  }
+
+  /**
+   * Gets the number of requests that can wait to be processed when using the
+   * {@link RequestProcessorType#RING} processor.
+   * @return The capacity of the ring buffer.
+   */
+  public int getRingBufferCapacity() {
+    return ringBufferCapacity;
+  }
+
+  /**
+   * Sets the number of requests that can wait to be processed when using the
+   * {@link RequestProcessorType#RING} processor.
+   * @param ringBufferCapacity The capacity of the ring buffer.
+   * @throws IllegalArgumentException Thrown if {@code ringBufferCapacity} is not a power of two.
+   */
+  public void setRingBufferCapacity(int ringBufferCapacity) throws IllegalArgumentException {
+    if (ringBufferCapacity < 1 || Integer.bitCount(ringBufferCapacity) != 1) {
+      throw new IllegalArgumentException("Ring buffer capacity must be a power of two");
+    }
+    this.ringBufferCapacity = ringBufferCapacity;
+  }
+
+  /**
+   * Gets the maximum number of chat rooms, including the default room, that can exist at once.
+   * @return The maximum number of rooms.
+   */
+  public int getMaxRooms() {
+    return maxRooms;
+  }
+
+  /**
+   * Sets the maximum number of chat rooms, including the default room, that can exist at once.
+   * @param maxRooms The maximum number of rooms.
+   * @throws IllegalArgumentException Thrown if {@code maxRooms < 1}.
+   */
+  public void setMaxRooms(int maxRooms) throws IllegalArgumentException {
+    if (maxRooms < 1) {
+      throw new IllegalArgumentException("There must be at least one room");
+    }
+    this.maxRooms = maxRooms;
+  }
+
+  /**
+   * Gets the maximum number of threads that deliver each broadcast. See {@link FanOutExecutor}.
+   * @return The fan out parallelism.
+   */
+  public int getFanOutParallelism() {
+    return fanOutParallelism;
+  }
+
+  /**
+   * Sets the maximum number of threads that deliver each broadcast. See {@link FanOutExecutor}.
+   * @param fanOutParallelism The fan out parallelism. A value of one delivers every broadcast on
+   * the thread that sends it.
+   * @throws IllegalArgumentException Thrown if {@code fanOutParallelism < 1}.
+   */
+  public void setFanOutParallelism(int fanOutParallelism) throws IllegalArgumentException {
+    if (fanOutParallelism < 1) {
+      throw new IllegalArgumentException("Fan out parallelism must be at least 1");
+    }
+    this.fanOutParallelism = fanOutParallelism;
+  }
+
+  /**
+   * Gets the number of recipients in each batch of a broadcast. See {@link FanOutExecutor}.
+   * @return The fan out batch size.
+   */
+  public int getFanOutBatchSize() {
+    return fanOutBatchSize;
+  }
+
+  /**
+   * Sets the number of recipients in each batch of a broadcast. See {@link FanOutExecutor}.
+   * @param fanOutBatchSize The fan out batch size.
+   * @throws IllegalArgumentException Thrown if {@code fanOutBatchSize < 1}.
+   */
+  public void setFanOutBatchSize(int fanOutBatchSize) throws IllegalArgumentException {
+    if (fanOutBatchSize < 1) {
+      throw new IllegalArgumentException("Fan out batch size must be at least 1");
+    }
+    this.fanOutBatchSize = fanOutBatchSize;
+  }
+
+  /**
+   * Gets the port that metrics are served on over HTTP. See {@link MetricsHttpServer}.
+   * @return The metrics port, or zero if metrics are not served over HTTP.
+   */
+  public int getMetricsPort() {
+    return metricsPort;
+  }
+
+  /**
+   * Sets the port that metrics are served on over HTTP. See {@link MetricsHttpServer}.
+   * @param metricsPort The metrics port, or zero to not serve metrics over HTTP.
+   * @throws IllegalArgumentException Thrown if {@code metricsPort < 0}.
+   */
+  public void setMetricsPort(int metricsPort) throws IllegalArgumentException {
+    if (metricsPort < 0) {
+      throw new IllegalArgumentException("Metrics port must not be negative");
+    }
+    this.metricsPort = metricsPort;
+  }
+
+  /**
+   * Gets the number of recent public messages that each room replays to users when they join. See
+   * {@link RecentHistory}.
+   * @return The history size, or zero if nothing is replayed.
+   */
+  public int getHistorySize() {
+    return historySize;
+  }
+
+  /**
+   * Sets the number of recent public messages that each room replays to users when they join. See
+   * {@link RecentHistory}.
+   * @param historySize The history size, or zero to not replay anything.
+   * @throws IllegalArgumentException Thrown if {@code historySize < 0}.
+   */
+  public void setHistorySize(int historySize) throws IllegalArgumentException {
+    if (historySize < 0) {
+      throw new IllegalArgumentException("History size must not be negative");
+    }
+    this.historySize = historySize;
+  }
+
+  /**
+   * Gets the maximum number of bytes of recent messages that are replayed to each user that joins
+   * a room.
+   * @return The maximum replay size, in bytes.
+   */
+  public int getMaxReplayBytes() {
+    return maxReplayBytes;
+  }
+
+  /**
+   * Sets the maximum number of bytes of recent messages that are replayed to each user that joins
+   * a room. Only the most recent messages that fit are replayed.
+   * @param maxReplayBytes The maximum replay size, in bytes.
+   * @throws IllegalArgumentException Thrown if {@code maxReplayBytes < 1}.
+   */
+  public void setMaxReplayBytes(int maxReplayBytes) throws IllegalArgumentException {
+    if (maxReplayBytes < 1) {
+      throw new IllegalArgumentException("Maximum replay size must be at least 1 byte");
+    }
+    this.maxReplayBytes = maxReplayBytes;
+  }
+
+  /**
+   * Gets the directory that messages are journaled to. See {@link MessageJournal}.
+   * @return The journal directory, or {@code null} if messages are not journaled.
+   */
+  public Path getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  /**
+   * Sets the directory that messages are journaled to. See {@link MessageJournal}.
+   * @param journalDirectory The journal directory, or {@code null} to not journal messages.
+   */
+  public void setJournalDirectory(Path journalDirectory) {
+    this.journalDirectory = journalDirectory;
+  }
+
+  /**
+   * Gets the size of each segment of the message journal.
+   * @return The segment size, in bytes.
+   */
+  public int getJournalSegmentSize() {
+    return journalSegmentSize;
+  }
+
+  /**
+   * Sets the size of each segment of the message journal.
+   * @param journalSegmentSize The segment size, in bytes.
+   * @throws IllegalArgumentException Thrown if
+   * {@code journalSegmentSize < MessageJournal.MIN_SEGMENT_SIZE}.
+   */
+  public void setJournalSegmentSize(int journalSegmentSize) throws IllegalArgumentException {
+    if (journalSegmentSize < MessageJournal.MIN_SEGMENT_SIZE) {
+      throw new IllegalArgumentException(
+          "Journal segment size must be at least " + MessageJournal.MIN_SEGMENT_SIZE + " bytes"
+      );
+    }
+    this.journalSegmentSize = journalSegmentSize;
+  }
+
+  /**
+   * Gets the longest time that a journaled message can wait to be forced to disk.
+   * @return The journal flush interval, in milliseconds.
+   */
+  public int getJournalFlushIntervalMillis() {
+    return journalFlushIntervalMillis;
+  }
+
+  /**
+   * Sets the longest time that a journaled message can wait to be forced to disk.
+   * @param journalFlushIntervalMillis The journal flush interval, in milliseconds. Zero forces
+   * every batch of messages to disk as soon as it has been written.
+   * @throws IllegalArgumentException Thrown if {@code journalFlushIntervalMillis < 0}.
+   */
+  public void setJournalFlushIntervalMillis(int journalFlushIntervalMillis)
+      throws IllegalArgumentException {
+    if (journalFlushIntervalMillis < 0) {
+      throw new IllegalArgumentException("Journal flush interval must not be negative");
+    }
+    this.journalFlushIntervalMillis = journalFlushIntervalMillis;
+  }
+
+  /**
+   * Gets how long finished segments of the message journal are kept for.
+   * @return The journal retention, in hours.
+   */
+  public int getJournalRetentionHours() {
+    return journalRetentionHours;
+  }
+
+  /**
+   * Sets how long finished segments of the message journal are kept for.
+   * @param journalRetentionHours The journal retention, in hours.
+   * @throws IllegalArgumentException Thrown if {@code journalRetentionHours < 1}.
+   */
+  public void setJournalRetentionHours(int journalRetentionHours)
+      throws IllegalArgumentException {
+    if (journalRetentionHours < 1) {
+      throw new IllegalArgumentException("Journal retention must be at least an hour");
+    }
+    this.journalRetentionHours = journalRetentionHours;
+  }
+
+  /**
+   * Opens the message journal, using these settings.
+   * @return The journal, or {@code null} if messages are not journaled.
+   * @throws IOException Thrown if the journal could not be opened.
+   */
+  public MessageJournal createMessageJournal() throws IOException {
+    if (journalDirectory == null) {
+      return null;
+    }
+    return new MessageJournal(
+        journalDirectory,
+        journalSegmentSize,
+        journalFlushIntervalMillis,
+        TimeUnit.HOURS.toMillis(journalRetentionHours)
+    );
+  }
+
+  /**
+   * Gets the directory that private messages are kept in for users that are offline. See
+   * {@link OfflineMessageStore}.
+   * @return The offline message directory, or {@code null} if messages aren't kept.
+   */
+  public Path getOfflineMessageDirectory() {
+    return offlineMessageDirectory;
+  }
+
+  /**
+   * Sets the directory that private messages are kept in for users that are offline. See
+   * {@link OfflineMessageStore}.
+   * @param offlineMessageDirectory The offline message directory, or {@code null} to not keep
+   * messages.
+   */
+  public void setOfflineMessageDirectory(Path offlineMessageDirectory) {
+    this.offlineMessageDirectory = offlineMessageDirectory;
+  }
+
+  /**
+   * Gets the maximum number of private messages that are kept for each user that is offline.
+   * @return The maximum number of messages per user.
+   */
+  public int getMaxOfflineMessagesPerUser() {
+    return maxOfflineMessagesPerUser;
+  }
+
+  /**
+   * Sets the maximum number of private messages that are kept for each user that is offline. Once
+   * a user has this many, the oldest is discarded for each new message.
+   * @param maxOfflineMessagesPerUser The maximum number of messages per user.
+   * @throws IllegalArgumentException Thrown if {@code maxOfflineMessagesPerUser < 1}.
+   */
+  public void setMaxOfflineMessagesPerUser(int maxOfflineMessagesPerUser)
+      throws IllegalArgumentException {
+    if (maxOfflineMessagesPerUser < 1) {
+      throw new IllegalArgumentException("Maximum offline messages per user must be at least 1");
+    }
+    this.maxOfflineMessagesPerUser = maxOfflineMessagesPerUser;
+  }
+
+  /**
+   * Gets how long private messages are kept for users that are offline.
+   * @return The time to live, in hours.
+   */
+  public int getOfflineMessageTimeToLiveHours() {
+    return offlineMessageTimeToLiveHours;
+  }
+
+  /**
+   * Sets how long private messages are kept for users that are offline.
+   * @param offlineMessageTimeToLiveHours The time to live, in hours.
+   * @throws IllegalArgumentException Thrown if {@code offlineMessageTimeToLiveHours < 1}.
+   */
+  public void setOfflineMessageTimeToLiveHours(int offlineMessageTimeToLiveHours)
+      throws IllegalArgumentException {
+    if (offlineMessageTimeToLiveHours < 1) {
+      throw new IllegalArgumentException("Offline message time to live must be at least an hour");
+    }
+    this.offlineMessageTimeToLiveHours = offlineMessageTimeToLiveHours;
+  }
+
+  /**
+   * Opens the offline message store, using these settings.
+   * @return The store, or {@code null} if messages aren't kept for users that are offline.
+   * @throws IOException Thrown if the store could not be opened.
+   */
+  public OfflineMessageStore createOfflineMessageStore() throws IOException {
+    if (offlineMessageDirectory == null) {
+      return null;
+    }
+    return new OfflineMessageStore(
+        offlineMessageDirectory,
+        maxOfflineMessagesPerUser,
+        TimeUnit.HOURS.toMillis(offlineMessageTimeToLiveHours)
+    );
+  }
+
+  /**
+   * Gets the directory that messages are indexed in, so that they can be searched. See
+   * {@link SearchIndex}.
+   * @return The search index directory, or {@code null} if messages can't be searched.
+   */
+  public Path getSearchIndexDirectory() {
+    return searchIndexDirectory;
+  }
+
+  /**
+   * Sets the directory that messages are indexed in, so that they can be searched. See
+   * {@link SearchIndex}.
+   * @param searchIndexDirectory The search index directory, or {@code null} to not index
+   * messages.
+   */
+  public void setSearchIndexDirectory(Path searchIndexDirectory) {
+    this.searchIndexDirectory = searchIndexDirectory;
+  }
+
+  /**
+   * Opens the search index, using these settings.
+   * @return The index, or {@code null} if messages can't be searched.
+   * @throws IOException Thrown if the index could not be opened.
+   */
+  public SearchIndex createSearchIndex() throws IOException {
+    if (searchIndexDirectory == null) {
+      return null;
+    }
+    return new SearchIndex(searchIndexDirectory);
+  }
+
+  /**
+   * Creates the coalescer that holds back notifications so that they can be written together,
+   * using these settings. It should be shared by every user, and closed with the server.
+   * @return The coalescer, or {@code null} if notifications are written as soon as possible.
+   */
+  public WriteCoalescer createWriteCoalescer() {
+    if (writeCoalescingWindowMicros == 0) {
+      return null;
+    }
+    return new WriteCoalescer(writeCoalescingWindowMicros, writeCoalescingMaxBytes);
+  }
+
+  /**
+   * Creates an empty outbound queue for a newly connected user, using these settings.
+   * @param writeCoalescer The coalescer shared by every user (see {@link #createWriteCoalescer()}),
+   * or {@code null} if notifications are written as soon as possible.
+   * @return The outbound queue.
+   */
+  public OutboundQueue createOutboundQueue(WriteCoalescer writeCoalescer) {
+    return new OutboundQueue(outboundQueueCapacity, overflowPolicy, writeCoalescer);
+  }
+
+}
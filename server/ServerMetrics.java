@@ -0,0 +1,338 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>Collects measurements of how the server is performing, so that they can be inspected while it
+ * is running (see the {@code STATS} command in {@link TerminalInputHandler}). The following are
+ * recorded:
+ * <ul>
+ *   <li>the number of requests of each type that have been processed, and how long processing
+ *   them took</li>
+ *   <li>how long requests waited to be processed, either in a ring buffer or for a lock (see
+ *   {@link RequestProcessorType})</li>
+ *   <li>how long each broadcast took to fan out to its recipients (see
+ *   {@link FanOutExecutor})</li>
+ *   <li>how long each notification took to be written to each recipient, from when it was
+ *   encoded (see {@link EncodedNotification})</li>
+ *   <li>the number of times users have joined and left rooms, and the number of requests that
+ *   could not be parsed</li>
+ *   <li>the number of bytes read from and written to users, and the number of writes it took to
+ *   send them, which shows how well writes to each user are being batched</li>
+ *   <li>the number of notifications that were dropped because a user's outbound queue was full
+ *   (see {@link OutboundQueue})</li>
+ *   <li>the number of open connections, and any other gauges that parts of the server register,
+ *   such as the number of connected users</li>
+ * </ul>
+ * </p>
+ * <p>Recording is lock free, and doesn't allocate once the first request of each type has been
+ * processed, so it's always enabled. Durations are kept in {@link LatencyHistogram}s. The metrics
+ * can also be scraped over HTTP by Prometheus (see {@link MetricsHttpServer}).</p>
+ */
+public class ServerMetrics {
+
+  private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+  /**
+   * Gets the singleton instance.
+   * @return The singleton instance.
+   */
+  public static ServerMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  private final Map<Class<?>, LatencyHistogram> processingTimes = new ConcurrentHashMap<>();
+  private final LatencyHistogram requestWaitTimes = new LatencyHistogram();
+  private final LatencyHistogram fanOutTimes = new LatencyHistogram();
+  private final LatencyHistogram deliveryTimes = new LatencyHistogram();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder writes = new LongAdder();
+  private final LongAdder droppedNotifications = new LongAdder();
+  private final LongAdder openConnections = new LongAdder();
+  private final LongAdder joins = new LongAdder();
+  private final LongAdder leaves = new LongAdder();
+  private final LongAdder parseFailures = new LongAdder();
+  private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+  private ServerMetrics() {}
+
+  /**
+   * Records that a request has been processed.
+   * @param requestType The type of the request.
+   * @param waitNanos How long the request waited to be processed, in nanoseconds.
+   * @param processingNanos How long processing the request took, in nanoseconds.
+   */
+  public void recordRequest(Class<?> requestType, long waitNanos, long processingNanos) {
+    LatencyHistogram histogram = processingTimes.get(requestType);
+    if (histogram == null) {
+      histogram = processingTimes.computeIfAbsent(requestType, type -> new LatencyHistogram());
+    }
+    histogram.record(processingNanos);
+    requestWaitTimes.record(waitNanos);
+  }
+
+  /**
+   * Records how long it took to fan a broadcast out to all of its recipients.
+   * @param nanos The time taken, in nanoseconds.
+   */
+  public void recordFanOut(long nanos) {
+    fanOutTimes.record(nanos);
+  }
+
+  /**
+   * Records that a notification has been written to a recipient.
+   * @param nanos The time taken from encoding the notification to writing it, in nanoseconds.
+   */
+  public void recordDelivery(long nanos) {
+    deliveryTimes.record(nanos);
+  }
+
+  /**
+   * Records that a user has joined a room, either when they first connect or when moving from
+   * another room.
+   */
+  public void recordJoin() {
+    joins.increment();
+  }
+
+  /**
+   * Records that a user has left a room, either when they disconnect or when moving to another
+   * room.
+   */
+  public void recordLeave() {
+    leaves.increment();
+  }
+
+  /**
+   * Records that a request from a user could not be parsed.
+   */
+  public void recordParseFailure() {
+    parseFailures.increment();
+  }
+
+  /**
+   * Records bytes read from a user's connection.
+   * @param bytes The number of bytes read.
+   */
+  public void recordBytesRead(long bytes) {
+    bytesRead.add(bytes);
+  }
+
+  /**
+   * Records a single write to a user's connection, which may contain any number of notifications.
+   * @param bytes The number of bytes written.
+   */
+  public void recordBytesWritten(long bytes) {
+    bytesWritten.add(bytes);
+    writes.increment();
+  }
+
+  /**
+   * Records that a notification was dropped, rather than sent to a user, because the user's
+   * outbound queue was full.
+   */
+  public void recordDroppedNotification() {
+    droppedNotifications.increment();
+  }
+
+  /**
+   * Records that a connection has been accepted.
+   */
+  public void connectionOpened() {
+    openConnections.increment();
+  }
+
+  /**
+   * Records that a connection has been closed.
+   */
+  public void connectionClosed() {
+    openConnections.decrement();
+  }
+
+  /**
+   * Registers a value that is read whenever the metrics are inspected. This replaces any gauge
+   * that was previously registered with the same name. The supplier may be called from any
+   * thread, so it must not take the locks used to process requests.
+   * @param name The name of the gauge.
+   * @param value Supplies the current value of the gauge.
+   * @throws NullPointerException Thrown if either of the arguments are {@code null}.
+   */
+  public void registerGauge(String name, LongSupplier value) throws NullPointerException {
+    gauges.put(
+        Objects.requireNonNull(name, "Name is null"),
+        Objects.requireNonNull(value, "Value is null")
+    );
+  }
+
+  /**
+   * Gets the processing times of each type of request that has been processed. The number of
+   * requests of each type is the count of its histogram.
+   * @return The processing times, by request type.
+   */
+  public Map<Class<?>, LatencyHistogram> getProcessingTimes() {
+    return Collections.unmodifiableMap(processingTimes);
+  }
+
+  /**
+   * Gets how long requests have waited to be processed.
+   * @return The wait times.
+   */
+  public LatencyHistogram getRequestWaitTimes() {
+    return requestWaitTimes;
+  }
+
+  /**
+   * Gets how long broadcasts have taken to fan out.
+   * @return The fan out times.
+   */
+  public LatencyHistogram getFanOutTimes() {
+    return fanOutTimes;
+  }
+
+  /**
+   * Gets how long notifications have taken to be written to their recipients.
+   * @return The delivery times.
+   */
+  public LatencyHistogram getDeliveryTimes() {
+    return deliveryTimes;
+  }
+
+  /**
+   * Gets the number of times that users have joined rooms.
+   * @return The number of joins.
+   */
+  public long getJoins() {
+    return joins.sum();
+  }
+
+  /**
+   * Gets the number of times that users have left rooms.
+   * @return The number of leaves.
+   */
+  public long getLeaves() {
+    return leaves.sum();
+  }
+
+  /**
+   * Gets the number of requests that could not be parsed.
+   * @return The number of parse failures.
+   */
+  public long getParseFailures() {
+    return parseFailures.sum();
+  }
+
+  /**
+   * Gets the total number of bytes read from users.
+   * @return The number of bytes read.
+   */
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  /**
+   * Gets the total number of bytes written to users.
+   * @return The number of bytes written.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  /**
+   * Gets the number of writes made to users' connections. Each is a single system call, so
+   * dividing this by the number of deliveries gives the number of system calls per notification.
+   * @return The number of writes.
+   */
+  public long getWrites() {
+    return writes.sum();
+  }
+
+  /**
+   * Gets the number of notifications that were dropped because a user's outbound queue was full.
+   * @return The number of dropped notifications.
+   */
+  public long getDroppedNotifications() {
+    return droppedNotifications.sum();
+  }
+
+  /**
+   * Gets the number of connections that are currently open.
+   * @return The number of open connections.
+   */
+  public long getOpenConnections() {
+    return openConnections.sum();
+  }
+
+  /**
+   * Gets the current value of every registered gauge.
+   * @return The value of each gauge, by name, in order of name.
+   */
+  public Map<String, Long> getGaugeValues() {
+    Map<String, Long> values = new TreeMap<>();
+    gauges.forEach((name, value) -> values.put(name, value.getAsLong()));
+    return values;
+  }
+
+  /**
+   * Creates a human readable summary of the metrics recorded so far. Durations are given in
+   * microseconds.
+   * @return The summary.
+   */
+  public String createReport() {
+    StringBuilder report = new StringBuilder();
+    String lineSeparator = System.lineSeparator();
+
+    report.append("Connections: ").append(getOpenConnections()).append(lineSeparator);
+    getGaugeValues().forEach(
+        (name, value) -> report.append(name).append(": ").append(value).append(lineSeparator)
+    );
+    report.append("Joins: ").append(getJoins()).append(lineSeparator);
+    report.append("Leaves: ").append(getLeaves()).append(lineSeparator);
+    report.append("Parse failures: ").append(getParseFailures()).append(lineSeparator);
+    report.append("Bytes read: ").append(getBytesRead()).append(lineSeparator);
+    report.append("Bytes written: ").append(getBytesWritten()).append(lineSeparator);
+    report.append("Writes: ").append(getWrites()).append(lineSeparator);
+    report.append("Dropped notifications: ").append(getDroppedNotifications())
+          .append(lineSeparator);
+
+    report.append(String.format(
+        "%-24s %10s %10s %10s %10s %10s %10s%n",
+        "Timing (us)", "count", "mean", "p50", "p99", "p99.9", "max"
+    ));
+    // List the request types in order of name
+    Map<String, LatencyHistogram> processingTimesByName = new TreeMap<>();
+    processingTimes.forEach(
+        (type, times) -> processingTimesByName.put(type.getSimpleName(), times)
+    );
+    processingTimesByName.forEach((name, times) -> appendTiming(report, name, times));
+    appendTiming(report, "Request wait", requestWaitTimes);
+    appendTiming(report, "Fan out", fanOutTimes);
+    appendTiming(report, "Delivery", deliveryTimes);
+    return report.toString();
+  }
+
+  private static void appendTiming(StringBuilder report, String name, LatencyHistogram histogram) {
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    report.append(String.format(
+        "%-24s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+        name,
+        snapshot.getCount(),
+        toMicros(snapshot.getMean()),
+        toMicros(snapshot.getValueAtPercentile(50)),
+        toMicros(snapshot.getValueAtPercentile(99)),
+        toMicros(snapshot.getValueAtPercentile(99.9)),
+        toMicros(snapshot.getMax())
+    ));
+  }
+
+  private static double toMicros(double nanos) {
+    return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+  }
+
+}
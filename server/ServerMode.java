@@ -0,0 +1,60 @@
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * The strategy that the server uses to manage its connections to clients.
+ */
+public enum ServerMode {
+
+  /**
+   * Each connected user is serviced by its own dedicated thread, which blocks while it waits for
+   * input from the user's socket.
+   */
+  BLOCKING("blocking"),
+
+  /**
+   * As with {@link #BLOCKING}, each connected user is serviced by its own thread, but that thread
+   * is a virtual thread rather than a platform thread. This requires Java 21 or later.
+   */
+  VIRTUAL("virtual"),
+
+  /**
+   * All connected users are serviced by a small, fixed pool of event loop threads, each of which
+   * multiplexes many non-blocking socket channels with a {@link java.nio.channels.Selector}.
+   */
+  NIO("nio");
+
+  private final String argumentName;
+
+  ServerMode(String argumentName) {
+    this.argumentName = argumentName;
+  }
+
+  /**
+   * Gets the name used to select this mode from the command line.
+   * @return The name used to select this mode from the command line.
+   */
+  public String getArgumentName() {
+    return argumentName;
+  }
+
+  /**
+   * Gets the mode with the given command line name.
+   * @param argumentName The name of the mode, as specified on the command line.
+   * @return The mode with the given name.
+   * @throws IllegalArgumentException Thrown if no mode has the given name.
+   */
+  public static ServerMode fromArgumentName(String argumentName) throws IllegalArgumentException {
+    for (ServerMode mode : values()) {
+      if (mode.argumentName.equalsIgnoreCase(argumentName)) {
+        return mode;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Value for mode must be one of: " + Arrays.stream(values())
+                                                  .map(ServerMode::getArgumentName)
+                                                  .collect(Collectors.joining(", "))
+    );
+  }
+
+}
@@ -4,51 +4,102 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
 /**
- * A concrete implementation of a {@link ChatRequestParser}, converting inbound XML from clients
- * into usable {@link ChatRequest} objects.
+ * <p>A concrete implementation of a {@link ChatRequestParser}, converting inbound XML from clients
+ * into usable {@link ChatRequest} objects.</p>
+ * <p>By default, requests are read by an {@link XmlRequestScanner}, which handles the flat format
+ * that clients send without the overhead of a full XML parser. Anything that the scanner can't
+ * handle falls back to StAX. {@link #getStaxInstance()} always uses StAX.</p>
  */
 public class StandardChatRequestParser implements ChatRequestParser {
 
   private static final Logger LOGGER = Logger.getLogger(StandardChatRequestParser.class.getName());
 
-  private static final StandardChatRequestParser INSTANCE = new StandardChatRequestParser();
+  private static final StandardChatRequestParser INSTANCE = new StandardChatRequestParser(true);
+  private static final StandardChatRequestParser STAX_INSTANCE =
+      new StandardChatRequestParser(false);
 
   // The types of request that we expect to handle. We could generate these dynamically from a
   // class loader but this is manageable for now
   private final Collection<Class<? extends ChatRequest>> registeredTypes = Arrays.asList(
       ChatEntryRequest.class,
-      ConnectionRequest.class
+      ConnectionRequest.class,
+      JoinRoomRequest.class,
+      LeaveRoomRequest.class,
+      ListRoomsRequest.class,
+      SearchRequest.class
   );
 
   private final XmlReader xmlReader = new ReflectiveXmlReader();
 
-  private final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+  // Null if requests should always be parsed with StAX
+  private final XmlRequestScanner scanner;
+  private final LongAdder fallbackCount = new LongAdder();
 
   /**
-   * Gets the singleton instance.
+   * Gets the singleton instance, which scans requests and only falls back to StAX when it needs to.
    * @return The singleton instance.
    */
   public static StandardChatRequestParser getInstance() {
     return INSTANCE;
   }
 
-  private StandardChatRequestParser() {}
+  /**
+   * Gets the instance that parses every request with StAX.
+   * @return The StAX instance.
+   */
+  public static StandardChatRequestParser getStaxInstance() {
+    return STAX_INSTANCE;
+  }
+
+  private StandardChatRequestParser(boolean scanning) {
+    this.scanner = scanning ? new XmlRequestScanner(registeredTypes) : null;
+  }
+
+  /**
+   * Gets the types of request that the parser can produce.
+   * @return The types of request that the parser can produce.
+   */
+  public Collection<Class<? extends ChatRequest>> getRegisteredTypes() {
+    return Collections.unmodifiableCollection(registeredTypes);
+  }
+
+  /**
+   * Gets the number of requests that the scanner couldn't handle, and so were parsed with StAX.
+   * @return The number of requests that fell back to StAX.
+   */
+  public long getFallbackCount() {
+    return fallbackCount.sum();
+  }
 
   @Override
   public ChatRequest fromXml(String xmlString, User author) throws XmlParseException {
-    // Create a new input stream for the given string
-    try (
-        InputStream xmlInputStream =
-            new ByteArrayInputStream(xmlString.getBytes(StandardCharsets.UTF_8))
-    ) {
+    byte[] xml = xmlString.getBytes(StandardCharsets.UTF_8);
+    return fromXml(xml, 0, xml.length, author);
+  }
+
+  @Override
+  public ChatRequest fromXml(byte[] xml, int offset, int length, User author)
+      throws XmlParseException {
+    if (scanner != null) {
+      ChatRequest chatRequest = scanner.scan(xml, offset, length);
+      if (chatRequest != null) {
+        chatRequest.setAuthor(author);
+        return chatRequest;
+      }
+      fallbackCount.increment();
+    }
+
+    // Create a new input stream for the given bytes
+    try (InputStream xmlInputStream = new ByteArrayInputStream(xml, offset, length)) {
       // Parse the input stream
       return fromXml(xmlInputStream, author);
     } catch (IOException e) {
@@ -61,7 +112,8 @@ public class StandardChatRequestParser implements ChatRequestParser {
       throws XmlParseException {
     XMLStreamReader xmlStreamReader = null; // Not autocloseable
     try {
-      xmlStreamReader = xmlInputFactory.createXMLStreamReader(xmlInputStream);
+      // The stream reader is reused by each thread, once it has been closed
+      xmlStreamReader = XmlCodecContext.get().createReader(xmlInputStream);
       return fromXmlThrowExceptions(xmlStreamReader, author);
     } catch (XMLStreamException e) {
       throw new XmlParseException("Failed to parse message", e);
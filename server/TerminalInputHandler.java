@@ -7,7 +7,8 @@ import java.util.logging.Logger;
 import java.util.logging.Level;
 
 /**
- * Responsible for handling input from the terminal.
+ * Responsible for handling input from the terminal. {@code EXIT} shuts down the server, and
+ * {@code STATS} prints a summary of the {@link ServerMetrics}.
  */
 public class TerminalInputHandler implements Runnable {
 
@@ -15,15 +16,21 @@ public class TerminalInputHandler implements Runnable {
 
   private final InputStream inputStream;
   private final ChatMediator chatMediator;
+  private final ChatRequestProcessor requestProcessor;
 
   /**
    * Creates a new handler, responsible for processing input from the terminal.
    * @param inputStream The input stream from the terminal.
    * @param chatMediator The chat group that will be affected by terminal commands.
+   * @param requestProcessor Processes the requests that terminal commands produce.
    */
-  public TerminalInputHandler(InputStream inputStream, ChatMediator chatMediator) {
+  public TerminalInputHandler(
+      InputStream inputStream, ChatMediator chatMediator, ChatRequestProcessor requestProcessor
+  ) {
     this.inputStream = Objects.requireNonNull(inputStream, "Input stream is null");
     this.chatMediator = Objects.requireNonNull(chatMediator, "Chat mediator is null");
+    this.requestProcessor =
+        Objects.requireNonNull(requestProcessor, "Request processor is null");
   }
 
   @Override
@@ -32,8 +39,12 @@ public class TerminalInputHandler implements Runnable {
       // Keep listening for input, line by line
       String input;
       while ((input = inputReader.readLine()) != null && !input.equals("EXIT")) {
+        if (input.equals("STATS")) {
+          System.out.print(ServerMetrics.getInstance().createReport());
+          continue;
+        }
         // Input is not recognised, so continue looping
-        System.err.println("Unknown command: \"" + input + "\". Did you mean EXIT?");
+        System.err.println("Unknown command: \"" + input + "\". Did you mean EXIT or STATS?");
       }
       // End the loop as "EXIT" was entered
     } catch (IOException e) {
@@ -46,7 +57,7 @@ public class TerminalInputHandler implements Runnable {
   private void initiateServerTermination() {
     TerminateRequest terminateRequest = new TerminateRequest();
     try {
-      BlockingChatRequestProcessor.getInstance().process(terminateRequest, chatMediator);
+      requestProcessor.process(terminateRequest, chatMediator);
     } catch (RequestProcessingException e) {
       LOGGER.log(Level.SEVERE, "Failed to terminate server", e);
     }
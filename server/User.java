@@ -9,16 +9,32 @@ public interface User extends Closeable {
    * Notifies the user that an event has occurred.
    * @param notification The notification. This is likely to be transformed into a consistent data
    * structure.
-   * @see RemoteUser#notifyOfEvent(Object)
+   * @see AbstractUser#notifyOfEvent(Object)
    */
   void notifyOfEvent(Object notification);
 
+  /**
+   * Notifies the user of an event that has already been encoded. This allows a single encoding of
+   * a notification to be shared between many users.
+   * @param notification The encoded notification.
+   * @see RemoteUser#notifyOfEncodedEvent(EncodedNotification)
+   */
+  void notifyOfEncodedEvent(EncodedNotification notification);
+
   /**
    * Gets the chat group that the user belongs to.
    * @return The chat group that the user belongs to.
    */
   ChatMediator getChatMediator();
 
+  /**
+   * Sets the chat group that the user belongs to. This is used when the user moves to another
+   * room. Requests from the user are processed by the group that they belong to at the time that
+   * the request is received.
+   * @param chatMediator The chat group that the user belongs to.
+   */
+  void setChatMediator(ChatMediator chatMediator);
+
   /**
    * Gets the user's username. Usernames should be unique for a given chat group.
    * @return The user's username.
@@ -31,6 +47,19 @@ public interface User extends Closeable {
    */
   void setUsername(String username);
 
+  /**
+   * Gets the form that requests and notifications take on the user's connection.
+   * @return The user's wire format.
+   */
+  WireFormat getWireFormat();
+
+  /**
+   * Sets the form that requests and notifications take on the user's connection. This is changed
+   * when the user's client asks for the binary protocol.
+   * @param wireFormat The user's wire format.
+   */
+  void setWireFormat(WireFormat wireFormat);
+
   /**
    * Adds an action that should be taken after the user resources have been closed.
    * @param onCloseFunction The action to take.
@@ -0,0 +1,272 @@
+import java.util.Objects;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Handles the requests received from a single user, regardless of how they were read from the
+ * user's connection. Each line of input, or each frame if the user has switched to the binary
+ * protocol, is parsed into a {@link ChatRequest} and then processed. If the connection to the user
+ * is lost, the user is gracefully disconnected from their group.
+ * <p>By default, the thread that passes input to the handler waits whenever a request can't be
+ * passed on straight away - while the processor is full, or while the user is moving to another
+ * room (see {@link RoomChangeRequest}). That suits users who have a thread of their own. A user
+ * serviced by an {@link NioEventLoop} shares its thread with many others, so it creates a
+ * non-blocking handler instead, which never waits. When it would have to, the handler returns
+ * {@code false} to ask for the user's input to be paused, and then calls the user back once they
+ * can {@link #resume()}.</p>
+ * <p>While Flight Recorder is running, parsing each request is covered by a
+ * {@link RequestParseEvent}.</p>
+ */
+public class UserRequestHandler {
+
+  private static final Logger LOGGER = Logger.getLogger(UserRequestHandler.class.getName());
+
+  private static final EncodedNotification HANDSHAKE_REPLY =
+      EncodedNotification.raw(BinaryWireCodec.getHandshake());
+
+  private final User user;
+  private final ChatRequestProcessor requestProcessor;
+  private final ChatRequestParser requestParser;
+  // Null if the handler can block the thread that passes it input
+  private final Runnable onResumable;
+
+  // The request that the processor turned away while it was full, to be retried on resuming. Only
+  // accessed by the thread that passes input to the handler.
+  private ChatRequest pendingRequest;
+
+  /**
+   * Creates a new request handler that waits when a request can't be passed on straight away.
+   * @param user The user that the handler is associated with. All lines of input passed to this
+   * handler will be assumed to be from this user.
+   * @param requestProcessor Processes the user's requests, one at a time.
+   * @param requestParser Parses each line of input into a request.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public UserRequestHandler(
+      User user, ChatRequestProcessor requestProcessor, ChatRequestParser requestParser
+  ) throws NullPointerException {
+    this(user, requestProcessor, requestParser, null);
+  }
+
+  private UserRequestHandler(
+      User user,
+      ChatRequestProcessor requestProcessor,
+      ChatRequestParser requestParser,
+      Runnable onResumable
+  ) throws NullPointerException {
+    this.user = Objects.requireNonNull(user, "User is null");
+    this.requestProcessor =
+        Objects.requireNonNull(requestProcessor, "Request processor is null");
+    this.requestParser = Objects.requireNonNull(requestParser, "Request parser is null");
+    this.onResumable = onResumable;
+  }
+
+  /**
+   * Creates a new request handler that never waits. When a request can't be passed on straight
+   * away, the handler asks for the user's input to be paused instead.
+   * @param user The user that the handler is associated with. All lines of input passed to this
+   * handler will be assumed to be from this user.
+   * @param requestProcessor Processes the user's requests, one at a time.
+   * @param requestParser Parses each line of input into a request.
+   * @param onResumable Run once, from any thread, each time that the handler has asked for the
+   * input to be paused and it can be resumed. This must not block. It should arrange for
+   * {@link #resume()} to be called on the thread that passes input to the handler.
+   * @return The handler.
+   * @throws NullPointerException Thrown if any of the arguments are {@code null}.
+   */
+  public static UserRequestHandler nonBlocking(
+      User user,
+      ChatRequestProcessor requestProcessor,
+      ChatRequestParser requestParser,
+      Runnable onResumable
+  ) throws NullPointerException {
+    return new UserRequestHandler(
+        user,
+        requestProcessor,
+        requestParser,
+        Objects.requireNonNull(onResumable, "On resumable action is null")
+    );
+  }
+
+  /**
+   * Parses and processes a single, non-blank line of input from the user.
+   * @param text The line of input.
+   * @return {@code false} if the user's input must be paused until the handler can be resumed.
+   */
+  public boolean handleLine(String text) {
+    // When we hit some interesting data, parse it and try to process it
+    return parseRequest(() -> requestParser.fromXml(text, user), text.length())
+        .map(this::processRequest)
+        .orElse(true);
+  }
+
+  /**
+   * Parses and processes a single, non-blank line of UTF-8 encoded input from the user. The line
+   * is parsed before this returns, so the array can be reused afterwards.
+   * @param bytes The array containing the line of input.
+   * @param offset The index of the first byte of the line.
+   * @param length The number of bytes in the line, excluding the line terminator.
+   * @return {@code false} if the user's input must be paused until the handler can be resumed.
+   */
+  public boolean handleLine(byte[] bytes, int offset, int length) {
+    return parseRequest(() -> requestParser.fromXml(bytes, offset, length, user), length)
+        .map(this::processRequest)
+        .orElse(true);
+  }
+
+  /**
+   * Switches the user over to the binary protocol, after their client has sent a valid handshake,
+   * and confirms the switch by sending the handshake back. This must be called before any requests
+   * have been handled.
+   */
+  public void acceptBinaryHandshake() {
+    user.setWireFormat(WireFormat.BINARY);
+    user.notifyOfEncodedEvent(HANDSHAKE_REPLY);
+  }
+
+  /**
+   * Decodes and processes a single binary frame from the user. The frame is decoded before this
+   * returns, so the array can be reused afterwards.
+   * @param bytes The array containing the frame.
+   * @param offset The index of the first byte of the frame, after its length prefix.
+   * @param length The number of bytes in the frame.
+   * @return {@code false} if the user's input must be paused until the handler can be resumed.
+   */
+  public boolean handleFrame(byte[] bytes, int offset, int length) {
+    return parseRequest(() -> BinaryWireCodec.decodeRequest(bytes, offset, length, user), length)
+        .map(this::processRequest)
+        .orElse(true);
+  }
+
+  /**
+   * Carries on where the handler left off when it asked for the user's input to be paused. A
+   * request that the processor turned away is tried again, so the input may need to stay paused.
+   * This must only be called on the thread that passes input to the handler, after the handler's
+   * callback has been run.
+   * @return {@code false} if the user's input must stay paused until the handler can be resumed
+   * again.
+   */
+  public boolean resume() {
+    ChatRequest chatRequest = pendingRequest;
+    if (chatRequest == null) {
+      return true;
+    }
+    pendingRequest = null;
+    return chatRequest instanceof DisconnectRequest
+        ? disconnectUser((DisconnectRequest) chatRequest)
+        : processRequest(chatRequest);
+  }
+
+  // The size is only used to describe the input in Flight Recorder events
+  private Optional<ChatRequest> parseRequest(Parse parse, int size) {
+    RequestParseEvent parseEvent = new RequestParseEvent();
+    parseEvent.begin();
+    try {
+      ChatRequest chatRequest = parse.parse();
+      parseEvent.commitFor(user, chatRequest, size);
+      return Optional.of(chatRequest);
+    } catch (Exception e) {
+      parseEvent.commitFor(user, null, size);
+      LOGGER.log(Level.WARNING, "Failed to parse message", e);
+      ServerMetrics.getInstance().recordParseFailure();
+
+      // Notify the user that their message could not be parsed
+      RequestFailedNotification requestFailedNotification =
+          new RequestFailedNotification("Unknown", "Failed to parse request");
+      user.notifyOfEvent(requestFailedNotification);
+      return Optional.empty();
+    }
+  }
+
+  // Returns false if the user's input must be paused
+  private boolean processRequest(ChatRequest chatRequest) {
+    try {
+      if (onResumable != null) {
+        return submit(chatRequest);
+      }
+      // Ensure that only one request is responded to at a time
+      requestProcessor.process(chatRequest, user.getChatMediator());
+      if (chatRequest instanceof RoomChangeRequest) {
+        // The user's later requests must go to the room that they're moving to
+        ((RoomChangeRequest) chatRequest).awaitProcessing();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      String username = user.getUsername() == null ? "Unknown user" : user.getUsername();
+      LOGGER.log(Level.WARNING, "Failed to process message from " + username, e);
+      String message = e.getMessage() == null ? "Error" : e.getMessage();
+
+      // Let the user know that their request could not be processed
+      RequestFailedNotification requestFailedNotification =
+          new RequestFailedNotification(chatRequest.getClass(), message);
+      user.notifyOfEvent(requestFailedNotification);
+    }
+    return true;
+  }
+
+  // Passes the request on without waiting. Returns false if the user's input must be paused, either
+  // until the processor has room for the request, or until the user has moved to another room.
+  private boolean submit(ChatRequest chatRequest) throws RequestProcessingException {
+    if (!requestProcessor.tryProcess(chatRequest, user.getChatMediator(), onResumable)) {
+      pendingRequest = chatRequest;
+      return false;
+    }
+    if (chatRequest instanceof RoomChangeRequest) {
+      // The user's later requests must go to the room that they're moving to
+      ((RoomChangeRequest) chatRequest).whenProcessed(onResumable);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Handles the loss of the connection to the user.
+   * @param e The exception that caused the connection to be lost.
+   */
+  public void handleConnectionLost(Exception e) {
+    // An exception is most likely thrown when the chat mediator closes and terminates the socket.
+    // In this case, we don't need to take any action as this is the expected behaviour.
+
+    // Check if the mediator is closed
+    if (!user.getChatMediator().isClosed()) {
+      // Mediator is still open - log exception and gracefully disconnect the user from the group.
+      LOGGER.log(
+          Level.WARNING,
+          "There was a problem reading the input stream for user " + user.getUsername()
+              + ". User will be disconnected",
+          e
+      );
+
+      disconnectUser();
+    }
+  }
+
+  private void disconnectUser() {
+    DisconnectRequest disconnectRequest = new DisconnectRequest();
+    disconnectRequest.setAuthor(user);
+    disconnectUser(disconnectRequest);
+  }
+
+  // Returns false if the processor was full, in which case the disconnect is retried on resuming
+  private boolean disconnectUser(DisconnectRequest disconnectRequest) {
+    try {
+      if (onResumable != null) {
+        return submit(disconnectRequest);
+      }
+      requestProcessor.process(disconnectRequest, user.getChatMediator());
+    } catch (RequestProcessingException e) {
+      LOGGER.log(
+          Level.WARNING, "Failed to notify users that " + user.getUsername() + " disconnected", e
+      );
+    }
+    return true;
+  }
+
+  // Parses a request from whichever form the input was read in
+  private interface Parse {
+    ChatRequest parse() throws RequestProcessingException;
+  }
+
+}
@@ -0,0 +1,91 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Creates the threads that service the blocking input loops of connected users.</p>
+ * <p>Platform threads each reserve their own native stack, so a server with thousands of idle
+ * connections also has thousands of mostly-idle stacks. Virtual threads are scheduled by the JVM
+ * onto a small pool of carrier threads instead, and are unmounted from their carrier whenever they
+ * block on socket I/O, so idle users cost little more than a heap-allocated stack chunk.</p>
+ * <p>Virtual threads were finalised in Java 21, whereas the server only requires Java 17, so they
+ * are created reflectively. Requesting them on an older runtime results in an
+ * {@link UnsupportedOperationException}.</p>
+ */
+public class UserThreadFactory implements ThreadFactory {
+
+  private final String namePrefix;
+  private final ThreadFactory delegate;
+
+  // The number that is appended to the thread name. This doesn't need to be unique, so it can
+  // overflow, but it helps to keep keep the thread names distinct for tracking purposes.
+  private final AtomicInteger threadIndex = new AtomicInteger();
+
+  private UserThreadFactory(String namePrefix, ThreadFactory delegate) {
+    this.namePrefix = Objects.requireNonNull(namePrefix, "Name prefix is null");
+    this.delegate = Objects.requireNonNull(delegate, "Delegate is null");
+  }
+
+  /**
+   * Creates a factory that creates a new platform thread for each task.
+   * @param namePrefix The prefix of the name given to each thread.
+   * @return The factory.
+   */
+  public static UserThreadFactory platform(String namePrefix) {
+    return new UserThreadFactory(namePrefix, Thread::new);
+  }
+
+  /**
+   * Creates a factory that creates a new virtual thread for each task.
+   * @param namePrefix The prefix of the name given to each thread.
+   * @return The factory.
+   * @throws UnsupportedOperationException Thrown if the runtime does not support virtual threads.
+   */
+  public static UserThreadFactory virtual(String namePrefix) throws UnsupportedOperationException {
+    return new UserThreadFactory(namePrefix, createVirtualThreadFactory());
+  }
+
+  /**
+   * Creates a factory that is appropriate for the given server mode.
+   * @param mode The mode that the server is running in.
+   * @param namePrefix The prefix of the name given to each thread.
+   * @return The factory.
+   * @throws UnsupportedOperationException Thrown if the mode requires virtual threads and the
+   * runtime does not support them.
+   */
+  public static UserThreadFactory forMode(ServerMode mode, String namePrefix)
+      throws UnsupportedOperationException {
+    return mode == ServerMode.VIRTUAL ? virtual(namePrefix) : platform(namePrefix);
+  }
+
+  // Equivalent to Thread.ofVirtual().factory()
+  private static ThreadFactory createVirtualThreadFactory() throws UnsupportedOperationException {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      Class<?> virtualBuilderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      MethodHandle ofVirtual =
+          lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualBuilderType));
+      MethodHandle factory =
+          lookup.findVirtual(builderType, "factory", MethodType.methodType(ThreadFactory.class));
+      return (ThreadFactory) factory.invoke(ofVirtual.invoke());
+    } catch (Throwable e) {
+      throw new UnsupportedOperationException(
+          "Virtual threads are not supported by this Java runtime ("
+              + System.getProperty("java.version") + "). Java 21 or later is required",
+          e
+      );
+    }
+  }
+
+  @Override
+  public Thread newThread(Runnable task) {
+    Thread thread = delegate.newThread(task);
+    thread.setName(namePrefix + threadIndex.getAndIncrement());
+    return thread;
+  }
+
+}
@@ -0,0 +1,18 @@
+/**
+ * The form that requests and notifications take on a user's connection. Every connection starts
+ * off expecting XML. A client can switch its connection to the binary form by sending a handshake
+ * before anything else - see {@link BinaryWireCodec}.
+ */
+public enum WireFormat {
+
+  /**
+   * Each message is a single line of XML.
+   */
+  XML,
+
+  /**
+   * Each message is a length-prefixed binary frame.
+   */
+  BINARY
+
+}
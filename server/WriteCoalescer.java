@@ -0,0 +1,100 @@
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Holds back notifications to each user for a short window, so that those sent in quick
+ * succession are written to the user's connection together rather than one at a time. During busy
+ * periods a user can be sent a great many small notifications back to back, and writing each one
+ * on its own costs a system call and, usually, a TCP segment. Coalescing them trades a little
+ * latency for far fewer of both.</p>
+ * <p>When a notification is offered to an idle {@link OutboundQueue}, the queue is held rather
+ * than drained straight away, and this schedules its release once the window has passed. Further
+ * notifications queue up behind it. If the notifications waiting in a held queue reach the byte
+ * limit before the window has passed, the queue is released early, so that a burst is never held
+ * up for longer than it takes to fill a write. The window is the longest that coalescing can delay
+ * a notification, and the byte limit caps how much memory it can hold back for each user.</p>
+ * <p>The releases are scheduled on a single daemon thread, which never blocks on a user's
+ * connection. Blocking connections are handed over to the {@link WriterStage} to be written, and
+ * non-blocking connections are written as far as they will go without blocking, as they would have
+ * been by the thread that sent the notification.</p>
+ * <p>Coalescing replaces Nagle's algorithm, which does the same thing in the kernel, but with a
+ * delay that the server can't choose and that interacts badly with delayed acknowledgements. The
+ * server therefore sets {@code TCP_NODELAY} on every connection unless configured otherwise (see
+ * {@link ServerConfiguration#setTcpNoDelay(boolean)}).</p>
+ */
+public class WriteCoalescer implements Closeable {
+
+  private final long windowMicros;
+  private final int maxBytes;
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  /**
+   * Creates a new coalescer.
+   * @param windowMicros The longest time, in microseconds, that a notification is held back for.
+   * @param maxBytes The number of bytes waiting for a user at which they're written straight away.
+   * @throws IllegalArgumentException Thrown if {@code windowMicros < 1} or {@code maxBytes < 1}.
+   */
+  public WriteCoalescer(long windowMicros, int maxBytes) throws IllegalArgumentException {
+    if (windowMicros < 1) {
+      throw new IllegalArgumentException("Window must be at least a microsecond");
+    }
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("Byte limit must be at least 1");
+    }
+    this.windowMicros = windowMicros;
+    this.maxBytes = maxBytes;
+    this.scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+      Thread thread = new Thread(task, "write-coalescing-thread");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Releases that were scheduled before a shut down still run, so nothing is left held back
+    this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(true);
+  }
+
+  /**
+   * Gets the longest time that a notification is held back for.
+   * @return The window, in microseconds.
+   */
+  public long getWindowMicros() {
+    return windowMicros;
+  }
+
+  /**
+   * Gets the number of bytes waiting for a user at which they're written without waiting for the
+   * rest of the window.
+   * @return The byte limit.
+   */
+  public int getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Schedules a held queue to be released once the window has passed. Once the coalescer has been
+   * closed, the queue is released straight away instead.
+   * @param release Releases the queue (see {@link OutboundQueue#release()}) and, if that succeeds,
+   * drains it. This must not block.
+   */
+  public void scheduleRelease(Runnable release) {
+    try {
+      scheduler.schedule(release, windowMicros, TimeUnit.MICROSECONDS);
+    } catch (RejectedExecutionException e) {
+      release.run();
+    }
+  }
+
+  /**
+   * Stops scheduling releases. Releases that have already been scheduled still run.
+   */
+  @Override
+  public void close() {
+    scheduler.shutdown();
+  }
+
+  @Override
+  public boolean isClosed() {
+    return scheduler.isShutdown();
+  }
+
+}
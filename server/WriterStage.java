@@ -0,0 +1,63 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>The stage of the server that writes queued notifications to blocking user sockets. Threads
+ * that process requests only ever add notifications to each recipient's {@link OutboundQueue};
+ * the socket writes themselves happen here, so a user with a full TCP send buffer only stalls the
+ * writer draining their own queue, rather than the request processor and every other user.</p>
+ * <p>Each queue is drained by at most one task at a time. Because a blocked write ties up the
+ * thread running it, the stage grows threads on demand rather than using a fixed pool, so that a
+ * handful of slow users can't starve everybody else of writers. Idle platform threads are retired
+ * after a minute. The threads are daemons, so a write that can never complete won't prevent the
+ * server from shutting down.</p>
+ */
+public class WriterStage implements Executor {
+
+  private final ExecutorService executor;
+
+  private WriterStage(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Creates a writer stage that is appropriate for the given server mode. In
+   * {@link ServerMode#VIRTUAL} mode, drains run on virtual threads. Otherwise, they run on platform
+   * threads.
+   * @param mode The mode that the server is running in.
+   * @return The writer stage.
+   * @throws UnsupportedOperationException Thrown if the mode requires virtual threads and the
+   * runtime does not support them.
+   */
+  public static WriterStage forMode(ServerMode mode) throws UnsupportedOperationException {
+    return new WriterStage(
+        Executors.newCachedThreadPool(
+            daemon(UserThreadFactory.forMode(mode, "notification-writer-thread"))
+        )
+    );
+  }
+
+  private static ThreadFactory daemon(ThreadFactory threadFactory) {
+    return task -> {
+      Thread thread = threadFactory.newThread(task);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Stops the stage from accepting any further work. Drains that are already running are allowed
+   * to finish.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+}
@@ -0,0 +1,438 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Everything that {@link ReflectiveXmlWriter} and {@link ReflectiveXmlReader} need to know
+ * about a class, worked out once and then reused. Looking up fields, checking for
+ * {@link XmlIgnore} and making fields accessible are all comparatively slow, and the answers never
+ * change, so doing them for every object that is read or written is wasted effort.</p>
+ * <p>A codec is built the first time that a class is read or written, and is cached against the
+ * class in a {@link ClassValue}. Each field is accessed through a {@link MethodHandle} that has
+ * been given access to it up front, so reading and writing values doesn't involve any access
+ * checks. As with the reflective reader and writer, only the fields declared directly by the
+ * class are considered.</p>
+ */
+public final class XmlClassCodec {
+
+  private static final ClassValue<XmlClassCodec> CODECS = new ClassValue<>() {
+    @Override
+    protected XmlClassCodec computeValue(Class<?> type) {
+      return new XmlClassCodec(type);
+    }
+  };
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+  private static final MethodType SETTER_TYPE =
+      MethodType.methodType(void.class, Object.class, Object.class);
+
+  private final Class<?> type;
+  private final String elementName;
+  private final byte[] elementNameBytes;
+  private final MethodHandle constructor;
+  private final List<FieldCodec> fields;
+  private final List<FieldCodec> writtenFields;
+  private final Map<String, FieldCodec> fieldsByName;
+
+  private XmlClassCodec(Class<?> type) {
+    this.type = type;
+    this.elementName = type.getSimpleName();
+    this.elementNameBytes = elementName.getBytes(StandardCharsets.UTF_8);
+    this.constructor = findConstructor(type);
+
+    List<FieldCodec> fields = new ArrayList<>();
+    List<FieldCodec> writtenFields = new ArrayList<>();
+    Map<String, FieldCodec> fieldsByName = new HashMap<>();
+    for (Field field : type.getDeclaredFields()) {
+      FieldCodec fieldCodec = new FieldCodec(field);
+      fields.add(fieldCodec);
+      fieldsByName.put(fieldCodec.getName(), fieldCodec);
+      if (!fieldCodec.isIgnored()) {
+        writtenFields.add(fieldCodec);
+      }
+    }
+    this.fields = Collections.unmodifiableList(fields);
+    this.writtenFields = Collections.unmodifiableList(writtenFields);
+    this.fieldsByName = fieldsByName;
+  }
+
+  /**
+   * Gets the codec for the given class, building it if this is the first time that it has been
+   * needed.
+   * @param type The class.
+   * @return The codec for the class.
+   * @throws NullPointerException Thrown if {@code type == null}.
+   */
+  public static XmlClassCodec forClass(Class<?> type) throws NullPointerException {
+    return CODECS.get(Objects.requireNonNull(type, "Type is null"));
+  }
+
+  // Returns null if the class doesn't have a no-args constructor, which only matters if the class
+  // is read from XML
+  private static MethodHandle findConstructor(Class<?> type) {
+    try {
+      Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return MethodHandles.lookup()
+                          .unreflectConstructor(constructor)
+                          .asType(MethodType.methodType(Object.class));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Gets the name of the XML element that instances of the class are written to.
+   * @return The simple name of the class.
+   */
+  public String getElementName() {
+    return elementName;
+  }
+
+  /**
+   * Determines whether the UTF-8 encoded name matches the name of the class' XML element, without
+   * decoding it.
+   * @param bytes The array containing the encoded name.
+   * @param offset The index of the first byte of the name.
+   * @param length The number of bytes in the name.
+   * @return {@code true} if the name matches.
+   */
+  public boolean elementNameMatches(byte[] bytes, int offset, int length) {
+    return Arrays.equals(
+        elementNameBytes, 0, elementNameBytes.length, bytes, offset, offset + length
+    );
+  }
+
+  /**
+   * Gets the fields that are written to XML, in the order that they are declared. Fields marked
+   * with {@link XmlIgnore} are excluded.
+   * @return The fields that are written to XML.
+   */
+  public List<FieldCodec> getWrittenFields() {
+    return writtenFields;
+  }
+
+  /**
+   * Gets a field declared by the class, including those marked with {@link XmlIgnore}.
+   * @param name The name of the field.
+   * @return The field.
+   * @throws NoSuchFieldException Thrown if the class doesn't declare a field with that name.
+   */
+  public FieldCodec getField(String name) throws NoSuchFieldException {
+    FieldCodec fieldCodec = fieldsByName.get(name);
+    if (fieldCodec == null) {
+      throw new NoSuchFieldException(name);
+    }
+    return fieldCodec;
+  }
+
+  /**
+   * Gets a field declared by the class from its UTF-8 encoded name, without decoding the name.
+   * @param bytes The array containing the encoded name.
+   * @param offset The index of the first byte of the name.
+   * @param length The number of bytes in the name.
+   * @return The field, or {@code null} if the class doesn't declare a field with that name.
+   */
+  public FieldCodec findField(byte[] bytes, int offset, int length) {
+    // Classes only have a handful of fields, so this is quicker than hashing the name
+    for (FieldCodec fieldCodec : fields) {
+      if (fieldCodec.nameMatches(bytes, offset, length)) {
+        return fieldCodec;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Creates a new instance of the class using its no-args constructor.
+   * @return The new instance.
+   * @throws ReflectiveOperationException Thrown if the class doesn't have a no-args constructor,
+   * or the constructor fails.
+   */
+  public Object newInstance() throws ReflectiveOperationException {
+    if (constructor == null) {
+      throw new NoSuchMethodException(type.getName() + ".<init>()");
+    }
+    try {
+      return (Object) constructor.invokeExact();
+    } catch (ReflectiveOperationException | RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new ReflectiveOperationException("Failed to create " + type.getName(), t);
+    }
+  }
+
+  /**
+   * The types of field that can be read and written.
+   */
+  public enum ValueType {
+    STRING,
+    BOOLEAN,
+    INTEGER,
+    LIST,
+    SET,
+    UNSUPPORTED
+  }
+
+  /**
+   * Reads and writes the value of a single field.
+   */
+  public static final class FieldCodec {
+
+    private final String name;
+    private final byte[] nameBytes;
+    private final Class<?> fieldType;
+    private final ValueType valueType;
+    private final boolean ignored;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    private final Supplier<Collection<String>> collectionFactory;
+
+    private FieldCodec(Field field) {
+      this.name = field.getName();
+      this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      this.fieldType = field.getType();
+      this.valueType = valueTypeOf(fieldType);
+      this.ignored = field.getAnnotation(XmlIgnore.class) != null;
+      this.collectionFactory = collectionFactoryFor(fieldType, valueType);
+
+      MethodHandle getter = null;
+      MethodHandle setter = null;
+      if (!Modifier.isStatic(field.getModifiers())) {
+        try {
+          field.setAccessible(true);
+          MethodHandles.Lookup lookup = MethodHandles.lookup();
+          getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+          if (!Modifier.isFinal(field.getModifiers())) {
+            setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+          }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+          // Leave the field inaccessible - using it will fail with an IllegalAccessException
+        }
+      }
+      this.getter = getter;
+      this.setter = setter;
+    }
+
+    private static ValueType valueTypeOf(Class<?> fieldType) {
+      if (fieldType == String.class) {
+        return ValueType.STRING;
+      } else if (fieldType == Boolean.TYPE || fieldType == Boolean.class) {
+        return ValueType.BOOLEAN;
+      } else if (fieldType == Integer.TYPE || fieldType == Integer.class) {
+        return ValueType.INTEGER;
+      } else if (fieldType == Collection.class || List.class.isAssignableFrom(fieldType)) {
+        return ValueType.LIST;
+      } else if (Set.class.isAssignableFrom(fieldType)) {
+        return ValueType.SET;
+      }
+      return ValueType.UNSUPPORTED;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Collection<String>> collectionFactoryFor(
+        Class<?> fieldType, ValueType valueType
+    ) {
+      if (valueType != ValueType.LIST && valueType != ValueType.SET) {
+        return null;
+      }
+      // Interfaces get a standard implementation. Otherwise, the class' default constructor is
+      // used, which could break if the implementation is an abstract class.
+      if (fieldType.isInterface()) {
+        return null;
+      }
+      try {
+        MethodHandle constructor = MethodHandles.publicLookup()
+                                                .findConstructor(
+                                                    fieldType,
+                                                    MethodType.methodType(void.class)
+                                                )
+                                                .asType(MethodType.methodType(Collection.class));
+        return () -> {
+          try {
+            return (Collection<String>) constructor.invokeExact();
+          } catch (RuntimeException | Error e) {
+            throw e;
+          } catch (Throwable t) {
+            throw new IllegalStateException("Failed to create collection", t);
+          }
+        };
+      } catch (ReflectiveOperationException e) {
+        return () -> {
+          throw new IllegalArgumentException("Cannot create collections of type " + fieldType);
+        };
+      }
+    }
+
+    /**
+     * Gets the name of the field, which is also the name of its XML element.
+     * @return The name of the field.
+     */
+    public String getName() {
+      return name;
+    }
+
+    private boolean nameMatches(byte[] bytes, int offset, int length) {
+      return Arrays.equals(nameBytes, 0, nameBytes.length, bytes, offset, offset + length);
+    }
+
+    /**
+     * Gets the declared type of the field.
+     * @return The type of the field.
+     */
+    public Class<?> getFieldType() {
+      return fieldType;
+    }
+
+    /**
+     * Gets the kind of value that the field holds.
+     * @return The kind of value, or {@link ValueType#UNSUPPORTED} if the field can't be read or
+     * written.
+     */
+    public ValueType getValueType() {
+      return valueType;
+    }
+
+    /**
+     * Determines whether the field is marked with {@link XmlIgnore}.
+     * @return {@code true} if the field should not be read or written.
+     */
+    public boolean isIgnored() {
+      return ignored;
+    }
+
+    /**
+     * Gets the value of the field.
+     * @param object The object to get the value from.
+     * @return The value of the field.
+     * @throws IllegalAccessException Thrown if the field could not be made accessible.
+     */
+    public Object get(Object object) throws IllegalAccessException {
+      if (getter == null) {
+        throw new IllegalAccessException("Cannot read field " + name);
+      }
+      try {
+        return (Object) getter.invokeExact(object);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new IllegalStateException("Failed to read field " + name, t);
+      }
+    }
+
+    /**
+     * Sets the value of the field.
+     * @param object The object to set the value on.
+     * @param value The new value of the field.
+     * @throws IllegalAccessException Thrown if the field could not be made accessible, or is
+     * final.
+     */
+    public void set(Object object, Object value) throws IllegalAccessException {
+      if (setter == null) {
+        throw new IllegalAccessException("Cannot set field " + name);
+      }
+      try {
+        setter.invokeExact(object, value);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new IllegalStateException("Failed to set field " + name, t);
+      }
+    }
+
+    /**
+     * Sets the value of the field from the text content of its XML element.
+     * @param object The object to set the value on.
+     * @param text The text content of the element, with any entities already decoded.
+     * @throws ReflectiveOperationException Thrown if the field's type isn't supported, or the field
+     * can't be set.
+     * @throws IllegalArgumentException Thrown if the text isn't a valid value for the field.
+     */
+    public void setText(Object object, String text)
+        throws ReflectiveOperationException, IllegalArgumentException {
+      // Because this is a rudimentary parser, we only support certain fields types
+      switch (valueType) {
+        case STRING:
+          set(object, text);
+          break;
+        case BOOLEAN:
+          set(object, Boolean.parseBoolean(text));
+          break;
+        case INTEGER:
+          set(object, Integer.parseInt(text));
+          break;
+        case LIST:
+        case SET:
+          set(object, createCollection(splitCollectionValues(text)));
+          break;
+        default:
+          // The field type isn't supported
+          throw new ReflectiveOperationException(
+              "This class does not support fields of type " + fieldType
+          );
+      }
+    }
+
+    /**
+     * Sets the value of a collection field from values that have already been separated, such as
+     * those read from the binary protocol.
+     * @param object The object to set the value on.
+     * @param values The values to put in the collection.
+     * @throws ReflectiveOperationException Thrown if the field isn't a collection, or can't be set.
+     * @throws IllegalArgumentException Thrown if the field's type of collection can't be created.
+     */
+    public void setValues(Object object, String[] values)
+        throws ReflectiveOperationException, IllegalArgumentException {
+      if (valueType != ValueType.LIST && valueType != ValueType.SET) {
+        throw new ReflectiveOperationException("Field " + name + " is not a collection");
+      }
+      set(object, createCollection(values));
+    }
+
+    /**
+     * Collections are difficult to parse as it's difficult to gain access to their generic type.
+     * So that we can ignore all of these difficulties, collections are expected to be a
+     * comma-separated list of values. This is a brittle solution, but it should be fine for this
+     * implementation provided that we are careful about what goes into the values.
+     */
+    private static String[] splitCollectionValues(String text) {
+      String[] values = text.split(",");
+      for (int i = 0; i < values.length; i++) {
+        values[i] = values[i].trim();
+      }
+      return values;
+    }
+
+    private Collection<String> createCollection(String[] values)
+        throws IllegalArgumentException {
+      if (valueType == ValueType.LIST && collectionFactory == null) {
+        return Arrays.stream(values).collect(Collectors.toList());
+      } else if (valueType == ValueType.SET && collectionFactory == null) {
+        return Arrays.stream(values).collect(Collectors.toSet());
+      } else if (collectionFactory == null) {
+        throw new IllegalArgumentException(
+            "This class does not support collections of type " + fieldType
+        );
+      }
+      Collection<String> collection = collectionFactory.get();
+      collection.addAll(Arrays.asList(values));
+      return collection;
+    }
+  }
+
+}
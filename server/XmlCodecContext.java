@@ -0,0 +1,167 @@
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * <p>The objects needed to write and read XML, kept by each thread for reuse. Creating these for
+ * every message - the factories, which are found with a service lookup, a stream writer or reader
+ * with its internal buffers, and an output buffer - costs far more than writing or reading a
+ * small message. Each thread has a context of its own (see {@link #get()}), so nothing in it needs
+ * to be thread-safe. Everything is created the first time that it's needed, so a thread that only
+ * writes never creates a reader, and vice versa.</p>
+ * <p>A single stream writer writes every document, into a buffer that is emptied before each one.
+ * The writer always encodes as UTF-8, whatever the platform's default charset. If writing a
+ * document fails, the writer may have been left part way through an element, so it is thrown
+ * away. The buffer is thrown away too if a large document made it grow beyond
+ * {@value #MAX_RETAINED_BUFFER_SIZE} bytes, so that one large message doesn't hold on to memory
+ * for the life of the thread.</p>
+ * <p>Stream readers are reused by the context's input factory, which the JDK's StAX implementation
+ * supports through its {@code reuse-instance} property: once a reader has been closed, the next
+ * reader that the factory creates is the same one, reset. Readers must therefore be closed once
+ * they've been read. An implementation without the property creates a new reader each time.</p>
+ */
+public final class XmlCodecContext {
+
+  private static final int INITIAL_BUFFER_SIZE = 512;
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+  private static final String REUSE_INSTANCE_PROPERTY = "reuse-instance";
+
+  private static final ThreadLocal<XmlCodecContext> CONTEXTS =
+      ThreadLocal.withInitial(XmlCodecContext::new);
+
+  private XMLInputFactory inputFactory;
+  private XMLOutputFactory outputFactory;
+  private XMLStreamWriter streamWriter;
+  private Buffer buffer = new Buffer();
+  private boolean writing = false;
+
+  private XmlCodecContext() {}
+
+  /**
+   * Gets the context of the current thread. If the thread is already part way through writing a
+   * document with its context, a new context is returned instead, which isn't kept.
+   * @return The context.
+   */
+  public static XmlCodecContext get() {
+    XmlCodecContext context = CONTEXTS.get();
+    return context.writing ? new XmlCodecContext() : context;
+  }
+
+  /**
+   * Starts writing a new document. It must then be finished with {@link #finishDocument(byte[])}
+   * or {@link #finishDocumentAsString()}, or abandoned with {@link #abandonDocument()}.
+   * @return The stream writer to write the document with.
+   * @throws XMLStreamException Thrown if the stream writer could not be created.
+   */
+  public XMLStreamWriter startDocument() throws XMLStreamException {
+    if (outputFactory == null) {
+      outputFactory = XMLOutputFactory.newFactory();
+    }
+    if (streamWriter == null) {
+      streamWriter = outputFactory.createXMLStreamWriter(buffer, StandardCharsets.UTF_8.name());
+    }
+    buffer.reset();
+    writing = true;
+    return streamWriter;
+  }
+
+  /**
+   * Finishes the document that is being written.
+   * @param suffix Bytes to add to the end of the document, such as a line separator.
+   * @return The document, as UTF-8, followed by the suffix.
+   * @throws XMLStreamException Thrown if the stream writer could not be flushed.
+   */
+  public byte[] finishDocument(byte[] suffix) throws XMLStreamException {
+    streamWriter.flush();
+    byte[] document = buffer.toByteArray(suffix);
+    finish();
+    return document;
+  }
+
+  /**
+   * Finishes the document that is being written.
+   * @return The document.
+   * @throws XMLStreamException Thrown if the stream writer could not be flushed.
+   */
+  public String finishDocumentAsString() throws XMLStreamException {
+    streamWriter.flush();
+    String document = buffer.toString(StandardCharsets.UTF_8);
+    finish();
+    return document;
+  }
+
+  /**
+   * Abandons the document that is being written, after writing it failed.
+   */
+  public void abandonDocument() {
+    streamWriter = null;
+    buffer = new Buffer();
+    writing = false;
+  }
+
+  private void finish() {
+    if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+      // The stream writer is bound to the buffer, so it has to go too
+      streamWriter = null;
+      buffer = new Buffer();
+    }
+    writing = false;
+  }
+
+  /**
+   * Creates a stream reader for a document. The reader must be closed once it has been read.
+   * @param reader The document.
+   * @return The stream reader.
+   * @throws XMLStreamException Thrown if the stream reader could not be created.
+   */
+  public XMLStreamReader createReader(Reader reader) throws XMLStreamException {
+    return getInputFactory().createXMLStreamReader(reader);
+  }
+
+  /**
+   * Creates a stream reader for a document. The reader must be closed once it has been read.
+   * @param inputStream The document.
+   * @return The stream reader.
+   * @throws XMLStreamException Thrown if the stream reader could not be created.
+   */
+  public XMLStreamReader createReader(InputStream inputStream) throws XMLStreamException {
+    return getInputFactory().createXMLStreamReader(inputStream);
+  }
+
+  private XMLInputFactory getInputFactory() {
+    if (inputFactory == null) {
+      inputFactory = XMLInputFactory.newFactory();
+      if (inputFactory.isPropertySupported(REUSE_INSTANCE_PROPERTY)) {
+        inputFactory.setProperty(REUSE_INSTANCE_PROPERTY, Boolean.TRUE);
+      }
+    }
+    return inputFactory;
+  }
+
+  // Gives access to the bytes that have been written, without copying them first
+  private static final class Buffer extends ByteArrayOutputStream {
+
+    private Buffer() {
+      super(INITIAL_BUFFER_SIZE);
+    }
+
+    private int capacity() {
+      return buf.length;
+    }
+
+    private byte[] toByteArray(byte[] suffix) {
+      byte[] bytes = Arrays.copyOf(buf, count + suffix.length);
+      System.arraycopy(suffix, 0, bytes, count, suffix.length);
+      return bytes;
+    }
+
+  }
+
+}
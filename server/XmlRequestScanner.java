@@ -0,0 +1,382 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>A purpose-built scanner for the chat protocol, which reads requests straight from the UTF-8
+ * bytes of a line of input. Every request is a single flat element, whose child elements each hold
+ * the text of one field:
+ * <pre><code>&lt;JoinRoomRequest&gt;&lt;room&gt;dev&lt;/room&gt;&lt;/JoinRoomRequest&gt;</code></pre>
+ * Parsing this with StAX means decoding the line, wrapping it in a stream and building a new
+ * stream reader, all of which allocates far more than the request itself. The scanner instead
+ * walks the bytes once, matching element names against the bytes of the field names, and only
+ * creates strings for the field values.</p>
+ * <p>The scanner only accepts exactly what clients send: a root element without attributes,
+ * containing child elements that hold text and the predefined or numeric character entities. Input
+ * that is anything else - a prolog, comments, CDATA, attributes, nested elements or malformed XML -
+ * isn't rejected. Instead, {@link #scan(byte[], int, int)} returns {@code null}, and the input
+ * should be parsed with StAX, which either handles it or produces the appropriate error. The
+ * scanner therefore never needs to reproduce StAX's error handling, only its results.</p>
+ */
+public final class XmlRequestScanner {
+
+  private final List<XmlClassCodec> codecs = new ArrayList<>();
+
+  /**
+   * Creates a new scanner for the given types of request.
+   * @param types The types of request that can be scanned.
+   * @throws NullPointerException Thrown if {@code types == null}.
+   */
+  public XmlRequestScanner(Collection<Class<? extends ChatRequest>> types)
+      throws NullPointerException {
+    for (Class<? extends ChatRequest> type : Objects.requireNonNull(types, "Types is null")) {
+      codecs.add(XmlClassCodec.forClass(type));
+    }
+  }
+
+  /**
+   * Scans a request from the UTF-8 encoded XML.
+   * @param bytes The array containing the XML.
+   * @param offset The index of the first byte of the XML.
+   * @param length The number of bytes of XML.
+   * @return The request, or {@code null} if the XML can't be handled by the scanner and should be
+   * parsed by a full XML parser instead.
+   */
+  public ChatRequest scan(byte[] bytes, int offset, int length) {
+    int end = offset + length;
+    int position = skipWhitespace(bytes, offset, end);
+    if (position >= end || bytes[position] != '<') {
+      return null;
+    }
+
+    // Find the type of request from the name of the root element
+    int nameStart = position + 1;
+    int nameEnd = scanName(bytes, nameStart, end);
+    if (nameEnd < 0) {
+      return null;
+    }
+    XmlClassCodec codec = findCodec(bytes, nameStart, nameEnd - nameStart);
+    if (codec == null) {
+      return null;
+    }
+
+    Object request;
+    try {
+      request = codec.newInstance();
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+
+    if (bytes[nameEnd] == '/') {
+      // An empty request, such as <ListRoomsRequest/>
+      position = expect(bytes, nameEnd + 1, end, (byte) '>');
+    } else if (bytes[nameEnd] == '>') {
+      position = scanFields(bytes, nameEnd + 1, end, codec, request, nameStart, nameEnd);
+    } else {
+      // Attributes, or some other unexpected content
+      return null;
+    }
+
+    // Nothing but whitespace may follow the root element
+    if (position < 0 || skipWhitespace(bytes, position, end) != end) {
+      return null;
+    }
+    return (ChatRequest) request;
+  }
+
+  private XmlClassCodec findCodec(byte[] bytes, int offset, int length) {
+    for (XmlClassCodec codec : codecs) {
+      if (codec.elementNameMatches(bytes, offset, length)) {
+        return codec;
+      }
+    }
+    return null;
+  }
+
+  // Scans each of the fields in the root element, up to and including its end tag. Returns the
+  // position after the end tag, or -1 if the XML should be parsed by a full XML parser.
+  private static int scanFields(
+      byte[] bytes,
+      int position,
+      int end,
+      XmlClassCodec codec,
+      Object request,
+      int rootNameStart,
+      int rootNameEnd
+  ) {
+    while (true) {
+      position = skipWhitespace(bytes, position, end);
+      if (position + 1 >= end || bytes[position] != '<') {
+        return -1;
+      }
+      if (bytes[position + 1] == '/') {
+        return scanEndTag(bytes, position + 2, end, rootNameStart, rootNameEnd);
+      }
+
+      int nameStart = position + 1;
+      int nameEnd = scanName(bytes, nameStart, end);
+      if (nameEnd < 0) {
+        return -1;
+      }
+      XmlClassCodec.FieldCodec field = codec.findField(bytes, nameStart, nameEnd - nameStart);
+      if (field == null) {
+        // Let the full parser report the unknown field
+        return -1;
+      }
+
+      if (bytes[nameEnd] == '/') {
+        // An empty field, such as <recipients/>, leaves the field unset
+        position = expect(bytes, nameEnd + 1, end, (byte) '>');
+        if (position < 0) {
+          return -1;
+        }
+        continue;
+      } else if (bytes[nameEnd] != '>') {
+        return -1;
+      }
+
+      int textStart = nameEnd + 1;
+      int textEnd = scanText(bytes, textStart, end);
+      if (textEnd < 0 || textEnd + 1 >= end || bytes[textEnd + 1] != '/') {
+        return -1;
+      }
+      position = scanEndTag(bytes, textEnd + 2, end, nameStart, nameEnd);
+      if (position < 0) {
+        return -1;
+      }
+
+      // As with the full parser, an element without any text leaves the field unset
+      if (textEnd > textStart && !field.isIgnored()) {
+        String text = decodeText(bytes, textStart, textEnd);
+        if (text == null) {
+          return -1;
+        }
+        try {
+          field.setText(request, text);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+          // Let the full parser report the invalid value
+          return -1;
+        }
+      }
+    }
+  }
+
+  // Returns the position of the first byte after the name, which must be the end of a tag, or -1 if
+  // there isn't a simple name here
+  private static int scanName(byte[] bytes, int position, int end) {
+    int start = position;
+    while (position < end && isNameByte(bytes[position], position == start)) {
+      position++;
+    }
+    if (position == start || position >= end) {
+      return -1;
+    }
+    return bytes[position] == '>' || bytes[position] == '/' ? position : -1;
+  }
+
+  private static boolean isNameByte(byte b, boolean first) {
+    if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_') {
+      return true;
+    }
+    return !first && ((b >= '0' && b <= '9') || b == '-' || b == '.');
+  }
+
+  // Matches the rest of an end tag (after "</") against the name of its start tag. Returns the
+  // position after the end tag, or -1 if it doesn't match.
+  private static int scanEndTag(byte[] bytes, int position, int end, int nameStart, int nameEnd) {
+    int nameLength = nameEnd - nameStart;
+    if (position + nameLength >= end
+        || !Arrays.equals(
+            bytes, nameStart, nameEnd, bytes, position, position + nameLength
+        )) {
+      return -1;
+    }
+    return expect(bytes, position + nameLength, end, (byte) '>');
+  }
+
+  private static int expect(byte[] bytes, int position, int end, byte expected) {
+    return position < end && bytes[position] == expected ? position + 1 : -1;
+  }
+
+  // Returns the position of the '<' that ends the text, or -1 if the text contains anything that
+  // only a full parser should deal with
+  private static int scanText(byte[] bytes, int position, int end) {
+    for (; position < end; position++) {
+      byte b = bytes[position];
+      if (b == '<') {
+        return position;
+      }
+      if (b >= 0 && b < 0x20 && b != '\t' && b != '\n') {
+        // Control characters aren't allowed, and carriage returns would need normalising
+        return -1;
+      }
+      if (b == '>' && position >= 2 && bytes[position - 1] == ']' && bytes[position - 2] == ']') {
+        // "]]>" isn't allowed in text
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private static int skipWhitespace(byte[] bytes, int position, int end) {
+    while (position < end && isWhitespace(bytes[position])) {
+      position++;
+    }
+    return position;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+
+  // Decodes the text, replacing any entities. Returns null if the text isn't valid.
+  private static String decodeText(byte[] bytes, int start, int end) {
+    int ampersand = indexOf(bytes, start, end, (byte) '&');
+    if (ampersand < 0) {
+      // By far the most common case - there's nothing to replace
+      return decodeUtf8(bytes, start, end);
+    }
+
+    StringBuilder text = new StringBuilder(end - start);
+    int position = start;
+    while (ampersand >= 0) {
+      String segment = decodeUtf8(bytes, position, ampersand);
+      int semicolon = indexOf(bytes, ampersand + 1, end, (byte) ';');
+      int codePoint = semicolon < 0 ? -1 : decodeEntity(bytes, ampersand + 1, semicolon);
+      if (segment == null || codePoint < 0) {
+        return null;
+      }
+      text.append(segment).appendCodePoint(codePoint);
+      position = semicolon + 1;
+      ampersand = indexOf(bytes, position, end, (byte) '&');
+    }
+    String segment = decodeUtf8(bytes, position, end);
+    return segment == null ? null : text.append(segment).toString();
+  }
+
+  private static int indexOf(byte[] bytes, int start, int end, byte target) {
+    for (int i = start; i < end; i++) {
+      if (bytes[i] == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Returns the character that the entity refers to, or -1 if it isn't one that XML predefines or
+  // a valid character reference
+  private static int decodeEntity(byte[] bytes, int start, int end) {
+    int length = end - start;
+    if (length >= 2 && bytes[start] == '#') {
+      return decodeCharacterReference(bytes, start + 1, end);
+    }
+    if (matches(bytes, start, length, "lt")) {
+      return '<';
+    } else if (matches(bytes, start, length, "gt")) {
+      return '>';
+    } else if (matches(bytes, start, length, "amp")) {
+      return '&';
+    } else if (matches(bytes, start, length, "quot")) {
+      return '"';
+    } else if (matches(bytes, start, length, "apos")) {
+      return '\'';
+    }
+    return -1;
+  }
+
+  private static boolean matches(byte[] bytes, int start, int length, String name) {
+    if (length != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (bytes[start + i] != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int decodeCharacterReference(byte[] bytes, int start, int end) {
+    int radix = 10;
+    if (bytes[start] == 'x') {
+      radix = 16;
+      start++;
+    }
+    if (start == end || end - start > 8) {
+      return -1;
+    }
+    int codePoint = 0;
+    for (int i = start; i < end; i++) {
+      int digit = Character.digit(bytes[i], radix);
+      if (digit < 0) {
+        return -1;
+      }
+      codePoint = codePoint * radix + digit;
+    }
+    return isXmlCharacter(codePoint) ? codePoint : -1;
+  }
+
+  private static boolean isXmlCharacter(int codePoint) {
+    return codePoint == 0x9 || codePoint == 0xA || codePoint == 0xD
+        || (codePoint >= 0x20 && codePoint <= 0xD7FF)
+        || (codePoint >= 0xE000 && codePoint <= 0xFFFD)
+        || (codePoint >= 0x10000 && codePoint <= 0x10FFFF);
+  }
+
+  // Returns null if the bytes aren't valid UTF-8, or encode a character that XML doesn't allow
+  private static String decodeUtf8(byte[] bytes, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (bytes[i] < 0) {
+        // Only validate text that isn't plain ASCII
+        return isValidUtf8(bytes, i, end)
+            ? new String(bytes, start, end - start, StandardCharsets.UTF_8)
+            : null;
+      }
+    }
+    return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+  }
+
+  private static boolean isValidUtf8(byte[] bytes, int position, int end) {
+    while (position < end) {
+      int b = bytes[position] & 0xFF;
+      int continuationBytes;
+      int codePoint;
+      if (b < 0x80) {
+        position++;
+        continue;
+      } else if (b >= 0xC2 && b <= 0xDF) {
+        continuationBytes = 1;
+        codePoint = b & 0x1F;
+      } else if (b >= 0xE0 && b <= 0xEF) {
+        continuationBytes = 2;
+        codePoint = b & 0x0F;
+      } else if (b >= 0xF0 && b <= 0xF4) {
+        continuationBytes = 3;
+        codePoint = b & 0x07;
+      } else {
+        return false;
+      }
+      if (position + continuationBytes >= end) {
+        return false;
+      }
+      for (int i = 1; i <= continuationBytes; i++) {
+        int continuation = bytes[position + i] & 0xFF;
+        if ((continuation & 0xC0) != 0x80) {
+          return false;
+        }
+        codePoint = (codePoint << 6) | (continuation & 0x3F);
+      }
+      // Reject overlong encodings, surrogates and characters that XML doesn't allow
+      int minimum = continuationBytes == 1 ? 0x80 : continuationBytes == 2 ? 0x800 : 0x10000;
+      if (codePoint < minimum || !isXmlCharacter(codePoint)) {
+        return false;
+      }
+      position += continuationBytes + 1;
+    }
+    return true;
+  }
+
+}
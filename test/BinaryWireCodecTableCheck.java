@@ -0,0 +1,109 @@
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <h1>Overview</h1>
+ * <p>Checks that the server, the client and the bot agree on the binary form of the chat protocol.
+ * Each of them has its own copy of {@code BinaryWireCodec}, with a table of the types of message
+ * that it can send and receive. A message type that is missing from one of the tables, or that has
+ * a different tag or different fields, fails to decode at the other end, so the three tables must
+ * be identical.</p>
+ * <p>The three applications all use the default package, so their classes can't be loaded
+ * together. Each is loaded by a class loader of its own instead, and its table is read by
+ * reflection.</p>
+ *
+ * <h1>Running the Check</h1>
+ * <p>Compile each application into a directory of its own, and pass the three directories:
+ * <pre><code>javac -d out/server server/*.java
+ * javac -d out/client client/*.java
+ * javac -d out/bot bot/*.java
+ * javac -d out/test test/BinaryWireCodecTableCheck.java
+ * java -cp out/test BinaryWireCodecTableCheck out/server out/client out/bot</code></pre>
+ * Any differences are listed, and the check exits with a status of 1 if there are any.</p>
+ */
+public class BinaryWireCodecTableCheck {
+
+  /**
+   * Runs the check.
+   * @param args The directories that the server, the client and the bot were compiled into, in
+   * that order.
+   * @throws Exception Thrown if the tables could not be read.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: BinaryWireCodecTableCheck <server> <client> <bot>");
+      System.exit(2);
+    }
+
+    List<String> serverTable = readTable(args[0]);
+    List<String> clientTable = readTable(args[1]);
+    List<String> botTable = readTable(args[2]);
+
+    boolean matches = compare("client", clientTable, serverTable)
+        & compare("bot", botTable, serverTable);
+    if (!matches) {
+      System.exit(1);
+    }
+    System.out.println("All " + serverTable.size() + " message types match");
+  }
+
+  // Describes each of the message types in the codec's table as a line of text, such as
+  // "2 ChatEntryRequest message *recipients"
+  private static List<String> readTable(String classDirectory) throws Exception {
+    URL[] classPath = {new File(classDirectory).toURI().toURL()};
+    try (URLClassLoader classLoader = new URLClassLoader(classPath, null)) {
+      Class<?> codec = classLoader.loadClass("BinaryWireCodec");
+      Field messageTypesField = codec.getDeclaredField("MESSAGE_TYPES");
+      messageTypesField.setAccessible(true);
+
+      List<String> table = new ArrayList<>();
+      for (Object messageType : (Object[]) messageTypesField.get(null)) {
+        StringBuilder description = new StringBuilder()
+            .append(read(messageType, "tag"))
+            .append(' ')
+            .append(((Class<?>) read(messageType, "type")).getSimpleName());
+        Object[] fields = (Object[]) read(messageType, "fields");
+        boolean[] collections = (boolean[]) read(messageType, "collections");
+        for (int i = 0; i < fields.length; i++) {
+          description.append(collections[i] ? " *" : " ").append(getFieldName(fields[i]));
+        }
+        table.add(description.toString());
+      }
+      return table;
+    }
+  }
+
+  // The fields of a message type are either fields, or codecs for them that know their names
+  private static String getFieldName(Object field) throws Exception {
+    return field instanceof Field ? ((Field) field).getName() : (String) read(field, "name");
+  }
+
+  private static Object read(Object object, String fieldName) throws Exception {
+    Field field = object.getClass().getDeclaredField(fieldName);
+    field.setAccessible(true);
+    return field.get(object);
+  }
+
+  // Prints the differences between the table and the server's. Returns true if there are none.
+  private static boolean compare(String name, List<String> table, List<String> serverTable) {
+    boolean matches = true;
+    for (int i = 0; i < Math.max(table.size(), serverTable.size()); i++) {
+      String expected = i < serverTable.size() ? serverTable.get(i) : null;
+      String actual = i < table.size() ? table.get(i) : null;
+      if (!Objects.equals(expected, actual)) {
+        System.err.println(
+            "The " + name + " has " + (actual == null ? "nothing" : "\"" + actual + "\"")
+                + " where the server has " + (expected == null ? "nothing" : "\"" + expected + "\"")
+        );
+        matches = false;
+      }
+    }
+    return matches;
+  }
+
+}
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h1>Overview</h1>
+ * <p>Checks that closing a {@link RingBufferChatRequestProcessor} never loses a request, or leaves
+ * a publisher waiting forever, however it races with the threads that are publishing to it. Each
+ * round starts several publishers, which publish requests to a small ring as fast as they can -
+ * half through {@link RingBufferChatRequestProcessor#process(ChatRequest, ChatMediator)}, and half
+ * through {@link RingBufferChatRequestProcessor#tryProcess(ChatRequest, ChatMediator, Runnable)} -
+ * until they're told that the ring has been closed. The ring is closed at a random moment while
+ * they're publishing.</p>
+ * <p>Every request that a publisher was told had been accepted must then have been processed, and
+ * every publisher, and the consumer, must have stopped.</p>
+ *
+ * <h1>Running the Check</h1>
+ * <p>The check is compiled alongside the server sources:
+ * <pre><code>javac -d out server/*.java test/RingBufferCloseRaceCheck.java
+ * java -cp out RingBufferCloseRaceCheck -rounds 2000</code></pre>
+ * The check exits with a status of 1 if any round fails.</p>
+ */
+public class RingBufferCloseRaceCheck {
+
+  private static final int RING_CAPACITY = 4;
+  private static final int PUBLISHER_COUNT = 4;
+  private static final long TIMEOUT_MILLIS = 5_000;
+
+  /**
+   * Runs the check.
+   * @param args The command line arguments. {@code rounds} is the number of times to race the
+   * publishers against closing the ring (default 2000).
+   * @throws Exception Thrown if the check could not be run.
+   */
+  public static void main(String[] args) throws Exception {
+    CommandLineArgumentParser argumentParser = new CommandLineArgumentParser(args);
+    int rounds = argumentParser.getParameter("rounds").map(Integer::parseInt).orElse(2000);
+
+    for (int round = 1; round <= rounds; round++) {
+      String failure = runRound();
+      if (failure != null) {
+        System.err.println("Round " + round + " failed: " + failure);
+        System.exit(1);
+      }
+    }
+    System.out.println("All " + rounds + " rounds passed");
+  }
+
+  // Returns a description of what went wrong, or null if nothing did
+  private static String runRound() throws InterruptedException {
+    RingBufferChatRequestProcessor processor = new RingBufferChatRequestProcessor(
+        RING_CAPACITY, UserThreadFactory.platform("ring-consumer-thread")
+    );
+    AtomicLong accepted = new AtomicLong();
+    AtomicLong processed = new AtomicLong();
+
+    List<Thread> publishers = new ArrayList<>();
+    for (int i = 0; i < PUBLISHER_COUNT; i++) {
+      boolean blocking = i % 2 == 0;
+      Thread publisher = new Thread(() -> publish(processor, blocking, accepted, processed));
+      publisher.setDaemon(true);
+      publishers.add(publisher);
+      publisher.start();
+    }
+
+    // Let the publishers get going, so that the ring is closed while they're claiming slots
+    LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(TimeUnit.MICROSECONDS.toNanos(200)));
+    processor.close();
+
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    for (Thread publisher : publishers) {
+      publisher.join(Math.max(1, deadline - System.currentTimeMillis()));
+      if (publisher.isAlive()) {
+        return "a publisher never stopped";
+      }
+    }
+    if (!processor.awaitTermination(Math.max(1, deadline - System.currentTimeMillis()))) {
+      return "the consumer never stopped";
+    }
+    if (processed.get() != accepted.get()) {
+      return accepted.get() + " requests were accepted, but " + processed.get() + " processed";
+    }
+    return null;
+  }
+
+  // Publishes requests until the processor says that it has been closed
+  private static void publish(
+      RingBufferChatRequestProcessor processor,
+      boolean blocking,
+      AtomicLong accepted,
+      AtomicLong processed
+  ) {
+    try {
+      while (true) {
+        ChatRequest request = new CountingRequest(processed);
+        if (blocking) {
+          processor.process(request, null);
+        } else {
+          // Wait to be called back whenever the ring is full, as the event loop would
+          CountDownLatch ready = new CountDownLatch(1);
+          while (!processor.tryProcess(request, null, ready::countDown)) {
+            if (!ready.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+              // Never called back, so give up and let the round fail
+              return;
+            }
+            ready = new CountDownLatch(1);
+          }
+        }
+        accepted.incrementAndGet();
+      }
+    } catch (RequestProcessingException e) {
+      // The processor has been closed
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Does nothing but count that it has been processed
+  private static final class CountingRequest implements ChatRequest {
+
+    private final AtomicLong processed;
+
+    private CountingRequest(AtomicLong processed) {
+      this.processed = processed;
+    }
+
+    @Override
+    public void setAuthor(User author) {}
+
+    @Override
+    public User getAuthor() {
+      return null;
+    }
+
+    @Override
+    public void process(ChatMediator chatMediator) {
+      processed.incrementAndGet();
+    }
+
+  }
+
+}